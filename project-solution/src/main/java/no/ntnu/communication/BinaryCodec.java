@@ -0,0 +1,106 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import no.ntnu.communication.message.BinaryMessageSerializer;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDictionaries;
+
+/**
+ * A compact binary wire format. Every frame is a length prefix (a variable-length integer,
+ * the number of the following bytes) and the binary body of the message, see
+ * {@link BinaryMessageSerializer}. Nothing has to be searched for or split when receiving:
+ * the length says where the frame ends, the type byte says how to read the fields.
+ */
+public class BinaryCodec implements MessageCodec {
+  public static final String NAME = "binary";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(Message message) {
+    byte[] body = BinaryMessageSerializer.toBytes(message);
+    int prefixLength = BinaryMessageSerializer.getVarIntLength(body.length);
+    byte[] frame = new byte[prefixLength + body.length];
+    BinaryMessageSerializer.writeVarInt(body.length, frame, 0);
+    System.arraycopy(body, 0, frame, prefixLength, body.length);
+    return frame;
+  }
+
+  @Override
+  public FrameDecoder createDecoder(int maxFrameLength, SensorDictionaries dictionaries) {
+    return new Decoder(this, maxFrameLength, dictionaries);
+  }
+
+  /**
+   * Decoder of the length-prefixed frames.
+   */
+  private static class Decoder implements FrameDecoder {
+    private static final int NO_LENGTH = -1;
+    private static final int MAX_PREFIX_LENGTH = 5;
+
+    private final MessageCodec codec;
+    private final int maxFrameLength;
+    private final SensorDictionaries dictionaries;
+    // The length prefix is read byte by byte, it may be split between two chunks
+    private int bodyLength = NO_LENGTH;
+    private int prefixValue = 0;
+    private int prefixLength = 0;
+    private byte[] frame;
+    private int frameLength;
+
+    Decoder(MessageCodec codec, int maxFrameLength, SensorDictionaries dictionaries) {
+      this.codec = codec;
+      this.maxFrameLength = maxFrameLength;
+      this.dictionaries = dictionaries;
+    }
+
+    @Override
+    public Frame decode(ByteBuffer buffer) throws IOException {
+      Frame result = null;
+      while (result == null && buffer.hasRemaining()) {
+        if (bodyLength == NO_LENGTH) {
+          readPrefixByte(buffer.get());
+        } else {
+          int count = Math.min(buffer.remaining(), frame.length - frameLength);
+          buffer.get(frame, frameLength, count);
+          frameLength += count;
+        }
+        if (bodyLength != NO_LENGTH && frameLength == frame.length) {
+          result = takeFrame();
+        }
+      }
+      return result;
+    }
+
+    private void readPrefixByte(byte b) throws IOException {
+      prefixValue |= (b & 0x7F) << (7 * prefixLength);
+      prefixLength++;
+      if ((b & 0x80) == 0) {
+        if (prefixValue <= 0 || prefixValue > maxFrameLength) {
+          throw new IOException("Invalid frame length: " + prefixValue);
+        }
+        bodyLength = prefixValue;
+        frame = new byte[prefixLength + bodyLength];
+        frameLength = BinaryMessageSerializer.writeVarInt(bodyLength, frame, 0);
+      } else if (prefixLength == MAX_PREFIX_LENGTH) {
+        throw new IOException("Invalid frame length prefix");
+      }
+    }
+
+    private Frame takeFrame() {
+      byte[] bytes = frame;
+      int prefix = prefixLength;
+      bodyLength = NO_LENGTH;
+      prefixValue = 0;
+      prefixLength = 0;
+      frame = null;
+      Message message = BinaryMessageSerializer.fromBytes(
+          ByteBuffer.wrap(bytes, prefix, bytes.length - prefix).slice(), dictionaries);
+      return Frame.received(codec, bytes, message);
+    }
+  }
+}
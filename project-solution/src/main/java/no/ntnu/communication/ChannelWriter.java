@@ -0,0 +1,246 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.tools.Logger;
+
+/**
+ * The writing side of an asynchronous socket channel: a bounded queue of messages, written in
+ * order. Queuing a message never blocks - the writes are started by the completion handler of
+ * the previous write, on a thread of the channel group. When a write fails, the channel is
+ * closed, so that the reader notices the lost connection.
+ *
+ * <p>The bytes of a message are copied into a buffer owned by the writer, so the caller can
+ * reuse its own buffer right away. The writer has two buffers: one collects the queued
+ * messages while the other is being written, then they are swapped. The buffers only grow, in
+ * the steady state queuing a message allocates nothing. The messages queued together share one
+ * future, completed when the last of them has been written.
+ *
+ * <p>The messages are coalesced according to the {@link FlushPolicy}: all the messages queued
+ * while the previous write is in progress are written with one write, and when the channel is
+ * idle, a message waits up to one tick for more messages - unless it is urgent or enough bytes
+ * have been collected.
+ */
+class ChannelWriter implements CompletionHandler<Integer, Void> {
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+
+  private final AsynchronousSocketChannel channel;
+  private final int capacity;
+  private final FlushPolicy flushPolicy;
+  private final WriteStats writeStats;
+  // Runs the delayed flushes, null when the messages are never delayed
+  private final Executor delayedFlush;
+  // The bytes of the messages waiting to be written, and where each message ends - guarded
+  // by this
+  private ByteBuffer queued = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private final int[] queuedEnds;
+  private int queuedCount = 0;
+  private CompletableFuture<Boolean> queuedResult;
+  // The bytes being written - guarded by this. The future is null when some of the messages
+  // share it with the queued ones, it is completed after them then.
+  private ByteBuffer inFlight = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  private int inFlightCount = 0;
+  private CompletableFuture<Boolean> inFlightResult;
+  private boolean writing = false;
+  private boolean flushScheduled = false;
+  private boolean closed = false;
+
+  /**
+   * Create a writer.
+   *
+   * @param channel     The connected channel
+   * @param capacity    The largest number of messages waiting to be written
+   * @param flushPolicy When the queued messages are written
+   * @param writeStats  The counters of the writes
+   */
+  ChannelWriter(AsynchronousSocketChannel channel, int capacity, FlushPolicy flushPolicy,
+                WriteStats writeStats) {
+    this.channel = channel;
+    this.capacity = capacity;
+    this.flushPolicy = flushPolicy;
+    this.writeStats = writeStats;
+    this.queuedEnds = new int[capacity];
+    this.delayedFlush = flushPolicy.getMaxDelayMicros() > 0
+        ? CompletableFuture.delayedExecutor(flushPolicy.getMaxDelayMicros(),
+            TimeUnit.MICROSECONDS)
+        : null;
+  }
+
+  /**
+   * Queue a message for writing.
+   *
+   * @param bytes  The bytes of the message, from the position to the limit. They are copied,
+   *               the buffer can be reused when this method returns.
+   * @param urgent True to write the message (and the ones queued before) without waiting for
+   *               more
+   * @return A future completed with true when the message has been written, with false when
+   *     the write has failed or the connection has been closed; null when the message was not
+   *     queued - the queue is full or the writer is closed
+   */
+  synchronized CompletableFuture<Boolean> write(ByteBuffer bytes, boolean urgent) {
+    CompletableFuture<Boolean> result = null;
+    if (hasRoom()) {
+      ensureQueueSpace(bytes.remaining());
+      queued.put(bytes);
+      queuedEnds[queuedCount++] = queued.position();
+      if (queuedResult == null) {
+        queuedResult = new CompletableFuture<>();
+      }
+      result = queuedResult;
+      // While a write is in progress, the message is written when it completes
+      if (!writing) {
+        if (urgent || delayedFlush == null || queued.position() >= flushPolicy.getMaxBytes()) {
+          startWrite();
+        } else if (!flushScheduled) {
+          flushScheduled = true;
+          delayedFlush.execute(this::flushDelayed);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Grow the queue buffer when the next message does not fit in it.
+   */
+  private void ensureQueueSpace(int length) {
+    if (queued.remaining() < length) {
+      ByteBuffer larger = ByteBuffer.allocate(
+          Math.max(queued.capacity() * 2, queued.position() + length));
+      queued.flip();
+      queued = larger.put(queued);
+    }
+  }
+
+  private synchronized void flushDelayed() {
+    flushScheduled = false;
+    if (!writing && queuedCount > 0 && !closed) {
+      startWrite();
+    }
+  }
+
+  /**
+   * Start writing the queued messages, up to the byte threshold of the flush policy (at least
+   * one message). The queue buffer becomes the buffer being written, the messages left out are
+   * moved to the other buffer, which collects the next messages.
+   */
+  private void startWrite() {
+    int count = 0;
+    do {
+      ++count;
+    } while (count < queuedCount && queuedEnds[count - 1] < flushPolicy.getMaxBytes());
+    int end = queuedEnds[count - 1];
+    ByteBuffer written = inFlight;
+    inFlight = queued;
+    queued = written.clear();
+    int rest = inFlight.position() - end;
+    ensureQueueSpace(rest);
+    queued.put(inFlight.array(), end, rest);
+    inFlight.flip().limit(end);
+    for (int i = count; i < queuedCount; ++i) {
+      queuedEnds[i - count] = queuedEnds[i] - end;
+    }
+    queuedCount -= count;
+    inFlightCount = count;
+    inFlightResult = null;
+    if (queuedCount == 0) {
+      inFlightResult = queuedResult;
+      queuedResult = null;
+    }
+    writing = true;
+    writeStats.addFrames(count);
+    continueWrite();
+  }
+
+  private void continueWrite() {
+    try {
+      channel.write(inFlight, null, this);
+    } catch (RuntimeException e) {
+      // The channel has been closed
+      failed(e, null);
+    }
+  }
+
+  @Override
+  public void completed(Integer bytesWritten, Void attachment) {
+    CompletableFuture<Boolean> written = null;
+    synchronized (this) {
+      // After close(), the futures have been completed already
+      if (!closed) {
+        writeStats.addWrite(bytesWritten);
+        if (inFlight.hasRemaining()) {
+          continueWrite();
+        } else {
+          written = inFlightResult;
+          inFlightResult = null;
+          inFlightCount = 0;
+          writing = false;
+          // The messages queued meanwhile have waited for this write already
+          if (queuedCount > 0) {
+            startWrite();
+          }
+        }
+      }
+    }
+    if (written != null) {
+      written.complete(true);
+    }
+  }
+
+  @Override
+  public void failed(Throwable e, Void attachment) {
+    boolean wasOpen;
+    synchronized (this) {
+      wasOpen = !closed;
+    }
+    if (wasOpen) {
+      Logger.error("Failed to send a message to the server: " + e.getMessage());
+    }
+    close();
+  }
+
+  /**
+   * Close the channel. The messages not written yet are dropped, their futures are completed
+   * with false.
+   */
+  void close() {
+    CompletableFuture<Boolean> droppedInFlight;
+    CompletableFuture<Boolean> droppedQueued;
+    synchronized (this) {
+      closed = true;
+      droppedInFlight = inFlightResult;
+      droppedQueued = queuedResult;
+      inFlightResult = null;
+      queuedResult = null;
+      inFlightCount = 0;
+      queuedCount = 0;
+      queued.clear();
+    }
+    if (droppedInFlight != null) {
+      droppedInFlight.complete(false);
+    }
+    if (droppedQueued != null) {
+      droppedQueued.complete(false);
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Logger.error("Could not close the channel: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Check whether there is room for one more message. The queue only gets shorter until the
+   * next write() call.
+   *
+   * @return True when the next message would be queued, false when it would be rejected
+   */
+  synchronized boolean hasRoom() {
+    return !closed && queuedCount + inFlightCount < capacity;
+  }
+}
@@ -0,0 +1,72 @@
+package no.ntnu.communication;
+
+/**
+ * One connection from a TCP client, as seen by the server. The server uses this to send
+ * messages back to the client, regardless of how the connection is served (a dedicated thread
+ * or a shared event loop). Sending never blocks the caller - the messages are placed in a
+ * bounded outbound queue, which is drained by the writer of the connection.
+ */
+public interface ClientConnection {
+  /**
+   * Send a message to the client. When the outbound queue is full, the overflow policy of
+   * the queue decides what happens (possibly, the client is disconnected).
+   *
+   * @param message The message to send. Newline will be appended automatically.
+   */
+  default void sendToClient(String message) {
+    sendToClient(Frame.of(message));
+  }
+
+  /**
+   * Send a message frame to the client. The same frame can be sent to many clients, it is
+   * never modified or copied. It is encoded with the codec of the connection when written.
+   *
+   * @param frame The message to send
+   */
+  void sendToClient(Frame frame);
+
+  /**
+   * Send sensor data which was received as a delta. The client gets the delta only when it
+   * has got every earlier frame of the node, the delta can't be applied otherwise - it gets the
+   * full readings instead, and the following deltas again once it is back in sync. A
+   * connection without such tracking always sends the full readings.
+   *
+   * @param deltaFrame The frame with the sensor delta
+   * @param fullFrame  The frame with all the readings of the node, the delta applied
+   */
+  default void sendSensorDeltaToClient(Frame deltaFrame, Frame fullFrame) {
+    sendToClient(fullFrame);
+  }
+
+  /**
+   * Switch the connection to another codec. The frames written after this call are encoded
+   * with the new codec, the bytes received after the current frame are decoded with it.
+   * Must be called by the session, while it handles a received frame.
+   *
+   * @param codec The new codec
+   */
+  void setCodec(MessageCodec codec);
+
+  /**
+   * Compress the byte stream of the connection in both directions. The frames written after
+   * this call, except the control frames, are compressed; the bytes received after the current
+   * frame are decompressed. Must be called by the session, while it handles a received frame.
+   *
+   * @param compression The compression of this connection
+   */
+  void setCompression(StreamCompression compression);
+
+  /**
+   * Get the address of the client, for logging and statistics.
+   *
+   * @return The remote address of the client socket
+   */
+  String getRemoteAddress();
+
+  /**
+   * Get the queue of messages waiting to be sent to the client.
+   *
+   * @return The outbound queue of this connection
+   */
+  OutboundQueue getOutboundQueue();
+}
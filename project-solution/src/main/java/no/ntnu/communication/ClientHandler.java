@@ -1,43 +1,61 @@
 package no.ntnu.communication;
 
-import static no.ntnu.communication.ClientType.CONTROL_PANEL_NODE;
-import static no.ntnu.communication.ClientType.SENSOR_ACTUATOR_NODE;
-import static no.ntnu.communication.message.ErrorType.UNKNOWN;
-
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
-import no.ntnu.communication.message.ActuatorStateMessage;
-import no.ntnu.communication.message.ControlNodeTypeMessage;
-import no.ntnu.communication.message.ErrorMessage;
-import no.ntnu.communication.message.Message;
-import no.ntnu.communication.message.MessageSerializer;
-import no.ntnu.communication.message.SensorDataMessage;
-import no.ntnu.communication.message.SensorNodeTypeMessage;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 import no.ntnu.tools.Logger;
 
 /**
- * Handle one TCP client connection.
+ * Handle one TCP client connection with blocking socket operations. The handler is a task which
+ * occupies one thread (a platform or a virtual thread, depending on the executor of the server)
+ * for the whole lifetime of the connection. The outgoing messages are written by a separate
+ * writer task, so that a slow client never blocks the threads sending messages to it. The
+ * writer coalesces the frames queued close to each other in time into one write, according to
+ * the {@link FlushPolicy} of the server.
  */
-public class ClientHandler extends Thread {
+public class ClientHandler implements Runnable, ClientConnection {
+  private static final int READ_BUFFER_SIZE = 8192;
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+
   private final Socket clientSocket;
-  private PrintWriter socketWriter;
-  private BufferedReader socketReader;
-  private ClientType clientType;
-  private final TcpServer server;
-  private int nodeId;
+  private final String remoteAddress;
+  private OutputStream socketOutput;
+  private InputStream socketInput;
+  private FrameDecoder decoder;
+  private volatile MessageCodec outputCodec = MessageCodecs.TEXT;
+  private volatile StreamCompression compression;
+  // The decompressed bytes, used only when the connection is compressed
+  private byte[] plainBytes;
+  private final ClientSession session;
+  private final OutboundQueue outboundQueue;
+  private final Executor writerExecutor;
+  private final FlushPolicy flushPolicy;
+  private final WriteStats writeStats;
+  // The frames collected by the writer, written to the socket at once
+  private final ByteArrayOutputStream pendingBytes = new ByteArrayOutputStream();
 
   /**
    * Create a new client handler.
    *
-   * @param clientSocket The TCP socket associated with this client
+   * @param clientSocket   The TCP socket associated with this client
+   * @param server         The server which handles the events of this client
+   * @param writerExecutor The executor on which the writer task of this connection is run
    */
-  public ClientHandler(Socket clientSocket, TcpServer server) {
+  public ClientHandler(Socket clientSocket, TcpServer server, Executor writerExecutor) {
     this.clientSocket = clientSocket;
-    this.server = server;
-    Logger.info("Client connected from " + clientSocket.getRemoteSocketAddress()
+    this.remoteAddress = String.valueOf(clientSocket.getRemoteSocketAddress());
+    this.session = new ClientSession(server, this);
+    this.decoder = MessageCodecs.TEXT.createDecoder(MAX_FRAME_LENGTH,
+        session.getSensorDictionaries());
+    this.outboundQueue = server.createOutboundQueue();
+    this.writerExecutor = writerExecutor;
+    this.flushPolicy = server.getFlushPolicy();
+    this.writeStats = server.getWriteStats();
+    Logger.info("Client connected from " + remoteAddress
         + ", port " + clientSocket.getPort());
   }
 
@@ -47,16 +65,18 @@ public class ClientHandler extends Thread {
   @Override
   public void run() {
     if (establishStreams()) {
-      receiveClientTypeMessage();
-      handleClientRequests();
-      closeSocket();
-      if (clientType == SENSOR_ACTUATOR_NODE) {
-        server.onSensorNodeShutdown(nodeId);
+      writerExecutor.execute(this::sendQueuedMessages);
+      try {
+        handleClientRequests();
+      } finally {
+        // Also when the handling fails unexpectedly: the writer task must not wait forever
+        outboundQueue.close();
+        closeSocket();
+        session.onConnectionClosed();
       }
     }
 
-    Logger.info("Exiting the handler of client "
-        + clientSocket.getRemoteSocketAddress());
+    Logger.info("Exiting the handler of client " + remoteAddress);
   }
 
 
@@ -68,8 +88,10 @@ public class ClientHandler extends Thread {
   private boolean establishStreams() {
     boolean success = false;
     try {
-      socketWriter = new PrintWriter(clientSocket.getOutputStream(), true);
-      socketReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+      // The writer coalesces the frames itself, the urgent ones must not be delayed
+      clientSocket.setTcpNoDelay(true);
+      socketOutput = clientSocket.getOutputStream();
+      socketInput = clientSocket.getInputStream();
       success = true;
     } catch (IOException e) {
       Logger.error("Error while processing the client: " + e.getMessage());
@@ -77,95 +99,158 @@ public class ClientHandler extends Thread {
     return success;
   }
 
-  private void receiveClientTypeMessage() {
-    Message message = MessageSerializer.fromString(receiveClientMessage());
-    if (message instanceof SensorNodeTypeMessage sntm) {
-      clientType = SENSOR_ACTUATOR_NODE;
-      nodeId = sntm.getNodeId();
-      server.onSensorNodeConnected(sntm, this);
-    } else if (message instanceof ControlNodeTypeMessage) {
-      clientType = CONTROL_PANEL_NODE;
-      server.onControlPanelNodeConnected(this);
-    } else {
-      throw new IllegalStateException("Client must send a node-type message first, got " + message);
+  private void handleClientRequests() {
+    ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    try {
+      int bytesRead = socketInput.read(buffer.array());
+      while (bytesRead >= 0) {
+        buffer.position(0).limit(bytesRead);
+        handleReceivedBytes(buffer);
+        bytesRead = socketInput.read(buffer.array());
+      }
+    } catch (IOException e) {
+      Logger.error("Error while receiving data from the client: " + e.getMessage());
+    } catch (RuntimeException e) {
+      // A protocol violation, such as a first message which is not a node type message, or a
+      // failure while handling a message. The connection is closed when the handler exits.
+      Logger.error("Closing client " + remoteAddress + ": " + e);
     }
   }
 
-  private void handleClientRequests() {
-    String rawMessage;
-    do {
-      rawMessage = receiveClientMessage();
-      Message message = MessageSerializer.fromString(rawMessage);
-      if (message != null) {
-        handleMessage(rawMessage, message);
+  private void handleReceivedBytes(ByteBuffer buffer) throws IOException {
+    // The session may switch the codec or the compression, check them for every frame
+    Frame frame = compression == null ? decoder.decode(buffer) : null;
+    while (frame != null) {
+      session.onFrameReceived(frame);
+      frame = compression == null ? decoder.decode(buffer) : null;
+    }
+    if (compression != null && buffer.hasRemaining()) {
+      compression.setInput(buffer);
+      int length = compression.decompress(plainBytes);
+      while (length > 0) {
+        ByteBuffer plain = ByteBuffer.wrap(plainBytes, 0, length);
+        frame = decoder.decode(plain);
+        while (frame != null) {
+          session.onFrameReceived(frame);
+          frame = decoder.decode(plain);
+        }
+        length = compression.decompress(plainBytes);
       }
-    } while (rawMessage != null);
+    }
+  }
+
+  @Override
+  public void setCodec(MessageCodec codec) {
+    outputCodec = codec;
+    decoder = codec.createDecoder(MAX_FRAME_LENGTH, session.getSensorDictionaries());
+  }
+
+  @Override
+  public void setCompression(StreamCompression compression) {
+    plainBytes = new byte[READ_BUFFER_SIZE];
+    this.compression = compression;
   }
 
   /**
-   * Receive one message from the client (over the TCP socket).
+   * Send a message to the client, over the socket. The message is queued and sent by the
+   * writer of this connection.
    *
-   * @return The client message, null on error
+   * @param frame The message to send
    */
-  private String receiveClientMessage() {
-    String message = null;
-    try {
-      message = socketReader.readLine();
-    } catch (IOException e) {
-      Logger.error("Error while receiving data from the client: " + e.getMessage());
+  @Override
+  public void sendToClient(Frame frame) {
+    onOffered(outboundQueue.offer(frame));
+  }
+
+  @Override
+  public void sendSensorDeltaToClient(Frame deltaFrame, Frame fullFrame) {
+    onOffered(outboundQueue.offerSensorDelta(deltaFrame, fullFrame));
+  }
+
+  private void onOffered(boolean accepted) {
+    if (!accepted) {
+      Logger.error("Client " + remoteAddress + " can't keep up, disconnecting: " + outboundQueue);
+      outboundQueue.close();
+      closeSocket();
     }
-    return message;
   }
 
   /**
-   * Handle one massage from the client.
-   *
-   * @param rawMessage The raw message string received from the socket
-   * @param message    A message received from the client parsed version of the string)
+   * The writer loop: send all the queued messages until the connection is closed.
    */
-  private void handleMessage(String rawMessage, Message message) {
-    Logger.info("Message from the client: " + message);
-
-    if (message instanceof SensorDataMessage) {
-      server.onSensorData(rawMessage);
-    } else if (message instanceof ActuatorStateMessage actuatorMessage) {
-      if (clientType == SENSOR_ACTUATOR_NODE) {
-        if (actuatorMessage.isSpecific()) {
-          server.onActuatorState(rawMessage);
-        } else {
-          Logger.error("Actuator state messages from the sensor/actuator nodes must be specific!");
-        }
-      } else {
-        server.forwardActuatorCommandToSensors(actuatorMessage);
+  private void sendQueuedMessages() {
+    try {
+      Frame frame = outboundQueue.take();
+      while (frame != null) {
+        writeCoalesced(frame);
+        frame = outboundQueue.take();
       }
-    } else if (message instanceof ErrorMessage) {
-      Logger.error("Message parsing error: " + message);
-      sendToClient(MessageSerializer.toString(message));
-    } else {
-      ErrorMessage errorMessage = new ErrorMessage(UNKNOWN, "Unknown message received");
-      sendToClient(MessageSerializer.toString(errorMessage));
+    } catch (IOException e) {
+      Logger.error("Error while sending a message to the client " + remoteAddress + ": "
+          + e.getMessage());
+      outboundQueue.close();
+      closeSocket();
+    } catch (InterruptedException e) {
+      Logger.error("Writer of client " + remoteAddress + " interrupted");
+      Thread.currentThread().interrupt();
+      closeSocket();
     }
   }
 
   /**
-   * Send a message to the client, over the socket.
+   * Write a frame together with the frames queued after it, within the flush delay, with one
+   * system call.
    *
-   * @param message The message to send. Newline will be appended automatically.
+   * @param first The first frame to write
    */
-  public void sendToClient(String message) {
-    try {
-      socketWriter.println(message);
-    } catch (Exception e) {
-      Logger.error("Error while sending a message to the client: " + e.getMessage());
+  private void writeCoalesced(Frame first) throws IOException, InterruptedException {
+    long deadline = System.nanoTime() + flushPolicy.getMaxDelayNanos();
+    int frameCount = 0;
+    Frame frame = first;
+    while (frame != null) {
+      appendFrame(frame);
+      frameCount++;
+      frame = flushPolicy.mustFlush(frame.getTypeId(), pendingBytes.size()) ? null
+          : outboundQueue.poll(deadline - System.nanoTime());
     }
+    pendingBytes.writeTo(socketOutput);
+    writeStats.addFrames(frameCount);
+    writeStats.addWrite(pendingBytes.size());
+    pendingBytes.reset();
   }
 
-  private void closeSocket() {
+  private void appendFrame(Frame frame) throws IOException {
+    StreamCompression c = compression;
+    if (c != null && !frame.isControl()) {
+      ByteBuffer compressed = c.compress(frame.getBytes(outputCodec));
+      pendingBytes.write(compressed.array(), 0, compressed.limit());
+    } else {
+      frame.writeTo(pendingBytes, outputCodec);
+    }
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  @Override
+  public OutboundQueue getOutboundQueue() {
+    return outboundQueue;
+  }
+
+  /**
+   * Close the connection. The handler finishes as when the client disconnects.
+   */
+  void closeSocket() {
+    if (compression != null) {
+      compression.close();
+    }
     try {
       clientSocket.close();
     } catch (IOException e) {
       Logger.error("Error while closing socket for client "
-          + clientSocket.getRemoteSocketAddress() + ", reason: " + e.getMessage());
+          + remoteAddress + ", reason: " + e.getMessage());
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package no.ntnu.communication;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The registry of the clients currently connected to the server. Safe to use from many threads
+ * at the same time, without locking: control panels are kept in a copy-on-write list (connecting
+ * and disconnecting is rare, broadcasting is frequent - every broadcast iterates over a stable
+ * snapshot), sensor/actuator nodes are kept in a concurrent map for lookup by node ID.
+ */
+public class ClientRegistry {
+  private final List<ClientConnection> controlPanels = new CopyOnWriteArrayList<>();
+  private final Map<Integer, SensorNodeEntry> sensorNodes = new ConcurrentHashMap<>();
+
+  /**
+   * A registered sensor/actuator node: its connection and its serialized node-type message.
+   */
+  private static class SensorNodeEntry {
+    private final ClientConnection connection;
+    private final Frame nodeTypeMessage;
+
+    SensorNodeEntry(ClientConnection connection, Frame nodeTypeMessage) {
+      this.connection = connection;
+      this.nodeTypeMessage = nodeTypeMessage;
+    }
+  }
+
+  /**
+   * Register a control panel.
+   *
+   * @param connection The connection of the control panel
+   */
+  public void addControlPanel(ClientConnection connection) {
+    controlPanels.add(connection);
+  }
+
+  /**
+   * Remove a control panel from the registry.
+   *
+   * @param connection The connection of the control panel
+   * @return True if the control panel was registered, false otherwise
+   */
+  public boolean removeControlPanel(ClientConnection connection) {
+    return controlPanels.remove(connection);
+  }
+
+  /**
+   * Get all the registered control panels. The returned list is a snapshot - iterating over it
+   * is safe, even when control panels are added or removed during the iteration.
+   *
+   * @return The control panel connections, read-only
+   */
+  public List<ClientConnection> getControlPanels() {
+    return Collections.unmodifiableList(controlPanels);
+  }
+
+  /**
+   * Register a sensor/actuator node. If another connection is registered with the same
+   * node ID, it is replaced.
+   *
+   * @param nodeId          ID of the node
+   * @param connection      The connection of the node
+   * @param nodeTypeMessage The node-type message of the node, ready for sending to control panels
+   */
+  public void registerSensorNode(int nodeId, ClientConnection connection, Frame nodeTypeMessage) {
+    sensorNodes.put(nodeId, new SensorNodeEntry(connection, nodeTypeMessage));
+  }
+
+  /**
+   * Remove a sensor/actuator node from the registry, but only if it is still registered with
+   * the given connection. A node which has already reconnected over a new connection is kept.
+   *
+   * @param nodeId     ID of the node
+   * @param connection The connection which has been closed
+   * @return True if the node was removed, false otherwise
+   */
+  public boolean deregisterSensorNode(int nodeId, ClientConnection connection) {
+    SensorNodeEntry entry = sensorNodes.get(nodeId);
+    return entry != null && entry.connection == connection && sensorNodes.remove(nodeId, entry);
+  }
+
+  /**
+   * Find the connection of a sensor/actuator node.
+   *
+   * @param nodeId ID of the node
+   * @return The connection of the node, or null if no such node is registered
+   */
+  public ClientConnection getSensorNode(int nodeId) {
+    SensorNodeEntry entry = sensorNodes.get(nodeId);
+    return entry != null ? entry.connection : null;
+  }
+
+  /**
+   * Get the connections of all the registered sensor/actuator nodes. A connection which carries
+   * many nodes (a gateway) is listed once.
+   *
+   * @return A snapshot of the sensor/actuator node connections
+   */
+  public Collection<ClientConnection> getSensorNodes() {
+    Set<ClientConnection> connections = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (SensorNodeEntry entry : sensorNodes.values()) {
+      connections.add(entry.connection);
+    }
+    return connections;
+  }
+
+  /**
+   * Get the node-type messages of all the registered sensor/actuator nodes.
+   *
+   * @return A snapshot of the node-type messages, the key is node ID
+   */
+  public Map<Integer, Frame> getSensorNodeTypeMessages() {
+    Map<Integer, Frame> messages = new HashMap<>();
+    for (Map.Entry<Integer, SensorNodeEntry> entry : sensorNodes.entrySet()) {
+      messages.put(entry.getKey(), entry.getValue().nodeTypeMessage);
+    }
+    return messages;
+  }
+
+  /**
+   * Get the number of registered sensor/actuator nodes.
+   *
+   * @return The number of sensor/actuator nodes
+   */
+  public int getSensorNodeCount() {
+    return sensorNodes.size();
+  }
+}
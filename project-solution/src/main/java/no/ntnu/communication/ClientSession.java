@@ -0,0 +1,303 @@
+package no.ntnu.communication;
+
+import static no.ntnu.communication.ClientType.CONTROL_PANEL_NODE;
+import static no.ntnu.communication.ClientType.SENSOR_ACTUATOR_NODE;
+import static no.ntnu.communication.message.ErrorType.INVALID;
+import static no.ntnu.communication.message.ErrorType.UNKNOWN;
+
+import java.util.HashSet;
+import java.util.Set;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.ControlNodeTypeMessage;
+import no.ntnu.communication.message.ErrorMessage;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
+import no.ntnu.communication.message.SensorDictionaries;
+import no.ntnu.communication.message.SensorNodeOfflineMessage;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.communication.message.SubscribeMessage;
+import no.ntnu.communication.message.TextMessageParser;
+import no.ntnu.tools.Logger;
+
+/**
+ * The protocol logic for one client connection on the server side. The session does not know
+ * how the bytes are transported - it receives complete messages and replies through the
+ * associated client connection. The first message must be a node-type message, all the
+ * following messages are handled according to the type of the client: each client type has its
+ * own table of handlers, indexed by the message type.
+ *
+ * <p>Sensor data, the most frequent message, is relayed without creating a message object:
+ * a text frame is only validated, with a parser which is reused for all the frames of the
+ * session.
+ *
+ * <p>A sensor/actuator connection may carry many nodes (a gateway): after the handshake, each
+ * further node is announced with its own node-type message, and can be taken offline alone
+ * with a sensor-offline message. When the connection is closed, all its nodes go offline.
+ */
+public class ClientSession {
+  private final TcpServer server;
+  private final ClientConnection connection;
+  // The sensor codes declared by the nodes of this connection
+  private final SensorDictionaries dictionaries = new SensorDictionaries();
+  private final TextMessageParser parser = new TextMessageParser(dictionaries);
+  private ClientType clientType;
+  // The sensor/actuator nodes announced over this connection
+  private final Set<Integer> nodeIds = new HashSet<>();
+  private MessageDispatcher<Frame> dispatcher;
+
+  /**
+   * Create a session for a newly connected client.
+   *
+   * @param server     The server which handles the events of this client
+   * @param connection The connection used to reply to the client
+   */
+  public ClientSession(TcpServer server, ClientConnection connection) {
+    this.server = server;
+    this.connection = connection;
+  }
+
+  /**
+   * Get the sensor dictionaries declared by the nodes of this connection. The decoders of the
+   * connection need them for parsing the coded sensor readings.
+   *
+   * @return The dictionaries of this connection
+   */
+  SensorDictionaries getSensorDictionaries() {
+    return dictionaries;
+  }
+
+  /**
+   * Handle one frame received from the client.
+   *
+   * @param frame The frame, as received over the socket
+   * @throws IllegalStateException When the first message is not a node-type message
+   */
+  public void onFrameReceived(Frame frame) {
+    if (clientType == null) {
+      receiveClientTypeMessage(frame.getText());
+    } else {
+      Logger.info("Message from the client: " + frame);
+      dispatcher.dispatch(frame.getTypeId(), frame);
+    }
+  }
+
+  /**
+   * Call this when the connection to the client is closed.
+   */
+  public void onConnectionClosed() {
+    if (clientType == SENSOR_ACTUATOR_NODE) {
+      for (int nodeId : nodeIds) {
+        server.onSensorNodeShutdown(nodeId, connection);
+      }
+      nodeIds.clear();
+    } else if (clientType == CONTROL_PANEL_NODE) {
+      server.onControlPanelNodeDisconnected(connection);
+    }
+  }
+
+  /**
+   * Handle the handshake: the node-type message, always sent as text, possibly with options.
+   *
+   * @param handshake The handshake line
+   */
+  private void receiveClientTypeMessage(String handshake) {
+    HandshakeOptions options = HandshakeOptions.fromHandshake(handshake);
+    Message message = MessageSerializer.fromString(
+        HandshakeOptions.stripOptions(handshake), dictionaries);
+    if (message instanceof SensorNodeTypeMessage sntm) {
+      clientType = SENSOR_ACTUATOR_NODE;
+      nodeIds.add(sntm.getNodeId());
+      dispatcher = createSensorNodeDispatcher();
+      negotiate(options);
+      server.onSensorNodeConnected(sntm, connection);
+    } else if (message instanceof ControlNodeTypeMessage) {
+      clientType = CONTROL_PANEL_NODE;
+      dispatcher = createControlPanelDispatcher();
+      negotiate(options);
+      SubscribeMessage subscription = message instanceof SubscribeMessage subscribeMessage
+          ? subscribeMessage : null;
+      server.onControlPanelNodeConnected(connection, subscription);
+    } else {
+      throw new IllegalStateException("Client must send a node-type message first, got " + message);
+    }
+  }
+
+  /**
+   * Accept the options requested by the client, reply with the accepted ones and switch to
+   * them. A client which did not request anything gets no reply.
+   *
+   * @param requested The options requested by the client
+   */
+  private void negotiate(HandshakeOptions requested) {
+    if (!requested.isEmpty()) {
+      MessageCodec codec = MessageCodecs.forName(requested.get(HandshakeOptions.CODEC));
+      if (codec == null) {
+        codec = MessageCodecs.TEXT;
+      }
+      HandshakeOptions accepted = new HandshakeOptions();
+      accepted.put(HandshakeOptions.CODEC, codec.getName());
+      boolean compressed = server.isCompressionAllowed()
+          && StreamCompression.DEFLATE.equals(requested.get(HandshakeOptions.COMPRESSION));
+      if (requested.get(HandshakeOptions.COMPRESSION) != null) {
+        accepted.put(HandshakeOptions.COMPRESSION,
+            compressed ? StreamCompression.DEFLATE : StreamCompression.NONE);
+      }
+      Logger.info("Client " + connection.getRemoteAddress() + " negotiated " + accepted);
+      connection.sendToClient(Frame.control(HandshakeOptions.REPLY_PREFIX + accepted));
+      connection.setCodec(codec);
+      if (compressed) {
+        connection.setCompression(new StreamCompression(server.getCompressionStats()));
+      }
+    }
+  }
+
+  private MessageDispatcher<Frame> createSensorNodeDispatcher() {
+    return new MessageDispatcher<Frame>()
+        .register(MessageType.SENSOR_DATA, this::onSensorData)
+        .register(MessageType.SENSOR_DELTA, this::onSensorDelta)
+        .register(MessageType.ACTUATOR_STATE, this::onActuatorState)
+        .register(MessageType.SENSOR_NODE_TYPE, this::onNodeAnnounced)
+        .register(MessageType.NODE_OFFLINE, this::onNodeOffline)
+        .register(MessageType.ERROR, this::onErrorMessage)
+        .setFallback(this::onErrorMessage);
+  }
+
+  private MessageDispatcher<Frame> createControlPanelDispatcher() {
+    return new MessageDispatcher<Frame>()
+        .register(MessageType.SENSOR_DATA, this::onSensorData)
+        .register(MessageType.ACTUATOR_STATE, this::onActuatorCommand)
+        .register(MessageType.SUBSCRIBE, this::onSubscription)
+        .register(MessageType.ERROR, this::onErrorMessage)
+        .setFallback(this::onErrorMessage);
+  }
+
+  /**
+   * Handle sensor data. A text frame is validated with the parser of the session, the message
+   * object is created only if some control panel needs a filtered copy of the data. Batches of
+   * samples are not handled by the parser, they are always parsed into a message.
+   *
+   * @param frame The frame containing the sensor data
+   */
+  private void onSensorData(Frame frame) {
+    TextMessageParser.Result result = frame.hasMessage() ? TextMessageParser.Result.OTHER
+        : parser.parse(frame.getText());
+    if (result == TextMessageParser.Result.OTHER) {
+      handleParsedMessage(frame);
+    } else if (result == TextMessageParser.Result.INVALID) {
+      Logger.error("Message parsing error: " + parser.getError());
+      connection.sendToClient(Frame.of(new ErrorMessage(INVALID, parser.getError())));
+    } else if (parser.getReadingCount() > 0) {
+      server.onSensorData(parser.getNodeId(), frame);
+    }
+  }
+
+  private void handleParsedMessage(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof SensorDataMessage sensorDataMessage) {
+      server.onSensorData(sensorDataMessage.getNodeId(), frame);
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  private void onSensorDelta(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof SensorDeltaMessage delta) {
+      if (delta.getChangeCount() > 0) {
+        server.onSensorDelta(delta.getNodeId(), frame, delta);
+      }
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  /**
+   * Handle a node-type message after the handshake: one more node on this connection.
+   *
+   * @param frame The frame containing the node-type message
+   */
+  private void onNodeAnnounced(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof SensorNodeTypeMessage sntm) {
+      nodeIds.add(sntm.getNodeId());
+      server.onSensorNodeConnected(sntm, connection);
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  /**
+   * Handle a sensor-offline message: one of the nodes on this connection has stopped.
+   *
+   * @param frame The frame containing the sensor-offline message
+   */
+  private void onNodeOffline(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof SensorNodeOfflineMessage offline) {
+      if (nodeIds.remove(offline.getNodeId())) {
+        dictionaries.remove(offline.getNodeId());
+        server.onSensorNodeShutdown(offline.getNodeId(), connection);
+      } else {
+        connection.sendToClient(Frame.of(new ErrorMessage(INVALID,
+            "Node " + offline.getNodeId() + " is not connected over this connection")));
+      }
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  private void onActuatorState(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof ActuatorStateMessage actuatorMessage) {
+      if (actuatorMessage.isSpecific()) {
+        server.onActuatorState(actuatorMessage, frame);
+      } else {
+        Logger.error("Actuator state messages from the sensor/actuator nodes must be specific!");
+      }
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  private void onActuatorCommand(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof ActuatorStateMessage actuatorMessage) {
+      server.forwardActuatorCommandToSensors(actuatorMessage);
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  private void onSubscription(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof SubscribeMessage subscription) {
+      server.onSubscriptionChanged(connection, subscription);
+    } else {
+      onErrorMessage(frame);
+    }
+  }
+
+  /**
+   * Handle a frame which could not be parsed (or an error reported by the client): log it and
+   * send the error back to the client. Any other message is not expected from this client.
+   *
+   * @param frame The frame
+   */
+  private void onErrorMessage(Frame frame) {
+    Message message = frame.getMessage();
+    if (message instanceof ErrorMessage) {
+      Logger.error("Message parsing error: " + message);
+      connection.sendToClient(Frame.of(message));
+    } else {
+      onUnknownMessage(frame);
+    }
+  }
+
+  private void onUnknownMessage(Frame frame) {
+    ErrorMessage errorMessage = new ErrorMessage(UNKNOWN, "Unknown message received");
+    connection.sendToClient(Frame.of(errorMessage));
+  }
+}
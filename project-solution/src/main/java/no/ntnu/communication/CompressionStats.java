@@ -0,0 +1,83 @@
+package no.ntnu.communication;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the stream compression, shared by all the compressed connections of a server (or
+ * kept by one client). They show how much the compression saves and what it costs, so that it
+ * can be enabled only where the link is slow enough to make it worth the CPU time.
+ */
+public class CompressionStats {
+  private final LongAdder plainBytesOut = new LongAdder();
+  private final LongAdder compressedBytesOut = new LongAdder();
+  private final LongAdder compressedBytesIn = new LongAdder();
+  private final LongAdder plainBytesIn = new LongAdder();
+  private final LongAdder compressNanos = new LongAdder();
+  private final LongAdder decompressNanos = new LongAdder();
+
+  void addCompressed(int plainBytes, int compressedBytes, long nanos) {
+    plainBytesOut.add(plainBytes);
+    compressedBytesOut.add(compressedBytes);
+    compressNanos.add(nanos);
+  }
+
+  void addDecompressed(int compressedBytes, int plainBytes, long nanos) {
+    compressedBytesIn.add(compressedBytes);
+    plainBytesIn.add(plainBytes);
+    decompressNanos.add(nanos);
+  }
+
+  /**
+   * Get the size of the sent data after the compression, relative to its original size.
+   *
+   * @return The ratio, for example, 0.25 when the data shrinks to a quarter; 1.0 when nothing has
+   *     been sent yet
+   */
+  public double getCompressionRatio() {
+    long plain = plainBytesOut.sum();
+    return plain > 0 ? (double) compressedBytesOut.sum() / plain : 1.0;
+  }
+
+  public long getPlainBytesOut() {
+    return plainBytesOut.sum();
+  }
+
+  public long getCompressedBytesOut() {
+    return compressedBytesOut.sum();
+  }
+
+  public long getCompressedBytesIn() {
+    return compressedBytesIn.sum();
+  }
+
+  public long getPlainBytesIn() {
+    return plainBytesIn.sum();
+  }
+
+  /**
+   * Get the time spent compressing. The compression never blocks, the time is CPU time.
+   *
+   * @return The total time, in nanoseconds
+   */
+  public long getCompressNanos() {
+    return compressNanos.sum();
+  }
+
+  /**
+   * Get the time spent decompressing. The decompression never blocks, the time is CPU time.
+   *
+   * @return The total time, in nanoseconds
+   */
+  public long getDecompressNanos() {
+    return decompressNanos.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "CompressionStats{out=" + getPlainBytesOut() + "->" + getCompressedBytesOut()
+        + " bytes, ratio=" + String.format("%.2f", getCompressionRatio())
+        + ", in=" + getCompressedBytesIn() + "->" + getPlainBytesIn()
+        + " bytes, compress=" + getCompressNanos() / 1000 + " us"
+        + ", decompress=" + getDecompressNanos() / 1000 + " us}";
+  }
+}
@@ -1,18 +1,24 @@
 package no.ntnu.communication;
 
-
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import no.ntnu.communication.message.ActuatorStateMessage;
 import no.ntnu.communication.message.ControlNodeTypeMessage;
 import no.ntnu.communication.message.ErrorMessage;
 import no.ntnu.communication.message.Message;
-import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.MessageType;
 import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
 import no.ntnu.communication.message.SensorNodeOfflineMessage;
 import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.communication.message.SubscribeMessage;
 import no.ntnu.controlpanel.CommunicationChannel;
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.controlpanel.SensorActuatorNodeInfo;
 import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.tools.Logger;
 
 /**
@@ -20,42 +26,69 @@ import no.ntnu.tools.Logger;
  */
 public class ControlPanelTcpClient extends TcpClient implements CommunicationChannel {
   private final ControlPanelLogic logic;
+  private final MessageDispatcher<Message> dispatcher = new MessageDispatcher<>();
+  // The latest full readings of every node, the sensor deltas are applied to them. Accessed
+  // only by the thread receiving the messages.
+  private final Map<Integer, List<SensorReading>> sensorReadings = new HashMap<>();
+  private SubscribeMessage subscription;
+  private boolean unpackBatches = false;
 
   public ControlPanelTcpClient(ControlPanelLogic logic) {
     this.logic = logic;
     addListener(logic);
+    dispatcher
+        .register(MessageType.SENSOR_NODE_TYPE,
+            m -> onNewSensorNodeAppeared((SensorNodeTypeMessage) m))
+        .register(MessageType.NODE_OFFLINE,
+            m -> onSensorNodeDisappeared(((SensorNodeOfflineMessage) m).getNodeId()))
+        .register(MessageType.SENSOR_DATA, m -> onSensorData((SensorDataMessage) m))
+        .register(MessageType.SENSOR_DELTA, m -> onSensorDelta((SensorDeltaMessage) m))
+        .register(MessageType.ACTUATOR_STATE, m -> onActuatorState((ActuatorStateMessage) m))
+        .register(MessageType.ERROR, m -> onError((ErrorMessage) m))
+        .setFallback(m -> Logger.error("Not implemented processing of : "
+            + m.getClass().getSimpleName()));
+  }
+
+  /**
+   * Receive data only about specific nodes and sensor types. Must be called before opening
+   * the connection.
+   *
+   * @param subscription The subscription, null to receive data about everything
+   */
+  public void setSubscription(SubscribeMessage subscription) {
+    this.subscription = subscription;
+  }
+
+  /**
+   * Choose how batched sensor data is delivered to the logic.
+   *
+   * @param unpackBatches True to deliver every sample of a batch, oldest first; false to
+   *                      deliver only the newest sample (the default)
+   */
+  public void setUnpackBatches(boolean unpackBatches) {
+    this.unpackBatches = unpackBatches;
   }
 
   @Override
   public void sendActuatorChange(int nodeId, int actuatorId, boolean isOn) {
     ActuatorStateMessage message = new ActuatorStateMessage(nodeId, actuatorId, isOn);
-    if (!sendToServer(MessageSerializer.toString(message))) {
-      Logger.error("Could not send control command to the server, closing socket");
-      closeSocket();
-    }
+    // Called on the GUI thread, which must not wait for the socket
+    sendToServerAsync(message).thenAccept(sent -> {
+      if (!sent) {
+        Logger.error("Could not send control command to the server, closing socket");
+        closeSocket();
+      }
+    });
   }
 
   @Override
   protected Message createNodeTypeMessage() {
-    return new ControlNodeTypeMessage();
+    return subscription != null ? subscription : new ControlNodeTypeMessage();
   }
 
   @Override
   protected void processServerMessage(Message message) {
-    if (message instanceof SensorNodeTypeMessage sntm) {
-      onNewSensorNodeAppeared(sntm);
-    } else if (message instanceof SensorNodeOfflineMessage offlineMessage) {
-      onSensorNodeDisappeared(offlineMessage.getNodeId());
-    } else if (message instanceof SensorDataMessage sensorDataMessage) {
-      onSensorData(sensorDataMessage);
-    } else if (message instanceof ActuatorStateMessage actuatorStateMessage) {
-      onActuatorState(actuatorStateMessage);
-    } else if (message instanceof ErrorMessage errorMessage) {
-      Logger.error("Error from server[" + errorMessage.getType() + "]: "
-          + errorMessage.getMessage());
-    } else {
-      Logger.error("Not implemented processing of : " + message.getClass().getSimpleName());
-    }
+    dispatcher.dispatch(message.getTypeId(), message);
   }
 
   private void onNewSensorNodeAppeared(SensorNodeTypeMessage sntm) {
@@ -70,17 +103,45 @@ public class ControlPanelTcpClient extends TcpClient implements CommunicationCha
 
   private void onSensorNodeDisappeared(int nodeId) {
     Logger.info("  Server: disconnected node with ID " + nodeId);
+    sensorReadings.remove(nodeId);
     logic.onNodeRemoved(nodeId);
   }
 
   private void onSensorData(SensorDataMessage sensorDataMessage) {
-    logic.onSensorData(sensorDataMessage.getNodeId(), sensorDataMessage.getSensors());
+    sensorReadings.put(sensorDataMessage.getNodeId(), sensorDataMessage.getSensors());
+    if (unpackBatches && sensorDataMessage.isBatch()) {
+      for (SensorSample sample : sensorDataMessage.getSamples()) {
+        logic.onSensorData(sensorDataMessage.getNodeId(), sample.getReadings());
+      }
+    } else {
+      logic.onSensorData(sensorDataMessage.getNodeId(), sensorDataMessage.getSensors());
+    }
+  }
+
+  private void onSensorDelta(SensorDeltaMessage delta) {
+    List<SensorReading> previous = sensorReadings.get(delta.getNodeId());
+    if (previous != null) {
+      try {
+        List<SensorReading> readings = delta.applyTo(previous);
+        sensorReadings.put(delta.getNodeId(), readings);
+        logic.onSensorData(delta.getNodeId(), readings);
+      } catch (IllegalArgumentException e) {
+        Logger.error("Invalid sensor delta: " + e.getMessage());
+      }
+    } else {
+      Logger.error("Sensor delta for node " + delta.getNodeId() + " before its full readings");
+    }
   }
 
   private void onActuatorState(ActuatorStateMessage message) {
     logic.onActuatorStateChanged(message.getNodeId(), message.getActuatorId(), message.isOn());
   }
 
+  private void onError(ErrorMessage errorMessage) {
+    Logger.error("Error from server[" + errorMessage.getType() + "]: "
+        + errorMessage.getMessage());
+  }
+
   @Override
   public boolean open() {
     return openSocket();
@@ -0,0 +1,18 @@
+package no.ntnu.communication;
+
+/**
+ * How sensor data is delivered to the clients through their outbound queues.
+ */
+public enum DeliveryMode {
+  /**
+   * Every sensor-data message is queued and delivered, in order.
+   */
+  QUEUED,
+  /**
+   * Only the newest pending sensor-data message of each sensor/actuator node is kept. A new
+   * message from a node replaces the one still waiting in the queue and takes its place in the
+   * order. A lagging client then gets the current readings instead of a backlog of stale ones.
+   * Other messages (actuator states, nodes going online and offline) are never replaced.
+   */
+  LATEST_VALUE
+}
@@ -0,0 +1,17 @@
+package no.ntnu.communication;
+
+/**
+ * Which samples to give up when the offline buffer of a sensor node is full - the connection to
+ * the server has been down for longer than the buffer can cover.
+ */
+public enum EvictionPolicy {
+  /**
+   * Drop the oldest buffered sample to make room for the new one: the buffer keeps the end of
+   * the outage.
+   */
+  DROP_OLDEST,
+  /**
+   * Drop the new sample: the buffer keeps the beginning of the outage.
+   */
+  DROP_NEWEST
+}
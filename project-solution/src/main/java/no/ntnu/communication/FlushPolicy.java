@@ -0,0 +1,83 @@
+package no.ntnu.communication;
+
+import java.util.concurrent.TimeUnit;
+import no.ntnu.communication.message.MessageType;
+
+/**
+ * When the queued messages of a connection are written to the socket. Every write is a system
+ * call and at least one TCP segment, so the messages produced close to each other in time are
+ * coalesced: the writer waits up to one tick for more messages after the first one, or until
+ * enough bytes are collected, and then writes them all at once. The actuator commands and
+ * states are latency-critical, they are written right away, together with anything queued
+ * before them.
+ */
+public class FlushPolicy {
+  /**
+   * Write every message on its own, right away - the behaviour without coalescing.
+   */
+  public static final FlushPolicy IMMEDIATE = new FlushPolicy(0, 1);
+  /**
+   * Coalesce the messages of one millisecond, up to 16 KiB.
+   */
+  public static final FlushPolicy DEFAULT = new FlushPolicy(1000, 16 * 1024);
+
+  private final long maxDelayMicros;
+  private final int maxBytes;
+
+  /**
+   * Create a flush policy.
+   *
+   * @param maxDelayMicros The longest time a message waits for more messages to be written
+   *                       with, in microseconds; 0 to write only the messages queued already
+   * @param maxBytes       The number of collected bytes which are written without waiting any
+   *                       longer; 1 to write every message on its own
+   */
+  public FlushPolicy(long maxDelayMicros, int maxBytes) {
+    if (maxDelayMicros < 0) {
+      throw new IllegalArgumentException("The delay can't be negative");
+    }
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("The byte threshold must be positive");
+    }
+    this.maxDelayMicros = maxDelayMicros;
+    this.maxBytes = maxBytes;
+  }
+
+  public long getMaxDelayMicros() {
+    return maxDelayMicros;
+  }
+
+  public long getMaxDelayNanos() {
+    return TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+  }
+
+  public int getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Check whether a message must be written without waiting for more messages.
+   *
+   * @param typeId The type of the message, see {@link MessageType}
+   * @return True for the actuator commands and states
+   */
+  public boolean isUrgent(int typeId) {
+    return typeId == MessageType.ACTUATOR_STATE;
+  }
+
+  /**
+   * Check whether the collected messages must be written now.
+   *
+   * @param lastTypeId     The type of the message collected last
+   * @param collectedBytes The number of bytes collected so far
+   * @return True when the messages must be written without waiting for more
+   */
+  public boolean mustFlush(int lastTypeId, int collectedBytes) {
+    return isUrgent(lastTypeId) || collectedBytes >= maxBytes;
+  }
+
+  @Override
+  public String toString() {
+    return "FlushPolicy{" + maxDelayMicros + " us, " + maxBytes + " bytes}";
+  }
+}
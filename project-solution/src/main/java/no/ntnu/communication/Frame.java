@@ -0,0 +1,296 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDictionaries;
+
+/**
+ * One message, together with its encoding(s) exactly as they are sent over the socket.
+ * A frame is immutable: when the same message is sent to many clients, it is encoded only once
+ * per codec and the same bytes are shared by the outbound queues of all the clients using that
+ * codec. Each connection reads the bytes through its own read-only view, so nothing is copied
+ * per client. No manual reference counting is necessary - the frame is garbage-collected once
+ * the last connection has written it.
+ *
+ * <p>A frame received from a client keeps the received bytes, so relaying it to clients using
+ * the same codec costs no encoding at all. The message and the text are derived lazily, when
+ * somebody needs them. The type of a text frame is found from the prefix of the text, so that
+ * relaying it does not require parsing it into a message object.
+ */
+public class Frame {
+  private static final int NOT_KNOWN = -2;
+
+  private final boolean control;
+  private volatile String text;
+  private volatile Message message;
+  private volatile int typeId = NOT_KNOWN;
+  private volatile int sensorNodeId = NOT_KNOWN;
+  // Cached encodings, a short immutable list - there are only a few codecs
+  private volatile Encoding encodings;
+  // The sensor dictionaries of the connection a text frame was received on, for parsing it
+  private final SensorDictionaries dictionaries;
+
+  private static class Encoding {
+    private final MessageCodec codec;
+    private final byte[] bytes;
+    private final Encoding next;
+
+    Encoding(MessageCodec codec, byte[] bytes, Encoding next) {
+      this.codec = codec;
+      this.bytes = bytes;
+      this.next = next;
+    }
+  }
+
+  private Frame(String text, Message message, Encoding encodings, boolean control) {
+    this(text, message, encodings, control, null);
+  }
+
+  private Frame(String text, Message message, Encoding encodings, boolean control,
+                SensorDictionaries dictionaries) {
+    this.text = text;
+    this.message = message;
+    this.encodings = encodings;
+    this.control = control;
+    this.dictionaries = dictionaries;
+  }
+
+  /**
+   * Create a frame from a message which is already serialized to text.
+   *
+   * @param message The message, without the newline
+   * @return The frame containing the message
+   */
+  public static Frame of(String message) {
+    return new Frame(message, null,
+        new Encoding(MessageCodecs.TEXT, TextCodec.encode(message), null), false);
+  }
+
+  /**
+   * Create a frame from a message. The message is encoded when a client needs it.
+   *
+   * @param message The message
+   * @return The frame containing the message
+   */
+  public static Frame of(Message message) {
+    return new Frame(null, message, null, false);
+  }
+
+  /**
+   * Create a control frame: a line of text which is sent as-is over connections using any
+   * codec. Used during the handshake, while switching the codec.
+   *
+   * @param line The text line, without the newline
+   * @return The control frame
+   */
+  public static Frame control(String line) {
+    return new Frame(line, null,
+        new Encoding(MessageCodecs.TEXT, TextCodec.encode(line), null), true);
+  }
+
+  /**
+   * Create a frame from bytes received with a text codec.
+   *
+   * @param codec        The codec which decoded the frame
+   * @param bytes        All the received bytes of the frame, including the framing
+   * @param text         The decoded text
+   * @param dictionaries The sensor dictionaries of the connection the frame was received on,
+   *                     used when the text is parsed
+   * @return The received frame
+   */
+  static Frame received(MessageCodec codec, byte[] bytes, String text,
+                        SensorDictionaries dictionaries) {
+    return new Frame(text, null, new Encoding(codec, bytes, null), false, dictionaries);
+  }
+
+  /**
+   * Create a frame from bytes received with a binary codec.
+   *
+   * @param codec   The codec which decoded the frame
+   * @param bytes   All the received bytes of the frame, including the framing
+   * @param message The decoded message
+   * @return The received frame
+   */
+  static Frame received(MessageCodec codec, byte[] bytes, Message message) {
+    return new Frame(null, message, new Encoding(codec, bytes, null), false);
+  }
+
+  /**
+   * Get the message contained in the frame, parse it when necessary.
+   *
+   * @return The message, an error message when the text can't be parsed, null for control
+   *     frames
+   */
+  public Message getMessage() {
+    Message m = message;
+    if (m == null && !control) {
+      m = MessageSerializer.fromString(text, dictionaries);
+      message = m;
+    }
+    return m;
+  }
+
+  /**
+   * Check whether the message object of the frame exists already, so that getMessage() costs
+   * nothing.
+   *
+   * @return True when the message is available without parsing
+   */
+  boolean hasMessage() {
+    return message != null;
+  }
+
+  /**
+   * Get the type of the message contained in the frame. A text frame is not parsed for this,
+   * only the prefix of the text is checked.
+   *
+   * @return The type ID, see MessageType; UNKNOWN for control frames
+   */
+  public int getTypeId() {
+    int t = typeId;
+    if (t == NOT_KNOWN) {
+      Message m = message;
+      if (control) {
+        t = MessageType.UNKNOWN;
+      } else if (m != null) {
+        t = m.getTypeId();
+      } else {
+        t = MessageType.classify(text);
+      }
+      typeId = t;
+    }
+    return t;
+  }
+
+  /**
+   * Get the message contained in the frame, as text.
+   *
+   * @return The message text, without the newline
+   */
+  public String getText() {
+    String t = text;
+    if (t == null) {
+      t = MessageSerializer.toString(message);
+      text = t;
+    }
+    return t;
+  }
+
+  /**
+   * Check whether this is a control frame, sent as-is over connections with any codec.
+   *
+   * @return True for control frames, false for message frames
+   */
+  public boolean isControl() {
+    return control;
+  }
+
+  /**
+   * Get the ID of the node which sent the sensor data in this frame.
+   *
+   * @return The node ID, or -1 when the frame does not contain sensor data
+   */
+  public int getSensorNodeId() {
+    int nodeId = sensorNodeId;
+    if (nodeId == NOT_KNOWN) {
+      nodeId = -1;
+      if (getTypeId() == MessageType.SENSOR_DATA) {
+        Message m = message;
+        nodeId = m != null ? ((SensorDataMessage) m).getNodeId() : readSensorNodeId(text);
+      }
+      sensorNodeId = nodeId;
+    }
+    return nodeId;
+  }
+
+  /**
+   * Read the node ID from the text of a sensor-data message, without parsing the readings.
+   *
+   * @param text The text of the message, starting with the sensor-data prefix
+   * @return The node ID, -1 when it is not a valid number
+   */
+  private static int readSensorNodeId(String text) {
+    long nodeId = 0;
+    int i = text.indexOf(':') + 1;
+    int start = i;
+    while (i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9'
+        && nodeId <= Integer.MAX_VALUE) {
+      nodeId = nodeId * 10 + (text.charAt(i) - '0');
+      i++;
+    }
+    boolean valid = i > start && nodeId <= Integer.MAX_VALUE
+        && (i == text.length() || text.charAt(i) == ';' || text.charAt(i) == '|');
+    return valid ? (int) nodeId : -1;
+  }
+
+  /**
+   * Get the encoded frame. The encoding is done once per codec, the result is shared.
+   *
+   * @param codec The codec of the connection
+   * @return The bytes to send over the socket, must not be modified
+   */
+  public byte[] getBytes(MessageCodec codec) {
+    MessageCodec target = control ? MessageCodecs.TEXT : codec;
+    Encoding encoding = findEncoding(target);
+    if (encoding == null) {
+      synchronized (this) {
+        encoding = findEncoding(target);
+        if (encoding == null) {
+          encoding = new Encoding(target, target.encode(getMessage()), encodings);
+          encodings = encoding;
+        }
+      }
+    }
+    return encoding.bytes;
+  }
+
+  private Encoding findEncoding(MessageCodec codec) {
+    Encoding encoding = encodings;
+    while (encoding != null && encoding.codec != codec) {
+      encoding = encoding.next;
+    }
+    return encoding;
+  }
+
+  /**
+   * Get the size of the encoded frame.
+   *
+   * @param codec The codec of the connection
+   * @return Number of bytes sent over the socket for this frame
+   */
+  public int size(MessageCodec codec) {
+    return getBytes(codec).length;
+  }
+
+  /**
+   * Get a read-only view of the encoded bytes. Every call returns a new view with its own
+   * position, the bytes themselves are not copied.
+   *
+   * @param codec The codec of the connection
+   * @return A buffer containing the whole frame, ready for writing to a channel
+   */
+  public ByteBuffer asByteBuffer(MessageCodec codec) {
+    return ByteBuffer.wrap(getBytes(codec)).asReadOnlyBuffer();
+  }
+
+  /**
+   * Write the encoded bytes to a stream.
+   *
+   * @param out   The stream to write to
+   * @param codec The codec of the connection
+   * @throws IOException When writing to the stream fails
+   */
+  public void writeTo(OutputStream out, MessageCodec codec) throws IOException {
+    out.write(getBytes(codec));
+  }
+
+  @Override
+  public String toString() {
+    return getText();
+  }
+}
@@ -0,0 +1,21 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a stream of bytes into frames. The bytes may arrive in arbitrary chunks - a partial
+ * frame is kept until the rest of it arrives. One decoder serves one connection.
+ */
+public interface FrameDecoder {
+  /**
+   * Decode the next frame. Consumes only the bytes of that frame, the rest stays in the buffer,
+   * so that the caller can switch to another decoder between two frames.
+   *
+   * @param buffer The buffer containing the received bytes, ready for reading
+   * @return The next complete frame, or null when all the bytes in the buffer have been consumed
+   *     and more bytes are needed
+   * @throws IOException When the stream contains an invalid or too long frame
+   */
+  Frame decode(ByteBuffer buffer) throws IOException;
+}
@@ -0,0 +1,217 @@
+package no.ntnu.communication;
+
+import static no.ntnu.communication.message.ErrorType.UNKNOWN;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.ErrorMessage;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorNodeOfflineMessage;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.listeners.greenhouse.NodeStateListener;
+import no.ntnu.tools.Logger;
+
+/**
+ * A TCP client for a gateway: carries many sensor/actuator nodes over one connection to the
+ * server, instead of a socket and a listening thread per node.
+ *
+ * <p>The handshake announces one of the running nodes, each of the other nodes is announced
+ * with its own node-type message over the same connection; a node which stops is reported with
+ * a sensor-offline message, the connection stays open while any node is running. The actuator
+ * commands from the server are routed to the nodes by node ID. After reconnecting, all the
+ * running nodes are announced again.
+ */
+public class GatewayTcpClient extends TcpClient implements NodeStateListener {
+  // All the nodes of the gateway, the key is node ID
+  private final Map<Integer, SensorNodeSession> sessions = new ConcurrentHashMap<>();
+  // The nodes announced to the server over the current connection
+  private final Set<Integer> announcedNodes = ConcurrentHashMap.newKeySet();
+  // The running nodes, in the order they were started - guarded by nodesLock
+  private final Set<Integer> runningNodes = new LinkedHashSet<>();
+  // True while the socket is open, even when reconnecting - guarded by nodesLock
+  private boolean opened = false;
+  private final Object nodesLock = new Object();
+  private final MessageDispatcher<Message> dispatcher = new MessageDispatcher<>();
+
+  /**
+   * Create a gateway client, without any nodes.
+   */
+  public GatewayTcpClient() {
+    dispatcher
+        .register(MessageType.ACTUATOR_STATE, m -> routeActuatorCommand((ActuatorStateMessage) m))
+        .register(MessageType.ERROR, m -> onError((ErrorMessage) m))
+        .setFallback(this::onUnknownMessage);
+  }
+
+  /**
+   * Add a node to the gateway. The gateway listens to the node: the node is announced to the
+   * server when it is started, its sensor readings and actuator states are sent over the
+   * connection of the gateway. The node is stopped when the gateway is closed.
+   *
+   * @param node The sensor/actuator node
+   * @return The session of the node, use it to configure how the node reports its readings
+   */
+  public SensorNodeSession addNode(SensorActuatorNode node) {
+    SensorNodeSession session = new SensorNodeSession(node, new NodeConnection(node.getId()));
+    sessions.put(node.getId(), session);
+    node.addSensorListener(session);
+    node.addActuatorListener(session);
+    node.addStateListener(this);
+    addListener(node);
+    return session;
+  }
+
+  /**
+   * Get the number of nodes announced to the server over the current connection.
+   *
+   * @return The number of nodes the server knows about, 0 while not connected
+   */
+  public int getAnnouncedNodeCount() {
+    return isConnected() ? announcedNodes.size() : 0;
+  }
+
+  /**
+   * Create the handshake: the node-type message of the first running node. Every handshake
+   * starts a new connection, on which no other node has been announced yet.
+   */
+  @Override
+  protected Message createNodeTypeMessage() {
+    synchronized (nodesLock) {
+      announcedNodes.clear();
+      int nodeId = !runningNodes.isEmpty() ? runningNodes.iterator().next()
+          : sessions.keySet().iterator().next();
+      announcedNodes.add(nodeId);
+      return sessions.get(nodeId).createNodeTypeMessage();
+    }
+  }
+
+  /**
+   * Announce the running nodes which the server does not know yet.
+   */
+  private void announceRunningNodes() {
+    for (int nodeId : runningNodes) {
+      if (!announcedNodes.contains(nodeId)) {
+        SensorNodeSession session = sessions.get(nodeId);
+        if (sendToServer(session.createNodeTypeMessage())) {
+          announcedNodes.add(nodeId);
+        }
+      }
+    }
+  }
+
+  @Override
+  protected void processServerMessage(Message message) {
+    dispatcher.dispatch(message.getTypeId(), message);
+  }
+
+  /**
+   * Pass an actuator command to the node it is meant for, or to all the nodes.
+   *
+   * @param command The command received from the server
+   */
+  private void routeActuatorCommand(ActuatorStateMessage command) {
+    if (command.isAnyNode()) {
+      for (int nodeId : announcedNodes) {
+        sessions.get(nodeId).processServerMessage(command);
+      }
+    } else if (announcedNodes.contains(command.getNodeId())) {
+      sessions.get(command.getNodeId()).processServerMessage(command);
+    } else {
+      Logger.error("Actuator command for node " + command.getNodeId()
+          + ", which is not on this gateway");
+    }
+  }
+
+  private void onError(ErrorMessage errorMessage) {
+    Logger.error("Error from server[" + errorMessage.getType() + "]: "
+        + errorMessage.getMessage());
+  }
+
+  private void onUnknownMessage(Message message) {
+    Logger.error("Processing not implemented: " + message);
+    sendToServer(new ErrorMessage(UNKNOWN, "Unknown command received"));
+  }
+
+  /**
+   * The server has lost everything about the nodes (it may have restarted), the handshake has
+   * announced one of them: announce the others, then let every node report its state.
+   */
+  @Override
+  protected void onReconnected() {
+    synchronized (nodesLock) {
+      announceRunningNodes();
+      for (int nodeId : announcedNodes) {
+        sessions.get(nodeId).onConnectionRestored();
+      }
+    }
+  }
+
+  @Override
+  public void onNodeReady(SensorActuatorNode node) {
+    synchronized (nodesLock) {
+      runningNodes.add(node.getId());
+      if (!opened) {
+        Logger.info("Node " + node.getId() + " is ready, opening the gateway socket");
+        opened = openSocket();
+        if (!opened) {
+          closeSocket();
+        }
+      }
+      if (isConnected()) {
+        announceRunningNodes();
+      }
+    }
+  }
+
+  @Override
+  public void onNodeStopped(SensorActuatorNode node) {
+    synchronized (nodesLock) {
+      Logger.info("Node " + node.getId() + " is shut down, removing it from the gateway");
+      sessions.get(node.getId()).flushBatch();
+      runningNodes.remove(node.getId());
+      if (announcedNodes.remove(node.getId())) {
+        sendToServer(new SensorNodeOfflineMessage(node.getId()));
+      }
+      if (opened && runningNodes.isEmpty()) {
+        closeSocket();
+      }
+    }
+  }
+
+  /**
+   * Close the connection of the gateway. All the nodes are stopped.
+   */
+  @Override
+  public void closeSocket() {
+    synchronized (nodesLock) {
+      opened = false;
+    }
+    super.closeSocket();
+  }
+
+  /**
+   * The connection of one node: usable when the gateway is connected and the node has been
+   * announced over the current connection.
+   */
+  private class NodeConnection implements ServerConnection {
+    private final int nodeId;
+
+    NodeConnection(int nodeId) {
+      this.nodeId = nodeId;
+    }
+
+    @Override
+    public boolean sendToServer(Message message) {
+      return isConnected() && GatewayTcpClient.this.sendToServer(message);
+    }
+
+    @Override
+    public boolean isConnected() {
+      return GatewayTcpClient.this.isConnected() && announcedNodes.contains(nodeId);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package no.ntnu.communication;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options negotiated in the handshake. A client may append options to its node-type message:
+ * {@code type=control|codec=binary}. The server answers with the options it has accepted, in a
+ * text line {@code options:codec=binary}, before switching to them. Clients which don't send any
+ * options get no answer and keep using the text protocol, exactly as before.
+ */
+public class HandshakeOptions {
+  public static final String CODEC = "codec";
+  /**
+   * The compression of the byte stream, see {@link StreamCompression}. The server replies with
+   * the compression it has accepted, "none" when it does not compress.
+   */
+  public static final String COMPRESSION = "compress";
+  public static final String REPLY_PREFIX = "options:";
+  private static final char SEPARATOR = '|';
+  private static final char ASSIGNMENT = '=';
+
+  private final Map<String, String> options = new LinkedHashMap<>();
+
+  /**
+   * Split the options off a handshake line.
+   *
+   * @param handshake The handshake line, possibly with options
+   * @return The handshake line without the options
+   */
+  public static String stripOptions(String handshake) {
+    int separatorPosition = handshake.indexOf(SEPARATOR);
+    return separatorPosition >= 0 ? handshake.substring(0, separatorPosition) : handshake;
+  }
+
+  /**
+   * Parse the options appended to a handshake line.
+   *
+   * @param handshake The handshake line
+   * @return The options, empty when there are none
+   */
+  public static HandshakeOptions fromHandshake(String handshake) {
+    int separatorPosition = handshake.indexOf(SEPARATOR);
+    return separatorPosition >= 0 ? parse(handshake.substring(separatorPosition + 1))
+        : new HandshakeOptions();
+  }
+
+  /**
+   * Parse options, separated by a vertical bar.
+   *
+   * @param s The options, for example, the reply of the server without the prefix
+   * @return The options, empty when there are none. Options without a value are ignored.
+   */
+  public static HandshakeOptions parse(String s) {
+    HandshakeOptions result = new HandshakeOptions();
+    for (String option : s.split("\\" + SEPARATOR)) {
+      int assignmentPosition = option.indexOf(ASSIGNMENT);
+      if (assignmentPosition > 0) {
+        result.put(option.substring(0, assignmentPosition),
+            option.substring(assignmentPosition + 1));
+      }
+    }
+    return result;
+  }
+
+  public void put(String key, String value) {
+    options.put(key, value);
+  }
+
+  /**
+   * Get the value of an option.
+   *
+   * @param key The name of the option
+   * @return The value, or null when the option is not present
+   */
+  public String get(String key) {
+    return options.get(key);
+  }
+
+  public boolean isEmpty() {
+    return options.isEmpty();
+  }
+
+  /**
+   * Append the options to a handshake line.
+   *
+   * @param handshake The handshake line without options
+   * @return The handshake line with the options appended
+   */
+  public String appendTo(String handshake) {
+    return isEmpty() ? handshake : handshake + SEPARATOR + this;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder result = new StringBuilder();
+    for (Map.Entry<String, String> option : options.entrySet()) {
+      if (!result.isEmpty()) {
+        result.append(SEPARATOR);
+      }
+      result.append(option.getKey()).append(ASSIGNMENT).append(option.getValue());
+    }
+    return result.toString();
+  }
+}
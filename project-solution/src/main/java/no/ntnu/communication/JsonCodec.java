@@ -0,0 +1,48 @@
+package no.ntnu.communication;
+
+import no.ntnu.communication.message.JsonMessageSerializer;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDictionaries;
+
+/**
+ * A wire format for clients which would rather use a JSON library than the text protocol: every
+ * message is a JSON object on its own line, see {@link JsonMessageSerializer}. The codec is not
+ * built in, it is found through the {@link java.util.ServiceLoader}, as any other codec added
+ * to the classpath would be (see {@link MessageCodecs}).
+ */
+public class JsonCodec implements MessageCodec {
+  public static final String NAME = "json";
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(Message message) {
+    return TextCodec.encode(JsonMessageSerializer.toJson(message));
+  }
+
+  @Override
+  public FrameDecoder createDecoder(int maxFrameLength, SensorDictionaries dictionaries) {
+    // The JSON readings always carry their type and unit, the agreed codes are not needed
+    return new Decoder(this, maxFrameLength);
+  }
+
+  /**
+   * Decoder of the JSON lines.
+   */
+  private static class Decoder extends LineDecoder {
+    private final MessageCodec codec;
+
+    Decoder(MessageCodec codec, int maxFrameLength) {
+      super(maxFrameLength, null);
+      this.codec = codec;
+    }
+
+    @Override
+    protected Frame createFrame(byte[] bytes, String line) {
+      return Frame.received(codec, bytes, JsonMessageSerializer.fromJson(line));
+    }
+  }
+}
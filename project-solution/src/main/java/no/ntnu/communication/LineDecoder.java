@@ -0,0 +1,82 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import no.ntnu.communication.message.SensorDictionaries;
+
+/**
+ * Splits a stream of bytes into newline-terminated messages (text frames). The bytes may arrive
+ * in arbitrary chunks - a partial message is kept until the rest of it arrives.
+ */
+public class LineDecoder implements FrameDecoder {
+  private static final int INITIAL_CAPACITY = 128;
+  private static final byte NEWLINE = '\n';
+  private static final byte CARRIAGE_RETURN = '\r';
+
+  private final int maxLineLength;
+  private final SensorDictionaries dictionaries;
+  private byte[] pending = new byte[INITIAL_CAPACITY];
+  private int pendingLength = 0;
+
+  /**
+   * Create a line decoder.
+   *
+   * @param maxLineLength The maximum allowed length of one line, in bytes
+   * @param dictionaries  The sensor dictionaries of the connection, used for parsing the lines
+   */
+  public LineDecoder(int maxLineLength, SensorDictionaries dictionaries) {
+    this.maxLineLength = maxLineLength;
+    this.dictionaries = dictionaries;
+  }
+
+  @Override
+  public Frame decode(ByteBuffer buffer) throws IOException {
+    Frame frame = null;
+    while (frame == null && buffer.hasRemaining()) {
+      byte b = buffer.get();
+      if (b == NEWLINE) {
+        frame = takeLine();
+      } else {
+        append(b);
+      }
+    }
+    return frame;
+  }
+
+  private void append(byte b) throws IOException {
+    if (pendingLength == maxLineLength) {
+      throw new IOException("Line longer than " + maxLineLength + " bytes");
+    }
+    if (pendingLength == pending.length) {
+      pending = Arrays.copyOf(pending, Math.min(pending.length * 2, maxLineLength));
+    }
+    pending[pendingLength++] = b;
+  }
+
+  private Frame takeLine() {
+    int length = pendingLength;
+    if (length > 0 && pending[length - 1] == CARRIAGE_RETURN) {
+      length--;
+    }
+    String line = new String(pending, 0, length, StandardCharsets.UTF_8);
+    // The received bytes are kept as the text encoding of the frame, with a bare newline
+    byte[] bytes = Arrays.copyOf(pending, length + 1);
+    bytes[length] = NEWLINE;
+    pendingLength = 0;
+    return createFrame(bytes, line);
+  }
+
+  /**
+   * Create the frame of one received line. Codecs using another format for the lines override
+   * this.
+   *
+   * @param bytes The received bytes of the line, including the newline
+   * @param line  The text of the line, without the newline
+   * @return The received frame
+   */
+  protected Frame createFrame(byte[] bytes, String line) {
+    return Frame.received(MessageCodecs.TEXT, bytes, line, dictionaries);
+  }
+}
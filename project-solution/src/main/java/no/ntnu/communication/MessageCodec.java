@@ -0,0 +1,61 @@
+package no.ntnu.communication;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDictionaries;
+
+/**
+ * A wire format of the messages: how a message is turned into bytes sent over the socket and
+ * how the received bytes are split into messages again. The codec is chosen for each connection
+ * during the handshake, see {@link HandshakeOptions}.
+ */
+public interface MessageCodec {
+  /**
+   * Get the name of the codec, used in the handshake.
+   *
+   * @return The name, for example, "text"
+   */
+  String getName();
+
+  /**
+   * Encode a message into a complete frame, ready to be sent over the socket.
+   *
+   * @param message The message to encode
+   * @return The encoded frame, including the framing (a line terminator, a length prefix, etc.)
+   */
+  byte[] encode(Message message);
+
+  /**
+   * Encode a message into a complete frame, written to a caller-owned buffer. Codecs override
+   * this to avoid allocating an array for every message.
+   *
+   * @param message The message to encode
+   * @param out     The buffer to write the frame to
+   * @throws BufferOverflowException When the frame does not fit in the buffer
+   */
+  default void encode(Message message, ByteBuffer out) {
+    out.put(encode(message));
+  }
+
+  /**
+   * Create a decoder for one incoming stream of bytes.
+   *
+   * @param maxFrameLength The maximum allowed length of one frame, in bytes
+   * @param dictionaries   The sensor dictionaries declared on the connection: the decoded
+   *                       node type messages register their sensor codes there, the coded
+   *                       sensor readings are resolved through them
+   * @return A new decoder
+   */
+  FrameDecoder createDecoder(int maxFrameLength, SensorDictionaries dictionaries);
+
+  /**
+   * Create a decoder for a stream of bytes of its own, with new, empty sensor dictionaries.
+   *
+   * @param maxFrameLength The maximum allowed length of one frame, in bytes
+   * @return A new decoder
+   */
+  default FrameDecoder createDecoder(int maxFrameLength) {
+    return createDecoder(maxFrameLength, new SensorDictionaries());
+  }
+}
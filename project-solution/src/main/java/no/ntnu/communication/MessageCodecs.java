@@ -0,0 +1,66 @@
+package no.ntnu.communication;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import no.ntnu.tools.Logger;
+
+/**
+ * The available message codecs. The text and binary codecs are built in, more codecs are
+ * discovered with the {@link ServiceLoader}: a jar on the classpath can add a codec by listing
+ * its class in META-INF/services/no.ntnu.communication.MessageCodec. Each codec has exactly one
+ * instance - the frames cache their encodings per codec instance, so a frame received with a
+ * codec is relayed to the clients using the same codec without encoding it again.
+ */
+public class MessageCodecs {
+  public static final MessageCodec TEXT = new TextCodec();
+  public static final MessageCodec BINARY = new BinaryCodec();
+  private static final Map<String, MessageCodec> CODECS = loadCodecs();
+
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private MessageCodecs() {
+  }
+
+  private static Map<String, MessageCodec> loadCodecs() {
+    Map<String, MessageCodec> codecs = new LinkedHashMap<>();
+    codecs.put(TEXT.getName(), TEXT);
+    codecs.put(BINARY.getName(), BINARY);
+    try {
+      for (MessageCodec codec : ServiceLoader.load(MessageCodec.class)) {
+        if (codecs.containsKey(codec.getName())) {
+          Logger.error("Ignoring codec " + codec.getClass().getName() + ", the name "
+              + codec.getName() + " is already taken");
+        } else {
+          codecs.put(codec.getName(), codec);
+        }
+      }
+    } catch (ServiceConfigurationError e) {
+      Logger.error("Could not load the message codecs: " + e.getMessage());
+    }
+    return Collections.unmodifiableMap(codecs);
+  }
+
+  /**
+   * Find a codec by its name.
+   *
+   * @param name The name of the codec
+   * @return The codec, or null if there is no codec with such a name
+   */
+  public static MessageCodec forName(String name) {
+    return name != null ? CODECS.get(name) : null;
+  }
+
+  /**
+   * Get the names of all the available codecs.
+   *
+   * @return The names, the built-in codecs first
+   */
+  public static Set<String> getNames() {
+    return CODECS.keySet();
+  }
+}
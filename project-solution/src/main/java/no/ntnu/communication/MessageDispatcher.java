@@ -0,0 +1,59 @@
+package no.ntnu.communication;
+
+import java.util.function.Consumer;
+import no.ntnu.communication.message.MessageType;
+
+/**
+ * Routes received items (messages or frames) to their handlers by the numeric message type.
+ * The handlers are kept in a plain array indexed by the type ID, so a dispatch is one array
+ * lookup instead of a chain of instanceof checks. Items of types without a registered handler
+ * go to the fallback handler.
+ *
+ * <p>Handlers are registered once, before the dispatcher is used; after that the dispatcher
+ * is only read and can be used by several threads.
+ *
+ * @param <T> The type of the dispatched items
+ */
+public class MessageDispatcher<T> {
+  @SuppressWarnings("unchecked")
+  private final Consumer<T>[] handlers = (Consumer<T>[]) new Consumer<?>[MessageType.COUNT];
+  private Consumer<T> fallback = item -> {
+  };
+
+  /**
+   * Register the handler of one message type, replacing the previous one, if any.
+   *
+   * @param typeId  The message type, one of the MessageType constants
+   * @param handler The handler to call for items of this type
+   * @return This dispatcher, to allow chaining the registrations
+   */
+  public MessageDispatcher<T> register(int typeId, Consumer<T> handler) {
+    handlers[typeId] = handler;
+    return this;
+  }
+
+  /**
+   * Set the handler for the items which have no handler registered for their type.
+   *
+   * @param handler The fallback handler
+   * @return This dispatcher, to allow chaining the registrations
+   */
+  public MessageDispatcher<T> setFallback(Consumer<T> handler) {
+    this.fallback = handler;
+    return this;
+  }
+
+  /**
+   * Pass an item to the handler of its type.
+   *
+   * @param typeId The message type of the item
+   * @param item   The item to handle
+   */
+  public void dispatch(int typeId, T item) {
+    Consumer<T> handler = typeId >= 0 && typeId < handlers.length ? handlers[typeId] : null;
+    if (handler == null) {
+      handler = fallback;
+    }
+    handler.accept(item);
+  }
+}
@@ -0,0 +1,238 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.ntnu.tools.Logger;
+
+/**
+ * One client connection served by a {@link NioEventLoop}. Reading, writing and closing always
+ * happen on the thread of the owning loop. Messages can be sent from any thread - they are
+ * placed in the outbound queue and written when the socket is ready for writing. Several queued
+ * frames are written with a single gathering write, directly from the shared frame bytes.
+ */
+class NioClientConnection implements ClientConnection {
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+  private static final int MAX_FRAMES_PER_WRITE = 64;
+  private static final int PLAIN_BUFFER_SIZE = 8192;
+
+  private final SocketChannel channel;
+  private final SelectionKey key;
+  private final NioEventLoop loop;
+  private final ClientSession session;
+  private final String remoteAddress;
+  private FrameDecoder decoder;
+  private volatile MessageCodec outputCodec = MessageCodecs.TEXT;
+  // The compression, and the buffer for the decompressed bytes, when the connection is compressed
+  private StreamCompression compression;
+  private byte[] plainBytes;
+  private final OutboundQueue outboundQueue;
+  private final WriteStats writeStats;
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  // Views of the frames being written, the ones before writeStart are fully written
+  private final ByteBuffer[] writeBatch = new ByteBuffer[MAX_FRAMES_PER_WRITE];
+  private int writeStart = 0;
+  private int writeEnd = 0;
+  private boolean closed = false;
+
+  /**
+   * Create a connection.
+   *
+   * @param channel The socket channel of the client, in non-blocking mode
+   * @param key     The key of the channel, registered with the selector of the loop
+   * @param loop    The loop serving this connection
+   * @param server  The server which handles the events of this client
+   * @throws IOException When the address of the client can't be retrieved
+   */
+  NioClientConnection(SocketChannel channel, SelectionKey key, NioEventLoop loop,
+                      TcpServer server) throws IOException {
+    this.channel = channel;
+    this.key = key;
+    this.loop = loop;
+    this.session = new ClientSession(server, this);
+    this.decoder = MessageCodecs.TEXT.createDecoder(MAX_FRAME_LENGTH,
+        session.getSensorDictionaries());
+    this.outboundQueue = server.createOutboundQueue();
+    this.writeStats = server.getWriteStats();
+    this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+    Logger.info("Client connected from " + remoteAddress);
+  }
+
+  @Override
+  public void sendToClient(Frame frame) {
+    onOffered(outboundQueue.offer(frame));
+  }
+
+  @Override
+  public void sendSensorDeltaToClient(Frame deltaFrame, Frame fullFrame) {
+    onOffered(outboundQueue.offerSensorDelta(deltaFrame, fullFrame));
+  }
+
+  private void onOffered(boolean accepted) {
+    if (!accepted) {
+      Logger.error("Client " + remoteAddress + " can't keep up, disconnecting: " + outboundQueue);
+      loop.execute(this::close);
+    } else if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(this::flush);
+    }
+  }
+
+  @Override
+  public void setCodec(MessageCodec codec) {
+    outputCodec = codec;
+    decoder = codec.createDecoder(MAX_FRAME_LENGTH, session.getSensorDictionaries());
+  }
+
+  @Override
+  public void setCompression(StreamCompression compression) {
+    this.compression = compression;
+    plainBytes = new byte[PLAIN_BUFFER_SIZE];
+  }
+
+  @Override
+  public String getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  @Override
+  public OutboundQueue getOutboundQueue() {
+    return outboundQueue;
+  }
+
+  /**
+   * Read the available bytes from the socket and handle all the complete messages.
+   * Must be called on the thread of the loop.
+   *
+   * @param buffer An empty buffer which can be used for reading
+   */
+  void read(ByteBuffer buffer) {
+    try {
+      int bytesRead = channel.read(buffer);
+      if (bytesRead < 0) {
+        close();
+      } else if (bytesRead > 0) {
+        buffer.flip();
+        handleReceivedBytes(buffer);
+      }
+    } catch (IOException e) {
+      Logger.error("Error while receiving data from the client: " + e.getMessage());
+      close();
+    } catch (RuntimeException e) {
+      // A protocol violation, or a failure in the handling of a message: only this client is
+      // affected, the loop serves the other clients on
+      Logger.error("Closing client " + remoteAddress + ": " + e);
+      close();
+    }
+  }
+
+  private void handleReceivedBytes(ByteBuffer buffer) throws IOException {
+    // The session may switch the codec or the compression, check them for every frame
+    Frame frame = compression == null ? decoder.decode(buffer) : null;
+    while (frame != null && !closed) {
+      session.onFrameReceived(frame);
+      frame = compression == null ? decoder.decode(buffer) : null;
+    }
+    if (compression != null && buffer.hasRemaining() && !closed) {
+      compression.setInput(buffer);
+      int length = compression.decompress(plainBytes);
+      while (length > 0 && !closed) {
+        ByteBuffer plain = ByteBuffer.wrap(plainBytes, 0, length);
+        frame = decoder.decode(plain);
+        while (frame != null && !closed) {
+          session.onFrameReceived(frame);
+          frame = decoder.decode(plain);
+        }
+        length = compression.decompress(plainBytes);
+      }
+    }
+  }
+
+  /**
+   * Write as much of the queued data as the socket accepts without blocking. When the socket
+   * can't accept everything, wait for it to become writable again.
+   * Must be called on the thread of the loop.
+   */
+  void flush() {
+    if (closed) {
+      return;
+    }
+    try {
+      if (writeStart == writeEnd) {
+        takeNextWriteBatch();
+      }
+      while (writeStart < writeEnd) {
+        writeStats.addWrite(channel.write(writeBatch, writeStart, writeEnd - writeStart));
+        skipWrittenBuffers();
+        if (writeStart < writeEnd) {
+          key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+          return;
+        }
+        takeNextWriteBatch();
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      flushScheduled.set(false);
+      // A message may have been queued after the last check, but before the flag was reset
+      if (outboundQueue.size() > 0 && flushScheduled.compareAndSet(false, true)) {
+        loop.execute(this::flush);
+      }
+    } catch (IOException e) {
+      Logger.error("Error while sending a message to the client: " + e.getMessage());
+      close();
+    } catch (RuntimeException e) {
+      Logger.error("Closing client " + remoteAddress + " after a failed write: " + e);
+      close();
+    }
+  }
+
+  private void takeNextWriteBatch() throws IOException {
+    writeStart = 0;
+    writeEnd = 0;
+    Frame frame = writeEnd < writeBatch.length ? outboundQueue.poll() : null;
+    while (frame != null) {
+      writeBatch[writeEnd++] = compression != null && !frame.isControl()
+          ? compress(frame) : frame.asByteBuffer(outputCodec);
+      frame = writeEnd < writeBatch.length ? outboundQueue.poll() : null;
+    }
+    writeStats.addFrames(writeEnd);
+  }
+
+  /**
+   * Compress a frame. The compressed bytes belong to this connection only, they are copied out
+   * of the reused buffer of the compressor.
+   */
+  private ByteBuffer compress(Frame frame) throws IOException {
+    ByteBuffer compressed = compression.compress(frame.asByteBuffer(outputCodec));
+    return ByteBuffer.allocate(compressed.remaining()).put(compressed).flip();
+  }
+
+  private void skipWrittenBuffers() {
+    while (writeStart < writeEnd && !writeBatch[writeStart].hasRemaining()) {
+      writeBatch[writeStart++] = null;
+    }
+  }
+
+  /**
+   * Close the connection. Must be called on the thread of the loop.
+   */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    key.cancel();
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Logger.error("Error while closing socket for client " + remoteAddress
+          + ", reason: " + e.getMessage());
+    }
+    outboundQueue.close();
+    if (compression != null) {
+      compression.close();
+    }
+    session.onConnectionClosed();
+    Logger.info("Client " + remoteAddress + " disconnected");
+  }
+}
@@ -0,0 +1,150 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import no.ntnu.tools.Logger;
+
+/**
+ * One I/O loop of the {@link NioTcpServer}. Serves many client connections with a single
+ * thread, using a selector. All the socket operations of a connection are executed on the
+ * thread of the loop which owns the connection. Other threads hand work over to the loop
+ * with {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final TcpServer server;
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  // Shared by all the connections of this loop, the bytes are decoded right after reading
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  private volatile boolean running = true;
+
+  /**
+   * Create an event loop.
+   *
+   * @param server The server which handles the events of the clients
+   * @throws IOException When the selector can't be opened
+   */
+  NioEventLoop(TcpServer server) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Hand a newly accepted client over to this loop. Can be called from any thread.
+   *
+   * @param channel The socket channel of the client
+   */
+  void register(SocketChannel channel) {
+    execute(() -> registerChannel(channel));
+  }
+
+  /**
+   * Run a task on the thread of this loop. Can be called from any thread.
+   *
+   * @param task The task to run
+   */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /**
+   * Stop the loop and close all the connections served by it.
+   */
+  void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    while (running) {
+      try {
+        selector.select();
+        runPendingTasks();
+        processSelectedKeys();
+      } catch (IOException e) {
+        Logger.error("Error in the event loop: " + e.getMessage());
+      } catch (RuntimeException e) {
+        // For example, closing a failed connection failed too: the loop must not end
+        Logger.error("Unexpected error in the event loop: " + e);
+      }
+    }
+    closeAllConnections();
+  }
+
+  private void registerChannel(SocketChannel channel) {
+    try {
+      channel.configureBlocking(false);
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new NioClientConnection(channel, key, this, server));
+    } catch (IOException e) {
+      Logger.error("Could not register the client: " + e.getMessage());
+      closeChannel(channel);
+    }
+  }
+
+  private void runPendingTasks() {
+    Runnable task = tasks.poll();
+    while (task != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        // The tasks of the other connections must still run, and the loop must go on
+        Logger.error("A task of the event loop failed: " + e);
+      }
+      task = tasks.poll();
+    }
+  }
+
+  private void processSelectedKeys() {
+    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+    while (it.hasNext()) {
+      SelectionKey key = it.next();
+      it.remove();
+      NioClientConnection connection = (NioClientConnection) key.attachment();
+      try {
+        if (key.isValid() && key.isWritable()) {
+          connection.flush();
+        }
+        if (key.isValid() && key.isReadable()) {
+          readBuffer.clear();
+          connection.read(readBuffer);
+        }
+      } catch (RuntimeException e) {
+        // Close only the failed connection, the loop serves the other ones on
+        Logger.error("Unexpected error on a client connection: " + e);
+        connection.close();
+      }
+    }
+  }
+
+  private void closeAllConnections() {
+    for (SelectionKey key : selector.keys()) {
+      if (key.attachment() instanceof NioClientConnection connection) {
+        connection.close();
+      }
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      Logger.error("Could not close the selector: " + e.getMessage());
+    }
+  }
+
+  private static void closeChannel(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      Logger.error("Could not close the client channel: " + e.getMessage());
+    }
+  }
+}
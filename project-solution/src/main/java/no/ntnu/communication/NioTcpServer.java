@@ -0,0 +1,161 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import no.ntnu.tools.Logger;
+
+/**
+ * A TCP server which serves all the clients with a small, fixed number of non-blocking
+ * event loops (one per processor core) instead of one thread per client. The message handling
+ * is the same as in {@link TcpServer}.
+ */
+public class NioTcpServer extends TcpServer {
+  private static final long MIN_ACCEPT_RETRY_DELAY_MILLIS = 10;
+  private static final long MAX_ACCEPT_RETRY_DELAY_MILLIS = 1000;
+
+  private final int loopCount;
+  private NioEventLoop[] loops;
+  private volatile ServerSocketChannel serverChannel;
+  // The wait after a failed accept, doubled while the accept keeps failing, 0 after a success
+  private long acceptRetryDelayMillis = 0;
+
+  /**
+   * Create a server with one event loop per available processor core.
+   */
+  public NioTcpServer() {
+    this(TCP_PORT, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a server with a given number of event loops.
+   *
+   * @param port      The TCP port to listen on
+   * @param loopCount The number of event loops (threads) to use for serving the clients
+   */
+  public NioTcpServer(int port, int loopCount) {
+    // No client executor - the event loops serve all the clients
+    super(port, null);
+    if (loopCount <= 0) {
+      throw new IllegalArgumentException("At least one event loop is needed");
+    }
+    this.loopCount = loopCount;
+  }
+
+  /**
+   * Run the TCP server. The method call does not return (i.e., returns only when the server
+   * is shutting down)
+   */
+  @Override
+  public void run() {
+    if (openListeningChannel()) {
+      if (startEventLoops()) {
+        markRunning();
+        int nextLoop = 0;
+        while (isRunning()) {
+          SocketChannel clientChannel = acceptNextClient();
+          if (clientChannel != null) {
+            loops[nextLoop].register(clientChannel);
+            nextLoop = (nextLoop + 1) % loops.length;
+          }
+        }
+        stopEventLoops();
+      } else {
+        // Nobody would serve the clients, don't keep the port
+        closeListeningSocket();
+      }
+    }
+
+    Logger.info("Server exiting...");
+  }
+
+  private boolean openListeningChannel() {
+    boolean success = false;
+    try {
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(getPort()));
+      Logger.info("Server listening on port " + getPort() + " with " + loopCount
+          + " event loops");
+      success = true;
+    } catch (IOException e) {
+      Logger.error("Could not open a listening socket on port " + getPort()
+          + ", reason: " + e.getMessage());
+    }
+    return success;
+  }
+
+  private boolean startEventLoops() {
+    boolean success = false;
+    try {
+      loops = new NioEventLoop[loopCount];
+      for (int i = 0; i < loopCount; ++i) {
+        loops[i] = new NioEventLoop(this);
+        new Thread(loops[i], "nio-loop-" + i).start();
+      }
+      success = true;
+    } catch (IOException e) {
+      Logger.error("Could not start the event loops: " + e.getMessage());
+      stopEventLoops();
+    }
+    return success;
+  }
+
+  private void stopEventLoops() {
+    for (NioEventLoop loop : loops) {
+      if (loop != null) {
+        loop.shutdown();
+      }
+    }
+  }
+
+  private SocketChannel acceptNextClient() {
+    SocketChannel clientChannel = null;
+    try {
+      clientChannel = serverChannel.accept();
+      acceptRetryDelayMillis = 0;
+    } catch (ClosedChannelException e) {
+      // Closing the listening channel on shutdown interrupts the accept. Otherwise the channel
+      // is broken, and every later accept would fail at once.
+      if (isRunning()) {
+        Logger.error("The listening channel has been closed, stopping the server");
+        shutdown();
+      }
+    } catch (IOException e) {
+      if (isRunning()) {
+        Logger.error("Could not accept the next client: " + e.getMessage());
+        waitBeforeNextAccept();
+      }
+    }
+    return clientChannel;
+  }
+
+  /**
+   * Wait a while after a failed accept. The error may last (for example, when the process is
+   * out of file descriptors) - retrying at once would only burn the CPU.
+   */
+  private void waitBeforeNextAccept() {
+    acceptRetryDelayMillis = Math.min(MAX_ACCEPT_RETRY_DELAY_MILLIS,
+        Math.max(MIN_ACCEPT_RETRY_DELAY_MILLIS, acceptRetryDelayMillis * 2));
+    try {
+      Thread.sleep(acceptRetryDelayMillis);
+    } catch (InterruptedException e) {
+      Logger.error("Interrupted while waiting to accept clients, stopping the server");
+      Thread.currentThread().interrupt();
+      shutdown();
+    }
+  }
+
+  @Override
+  protected void closeListeningSocket() {
+    ServerSocketChannel channel = serverChannel;
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        Logger.error("Could not close the listening channel: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package no.ntnu.communication;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
+
+/**
+ * The latest known state of every connected sensor/actuator node: its last sensor readings (with
+ * the sensor deltas applied) and the on/off state of each actuator which has reported it. The
+ * state is updated incrementally, as the messages from the nodes pass through the server, so that
+ * a control panel which connects later can get the whole picture at once instead of waiting for
+ * the next readings.
+ */
+public class NodeStateCache {
+  private final Map<Integer, NodeState> nodes = new ConcurrentHashMap<>();
+
+  /**
+   * The latest known state of one sensor/actuator node. Updating the state and sending the
+   * update to the control panels should be done while holding the lock of this object -
+   * then a snapshot, which is sent under the same lock, is never older than the updates which
+   * the control panel has already received.
+   */
+  public static class NodeState {
+    private Frame sensorDataFrame;
+    private final Map<Integer, Frame> actuatorStates = new TreeMap<>();
+
+    /**
+     * Remember the latest sensor readings of the node.
+     *
+     * @param frame The encoded sensor-data message
+     */
+    public synchronized void setSensorData(Frame frame) {
+      this.sensorDataFrame = frame;
+    }
+
+    /**
+     * Apply a sensor delta to the latest sensor readings of the node.
+     *
+     * @param delta The changed readings
+     * @return The frame with the new full readings, null when the full readings are not known
+     *     yet - a delta can't be applied before a full sensor data message
+     * @throws IllegalArgumentException When the delta refers to a sensor which is not in the
+     *                                  full readings
+     */
+    public synchronized Frame applyDelta(SensorDeltaMessage delta) {
+      Frame frame = null;
+      if (sensorDataFrame != null
+          && sensorDataFrame.getMessage() instanceof SensorDataMessage previous) {
+        frame = Frame.of(new SensorDataMessage(delta.applyTo(previous.getSensors()),
+            previous.getNodeId(), previous.getDictionary()));
+        sensorDataFrame = frame;
+      }
+      return frame;
+    }
+
+    /**
+     * Get the latest sensor readings of the node, encoded.
+     *
+     * @return The last sensor-data message, null if none is received yet
+     */
+    public synchronized Frame getSensorDataFrame() {
+      return sensorDataFrame;
+    }
+
+    /**
+     * Remember the latest state of an actuator.
+     *
+     * @param actuatorId ID of the actuator
+     * @param frame      The encoded actuator-state message
+     */
+    public synchronized void setActuatorState(int actuatorId, Frame frame) {
+      actuatorStates.put(actuatorId, frame);
+    }
+
+    /**
+     * Get the latest states of all the actuators which have reported it, ordered by
+     * actuator ID.
+     *
+     * @return A snapshot of the encoded actuator-state messages
+     */
+    public synchronized Collection<Frame> getActuatorStates() {
+      return new ArrayList<>(actuatorStates.values());
+    }
+  }
+
+  /**
+   * Start tracking the state of a node. The previously known state of a node with the same ID,
+   * if any, is forgotten: a reconnected node reports its state again.
+   *
+   * @param nodeId ID of the node
+   */
+  public void addNode(int nodeId) {
+    nodes.put(nodeId, new NodeState());
+  }
+
+  /**
+   * Forget the state of a node.
+   *
+   * @param nodeId ID of the node
+   */
+  public void removeNode(int nodeId) {
+    nodes.remove(nodeId);
+  }
+
+  /**
+   * Get the state of a node.
+   *
+   * @param nodeId ID of the node
+   * @return The state of the node, or null if the node is not tracked
+   */
+  public NodeState getNode(int nodeId) {
+    return nodes.get(nodeId);
+  }
+}
@@ -0,0 +1,167 @@
+package no.ntnu.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDictionary;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A bounded ring buffer of timestamped sensor samples, kept by a sensor node while its
+ * connection to the server is down. When the node has reconnected, the buffer is drained to the
+ * server as batched sensor data messages.
+ *
+ * <p>The samples of one node always have the same sensors in the same order, so only the scaled
+ * values are stored, in one preallocated array - buffering a sample allocates nothing. The
+ * sensor types and units are taken from the first sample; a sample with a different number of
+ * sensors starts the buffer over.
+ */
+public class OfflineSampleBuffer {
+  /**
+   * By default 720 samples are kept - an hour of readings, with a sample every 5 seconds.
+   */
+  public static final int DEFAULT_CAPACITY = 720;
+
+  private final int capacity;
+  private final EvictionPolicy evictionPolicy;
+  private final long[] timestamps;
+  // capacity * sensorCount values, allocated with the first sample
+  private int[] centiValues;
+  private String[] types;
+  private String[] units;
+  private int sensorCount = 0;
+  // Index of the oldest sample
+  private int head = 0;
+  private int size = 0;
+  private long droppedCount = 0;
+
+  /**
+   * Create an offline buffer.
+   *
+   * @param capacity       The largest number of samples kept
+   * @param evictionPolicy Which samples to drop when the buffer is full
+   */
+  public OfflineSampleBuffer(int capacity, EvictionPolicy evictionPolicy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Buffer capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.evictionPolicy = evictionPolicy;
+    this.timestamps = new long[capacity];
+  }
+
+  /**
+   * Add a sample. When the buffer is full, a sample is dropped according to the eviction
+   * policy.
+   *
+   * @param timestamp The time when the sensors were read, in milliseconds since the epoch
+   * @param readings  The readings of all the sensors of the node, the values are copied
+   * @return True when the sample was buffered, false when it was dropped
+   */
+  public synchronized boolean add(long timestamp, List<SensorReading> readings) {
+    if (centiValues == null || readings.size() != sensorCount) {
+      startOver(readings);
+    }
+    boolean added = true;
+    if (size == capacity) {
+      droppedCount++;
+      if (evictionPolicy == EvictionPolicy.DROP_OLDEST) {
+        head = (head + 1) % capacity;
+        size--;
+      } else {
+        added = false;
+      }
+    }
+    if (added) {
+      int slot = (head + size) % capacity;
+      timestamps[slot] = timestamp;
+      int offset = slot * sensorCount;
+      for (int i = 0; i < sensorCount; ++i) {
+        centiValues[offset + i] = readings.get(i).getCentiValue();
+      }
+      size++;
+    }
+    return added;
+  }
+
+  private void startOver(List<SensorReading> readings) {
+    droppedCount += size;
+    head = 0;
+    size = 0;
+    sensorCount = readings.size();
+    centiValues = new int[capacity * sensorCount];
+    types = new String[sensorCount];
+    units = new String[sensorCount];
+    for (int i = 0; i < sensorCount; ++i) {
+      types[i] = readings.get(i).getType();
+      units[i] = readings.get(i).getUnit();
+    }
+  }
+
+  /**
+   * Create a batch of the oldest buffered samples. The samples stay in the buffer until they
+   * are removed with remove(), after the batch has been sent.
+   *
+   * @param nodeId     ID of the node
+   * @param dictionary The sensor types declared by the node, null when none are declared
+   * @param maxSamples The largest number of samples in the batch
+   * @return The batch, null when the buffer is empty
+   */
+  public synchronized SensorDataMessage createBatch(int nodeId, SensorDictionary dictionary,
+                                                    int maxSamples) {
+    SensorDataMessage batch = null;
+    int count = Math.min(size, maxSamples);
+    if (count > 0) {
+      List<SensorSample> samples = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        int slot = (head + i) % capacity;
+        List<SensorReading> readings = new ArrayList<>(sensorCount);
+        for (int j = 0; j < sensorCount; ++j) {
+          readings.add(SensorReading.ofCentiValue(types[j],
+              centiValues[slot * sensorCount + j], units[j]));
+        }
+        samples.add(new SensorSample(timestamps[slot], readings));
+      }
+      batch = SensorDataMessage.ofSamples(samples, nodeId, dictionary);
+    }
+    return batch;
+  }
+
+  /**
+   * Remove the oldest samples, once they have been sent.
+   *
+   * @param count The number of samples to remove
+   */
+  public synchronized void remove(int count) {
+    int removed = Math.min(count, size);
+    head = (head + removed) % capacity;
+    size -= removed;
+  }
+
+  /**
+   * Get the number of buffered samples.
+   *
+   * @return The number of samples waiting to be sent
+   */
+  public synchronized int getSize() {
+    return size;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * Get the number of samples lost because the buffer was full.
+   *
+   * @return The number of dropped samples
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+}
@@ -0,0 +1,314 @@
+package no.ntnu.communication;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorNodeOfflineMessage;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+
+/**
+ * A bounded queue of messages waiting to be sent to one client. The messages are added by any
+ * thread and removed by the writer of the connection. When the queue is full, the overflow
+ * policy decides what happens. The queue keeps statistics which help to find lagging clients.
+ *
+ * <p>In the {@link DeliveryMode#LATEST_VALUE} mode the queue has a slot per sensor/actuator
+ * node, holding the newest pending sensor-data frame of that node. The queue itself then
+ * contains only the first frame which occupied the slot, as a placeholder for its position.
+ * A frame announcing the node or reporting it offline closes the slot: newer sensor data must
+ * not jump ahead of it, it opens a new slot behind it. The closed slot is still delivered.
+ */
+public class OutboundQueue {
+  private final int capacity;
+  private final OverflowPolicy policy;
+  private final DeliveryMode deliveryMode;
+  private final Deque<Frame> messages = new ArrayDeque<>();
+  // The placeholder of the open slot of each node
+  private final Map<Integer, Frame> openSlots = new HashMap<>();
+  // The newest sensor data of each slot, by its placeholder
+  private final Map<Frame, Frame> latestSensorData = new IdentityHashMap<>();
+  // The dropped count when the last full sensor data of each node was queued: the deltas of a
+  // node can be applied by the client only while no message has been dropped since
+  private final Map<Integer, Long> deltaBases = new HashMap<>();
+  private boolean closed = false;
+  private int peakSize = 0;
+  private long droppedCount = 0;
+  private long replacedCount = 0;
+
+  /**
+   * Create an outbound queue which delivers all the messages.
+   *
+   * @param capacity The maximum number of queued messages
+   * @param policy   What to do when a message is added to a full queue
+   */
+  public OutboundQueue(int capacity, OverflowPolicy policy) {
+    this(capacity, policy, DeliveryMode.QUEUED);
+  }
+
+  /**
+   * Create an outbound queue.
+   *
+   * @param capacity     The maximum number of queued messages
+   * @param policy       What to do when a message is added to a full queue
+   * @param deliveryMode How the sensor data is delivered
+   */
+  public OutboundQueue(int capacity, OverflowPolicy policy, DeliveryMode deliveryMode) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.policy = policy;
+    this.deliveryMode = deliveryMode;
+  }
+
+  /**
+   * Add a message to the queue. When the queue is full, apply the overflow policy.
+   *
+   * @param message The encoded message to add
+   * @return True when the message is accepted (possibly by dropping another message), false
+   *     when the queue is full and the client must be disconnected according to the policy
+   */
+  public synchronized boolean offer(Frame message) {
+    boolean accepted = true;
+    Frame placeholder = hasSlot(message) ? openSlots.get(message.getSensorNodeId()) : null;
+    if (!closed && placeholder != null) {
+      // Take the place of the stale reading, the size of the queue does not change
+      latestSensorData.put(placeholder, message);
+      replacedCount++;
+    } else if (!closed) {
+      if (messages.size() >= capacity) {
+        if (policy == OverflowPolicy.DISCONNECT) {
+          accepted = false;
+        } else {
+          dropOneMessage(message);
+        }
+      }
+      if (accepted) {
+        if (hasSlot(message)) {
+          openSlots.put(message.getSensorNodeId(), message);
+          latestSensorData.put(message, message);
+        } else if (deliveryMode == DeliveryMode.LATEST_VALUE) {
+          openSlots.remove(getAnnouncedNodeId(message));
+        }
+        if (message.getSensorNodeId() >= 0) {
+          deltaBases.put(message.getSensorNodeId(), droppedCount);
+        }
+        messages.addLast(message);
+        peakSize = Math.max(peakSize, messages.size());
+        notifyAll();
+      }
+    }
+    return accepted;
+  }
+
+  /**
+   * Add sensor data which was received as a delta. The delta is queued only when the client
+   * gets it right after all the earlier frames of the node: the full sensor data of the node
+   * has been queued and no message has been dropped since, nor must one be dropped now.
+   * Otherwise the full readings are queued in its place, the client is back in sync with them.
+   *
+   * @param deltaFrame The frame with the sensor delta
+   * @param fullFrame  The frame with all the readings of the node, the delta applied
+   * @return True when a message is accepted, false when the client must be disconnected
+   */
+  public synchronized boolean offerSensorDelta(Frame deltaFrame, Frame fullFrame) {
+    Long base = deltaBases.get(fullFrame.getSensorNodeId());
+    boolean inSync = base != null && base == droppedCount && messages.size() < capacity;
+    return offer(inSync ? deltaFrame : fullFrame);
+  }
+
+  private void dropOneMessage(Frame newMessage) {
+    boolean dropped = false;
+    if (policy == OverflowPolicy.CONFLATE) {
+      int nodeId = newMessage.getSensorNodeId();
+      dropped = nodeId >= 0 && removeFirstSensorData(nodeId);
+      if (!dropped) {
+        dropped = removeFirstSensorData(-1);
+      }
+    }
+    if (!dropped) {
+      forgetSlot(messages.pollFirst());
+    }
+    droppedCount++;
+  }
+
+  /**
+   * Check whether the frame is kept in a per-node slot.
+   *
+   * @param frame The frame to check
+   * @return True when the frame is sensor data and only the latest value is delivered
+   */
+  private boolean hasSlot(Frame frame) {
+    return deliveryMode == DeliveryMode.LATEST_VALUE && frame.getSensorNodeId() >= 0;
+  }
+
+  /**
+   * Get the node which a frame announces or reports offline.
+   *
+   * @param frame The frame to check
+   * @return The ID of the node, -1 when the frame is of another type
+   */
+  private static int getAnnouncedNodeId(Frame frame) {
+    int nodeId = -1;
+    int typeId = frame.getTypeId();
+    if (typeId == MessageType.SENSOR_NODE_TYPE || typeId == MessageType.NODE_OFFLINE) {
+      Message message = frame.getMessage();
+      if (message instanceof SensorNodeTypeMessage) {
+        nodeId = ((SensorNodeTypeMessage) message).getNodeId();
+      } else if (message instanceof SensorNodeOfflineMessage) {
+        nodeId = ((SensorNodeOfflineMessage) message).getNodeId();
+      }
+    }
+    return nodeId;
+  }
+
+  /**
+   * Free the slot of a frame (placeholder) which is removed from the queue.
+   *
+   * @param frame The removed frame, can be null
+   * @return The frame which must be delivered in place of the removed one, null if none
+   */
+  private Frame forgetSlot(Frame frame) {
+    Frame latest = frame;
+    if (frame != null && hasSlot(frame)) {
+      Frame newest = latestSensorData.remove(frame);
+      if (newest != null) {
+        latest = newest;
+      }
+      // The slot may have been closed already, a newer one must stay open
+      openSlots.remove(frame.getSensorNodeId(), frame);
+    }
+    return latest;
+  }
+
+  /**
+   * Remove the oldest queued sensor-data message.
+   *
+   * @param nodeId Remove only a message from this node; -1 for a message from any node
+   * @return True when a message was removed, false when no matching message was found
+   */
+  private boolean removeFirstSensorData(int nodeId) {
+    boolean removed = false;
+    Iterator<Frame> it = messages.iterator();
+    while (!removed && it.hasNext()) {
+      Frame message = it.next();
+      int messageNodeId = message.getSensorNodeId();
+      if (messageNodeId >= 0 && (nodeId < 0 || messageNodeId == nodeId)) {
+        it.remove();
+        forgetSlot(message);
+        removed = true;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Remove the next message, wait for one when the queue is empty.
+   *
+   * @return The next message, or null when the queue is closed
+   * @throws InterruptedException When the waiting thread is interrupted
+   */
+  public synchronized Frame take() throws InterruptedException {
+    while (messages.isEmpty() && !closed) {
+      wait();
+    }
+    return forgetSlot(messages.pollFirst());
+  }
+
+  /**
+   * Remove the next message, without waiting.
+   *
+   * @return The next message, or null when the queue is empty
+   */
+  public synchronized Frame poll() {
+    return forgetSlot(messages.pollFirst());
+  }
+
+  /**
+   * Remove the next message, wait for one at most the given time.
+   *
+   * @param timeoutNanos The longest time to wait, in nanoseconds; 0 or less to not wait
+   * @return The next message, or null when none arrived in time or the queue is closed
+   * @throws InterruptedException When the waiting thread is interrupted
+   */
+  public synchronized Frame poll(long timeoutNanos) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutNanos;
+    long remaining = timeoutNanos;
+    while (messages.isEmpty() && !closed && remaining > 0) {
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      remaining = deadline - System.nanoTime();
+    }
+    return forgetSlot(messages.pollFirst());
+  }
+
+  /**
+   * Close the queue: discard all the queued messages, ignore the new ones and wake up the
+   * writer waiting for the messages.
+   */
+  public synchronized void close() {
+    closed = true;
+    messages.clear();
+    openSlots.clear();
+    latestSensorData.clear();
+    deltaBases.clear();
+    notifyAll();
+  }
+
+  /**
+   * Get the delivery mode of the queue.
+   *
+   * @return The delivery mode
+   */
+  public DeliveryMode getDeliveryMode() {
+    return deliveryMode;
+  }
+
+  /**
+   * Get the number of currently queued messages.
+   *
+   * @return The current depth of the queue
+   */
+  public synchronized int size() {
+    return messages.size();
+  }
+
+  /**
+   * Get the largest number of messages which have been queued at the same time.
+   *
+   * @return The peak depth of the queue
+   */
+  public synchronized int getPeakSize() {
+    return peakSize;
+  }
+
+  /**
+   * Get the number of messages dropped (or conflated) because the queue was full.
+   *
+   * @return The number of dropped messages
+   */
+  public synchronized long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Get the number of pending sensor-data messages replaced by newer ones from the same node,
+   * in the {@link DeliveryMode#LATEST_VALUE} mode.
+   *
+   * @return The number of replaced messages
+   */
+  public synchronized long getReplacedCount() {
+    return replacedCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "OutboundQueue{size=" + messages.size() + "/" + capacity + ", peak=" + peakSize
+        + ", dropped=" + droppedCount + ", replaced=" + replacedCount + ", policy=" + policy
+        + ", delivery=" + deliveryMode + "}";
+  }
+}
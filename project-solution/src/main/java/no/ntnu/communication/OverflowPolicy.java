@@ -0,0 +1,22 @@
+package no.ntnu.communication;
+
+/**
+ * What to do when the outbound queue of a client connection is full - the client does not
+ * read the messages as fast as the server produces them.
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the oldest queued message to make room for the new one.
+   */
+  DROP_OLDEST,
+  /**
+   * Replace an older queued sensor-data message from the same sensor/actuator node with the new
+   * one. When there is no such message, drop the oldest sensor-data message (or the oldest
+   * message, if no sensor data is queued).
+   */
+  CONFLATE,
+  /**
+   * Disconnect the client.
+   */
+  DISCONNECT
+}
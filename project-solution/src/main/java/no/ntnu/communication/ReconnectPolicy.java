@@ -0,0 +1,82 @@
+package no.ntnu.communication;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long a client waits before each attempt to reconnect to the server: exponential backoff
+ * with jitter. The delay doubles with every failed attempt, up to a maximum. The actual delay is
+ * a random value between half of the delay and the full delay, so that the many nodes which lose
+ * the connection at the same moment (when the server restarts) do not all come back at the same
+ * moment and overflow the accept queue of the server.
+ */
+public class ReconnectPolicy {
+  /**
+   * The first attempt after 0.25 - 0.5 seconds, at most one attempt in 15 - 30 seconds.
+   */
+  public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(500, 30000);
+  // The delay stops doubling long before it could overflow
+  private static final int MAX_DOUBLINGS = 30;
+
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+
+  /**
+   * Create a reconnect policy.
+   *
+   * @param initialDelayMillis The delay before the first attempt (before the jitter), in
+   *                           milliseconds
+   * @param maxDelayMillis     The largest delay between two attempts (before the jitter), in
+   *                           milliseconds
+   */
+  public ReconnectPolicy(long initialDelayMillis, long maxDelayMillis) {
+    if (initialDelayMillis <= 0) {
+      throw new IllegalArgumentException("The initial delay must be positive");
+    }
+    if (maxDelayMillis < initialDelayMillis) {
+      throw new IllegalArgumentException("The maximum delay can't be smaller than the initial");
+    }
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  public long getInitialDelayMillis() {
+    return initialDelayMillis;
+  }
+
+  public long getMaxDelayMillis() {
+    return maxDelayMillis;
+  }
+
+  /**
+   * Get the delay before an attempt to reconnect.
+   *
+   * @param attempt The number of the attempts which have failed already, 0 for the first one
+   * @return The delay, in milliseconds
+   */
+  public long getDelayMillis(int attempt) {
+    return getDelayMillis(attempt, ThreadLocalRandom.current());
+  }
+
+  /**
+   * Get the delay before an attempt to reconnect.
+   *
+   * @param attempt The number of the attempts which have failed already, 0 for the first one
+   * @param random  The source of the jitter
+   * @return The delay, in milliseconds
+   */
+  long getDelayMillis(int attempt, Random random) {
+    long delay = maxDelayMillis;
+    int doublings = Math.min(Math.max(attempt, 0), MAX_DOUBLINGS);
+    if (initialDelayMillis <= maxDelayMillis >> doublings) {
+      delay = initialDelayMillis << doublings;
+    }
+    long half = delay / 2;
+    return delay - half + random.nextLong(half + 1);
+  }
+
+  @Override
+  public String toString() {
+    return "ReconnectPolicy{" + initialDelayMillis + " - " + maxDelayMillis + " ms}";
+  }
+}
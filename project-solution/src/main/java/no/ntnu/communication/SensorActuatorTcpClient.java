@@ -1,67 +1,102 @@
 package no.ntnu.communication;
 
-import static no.ntnu.communication.message.ErrorType.UNKNOWN;
-
 import java.util.List;
-import no.ntnu.communication.message.ActuatorStateMessage;
-import no.ntnu.communication.message.ErrorMessage;
 import no.ntnu.communication.message.Message;
-import no.ntnu.communication.message.MessageSerializer;
-import no.ntnu.communication.message.SensorDataMessage;
-import no.ntnu.communication.message.SensorNodeTypeMessage;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.Sensor;
 import no.ntnu.greenhouse.SensorActuatorNode;
-import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
 import no.ntnu.listeners.greenhouse.SensorListener;
 import no.ntnu.tools.Logger;
 
 /**
- * Tcp client for the sensor/actuator node.
+ * Tcp client for the sensor/actuator node: one connection to the server for one node. The
+ * protocol logic of the node is in its {@link SensorNodeSession}. See {@link GatewayTcpClient}
+ * for carrying many nodes over one connection.
  */
 public class SensorActuatorTcpClient extends TcpClient
     implements SensorListener, NodeStateListener, ActuatorListener {
 
-  private final SensorActuatorNode node;
+  private final SensorNodeSession session;
 
   public SensorActuatorTcpClient(SensorActuatorNode node) {
-    this.node = node;
+    this.session = new SensorNodeSession(node, new ServerConnection() {
+      @Override
+      public boolean sendToServer(Message message) {
+        return SensorActuatorTcpClient.this.sendToServer(message);
+      }
+
+      @Override
+      public boolean isConnected() {
+        return SensorActuatorTcpClient.this.isConnected();
+      }
+    });
   }
 
   @Override
   protected Message createNodeTypeMessage() {
-    return new SensorNodeTypeMessage(node);
+    return session.createNodeTypeMessage();
   }
 
-  protected void processServerMessage(Message message) {
-    if (message instanceof ActuatorStateMessage actuatorCommand) {
-      processActuatorCommand(actuatorCommand);
-    } else if (message instanceof ErrorMessage errorMessage) {
-      Logger.error("Error from server[" + errorMessage.getType() + "]: "
-          + errorMessage.getMessage());
-    } else {
-      Logger.error("Processing not implemented: " + message);
-      ErrorMessage errorMessage = new ErrorMessage(UNKNOWN, "Unknown command received");
-      sendToServer(MessageSerializer.toString(errorMessage));
-    }
+  /**
+   * Get the encoder which decides which sensor readings are reported, use it to configure the
+   * deadbands and the keyframe interval.
+   *
+   * @return The delta encoder of this client
+   */
+  public SensorDeltaEncoder getDeltaEncoder() {
+    return session.getDeltaEncoder();
   }
 
-  private void processActuatorCommand(ActuatorStateMessage actuatorCommand) {
-    if (actuatorCommand.isAnyActuator()) {
-      node.setAllActuators(actuatorCommand.isOn());
-    } else {
-      node.setActuator(actuatorCommand.getActuatorId(), actuatorCommand.isOn());
-    }
+  /**
+   * Get the batcher which collects the sensor samples into batched messages, use it to enable
+   * batching when the sensors are sampled often. While batching is enabled, every batch carries
+   * the full readings and no deltas are sent.
+   *
+   * @return The sensor batcher of this client
+   */
+  public SensorBatcher getBatcher() {
+    return session.getBatcher();
+  }
+
+  /**
+   * Configure the buffer which keeps the sensor samples while the connection is down. The
+   * samples buffered so far are discarded.
+   *
+   * @param capacity       The largest number of samples kept, 0 to disable the buffering
+   * @param evictionPolicy Which samples to drop when the buffer is full
+   */
+  public void setOfflineBuffer(int capacity, EvictionPolicy evictionPolicy) {
+    session.setOfflineBuffer(capacity, evictionPolicy);
+  }
+
+  /**
+   * Get the buffer which keeps the sensor samples while the connection is down, to check how
+   * many samples are waiting and how many have been dropped.
+   *
+   * @return The offline buffer, null when the buffering is disabled
+   */
+  public OfflineSampleBuffer getOfflineBuffer() {
+    return session.getOfflineBuffer();
+  }
+
+  protected void processServerMessage(Message message) {
+    session.processServerMessage(message);
   }
 
   @Override
   public void sensorsUpdated(List<Sensor> sensors) {
-    List<SensorReading> readings = sensors.stream().map(Sensor::getReading).toList();
-    Message message = new SensorDataMessage(readings, node.getId());
-    String serializedSensorData = MessageSerializer.toString(message);
-    sendToServer(serializedSensorData);
+    session.sensorsUpdated(sensors);
+  }
+
+  /**
+   * The server has lost everything about this node (it may have restarted), the handshake has
+   * declared the node again.
+   */
+  @Override
+  protected void onReconnected() {
+    session.onConnectionRestored();
   }
 
   @Override
@@ -75,14 +110,12 @@ public class SensorActuatorTcpClient extends TcpClient
   @Override
   public void onNodeStopped(SensorActuatorNode node) {
     Logger.info("Node " + node.getId() + " is shut down, close the socket");
+    session.flushBatch();
     closeSocket();
   }
 
   @Override
   public void actuatorUpdated(int nodeId, Actuator actuator) {
-    Logger.info(actuator + " updated on node " + nodeId + ", sending message to server...");
-    ActuatorStateMessage message = new ActuatorStateMessage(
-        nodeId, actuator.getId(), actuator.isOn());
-    sendToServer(MessageSerializer.toString(message));
+    session.actuatorUpdated(nodeId, actuator);
   }
 }
@@ -0,0 +1,121 @@
+package no.ntnu.communication;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDictionary;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Collects the sensor samples of a node into batches, so that a node sampling much faster than
+ * usual sends one batched sensor data message instead of one message per sample. A batch is
+ * complete when it has maxSamples samples, or when its first sample is maxDelayMillis old -
+ * the latency added by the batching is bounded by maxDelayMillis.
+ *
+ * <p>Batching is disabled by default (maxSamples is 1), every sample is sent on its own.
+ */
+public class SensorBatcher {
+  private int maxSamples = 1;
+  private long maxDelayMillis = 0;
+  private List<SensorSample> samples = new ArrayList<>();
+  private int nodeId;
+  private SensorDictionary dictionary;
+
+  /**
+   * Set when a batch is complete.
+   *
+   * @param maxSamples     The largest number of samples in a batch, 1 to disable batching
+   * @param maxDelayMillis The longest time a sample waits in a batch before it is sent, in
+   *                       milliseconds
+   */
+  public synchronized void setLimits(int maxSamples, long maxDelayMillis) {
+    if (maxSamples < 1) {
+      throw new IllegalArgumentException("A batch must allow at least one sample");
+    }
+    if (maxDelayMillis < 0) {
+      throw new IllegalArgumentException("Batch delay can't be negative");
+    }
+    this.maxSamples = maxSamples;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Check whether the samples are batched.
+   *
+   * @return True when a batch can contain more than one sample
+   */
+  public synchronized boolean isEnabled() {
+    return maxSamples > 1;
+  }
+
+  /**
+   * Get the longest time a sample waits in a batch.
+   *
+   * @return The delay, in milliseconds
+   */
+  public synchronized long getMaxDelayMillis() {
+    return maxDelayMillis;
+  }
+
+  /**
+   * Get the number of samples waiting in the current batch.
+   *
+   * @return The number of samples
+   */
+  public synchronized int getSampleCount() {
+    return samples.size();
+  }
+
+  /**
+   * Add a sample to the current batch. The readings are copied, the sensors may update them
+   * in place later.
+   *
+   * @param nodeId     ID of the node
+   * @param timestamp  The time when the sensors were read, in milliseconds since the epoch
+   * @param readings   The current readings of the sensors of the node
+   * @param dictionary The sensor types declared by the node, null when none are declared
+   * @return The complete batch to send, null when the batch is not complete yet
+   */
+  public synchronized SensorDataMessage add(int nodeId, long timestamp,
+                                            List<SensorReading> readings,
+                                            SensorDictionary dictionary) {
+    List<SensorReading> copy = new ArrayList<>(readings.size());
+    for (SensorReading reading : readings) {
+      copy.add(SensorReading.ofCentiValue(reading.getType(), reading.getCentiValue(),
+          reading.getUnit()));
+    }
+    this.nodeId = nodeId;
+    this.dictionary = dictionary;
+    samples.add(new SensorSample(timestamp, copy));
+    return samples.size() >= maxSamples || isDue(timestamp) ? flush() : null;
+  }
+
+  /**
+   * Complete the current batch if its first sample has waited long enough.
+   *
+   * @param now The current time, in milliseconds since the epoch
+   * @return The batch to send, null when there is nothing to send yet
+   */
+  public synchronized SensorDataMessage flushIfDue(long now) {
+    return isDue(now) ? flush() : null;
+  }
+
+  /**
+   * Complete the current batch, no matter how many samples it has.
+   *
+   * @return The batch to send, null when there are no samples
+   */
+  public synchronized SensorDataMessage flush() {
+    SensorDataMessage batch = null;
+    if (!samples.isEmpty()) {
+      batch = SensorDataMessage.ofSamples(samples, nodeId, dictionary);
+      samples = new ArrayList<>();
+    }
+    return batch;
+  }
+
+  private boolean isDue(long now) {
+    return !samples.isEmpty() && now - samples.get(0).getTimestamp() >= maxDelayMillis;
+  }
+}
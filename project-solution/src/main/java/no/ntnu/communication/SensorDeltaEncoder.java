@@ -0,0 +1,107 @@
+package no.ntnu.communication;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
+import no.ntnu.communication.message.SensorDictionary;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * Decides what a sensor/actuator node reports: a full sensor data message (a keyframe) or only
+ * the readings which have changed since they were last reported (a delta). A reading is
+ * reported when it has moved by more than the deadband of its sensor type since the value which
+ * was last sent. Every keyframeInterval-th report is a keyframe, so that the receivers can't
+ * drift away from the real values for long, even if something goes wrong.
+ *
+ * <p>The first report after reset() is always a keyframe - call it when a new connection is
+ * established.
+ */
+public class SensorDeltaEncoder {
+  /**
+   * By default every 12th report is a keyframe - once a minute, with a report every 5 seconds.
+   */
+  public static final int DEFAULT_KEYFRAME_INTERVAL = 12;
+  // In hundredths of the unit, as the values
+  private final Map<String, Integer> deadbands = new HashMap<>();
+  private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+  // The last sent value of every sensor, null when the next report must be a keyframe
+  private int[] sentValues;
+  private int reportsSinceKeyframe;
+
+  /**
+   * Set the deadband of a sensor type: changes up to this size are not reported, except in
+   * keyframes. The default deadband is zero - every change is reported.
+   *
+   * @param sensorType The sensor type, for example "temperature"
+   * @param deadband   The largest change which is not reported
+   */
+  public synchronized void setDeadband(String sensorType, double deadband) {
+    if (deadband < 0) {
+      throw new IllegalArgumentException("Deadband can't be negative");
+    }
+    deadbands.put(sensorType, SensorReading.toCentiValue(deadband));
+  }
+
+  /**
+   * Set how often a keyframe is sent.
+   *
+   * @param keyframeInterval Every keyframeInterval-th report is a keyframe. Use 1 to send only
+   *                         keyframes, without any deltas.
+   */
+  public synchronized void setKeyframeInterval(int keyframeInterval) {
+    if (keyframeInterval < 1) {
+      throw new IllegalArgumentException("Keyframe interval must be positive");
+    }
+    this.keyframeInterval = keyframeInterval;
+  }
+
+  /**
+   * Forget the reported values, the next report will be a keyframe.
+   */
+  public synchronized void reset() {
+    sentValues = null;
+  }
+
+  /**
+   * Create the report of the current sensor readings.
+   *
+   * @param nodeId     ID of the node
+   * @param readings   The current readings of all the sensors of the node, always in the same
+   *                   order
+   * @param dictionary The sensor types declared by the node, null when none are declared
+   * @return The message to send: a sensor data message or a sensor delta message; null when no
+   *     reading has changed enough to be reported
+   */
+  public synchronized Message createReport(int nodeId, List<SensorReading> readings,
+                                           SensorDictionary dictionary) {
+    Message report;
+    if (sentValues == null || sentValues.length != readings.size()
+        || ++reportsSinceKeyframe >= keyframeInterval) {
+      sentValues = new int[readings.size()];
+      for (int i = 0; i < readings.size(); ++i) {
+        sentValues[i] = readings.get(i).getCentiValue();
+      }
+      reportsSinceKeyframe = 0;
+      report = new SensorDataMessage(readings, nodeId, dictionary);
+    } else {
+      SensorDeltaMessage delta = new SensorDeltaMessage(nodeId);
+      for (int i = 0; i < readings.size(); ++i) {
+        SensorReading reading = readings.get(i);
+        if (hasChanged(reading, sentValues[i])) {
+          delta.addChange(i, reading.getCentiValue());
+          sentValues[i] = reading.getCentiValue();
+        }
+      }
+      report = delta.getChangeCount() > 0 ? delta : null;
+    }
+    return report;
+  }
+
+  private boolean hasChanged(SensorReading reading, int sentValue) {
+    return Math.abs(reading.getCentiValue() - sentValue)
+        > deadbands.getOrDefault(reading.getType(), 0);
+  }
+}
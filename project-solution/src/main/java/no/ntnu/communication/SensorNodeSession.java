@@ -0,0 +1,293 @@
+package no.ntnu.communication;
+
+import static no.ntnu.communication.message.ErrorType.UNKNOWN;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.ErrorMessage;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDictionary;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.Sensor;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.listeners.common.ActuatorListener;
+import no.ntnu.listeners.greenhouse.SensorListener;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.Scheduler;
+
+/**
+ * The protocol logic of one sensor/actuator node on the client side: reports the sensor
+ * readings and the actuator states of the node, applies the actuator commands from the server.
+ * The session does not own a socket - it sends through a {@link ServerConnection}, either a
+ * connection of its own ({@link SensorActuatorTcpClient}) or one shared by many nodes
+ * ({@link GatewayTcpClient}).
+ *
+ * <p>While the connection to the server is down, the sensor samples are kept in an offline
+ * buffer; after reconnecting, the buffered samples are sent as batched sensor data messages,
+ * oldest first, before any new readings.
+ */
+public class SensorNodeSession implements SensorListener, ActuatorListener {
+  // Keeps the frames of the drained offline buffer well below the maximum frame length
+  private static final int MAX_SAMPLES_PER_OFFLINE_BATCH = 50;
+
+  private final SensorActuatorNode node;
+  private final ServerConnection connection;
+  private final MessageDispatcher<Message> dispatcher = new MessageDispatcher<>();
+  private final SensorDeltaEncoder deltaEncoder = new SensorDeltaEncoder();
+  private final SensorBatcher batcher = new SensorBatcher();
+  // Keeps the samples while the connection is down, null when disabled
+  private volatile OfflineSampleBuffer offlineBuffer =
+      new OfflineSampleBuffer(OfflineSampleBuffer.DEFAULT_CAPACITY, EvictionPolicy.DROP_OLDEST);
+  // The sensor types declared in the handshake, null until the handshake is sent
+  private volatile SensorDictionary sensorDictionary;
+
+  /**
+   * Create a session for a node.
+   *
+   * @param node       The sensor/actuator node
+   * @param connection The connection through which the messages of the node are sent
+   */
+  public SensorNodeSession(SensorActuatorNode node, ServerConnection connection) {
+    this.node = node;
+    this.connection = connection;
+    dispatcher
+        .register(MessageType.ACTUATOR_STATE,
+            m -> processActuatorCommand((ActuatorStateMessage) m))
+        .register(MessageType.ERROR, m -> onError((ErrorMessage) m))
+        .setFallback(this::onUnknownMessage);
+  }
+
+  public SensorActuatorNode getNode() {
+    return node;
+  }
+
+  /**
+   * Create the node-type message which announces the node to the server. The delta encoding
+   * starts over: the server gets the full readings next.
+   *
+   * @return The node-type message, declaring the actuators and the sensor types of the node
+   */
+  public SensorNodeTypeMessage createNodeTypeMessage() {
+    SensorNodeTypeMessage message = new SensorNodeTypeMessage(node);
+    sensorDictionary = message.getSensorDictionary();
+    deltaEncoder.reset();
+    return message;
+  }
+
+  /**
+   * Get the encoder which decides which sensor readings are reported, use it to configure the
+   * deadbands and the keyframe interval.
+   *
+   * @return The delta encoder of this node
+   */
+  public SensorDeltaEncoder getDeltaEncoder() {
+    return deltaEncoder;
+  }
+
+  /**
+   * Get the batcher which collects the sensor samples into batched messages, use it to enable
+   * batching when the sensors are sampled often. While batching is enabled, every batch carries
+   * the full readings and no deltas are sent.
+   *
+   * @return The sensor batcher of this node
+   */
+  public SensorBatcher getBatcher() {
+    return batcher;
+  }
+
+  /**
+   * Configure the buffer which keeps the sensor samples while the connection is down. The
+   * samples buffered so far are discarded.
+   *
+   * @param capacity       The largest number of samples kept, 0 to disable the buffering
+   * @param evictionPolicy Which samples to drop when the buffer is full
+   */
+  public void setOfflineBuffer(int capacity, EvictionPolicy evictionPolicy) {
+    offlineBuffer = capacity > 0 ? new OfflineSampleBuffer(capacity, evictionPolicy) : null;
+  }
+
+  /**
+   * Get the buffer which keeps the sensor samples while the connection is down, to check how
+   * many samples are waiting and how many have been dropped.
+   *
+   * @return The offline buffer, null when the buffering is disabled
+   */
+  public OfflineSampleBuffer getOfflineBuffer() {
+    return offlineBuffer;
+  }
+
+  /**
+   * Handle a message which the server has sent to this node.
+   *
+   * @param message The received message
+   */
+  public void processServerMessage(Message message) {
+    dispatcher.dispatch(message.getTypeId(), message);
+  }
+
+  private void onError(ErrorMessage errorMessage) {
+    Logger.error("Error from server[" + errorMessage.getType() + "]: "
+        + errorMessage.getMessage());
+  }
+
+  private void onUnknownMessage(Message message) {
+    Logger.error("Processing not implemented: " + message);
+    ErrorMessage errorMessage = new ErrorMessage(UNKNOWN, "Unknown command received");
+    connection.sendToServer(errorMessage);
+  }
+
+  private void processActuatorCommand(ActuatorStateMessage actuatorCommand) {
+    if (actuatorCommand.isAnyActuator()) {
+      node.setAllActuators(actuatorCommand.isOn());
+    } else {
+      node.setActuator(actuatorCommand.getActuatorId(), actuatorCommand.isOn());
+    }
+  }
+
+  @Override
+  public void sensorsUpdated(List<Sensor> sensors) {
+    List<SensorReading> readings = new ArrayList<>(sensors.size());
+    for (Sensor sensor : sensors) {
+      readings.add(sensor.getReading());
+    }
+    long now = System.currentTimeMillis();
+    if (!bufferWhileOffline(now, readings)) {
+      sendReadings(now, readings);
+    }
+  }
+
+  private void sendReadings(long now, List<SensorReading> readings) {
+    if (batcher.isEnabled()) {
+      SensorDataMessage batch = batcher.add(node.getId(), now, readings, sensorDictionary);
+      if (batch != null) {
+        sendBatch(batch);
+      } else if (batcher.getSampleCount() == 1) {
+        scheduleBatchFlush();
+      }
+    } else {
+      Message message = deltaEncoder.createReport(node.getId(), readings, sensorDictionary);
+      if (message != null && !connection.sendToServer(message)) {
+        addToOfflineBuffer(now, readings);
+      }
+    }
+  }
+
+  /**
+   * Put a sample into the offline buffer when it can't be sent right now: the connection is
+   * down, or older buffered samples have not been sent yet - the samples are always sent in
+   * order. In the latter case the buffer is drained right away.
+   *
+   * @return True when the sample has been taken by the buffer
+   */
+  private boolean bufferWhileOffline(long timestamp, List<SensorReading> readings) {
+    OfflineSampleBuffer buffer = offlineBuffer;
+    boolean buffered = false;
+    if (buffer != null) {
+      synchronized (buffer) {
+        if (!connection.isConnected() || buffer.getSize() > 0) {
+          buffer.add(timestamp, readings);
+          buffered = true;
+        }
+      }
+      if (buffered && connection.isConnected()) {
+        drainOfflineBuffer();
+      }
+    }
+    return buffered;
+  }
+
+  private void addToOfflineBuffer(long timestamp, List<SensorReading> readings) {
+    OfflineSampleBuffer buffer = offlineBuffer;
+    if (buffer != null) {
+      buffer.add(timestamp, readings);
+    }
+  }
+
+  /**
+   * Send a batch; when it can't be sent, keep its samples in the offline buffer.
+   */
+  private void sendBatch(SensorDataMessage batch) {
+    if (!connection.sendToServer(batch)) {
+      for (SensorSample sample : batch.getSamples()) {
+        addToOfflineBuffer(sample.getTimestamp(), sample.getReadings());
+      }
+    }
+  }
+
+  /**
+   * Send all the buffered samples, as batches. Stops when a batch can't be sent, the rest of
+   * the samples stay in the buffer.
+   */
+  private void drainOfflineBuffer() {
+    OfflineSampleBuffer buffer = offlineBuffer;
+    if (buffer != null) {
+      synchronized (buffer) {
+        int sent = 0;
+        SensorDataMessage batch = buffer.createBatch(node.getId(), sensorDictionary,
+            MAX_SAMPLES_PER_OFFLINE_BATCH);
+        while (batch != null && connection.sendToServer(batch)) {
+          buffer.remove(batch.getSamples().size());
+          sent += batch.getSamples().size();
+          batch = buffer.createBatch(node.getId(), sensorDictionary,
+              MAX_SAMPLES_PER_OFFLINE_BATCH);
+        }
+        if (sent > 0) {
+          Logger.info("Sent " + sent + " buffered samples of node " + node.getId() + ", "
+              + buffer.getDroppedCount() + " dropped so far");
+          // The next report carries the full readings again
+          deltaEncoder.reset();
+        }
+      }
+    }
+  }
+
+  /**
+   * Make sure the batch which has just been started is sent within the batch delay, even if
+   * it is not full by then.
+   */
+  private void scheduleBatchFlush() {
+    Scheduler.schedule(() -> {
+      SensorDataMessage batch = batcher.flushIfDue(System.currentTimeMillis());
+      if (batch != null) {
+        sendBatch(batch);
+      }
+    }, batcher.getMaxDelayMillis());
+  }
+
+  /**
+   * Send the samples collected into the current batch right away, used when the node stops.
+   */
+  public void flushBatch() {
+    SensorDataMessage batch = batcher.flush();
+    if (batch != null) {
+      connection.sendToServer(batch);
+    }
+  }
+
+  /**
+   * Call this when the server has lost everything about this node (it may have restarted) and
+   * the node has just been announced again: report the current states of the actuators, then
+   * send the samples buffered while the connection was down.
+   */
+  public void onConnectionRestored() {
+    for (Actuator actuator : node.getActuators()) {
+      connection.sendToServer(
+          new ActuatorStateMessage(node.getId(), actuator.getId(), actuator.isOn()));
+    }
+    drainOfflineBuffer();
+  }
+
+  @Override
+  public void actuatorUpdated(int nodeId, Actuator actuator) {
+    Logger.info(actuator + " updated on node " + nodeId + ", sending message to server...");
+    ActuatorStateMessage message = new ActuatorStateMessage(
+        nodeId, actuator.getId(), actuator.isOn());
+    connection.sendToServer(message);
+  }
+}
@@ -0,0 +1,25 @@
+package no.ntnu.communication;
+
+import no.ntnu.communication.message.Message;
+
+/**
+ * The connection to the server, as seen by the client-side logic of one sensor/actuator node.
+ * The node does not know whether it has a socket of its own, or shares the socket of a gateway
+ * with other nodes.
+ */
+public interface ServerConnection {
+  /**
+   * Send a message to the server.
+   *
+   * @param message The message to send
+   * @return True on success, false on error or when not connected
+   */
+  boolean sendToServer(Message message);
+
+  /**
+   * Check whether messages of the node can be sent to the server now.
+   *
+   * @return True when the server knows the node over the current connection
+   */
+  boolean isConnected();
+}
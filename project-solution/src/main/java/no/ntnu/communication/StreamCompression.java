@@ -0,0 +1,135 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * DEFLATE compression of the byte stream of one connection, in both directions. The sensor data
+ * is very repetitive text, so the compression pays off on slow links. Both ends keep one
+ * compressor and one decompressor for the whole lifetime of the connection: the repeated sensor
+ * types, units and prefixes are found in the history of the stream, not only inside one frame.
+ *
+ * <p>Every frame is compressed with a sync flush: all of its compressed bytes are sent right
+ * away, the receiver can decompress the whole frame without waiting for the next one. The added
+ * latency is only the CPU time of the compression.
+ *
+ * <p>The compression is negotiated in the handshake, see {@link HandshakeOptions#COMPRESSION}.
+ * Control frames (the handshake and its reply) are never compressed.
+ */
+public class StreamCompression {
+  public static final String DEFLATE = "deflate";
+  public static final String NONE = "none";
+  private static final int INITIAL_OUTPUT_SIZE = 1024;
+
+  // Raw DEFLATE, without the zlib header and checksum - TCP takes care of the integrity
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  private final Inflater inflater = new Inflater(true);
+  private final CompressionStats stats;
+  private byte[] output = new byte[INITIAL_OUTPUT_SIZE];
+  private boolean closed = false;
+
+  /**
+   * Create the compression of one connection.
+   *
+   * @param stats The counters to update
+   */
+  public StreamCompression(CompressionStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Compress one frame and flush the compressor.
+   *
+   * @param frame The bytes of the frame, between the position and the limit. The position is
+   *              moved to the limit.
+   * @return The compressed bytes. The buffer is reused, it is valid only until the next call.
+   * @throws IOException When the compression has been closed
+   */
+  public synchronized ByteBuffer compress(ByteBuffer frame) throws IOException {
+    checkNotClosed();
+    long start = System.nanoTime();
+    int plainLength = frame.remaining();
+    deflater.setInput(frame);
+    int length = 0;
+    boolean flushed = false;
+    while (!flushed) {
+      length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+      // A full output buffer means that there may be more to flush
+      if (length == output.length) {
+        output = Arrays.copyOf(output, output.length * 2);
+      } else {
+        flushed = true;
+      }
+    }
+    stats.addCompressed(plainLength, length, System.nanoTime() - start);
+    return ByteBuffer.wrap(output, 0, length);
+  }
+
+  /**
+   * Compress one frame and flush the compressor.
+   *
+   * @param frame The bytes of the frame
+   * @return The compressed bytes. The buffer is reused, it is valid only until the next call.
+   * @throws IOException When the compression has been closed
+   */
+  public ByteBuffer compress(byte[] frame) throws IOException {
+    return compress(ByteBuffer.wrap(frame));
+  }
+
+  /**
+   * Give received compressed bytes to the decompressor. Call decompress() until it returns 0
+   * before the buffer is modified or given again: the decompressor reads the buffer directly.
+   *
+   * @param compressed The received bytes, between the position and the limit
+   * @throws IOException When the compression has been closed
+   */
+  public synchronized void setInput(ByteBuffer compressed) throws IOException {
+    checkNotClosed();
+    inflater.setInput(compressed);
+  }
+
+  /**
+   * Decompress as much of the given input as fits into the array.
+   *
+   * @param plain The array to decompress to, from the start
+   * @return The number of decompressed bytes, 0 when all the input has been decompressed
+   * @throws IOException When the received data is not valid compressed data or the compression
+   *                     has been closed
+   */
+  public synchronized int decompress(byte[] plain) throws IOException {
+    checkNotClosed();
+    long start = System.nanoTime();
+    long bytesRead = inflater.getBytesRead();
+    int length;
+    try {
+      length = inflater.inflate(plain);
+    } catch (DataFormatException e) {
+      throw new IOException("Invalid compressed data: " + e.getMessage());
+    }
+    stats.addDecompressed((int) (inflater.getBytesRead() - bytesRead), length,
+        System.nanoTime() - start);
+    return length;
+  }
+
+  /**
+   * Release the native memory of the compressor and the decompressor. Call when the connection
+   * is closed.
+   */
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      deflater.end();
+      inflater.end();
+    }
+  }
+
+  private void checkNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("The connection is closed");
+    }
+  }
+}
@@ -0,0 +1,150 @@
+package no.ntnu.communication;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import no.ntnu.communication.message.SubscribeMessage;
+
+/**
+ * An index of control-panel subscriptions, used for routing the messages about one
+ * sensor/actuator node only to the control panels interested in that node. For every registered
+ * node, the index keeps a ready-made array of matching subscribers, so routing one message
+ * costs O(matching subscribers), not O(all control panels). The arrays are replaced (never
+ * modified) when control panels subscribe or disconnect, which is rare compared to routing.
+ */
+public class SubscriptionIndex {
+  private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+  // All the control panels and their subscriptions (null when everything is requested)
+  private final Map<ClientConnection, SubscribeMessage> subscriptions = new HashMap<>();
+  private final Map<Integer, Subscriber[]> nodeSubscribers = new ConcurrentHashMap<>();
+
+  /**
+   * One control panel interested in a specific sensor/actuator node.
+   */
+  public static class Subscriber {
+    private final ClientConnection connection;
+    private final Set<String> sensorTypes;
+
+    private Subscriber(ClientConnection connection, SubscribeMessage subscription) {
+      this.connection = connection;
+      this.sensorTypes = subscription != null && !subscription.isAnySensorType()
+          ? subscription.getSensorTypes() : null;
+    }
+
+    public ClientConnection getConnection() {
+      return connection;
+    }
+
+    /**
+     * Get the sensor types requested by the control panel.
+     *
+     * @return The requested sensor types, null when all the sensor types are requested
+     */
+    public Set<String> getSensorTypes() {
+      return sensorTypes;
+    }
+  }
+
+  /**
+   * Add a control panel, or change the subscription of an already added control panel.
+   *
+   * @param connection   The connection of the control panel
+   * @param subscription The subscription, null when the control panel wants data about all
+   *                     the nodes and all the sensor types
+   */
+  public synchronized void subscribe(ClientConnection connection, SubscribeMessage subscription) {
+    subscriptions.put(connection, subscription);
+    for (Map.Entry<Integer, Subscriber[]> entry : nodeSubscribers.entrySet()) {
+      Subscriber[] subscribers = without(entry.getValue(), connection);
+      if (matches(subscription, entry.getKey())) {
+        subscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+        subscribers[subscribers.length - 1] = new Subscriber(connection, subscription);
+      }
+      entry.setValue(subscribers);
+    }
+  }
+
+  /**
+   * Remove a control panel from the index.
+   *
+   * @param connection The connection of the control panel
+   */
+  public synchronized void unsubscribe(ClientConnection connection) {
+    subscriptions.remove(connection);
+    for (Map.Entry<Integer, Subscriber[]> entry : nodeSubscribers.entrySet()) {
+      entry.setValue(without(entry.getValue(), connection));
+    }
+  }
+
+  /**
+   * Add a sensor/actuator node to the index, find all the control panels interested in it.
+   *
+   * @param nodeId ID of the node
+   */
+  public synchronized void addNode(int nodeId) {
+    Subscriber[] subscribers = new Subscriber[subscriptions.size()];
+    int count = 0;
+    for (Map.Entry<ClientConnection, SubscribeMessage> entry : subscriptions.entrySet()) {
+      if (matches(entry.getValue(), nodeId)) {
+        subscribers[count++] = new Subscriber(entry.getKey(), entry.getValue());
+      }
+    }
+    nodeSubscribers.put(nodeId, Arrays.copyOf(subscribers, count));
+  }
+
+  /**
+   * Remove a sensor/actuator node from the index.
+   *
+   * @param nodeId ID of the node
+   */
+  public synchronized void removeNode(int nodeId) {
+    nodeSubscribers.remove(nodeId);
+  }
+
+  /**
+   * Get the control panels interested in a sensor/actuator node. Does not lock.
+   *
+   * @param nodeId ID of the node
+   * @return The subscribers. The array must not be modified.
+   */
+  public Subscriber[] getSubscribers(int nodeId) {
+    return nodeSubscribers.getOrDefault(nodeId, NO_SUBSCRIBERS);
+  }
+
+  /**
+   * Find the subscription of a control panel to a sensor/actuator node.
+   *
+   * @param connection The connection of the control panel
+   * @param nodeId     ID of the node
+   * @return The subscriber, or null if the control panel does not want data about the node
+   */
+  public synchronized Subscriber getSubscriber(ClientConnection connection, int nodeId) {
+    Subscriber subscriber = null;
+    if (subscriptions.containsKey(connection)) {
+      SubscribeMessage subscription = subscriptions.get(connection);
+      if (matches(subscription, nodeId)) {
+        subscriber = new Subscriber(connection, subscription);
+      }
+    }
+    return subscriber;
+  }
+
+  private static boolean matches(SubscribeMessage subscription, int nodeId) {
+    return subscription == null || subscription.matchesNode(nodeId);
+  }
+
+  private static Subscriber[] without(Subscriber[] subscribers, ClientConnection connection) {
+    Subscriber[] result = subscribers;
+    for (int i = 0; i < subscribers.length; ++i) {
+      if (subscribers[i].connection == connection) {
+        result = new Subscriber[subscribers.length - 1];
+        System.arraycopy(subscribers, 0, result, 0, i);
+        System.arraycopy(subscribers, i + 1, result, i, subscribers.length - i - 1);
+      }
+    }
+    return result;
+  }
+}
@@ -2,26 +2,72 @@ package no.ntnu.communication;
 
 import static no.ntnu.communication.TcpServer.TCP_PORT;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import no.ntnu.communication.message.Message;
 import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorDictionaries;
 import no.ntnu.listeners.common.CommunicationChannelListener;
 import no.ntnu.tools.Logger;
 
 /**
  * A generic TCP client base class, used on both sensor/actuator nodes and control panel nodes.
+ *
+ * <p>With a {@link ReconnectPolicy}, the client does not give up when the connection to the
+ * server is lost (for example, when the server restarts): it reconnects, with growing delays,
+ * and replays the handshake. The listeners are notified about the closing only when the client
+ * is closed for good - by closeSocket(), or when the connection is lost and reconnecting is
+ * disabled.
+ *
+ * <p>The connection is an {@link AsynchronousSocketChannel}. Sending never blocks the caller
+ * (a sensor timer, the GUI thread): the encoded messages are put in a bounded write queue and
+ * written by completion handlers, in order, coalesced according to the {@link FlushPolicy}. The
+ * listening thread reads the messages from the server.
  */
 public abstract class TcpClient {
   private static final String SERVER_HOST = "localhost";
-  private PrintWriter socketWriter;
-  private BufferedReader socketReader;
-  private Socket socket;
+  private static final int READ_BUFFER_SIZE = 8192;
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+  private static final int INITIAL_WRITE_BUFFER_SIZE = 1024;
+  private static final int WRITE_QUEUE_CAPACITY = 1024;
+  private String serverHost = SERVER_HOST;
+  private int serverPort = TCP_PORT;
+  private volatile AsynchronousSocketChannel channel;
+  // Writes to the channel, replaced on every connection
+  private volatile ChannelWriter writer;
+  private volatile ReconnectPolicy reconnectPolicy;
+  // True while the handshake is complete and the connection is not known to be lost
+  private volatile boolean connected = false;
+  // True when the owner has closed the client, no more reconnecting
+  private volatile boolean closed = false;
+  private final Object reconnectLock = new Object();
+  private volatile int reconnectCount = 0;
+  private ThreadingMode threadingMode = ThreadingMode.PLATFORM;
+  private MessageCodec requestedCodec = MessageCodecs.TEXT;
+  private volatile MessageCodec codec = MessageCodecs.TEXT;
+  private FrameDecoder decoder;
+  // The sensor codes declared by the nodes on the current connection
+  private SensorDictionaries dictionaries;
+  private boolean compressionRequested = false;
+  private volatile StreamCompression compression;
+  private final CompressionStats compressionStats = new CompressionStats();
+  private FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+  private final WriteStats writeStats = new WriteStats();
+  // The received bytes, decompressed when the connection is compressed
+  private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  // The compressed bytes received from the socket, used only when the connection is compressed
+  private final ByteBuffer compressedBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+  // Outgoing messages are encoded here, the buffer is reused - guarded by the lock of this
+  private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_WRITE_BUFFER_SIZE);
 
   private List<CommunicationChannelListener> listeners = new LinkedList<>();
 
@@ -32,18 +78,194 @@ public abstract class TcpClient {
    *     false on error
    */
   public boolean openSocket() {
-    boolean connected = false;
-    if (connectToServer() && sendNodeTypeMessage()) {
-      Thread listeningThread = new Thread(this::processIncomingMessages);
+    closed = false;
+    boolean success = connect();
+    if (success) {
+      Thread listeningThread = threadingMode.createThreadFactory("tcp-client-")
+          .newThread(this::processIncomingMessages);
       listeningThread.start();
-      connected = true;
     }
+    return success;
+  }
+
+  /**
+   * Open the socket and complete the handshake.
+   *
+   * @return True when connected, false on error
+   */
+  private boolean connect() {
+    connected = connectToServer() && sendNodeTypeMessage() && receiveHandshakeReply();
+    return connected;
+  }
+
+  /**
+   * Set the address of the server. Takes effect the next time the socket is opened.
+   *
+   * @param host The host name or IP address of the server, localhost by default
+   * @param port The TCP port of the server, {@link TcpServer#TCP_PORT} by default
+   */
+  public void setServerAddress(String host, int port) {
+    this.serverHost = host;
+    this.serverPort = port;
+  }
+
+  /**
+   * Choose whether and how the client reconnects when the connection to the server is lost.
+   *
+   * @param reconnectPolicy The delays between the attempts to reconnect, null (the default) to
+   *                        close the client when the connection is lost
+   */
+  public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+    this.reconnectPolicy = reconnectPolicy;
+  }
+
+  /**
+   * Check whether the client is connected to the server now.
+   *
+   * @return True when the handshake has been completed and the connection has not been lost
+   */
+  public boolean isConnected() {
     return connected;
   }
 
+  /**
+   * Get the number of times the client has reconnected after losing the connection.
+   *
+   * @return The number of successful reconnections
+   */
+  public int getReconnectCount() {
+    return reconnectCount;
+  }
+
+  /**
+   * Set the kind of thread used for receiving messages from the server. Takes effect the next
+   * time the socket is opened.
+   *
+   * @param threadingMode The threading mode to use, platform threads by default
+   */
+  public void setThreadingMode(ThreadingMode threadingMode) {
+    this.threadingMode = threadingMode;
+  }
+
+  /**
+   * Choose the codec (wire format) to request in the handshake. Takes effect the next time the
+   * socket is opened. When the server does not support the codec, the text codec is used.
+   *
+   * @param codec The codec to request, the text codec by default
+   */
+  public void setCodec(MessageCodec codec) {
+    this.requestedCodec = codec;
+  }
+
+  /**
+   * Choose whether to ask the server to compress the connection, see {@link StreamCompression}.
+   * Takes effect the next time the socket is opened. Worth it on slow links only.
+   *
+   * @param compressionRequested True to ask for compression, false (the default) to send the
+   *                             bytes as they are
+   */
+  public void setCompressionRequested(boolean compressionRequested) {
+    this.compressionRequested = compressionRequested;
+  }
+
+  /**
+   * Get the counters of the compression, summed over all the connections of this client.
+   *
+   * @return The compression statistics
+   */
+  public CompressionStats getCompressionStats() {
+    return compressionStats;
+  }
+
+  /**
+   * Choose how the messages are coalesced into socket writes. Takes effect the next time the
+   * socket is opened.
+   *
+   * @param flushPolicy The flush policy, {@link FlushPolicy#DEFAULT} by default
+   */
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  /**
+   * Get the counters of the socket writes, summed over all the connections of this client.
+   *
+   * @return The write statistics
+   */
+  public WriteStats getWriteStats() {
+    return writeStats;
+  }
+
+  /**
+   * Send the handshake: the node-type message, always as a line of text, with options.
+   *
+   * @return True on success, false on error
+   */
   private boolean sendNodeTypeMessage() {
-    Message nodeTypeMessage = createNodeTypeMessage();
-    return sendToServer(MessageSerializer.toString(nodeTypeMessage));
+    String nodeTypeMessage = MessageSerializer.toString(createNodeTypeMessage());
+    return sendControlFrame(Frame.control(createHandshakeOptions().appendTo(nodeTypeMessage)));
+  }
+
+  private HandshakeOptions createHandshakeOptions() {
+    HandshakeOptions options = new HandshakeOptions();
+    if (requestedCodec != MessageCodecs.TEXT) {
+      options.put(HandshakeOptions.CODEC, requestedCodec.getName());
+    }
+    if (compressionRequested) {
+      options.put(HandshakeOptions.COMPRESSION, StreamCompression.DEFLATE);
+    }
+    return options;
+  }
+
+  /**
+   * When options were requested in the handshake, wait for the reply of the server and switch
+   * to the accepted options.
+   *
+   * @return True on success, false on error
+   */
+  private boolean receiveHandshakeReply() {
+    boolean success = true;
+    if (!createHandshakeOptions().isEmpty()) {
+      Frame reply = receiveFrame();
+      String replyText = reply != null ? reply.getText() : "";
+      MessageCodec acceptedCodec = null;
+      HandshakeOptions accepted = null;
+      if (replyText.startsWith(HandshakeOptions.REPLY_PREFIX)) {
+        accepted = HandshakeOptions.parse(
+            replyText.substring(HandshakeOptions.REPLY_PREFIX.length()));
+        acceptedCodec = MessageCodecs.forName(accepted.get(HandshakeOptions.CODEC));
+      }
+      if (acceptedCodec != null) {
+        Logger.info("Using the " + acceptedCodec.getName() + " codec");
+        codec = acceptedCodec;
+        decoder = acceptedCodec.createDecoder(MAX_FRAME_LENGTH, dictionaries);
+        if (StreamCompression.DEFLATE.equals(accepted.get(HandshakeOptions.COMPRESSION))) {
+          startCompression();
+        }
+      } else {
+        Logger.error("Invalid handshake reply from the server: " + replyText);
+        success = false;
+      }
+    }
+    return success;
+  }
+
+  /**
+   * Compress the connection from now on. The bytes which the server has sent after the
+   * handshake reply, already received, are compressed.
+   */
+  private void startCompression() {
+    Logger.info("Compressing the connection");
+    compression = new StreamCompression(compressionStats);
+    compressedBuffer.clear();
+    compressedBuffer.put(readBuffer).flip();
+    readBuffer.clear().limit(0);
+    try {
+      compression.setInput(compressedBuffer);
+    } catch (IOException e) {
+      // A new compression is never closed
+      throw new IllegalStateException(e);
+    }
   }
 
   protected abstract Message createNodeTypeMessage();
@@ -52,27 +274,107 @@ public abstract class TcpClient {
   private boolean connectToServer() {
     boolean connected = false;
     try {
-      socket = new Socket(SERVER_HOST, TCP_PORT);
-      socketWriter = new PrintWriter(socket.getOutputStream(), true);
-      socketReader = new BufferedReader(new InputStreamReader((socket.getInputStream())));
+      AsynchronousSocketChannel c = AsynchronousSocketChannel.open();
+      channel = c;
+      c.connect(new InetSocketAddress(serverHost, serverPort)).get();
+      // The writer coalesces the messages itself, the urgent ones must not be delayed
+      c.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      writer = new ChannelWriter(c, WRITE_QUEUE_CAPACITY, flushPolicy, writeStats);
+      codec = MessageCodecs.TEXT;
+      dictionaries = new SensorDictionaries();
+      decoder = MessageCodecs.TEXT.createDecoder(MAX_FRAME_LENGTH, dictionaries);
+      compression = null;
+      readBuffer.clear().limit(0);
       connected = true;
     } catch (IOException e) {
       Logger.error("Could not open socket to the server: " + e.getMessage());
+    } catch (ExecutionException e) {
+      Logger.error("Could not open socket to the server: " + e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Logger.error("Interrupted while connecting to the server");
+      Thread.currentThread().interrupt();
     }
     return connected;
   }
 
   private void processIncomingMessages() {
     Logger.info("Receiving messages from the server on thread " + Thread.currentThread().getName());
-    Message message;
-    do {
-      message = receiveServerMessage();
-      if (message != null) {
+    boolean receiving = true;
+    while (receiving) {
+      Message message = receiveServerMessage();
+      while (message != null) {
         processServerMessage(message);
+        message = receiveServerMessage();
       }
-    } while (message != null);
+      connected = false;
+      receiving = !closed && reconnect();
+    }
     Logger.info("Stopped receiving messages on thread " + Thread.currentThread().getName());
-    closeSocket();
+    if (!closed) {
+      closeSocket();
+    }
+  }
+
+  /**
+   * Reconnect after the connection has been lost: retry, with the delays given by the
+   * reconnect policy, until connected or closed.
+   *
+   * @return True when connected again, false when reconnecting is disabled or the client has
+   *     been closed
+   */
+  private boolean reconnect() {
+    ReconnectPolicy policy = reconnectPolicy;
+    boolean reconnected = false;
+    if (policy != null) {
+      Logger.info("Connection to the server lost, reconnecting");
+      closeConnection();
+      int attempt = 0;
+      while (!reconnected && waitBeforeReconnecting(policy.getDelayMillis(attempt))) {
+        attempt++;
+        reconnected = connect();
+        if (!reconnected || closed) {
+          closeConnection();
+          reconnected = false;
+        }
+      }
+      if (reconnected) {
+        reconnectCount++;
+        Logger.info("Reconnected to the server after " + attempt + " attempts");
+        onReconnected();
+      }
+    }
+    return reconnected;
+  }
+
+  /**
+   * Wait before the next attempt to reconnect.
+   *
+   * @param delayMillis The time to wait, in milliseconds
+   * @return True when it is time to try, false when the client has been closed meanwhile
+   */
+  private boolean waitBeforeReconnecting(long delayMillis) {
+    long deadline = System.currentTimeMillis() + delayMillis;
+    try {
+      synchronized (reconnectLock) {
+        long remaining = delayMillis;
+        while (!closed && remaining > 0) {
+          reconnectLock.wait(remaining);
+          remaining = deadline - System.currentTimeMillis();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closed = true;
+    }
+    return !closed;
+  }
+
+  /**
+   * Called after the client has reconnected and the handshake has been replayed, before any
+   * message from the new connection is processed. Child classes send here the state which the
+   * server has lost.
+   */
+  protected void onReconnected() {
   }
 
   /**
@@ -83,49 +385,217 @@ public abstract class TcpClient {
   protected abstract void processServerMessage(Message message);
 
   private Message receiveServerMessage() {
-    Message message = null;
+    Frame frame = receiveFrame();
+    return frame != null ? frame.getMessage() : null;
+  }
+
+  /**
+   * Receive the next frame from the server, wait for it when necessary.
+   *
+   * @return The received frame, null when the connection is closed or on error
+   */
+  private Frame receiveFrame() {
+    Frame frame = null;
     try {
-      String messageString = socketReader.readLine();
-      message = MessageSerializer.fromString(messageString);
+      frame = decoder.decode(readBuffer);
+      boolean endOfStream = false;
+      while (frame == null && !endOfStream) {
+        int bytesRead = readPlainBytes();
+        if (bytesRead < 0) {
+          endOfStream = true;
+        } else {
+          readBuffer.position(0).limit(bytesRead);
+          frame = decoder.decode(readBuffer);
+        }
+      }
     } catch (IOException e) {
       Logger.error("Error while receiving message from the server on "
           + Thread.currentThread().getName() + " : " + e.getMessage());
     }
-    return message;
+    return frame;
   }
 
   /**
-   * Send a message to the server.
+   * Read the next bytes sent by the server into the read buffer, decompressed when the
+   * connection is compressed. Waits until at least one byte is available.
    *
-   * @param message The message to send, as a string. Newline will be appended automatically.
-   * @return True on success, false on error
+   * @return The number of bytes read, -1 at the end of the stream
+   * @throws IOException On a socket error or invalid compressed data
+   */
+  private int readPlainBytes() throws IOException {
+    StreamCompression c = compression;
+    int length;
+    if (c == null) {
+      length = readFromChannel(readBuffer);
+    } else {
+      length = c.decompress(readBuffer.array());
+      while (length == 0) {
+        int bytesRead = readFromChannel(compressedBuffer);
+        if (bytesRead < 0) {
+          length = -1;
+        } else {
+          compressedBuffer.position(0).limit(bytesRead);
+          c.setInput(compressedBuffer);
+          length = c.decompress(readBuffer.array());
+        }
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Read the next bytes from the channel, wait until at least one byte is available.
+   *
+   * @param buffer The buffer to read into, from the start
+   * @return The number of bytes read, -1 at the end of the stream
+   * @throws IOException On a socket error, or when the connection has been closed
    */
-  protected boolean sendToServer(String message) {
-    boolean sent = false;
+  private int readFromChannel(ByteBuffer buffer) throws IOException {
+    AsynchronousSocketChannel c = channel;
+    if (c == null) {
+      throw new IOException("Connection closed");
+    }
+    buffer.clear();
+    int length;
     try {
-      Logger.info(" To Server: " + message);
-      socketWriter.println(message);
-      sent = true;
+      length = c.read(buffer).get();
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while receiving");
+    }
+    return length;
+  }
+
+  /**
+   * Send a message to the server, encoded with the negotiated codec. Does not wait for the
+   * message to be written: it is queued, and written in the background.
+   *
+   * @param message The message to send
+   * @return True when the message has been queued, false on error, when not connected or when
+   *     the write queue is full. A queued message is lost if the connection breaks before it
+   *     has been written, see sendToServerAsync().
+   */
+  protected boolean sendToServer(Message message) {
+    return queueMessage(message) != null;
+  }
+
+  /**
+   * Send a message to the server, encoded with the negotiated codec, and get the result when
+   * the message has been written. Does not wait for the message to be written. The future is
+   * completed on a thread of the channel, keep the actions attached to it short.
+   *
+   * @param message The message to send
+   * @return A future completed with true when the message has been written to the socket, with
+   *     false when it could not be queued or written
+   */
+  protected CompletableFuture<Boolean> sendToServerAsync(Message message) {
+    CompletableFuture<Boolean> result = queueMessage(message);
+    return result != null ? result : CompletableFuture.completedFuture(false);
+  }
+
+  /**
+   * Encode a message and put it in the write queue.
+   *
+   * @param message The message to send
+   * @return The future of the write, null when the message was not queued
+   */
+  private CompletableFuture<Boolean> queueMessage(Message message) {
+    CompletableFuture<Boolean> result = null;
+    ChannelWriter w = writer;
+    // While the connection is down (reconnecting), there is nowhere to send the message
+    if (connected && w != null) {
+      try {
+        Logger.info(" To Server: " + message);
+        // Messages are sent by several threads (sensor updates, actuator changes). They are
+        // queued in the order of compression - the compressed stream depends on the order.
+        synchronized (this) {
+          if (w.hasRoom()) {
+            encodeToWriteBuffer(message);
+            writeBuffer.flip();
+            StreamCompression c = compression;
+            ByteBuffer bytes = c != null ? c.compress(writeBuffer) : writeBuffer;
+            // The writer copies the bytes, the buffers are reused for the next message
+            result = w.write(bytes, flushPolicy.isUrgent(message.getTypeId()));
+          }
+        }
+        if (result == null) {
+          Logger.error("The write queue is full, message not sent: " + message);
+        }
+      } catch (Exception e) {
+        Logger.error("Failed to send message to the server: " + e.getMessage());
+      }
+    }
+    return result;
+  }
+
+  private void encodeToWriteBuffer(Message message) {
+    boolean encoded = false;
+    while (!encoded) {
+      writeBuffer.clear();
+      try {
+        codec.encode(message, writeBuffer);
+        encoded = true;
+      } catch (BufferOverflowException e) {
+        writeBuffer = ByteBuffer.allocate(writeBuffer.capacity() * 2);
+      }
+    }
+  }
+
+  /**
+   * Queue a control frame (the handshake) for sending, before the connection is marked as
+   * connected. A failed write closes the channel, the reply is never received then.
+   *
+   * @return True when the frame has been queued, false on error
+   */
+  private boolean sendControlFrame(Frame frame) {
+    boolean queued = false;
+    try {
+      Logger.info(" To Server: " + frame);
+      byte[] bytes = frame.getBytes(codec);
+      synchronized (this) {
+        queued = writer.write(ByteBuffer.wrap(bytes), true) != null;
+      }
     } catch (Exception e) {
       Logger.error("Failed to send message to the server: " + e.getMessage());
     }
-    return sent;
+    return queued;
   }
 
   /**
-   * Stop the communication, close the socket.
+   * Stop the communication, close the socket. The client does not reconnect after this.
    */
   public void closeSocket() {
     Logger.info("Closing socket");
-    if (socket != null) {
+    closed = true;
+    synchronized (reconnectLock) {
+      reconnectLock.notifyAll();
+    }
+    closeConnection();
+    notifyListenersAboutClosing();
+  }
+
+  private void closeConnection() {
+    connected = false;
+    StreamCompression c = compression;
+    if (c != null) {
+      c.close();
+    }
+    ChannelWriter w = writer;
+    if (w != null) {
+      w.close();
+      writer = null;
+    }
+    AsynchronousSocketChannel ch = channel;
+    if (ch != null) {
       try {
-        socket.close();
+        ch.close();
       } catch (IOException e) {
         Logger.error("Could not close TCP socket: " + e.getMessage());
       }
-      socket = null;
+      channel = null;
     }
-    notifyListenersAboutClosing();
   }
 
   private void notifyListenersAboutClosing() {
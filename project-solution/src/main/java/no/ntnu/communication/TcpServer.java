@@ -3,27 +3,79 @@ package no.ntnu.communication;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import no.ntnu.communication.message.ActuatorStateMessage;
-import no.ntnu.communication.message.Message;
-import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
 import no.ntnu.communication.message.SensorNodeOfflineMessage;
 import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.communication.message.SubscribeMessage;
+import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.tools.Logger;
 
 /**
- * A TCP server, handles multiple clients.
+ * A TCP server, handles multiple clients. Each client is served by a {@link ClientHandler}
+ * task, running on its own thread provided by the client executor. See {@link NioTcpServer} for
+ * an engine which serves all the clients with a few event-loop threads.
  */
 public class TcpServer {
   public static final int TCP_PORT = 1212;
-  private ServerSocket serverSocket;
-  private boolean isRunning;
-  private final List<ClientHandler> controlPanelNodes = new LinkedList<>();
-  private final Map<Integer, String> sensorNodeActuatorMessages = new HashMap<>();
-  private final Map<Integer, ClientHandler> sensorNodes = new HashMap<>();
+  public static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 1024;
+  private final int port;
+  private final Executor clientExecutor;
+  private volatile ServerSocket serverSocket;
+  private volatile boolean isRunning;
+  // The connections of the blocking engine, closed on shutdown
+  private final Set<ClientHandler> openHandlers = ConcurrentHashMap.newKeySet();
+  private int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+  private DeliveryMode deliveryMode = DeliveryMode.QUEUED;
+  private final ClientRegistry registry = new ClientRegistry();
+  private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+  private final NodeStateCache nodeStates = new NodeStateCache();
+  // Makes the registration of a node, and the removal of a node with its routing and state,
+  // atomic: the old connection of a reconnected node may be closed on another thread
+  private final Object nodeLifecycleLock = new Object();
+  private final CompressionStats compressionStats = new CompressionStats();
+  private volatile FlushPolicy flushPolicy = FlushPolicy.DEFAULT;
+  private final WriteStats writeStats = new WriteStats();
+  private volatile boolean compressionAllowed = true;
+
+  /**
+   * Create a server listening on the default port, serving each client on a platform thread.
+   */
+  public TcpServer() {
+    this(ThreadingMode.PLATFORM);
+  }
+
+  /**
+   * Create a server listening on the default port.
+   *
+   * @param threadingMode The kind of threads used for serving the clients
+   */
+  public TcpServer(ThreadingMode threadingMode) {
+    this(TCP_PORT, threadingMode.createExecutor("client-handler-"));
+  }
+
+  /**
+   * Create a server.
+   *
+   * @param port           The TCP port to listen on
+   * @param clientExecutor The executor which runs the handler of each client. The handler
+   *                       blocks for the whole lifetime of the connection, therefore the
+   *                       executor must not limit the number of concurrently running tasks.
+   */
+  public TcpServer(int port, Executor clientExecutor) {
+    this.port = port;
+    this.clientExecutor = clientExecutor;
+  }
 
   /**
    * Run the TCP server. The method call does not return (i.e., returns only when the server
@@ -31,12 +83,14 @@ public class TcpServer {
    */
   public void run() {
     if (openListeningSocket()) {
-      isRunning = true;
+      markRunning();
       while (isRunning) {
         Socket clientSocket = acceptNextClient();
-        ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-        clientHandler.start();
+        if (clientSocket != null) {
+          serveClient(new ClientHandler(clientSocket, this, clientExecutor));
+        }
       }
+      closeAllClients();
     }
 
     Logger.info("Server exiting...");
@@ -51,11 +105,11 @@ public class TcpServer {
   private boolean openListeningSocket() {
     boolean success = false;
     try {
-      serverSocket = new ServerSocket(TCP_PORT);
-      Logger.info("Server listening on port " + TCP_PORT);
+      serverSocket = new ServerSocket(port);
+      Logger.info("Server listening on port " + port);
       success = true;
     } catch (IOException e) {
-      Logger.error("Could not open a listening socket on port " + TCP_PORT
+      Logger.error("Could not open a listening socket on port " + port
           + ", reason: " + e.getMessage());
     }
     return success;
@@ -66,16 +120,182 @@ public class TcpServer {
     try {
       clientSocket = serverSocket.accept();
     } catch (IOException e) {
-      Logger.error("Could not accept the next client: " + e.getMessage());
+      // Closing the listening socket on shutdown interrupts the accept
+      if (isRunning) {
+        Logger.error("Could not accept the next client: " + e.getMessage());
+      }
     }
     return clientSocket;
   }
 
+  private void serveClient(ClientHandler handler) {
+    openHandlers.add(handler);
+    clientExecutor.execute(() -> {
+      try {
+        handler.run();
+      } finally {
+        openHandlers.remove(handler);
+      }
+    });
+  }
+
+  private void closeAllClients() {
+    for (ClientHandler handler : openHandlers) {
+      handler.closeSocket();
+    }
+  }
+
   /**
-   * Shut down the server.
+   * Shut down the server: stop accepting clients and close all the client connections. The
+   * run() method returns soon after this.
    */
   public void shutdown() {
     isRunning = false;
+    closeListeningSocket();
+  }
+
+  /**
+   * Close the listening socket, so that the server does not wait for the next client any more.
+   */
+  protected void closeListeningSocket() {
+    ServerSocket s = serverSocket;
+    if (s != null) {
+      try {
+        s.close();
+      } catch (IOException e) {
+        Logger.error("Could not close the listening socket: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Configure the outbound queues of the client connections. Affects only the clients which
+   * connect after this call.
+   *
+   * @param capacity The maximum number of messages queued for one client
+   * @param policy   What to do when the queue of a client is full
+   */
+  public void setOutboundQueueConfig(int capacity, OverflowPolicy policy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    this.outboundQueueCapacity = capacity;
+    this.overflowPolicy = policy;
+  }
+
+  /**
+   * Choose how the sensor data is delivered to the clients. Affects only the clients which
+   * connect after this call.
+   *
+   * @param deliveryMode The delivery mode
+   */
+  public void setDeliveryMode(DeliveryMode deliveryMode) {
+    this.deliveryMode = deliveryMode;
+  }
+
+  /**
+   * Choose whether the clients may compress their connections. When not allowed, the clients
+   * asking for compression are answered with "none". Allowed by default.
+   *
+   * @param compressionAllowed True to compress the connections of the clients which ask for it
+   */
+  public void setCompressionAllowed(boolean compressionAllowed) {
+    this.compressionAllowed = compressionAllowed;
+  }
+
+  public boolean isCompressionAllowed() {
+    return compressionAllowed;
+  }
+
+  /**
+   * Get the counters of the compression, summed over all the compressed connections.
+   *
+   * @return The compression statistics of this server
+   */
+  public CompressionStats getCompressionStats() {
+    return compressionStats;
+  }
+
+  /**
+   * Choose how the frames sent to a client are coalesced into socket writes. Affects only the
+   * clients which connect after this call. Used by the blocking engine, the event loops of
+   * {@link NioTcpServer} write whatever is queued when the socket is ready.
+   *
+   * @param flushPolicy The flush policy, {@link FlushPolicy#DEFAULT} by default
+   */
+  public void setFlushPolicy(FlushPolicy flushPolicy) {
+    this.flushPolicy = flushPolicy;
+  }
+
+  public FlushPolicy getFlushPolicy() {
+    return flushPolicy;
+  }
+
+  /**
+   * Get the counters of the socket writes, summed over all the client connections.
+   *
+   * @return The write statistics of this server
+   */
+  public WriteStats getWriteStats() {
+    return writeStats;
+  }
+
+  /**
+   * Create an outbound queue for a new client connection, according to the configuration
+   * of the server.
+   *
+   * @return A new, empty outbound queue
+   */
+  public OutboundQueue createOutboundQueue() {
+    return new OutboundQueue(outboundQueueCapacity, overflowPolicy, deliveryMode);
+  }
+
+  /**
+   * Log the outbound queue statistics of all the connected control panels, the compression
+   * and the write statistics. Shows which control panels are lagging behind.
+   */
+  public void logControlPanelQueueStatistics() {
+    List<ClientConnection> controlPanels = registry.getControlPanels();
+    Logger.info("Outbound queues of " + controlPanels.size() + " control panels:");
+    for (ClientConnection client : controlPanels) {
+      Logger.info("  " + client.getRemoteAddress() + ": " + client.getOutboundQueue());
+    }
+    Logger.info("Compression: " + compressionStats);
+    Logger.info("Writes: " + writeStats);
+  }
+
+  /**
+   * Get the registry of the currently connected clients.
+   *
+   * @return The client registry
+   */
+  public ClientRegistry getRegistry() {
+    return registry;
+  }
+
+  /**
+   * Get the TCP port on which the server listens.
+   *
+   * @return The port number
+   */
+  public int getPort() {
+    return port;
+  }
+
+  /**
+   * Check whether the server is still supposed to accept and serve clients.
+   *
+   * @return True while the server is running, false when shutdown is requested
+   */
+  protected boolean isRunning() {
+    return isRunning;
+  }
+
+  /**
+   * Mark the server as running. Used by the server engines when the listening socket is open.
+   */
+  protected void markRunning() {
+    isRunning = true;
   }
 
   /**
@@ -83,10 +303,49 @@ public class TcpServer {
    *
    * @param client Handler for the TCP socket for this client
    */
-  public void onControlPanelNodeConnected(ClientHandler client) {
-    Logger.info("Control node connected");
-    controlPanelNodes.add(client);
-    sendSensorNodeConfigTo(client);
+  public void onControlPanelNodeConnected(ClientConnection client) {
+    onControlPanelNodeConnected(client, null);
+  }
+
+  /**
+   * Call this method when a new control panel node has connected as a TCP client.
+   *
+   * @param client       Handler for the TCP socket for this client
+   * @param subscription The nodes and sensor types the control panel is interested in,
+   *                     null when it wants everything
+   */
+  public void onControlPanelNodeConnected(ClientConnection client,
+                                          SubscribeMessage subscription) {
+    Logger.info("Control node connected" + (subscription != null ? ": " + subscription : ""));
+    // Register first, then send the snapshot: a sensor node which connects in between
+    // may be announced twice, but never missed. Control panels ignore duplicate nodes.
+    registry.addControlPanel(client);
+    subscriptions.subscribe(client, subscription);
+    sendSnapshotTo(client);
+  }
+
+  /**
+   * Call this method when a connected control panel changes its subscription.
+   *
+   * @param client       Handler for the TCP socket for this client
+   * @param subscription The nodes and sensor types the control panel is interested in
+   */
+  public void onSubscriptionChanged(ClientConnection client, SubscribeMessage subscription) {
+    Logger.info("Control node subscription changed: " + subscription);
+    subscriptions.subscribe(client, subscription);
+    sendSnapshotTo(client);
+  }
+
+  /**
+   * Call this method when a control panel node has disconnected.
+   *
+   * @param client Handler for the TCP socket for this client
+   */
+  public void onControlPanelNodeDisconnected(ClientConnection client) {
+    subscriptions.unsubscribe(client);
+    if (registry.removeControlPanel(client)) {
+      Logger.info("Control node disconnected");
+    }
   }
 
   /**
@@ -96,13 +355,16 @@ public class TcpServer {
    *                (it's ID and actuators)
    * @param client  Handler for the TCP socket for this client
    */
-  public void onSensorNodeConnected(SensorNodeTypeMessage message, ClientHandler client) {
+  public void onSensorNodeConnected(SensorNodeTypeMessage message, ClientConnection client) {
     Logger.info("Sensor node " + message.getNodeId() + " connected with "
         + message.getActuators().size() + " actuators");
-    String actuatorConfigMessage = MessageSerializer.toString(message);
-    sensorNodeActuatorMessages.put(message.getNodeId(), actuatorConfigMessage);
-    sensorNodes.put(message.getNodeId(), client);
-    broadcastToControlPanels(actuatorConfigMessage);
+    Frame actuatorConfigMessage = Frame.of(message);
+    synchronized (nodeLifecycleLock) {
+      registry.registerSensorNode(message.getNodeId(), client, actuatorConfigMessage);
+      nodeStates.addNode(message.getNodeId());
+      subscriptions.addNode(message.getNodeId());
+      sendToSubscribers(message.getNodeId(), actuatorConfigMessage);
+    }
   }
 
   /**
@@ -110,47 +372,229 @@ public class TcpServer {
    * has disconnected from the server.
    *
    * @param nodeId ID of the disconnected node
+   * @param client Handler for the TCP socket of the disconnected node
+   */
+  public void onSensorNodeShutdown(int nodeId, ClientConnection client) {
+    boolean removed;
+    synchronized (nodeLifecycleLock) {
+      removed = registry.deregisterSensorNode(nodeId, client);
+      if (removed) {
+        sendToSubscribers(nodeId, Frame.of(new SensorNodeOfflineMessage(nodeId)));
+        subscriptions.removeNode(nodeId);
+        nodeStates.removeNode(nodeId);
+      }
+    }
+    if (removed) {
+      Logger.info("Sensor node " + nodeId + " disconnected");
+    } else {
+      Logger.info("Sensor node " + nodeId + " has already reconnected, old connection closed");
+    }
+  }
+
+  /**
+   * Send a message about a sensor/actuator node to all the control panels subscribed to it.
+   *
+   * @param nodeId ID of the node
+   * @param frame  The encoded message, shared by all the control panels
+   */
+  private void sendToSubscribers(int nodeId, Frame frame) {
+    for (SubscriptionIndex.Subscriber subscriber : subscriptions.getSubscribers(nodeId)) {
+      subscriber.getConnection().sendToClient(frame);
+    }
+  }
+
+  /**
+   * Send the current state of all the sensor/actuator nodes the control panel is interested in:
+   * the node-type message, the latest sensor readings and actuator states of each node. The
+   * messages are queued one right after another, so that they reach the control panel in
+   * one burst.
+   *
+   * @param client The connection of the control panel
    */
-  public void onSensorNodeShutdown(int nodeId) {
-    Logger.info("Sensor node " + nodeId + " disconnected");
-    sensorNodeActuatorMessages.remove(nodeId);
-    sensorNodes.remove(nodeId);
-    broadcastToControlPanels(new SensorNodeOfflineMessage(nodeId));
+  private void sendSnapshotTo(ClientConnection client) {
+    for (Map.Entry<Integer, Frame> entry : registry.getSensorNodeTypeMessages().entrySet()) {
+      int nodeId = entry.getKey();
+      SubscriptionIndex.Subscriber subscriber = subscriptions.getSubscriber(client, nodeId);
+      if (subscriber != null) {
+        client.sendToClient(entry.getValue());
+        NodeStateCache.NodeState state = nodeStates.getNode(nodeId);
+        if (state != null) {
+          synchronized (state) {
+            sendNodeStateTo(subscriber, state);
+          }
+        }
+      }
+    }
   }
 
-  private void broadcastToControlPanels(Message message) {
-    broadcastToControlPanels(MessageSerializer.toString(message));
+  private static void sendNodeStateTo(SubscriptionIndex.Subscriber subscriber,
+                                      NodeStateCache.NodeState state) {
+    ClientConnection client = subscriber.getConnection();
+    Frame sensorData = state.getSensorDataFrame();
+    if (sensorData != null && subscriber.getSensorTypes() != null) {
+      sensorData = createFilteredFrame(sensorData, subscriber.getSensorTypes());
+    }
+    if (sensorData != null) {
+      client.sendToClient(sensorData);
+    }
+    for (Frame actuatorState : state.getActuatorStates()) {
+      client.sendToClient(actuatorState);
+    }
   }
 
-  private void broadcastToControlPanels(String rawMessage) {
-    for (ClientHandler client : controlPanelNodes) {
-      client.sendToClient(rawMessage);
+  /**
+   * Notify all the subscribed control panel nodes that a new sensor data message is received.
+   * Control panels subscribed only to specific sensor types get only those readings.
+   *
+   * @param nodeId ID of the node which sent the sensor data
+   * @param frame  The frame containing the message, as received from the sensor/actuator node
+   */
+  public void onSensorData(int nodeId, Frame frame) {
+    NodeStateCache.NodeState state = nodeStates.getNode(nodeId);
+    if (state != null) {
+      synchronized (state) {
+        state.setSensorData(frame);
+        sendSensorData(nodeId, frame, null);
+      }
+    } else {
+      sendSensorData(nodeId, frame, null);
     }
   }
 
-  private void sendSensorNodeConfigTo(ClientHandler client) {
-    for (String message : sensorNodeActuatorMessages.values()) {
-      client.sendToClient(message);
+  /**
+   * Notify all the subscribed control panel nodes that a sensor delta is received. The delta
+   * is applied to the latest full readings of the node. Control panels which receive all the
+   * messages in order get the delta as-is; the others (the ones subscribed to specific sensor
+   * types, the ones getting only the latest values) get the reconstructed full readings.
+   *
+   * @param nodeId ID of the node which sent the delta
+   * @param frame  The frame containing the delta, as received from the sensor/actuator node
+   * @param delta  The delta message
+   */
+  public void onSensorDelta(int nodeId, Frame frame, SensorDeltaMessage delta) {
+    NodeStateCache.NodeState state = nodeStates.getNode(nodeId);
+    if (state != null) {
+      synchronized (state) {
+        try {
+          Frame fullFrame = state.applyDelta(delta);
+          if (fullFrame != null) {
+            sendSensorData(nodeId, fullFrame, frame);
+          } else {
+            Logger.error("Sensor delta from node " + nodeId + " before full sensor data, ignored");
+          }
+        } catch (IllegalArgumentException e) {
+          Logger.error("Invalid sensor delta from node " + nodeId + ": " + e.getMessage());
+        }
+      }
+    } else {
+      Logger.error("Sensor delta from unknown node " + nodeId + ", ignored");
     }
   }
 
   /**
-   * Notify all currently connected control panel nodes that a new sensor data message is received.
+   * Send the sensor data to the subscribed control panels.
    *
-   * @param sensorDataMessage Message with the sensor data
+   * @param nodeId     ID of the node which sent the data
+   * @param fullFrame  The frame with all the readings of the node
+   * @param deltaFrame The frame with the sensor delta, when the data was received as a delta,
+   *                   null otherwise
    */
-  public void onSensorData(String sensorDataMessage) {
-    broadcastToControlPanels(sensorDataMessage);
+  private void sendSensorData(int nodeId, Frame fullFrame, Frame deltaFrame) {
+    // Control panels with the same sensor-type filter share the same filtered frame
+    Map<Set<String>, Frame> filteredFrames = null;
+    for (SubscriptionIndex.Subscriber subscriber : subscriptions.getSubscribers(nodeId)) {
+      Set<String> sensorTypes = subscriber.getSensorTypes();
+      ClientConnection connection = subscriber.getConnection();
+      Frame frame = fullFrame;
+      if (sensorTypes != null) {
+        if (filteredFrames == null) {
+          filteredFrames = new HashMap<>();
+        }
+        if (!filteredFrames.containsKey(sensorTypes)) {
+          filteredFrames.put(sensorTypes, createFilteredFrame(fullFrame, sensorTypes));
+        }
+        frame = filteredFrames.get(sensorTypes);
+      } else if (deltaFrame != null && receivesDeltas(connection)) {
+        // The queue decides: the delta, or the full readings when the client is out of sync
+        connection.sendSensorDeltaToClient(deltaFrame, fullFrame);
+        frame = null;
+      }
+      if (frame != null) {
+        connection.sendToClient(frame);
+      }
+    }
   }
 
   /**
-   * Notify all currently connected control panel nodes that a new actuator state message
+   * Check whether a control panel gets the messages in order - only then it can apply the
+   * deltas. In the latest-value mode the older sensor data can be replaced. A queue which drops
+   * messages falls back to the full readings by itself, see
+   * {@link OutboundQueue#offerSensorDelta(Frame, Frame)}.
+   */
+  private static boolean receivesDeltas(ClientConnection connection) {
+    return connection.getOutboundQueue().getDeliveryMode() == DeliveryMode.QUEUED;
+  }
+
+  /**
+   * Create a sensor-data message containing only the readings of specific sensor types. Every
+   * sample of a batch is filtered, the samples without any readings left are dropped.
+   *
+   * @param frame       The frame with the original message
+   * @param sensorTypes The sensor types to keep
+   * @return The encoded filtered message, or null if no readings are left
+   */
+  private static Frame createFilteredFrame(Frame frame, Set<String> sensorTypes) {
+    SensorDataMessage message = (SensorDataMessage) frame.getMessage();
+    SensorDataMessage filtered = null;
+    if (message.isBatch()) {
+      List<SensorSample> samples = new ArrayList<>();
+      for (SensorSample sample : message.getSamples()) {
+        List<SensorReading> readings = filterReadings(sample.getReadings(), sensorTypes);
+        if (!readings.isEmpty()) {
+          samples.add(new SensorSample(sample.getTimestamp(), readings));
+        }
+      }
+      if (!samples.isEmpty()) {
+        filtered = SensorDataMessage.ofSamples(samples, message.getNodeId(),
+            message.getDictionary());
+      }
+    } else {
+      List<SensorReading> readings = filterReadings(message.getSensors(), sensorTypes);
+      if (!readings.isEmpty()) {
+        filtered = new SensorDataMessage(readings, message.getNodeId(), message.getDictionary());
+      }
+    }
+    return filtered != null ? Frame.of(filtered) : null;
+  }
+
+  private static List<SensorReading> filterReadings(List<SensorReading> readings,
+                                                    Set<String> sensorTypes) {
+    List<SensorReading> filtered = new ArrayList<>();
+    for (SensorReading reading : readings) {
+      if (sensorTypes.contains(reading.getType())) {
+        filtered.add(reading);
+      }
+    }
+    return filtered;
+  }
+
+  /**
+   * Notify all the subscribed control panel nodes that a new actuator state message
    * is received.
    *
-   * @param actuatorStateMessage Message containing actuator state
+   * @param message Message containing actuator state
+   * @param frame   The frame containing the message, as received from the sensor/actuator node
    */
-  public void onActuatorState(String actuatorStateMessage) {
-    broadcastToControlPanels(actuatorStateMessage);
+  public void onActuatorState(ActuatorStateMessage message, Frame frame) {
+    NodeStateCache.NodeState state = nodeStates.getNode(message.getNodeId());
+    if (state != null) {
+      synchronized (state) {
+        state.setActuatorState(message.getActuatorId(), frame);
+        sendToSubscribers(message.getNodeId(), frame);
+      }
+    } else {
+      sendToSubscribers(message.getNodeId(), frame);
+    }
   }
 
   /**
@@ -160,15 +604,15 @@ public class TcpServer {
    * @param command The actuator command to forward
    */
   public void forwardActuatorCommandToSensors(ActuatorStateMessage command) {
-    String messageToSend = MessageSerializer.toString(command);
+    Frame frame = Frame.of(command);
     if (command.isAnyNode()) {
-      for (ClientHandler clientHandler : sensorNodes.values()) {
-        clientHandler.sendToClient(messageToSend);
+      for (ClientConnection sensorNode : registry.getSensorNodes()) {
+        sensorNode.sendToClient(frame);
       }
     } else {
-      ClientHandler clientHandler = sensorNodes.get(command.getNodeId());
-      if (clientHandler != null) {
-        clientHandler.sendToClient(messageToSend);
+      ClientConnection sensorNode = registry.getSensorNode(command.getNodeId());
+      if (sensorNode != null) {
+        sensorNode.sendToClient(frame);
       }
     }
   }
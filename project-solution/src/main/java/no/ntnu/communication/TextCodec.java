@@ -0,0 +1,82 @@
+package no.ntnu.communication;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDictionaries;
+import no.ntnu.communication.message.TextMessageEncoder;
+
+/**
+ * The original wire format: every message is a line of UTF-8 text, terminated with a newline.
+ */
+public class TextCodec implements MessageCodec {
+  public static final String NAME = "text";
+  private static final byte NEWLINE = '\n';
+  private static final int INITIAL_BUFFER_SIZE = 256;
+  // Messages are encoded by many threads (one per client, event loops), each gets its own buffers
+  private static final ThreadLocal<EncodingBuffers> BUFFERS =
+      ThreadLocal.withInitial(EncodingBuffers::new);
+
+  private static class EncodingBuffers {
+    private final TextMessageEncoder encoder = new TextMessageEncoder();
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public byte[] encode(Message message) {
+    EncodingBuffers buffers = BUFFERS.get();
+    boolean encoded = false;
+    while (!encoded) {
+      buffers.bytes.clear();
+      try {
+        encode(message, buffers.bytes);
+        encoded = true;
+      } catch (BufferOverflowException e) {
+        buffers.bytes = ByteBuffer.allocate(buffers.bytes.capacity() * 2);
+      }
+    }
+    return Arrays.copyOf(buffers.bytes.array(), buffers.bytes.position());
+  }
+
+  @Override
+  public void encode(Message message, ByteBuffer out) {
+    if (!out.hasRemaining()) {
+      throw new BufferOverflowException();
+    }
+    // Leave room for the newline
+    int limit = out.limit();
+    out.limit(limit - 1);
+    try {
+      BUFFERS.get().encoder.encode(message, out);
+    } finally {
+      out.limit(limit);
+    }
+    out.put(NEWLINE);
+  }
+
+  /**
+   * Encode a message which is already serialized to text.
+   *
+   * @param message The message, without the newline
+   * @return The encoded line, including the newline
+   */
+  public static byte[] encode(String message) {
+    byte[] encoded = message.getBytes(StandardCharsets.UTF_8);
+    byte[] bytes = new byte[encoded.length + 1];
+    System.arraycopy(encoded, 0, bytes, 0, encoded.length);
+    bytes[encoded.length] = NEWLINE;
+    return bytes;
+  }
+
+  @Override
+  public FrameDecoder createDecoder(int maxFrameLength, SensorDictionaries dictionaries) {
+    return new LineDecoder(maxFrameLength, dictionaries);
+  }
+}
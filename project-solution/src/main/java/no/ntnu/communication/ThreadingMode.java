@@ -0,0 +1,91 @@
+package no.ntnu.communication;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.tools.Logger;
+
+/**
+ * The kind of threads used for blocking socket handling: one client connection on the server
+ * side or the listening loop of a TCP client.
+ */
+public enum ThreadingMode {
+  /**
+   * Classic platform (operating-system) threads.
+   */
+  PLATFORM,
+  /**
+   * Virtual threads, scheduled by the JVM on a few carrier threads. A blocked virtual thread
+   * does not hold an operating-system thread. Requires Java 21 or newer at runtime, falls back
+   * to platform threads on older runtimes.
+   */
+  VIRTUAL;
+
+  /**
+   * Create a thread factory for this mode.
+   *
+   * @param namePrefix The prefix for names of the created threads, a sequence number is appended
+   * @return A factory producing threads of this kind (or platform threads when virtual threads
+   *     are not supported by the running JVM)
+   */
+  public ThreadFactory createThreadFactory(String namePrefix) {
+    ThreadFactory factory = null;
+    if (this == VIRTUAL) {
+      factory = createVirtualThreadFactory(namePrefix);
+      if (factory == null) {
+        Logger.error("Virtual threads are not supported by this JVM, using platform threads");
+      }
+    }
+    if (factory == null) {
+      factory = createPlatformThreadFactory(namePrefix);
+    }
+    return factory;
+  }
+
+  /**
+   * Create an executor which runs every submitted task on a new thread of this kind.
+   *
+   * @param namePrefix The prefix for names of the created threads
+   * @return The executor
+   */
+  public Executor createExecutor(String namePrefix) {
+    ThreadFactory factory = createThreadFactory(namePrefix);
+    return task -> factory.newThread(task).start();
+  }
+
+  /**
+   * Check whether virtual threads can be created in the running JVM.
+   *
+   * @return True when virtual threads are supported, false otherwise
+   */
+  public static boolean isVirtualThreadSupported() {
+    return createVirtualThreadFactory("probe-") != null;
+  }
+
+  private static ThreadFactory createPlatformThreadFactory(String namePrefix) {
+    AtomicInteger counter = new AtomicInteger(0);
+    return task -> new Thread(task, namePrefix + counter.getAndIncrement());
+  }
+
+  /**
+   * Create a virtual-thread factory. Reflection is used, because the project is compiled
+   * for Java 17, where the Thread.ofVirtual() API does not exist.
+   *
+   * @param namePrefix The prefix for names of the created threads
+   * @return The factory, or null if virtual threads are not supported
+   */
+  private static ThreadFactory createVirtualThreadFactory(String namePrefix) {
+    ThreadFactory factory = null;
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Method nameMethod = builderClass.getMethod("name", String.class, long.class);
+      builder = nameMethod.invoke(builder, namePrefix, 0L);
+      factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      // Not supported, the caller will fall back to platform threads
+    }
+    return factory;
+  }
+}
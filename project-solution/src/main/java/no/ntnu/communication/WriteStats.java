@@ -0,0 +1,74 @@
+package no.ntnu.communication;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the socket writes, shared by all the connections of a server (or kept by one
+ * client). Every write is a system call; the number of TCP segments is estimated from the
+ * size of each write - a write always needs at least one segment, a large one needs a segment
+ * per full Ethernet payload. The fewer writes per message, the better the coalescing works,
+ * see {@link FlushPolicy}.
+ */
+public class WriteStats {
+  // The TCP payload of one segment on Ethernet (1500 - 20 - 20 bytes of the headers)
+  private static final int SEGMENT_PAYLOAD = 1460;
+
+  private final LongAdder frames = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final LongAdder segments = new LongAdder();
+
+  void addFrames(int frameCount) {
+    frames.add(frameCount);
+  }
+
+  void addWrite(long byteCount) {
+    writes.increment();
+    bytes.add(byteCount);
+    segments.add(Math.max(1, (byteCount + SEGMENT_PAYLOAD - 1) / SEGMENT_PAYLOAD));
+  }
+
+  public long getFrames() {
+    return frames.sum();
+  }
+
+  /**
+   * Get the number of write system calls.
+   *
+   * @return The number of writes
+   */
+  public long getWrites() {
+    return writes.sum();
+  }
+
+  public long getBytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * Get the estimated number of TCP segments sent: at least one per write, one per full
+   * segment payload for the large writes.
+   *
+   * @return The estimated number of segments
+   */
+  public long getSegments() {
+    return segments.sum();
+  }
+
+  /**
+   * Get the average number of frames written with one system call.
+   *
+   * @return Frames per write, 0 when nothing has been written yet
+   */
+  public double getFramesPerWrite() {
+    long w = writes.sum();
+    return w > 0 ? (double) frames.sum() / w : 0;
+  }
+
+  @Override
+  public String toString() {
+    return "WriteStats{frames=" + getFrames() + ", writes=" + getWrites()
+        + ", frames/write=" + String.format("%.2f", getFramesPerWrite())
+        + ", bytes=" + getBytes() + ", segments~" + getSegments() + "}";
+  }
+}
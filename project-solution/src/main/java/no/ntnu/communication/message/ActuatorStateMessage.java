@@ -58,4 +58,9 @@ public class ActuatorStateMessage implements Message {
     return "ActuatorStateMessage{nodeId=" + nodeId
         + ", actuatorId=" + actuatorId + ", on=" + on + "}";
   }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.ACTUATOR_STATE;
+  }
 }
@@ -0,0 +1,504 @@
+package no.ntnu.communication.message;
+
+import static no.ntnu.communication.message.ErrorType.INVALID;
+import static no.ntnu.communication.message.ErrorType.UNKNOWN;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.tools.Logger;
+
+/**
+ * Translates message objects to and from the compact binary representation. The body of every
+ * message starts with a message-type byte, followed by the fields of the message:
+ * <ul>
+ *   <li>IDs and counts are variable-length integers (7 bits per byte, least significant
+ *     group first, the highest bit set on all the bytes except the last one). Values which
+ *     can be negative (the "any" wildcard is -1) are zigzag-encoded first.</li>
+ *   <li>Sensor values are fixed-point numbers with two decimals: the value multiplied by 100,
+ *     as a zigzag-encoded variable-length integer.</li>
+ *   <li>Strings are UTF-8 bytes, preceded by their length.</li>
+ *   <li>A sensor reading of a type declared in the node type message (see SensorDictionary) is
+ *     an empty type string, followed by the code and the value.</li>
+ *   <li>A batch of sensor samples is sensor data with zero readings, followed by the samples.
+ *     Timestamps are milliseconds, each one relative to the previous sample except the
+ *     first.</li>
+ * </ul>
+ * The length of the body is not part of it, see the binary codec for the framing.
+ */
+public class BinaryMessageSerializer {
+  public static final byte SENSOR_NODE_TYPE = MessageType.SENSOR_NODE_TYPE;
+  public static final byte CONTROL_NODE_TYPE = MessageType.CONTROL_NODE_TYPE;
+  public static final byte SUBSCRIBE = MessageType.SUBSCRIBE;
+  public static final byte SENSOR_DATA = MessageType.SENSOR_DATA;
+  public static final byte ACTUATOR_STATE = MessageType.ACTUATOR_STATE;
+  public static final byte NODE_OFFLINE = MessageType.NODE_OFFLINE;
+  public static final byte ERROR = MessageType.ERROR;
+  public static final byte SENSOR_DELTA = MessageType.SENSOR_DELTA;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private BinaryMessageSerializer() {
+  }
+
+  /**
+   * Serialize a message to its binary body.
+   *
+   * @param message The message to serialize
+   * @return The message type byte followed by the encoded fields
+   */
+  public static byte[] toBytes(Message message) {
+    Output out = new Output();
+    switch (message.getTypeId()) {
+      case MessageType.SENSOR_NODE_TYPE ->
+          writeSensorNodeTypeMessage((SensorNodeTypeMessage) message, out);
+      case MessageType.SUBSCRIBE -> writeSubscribeMessage((SubscribeMessage) message, out);
+      case MessageType.CONTROL_NODE_TYPE -> out.writeByte(CONTROL_NODE_TYPE);
+      case MessageType.SENSOR_DATA -> writeSensorDataMessage((SensorDataMessage) message, out);
+      case MessageType.NODE_OFFLINE -> {
+        out.writeByte(NODE_OFFLINE);
+        out.writeVarInt(((SensorNodeOfflineMessage) message).getNodeId());
+      }
+      case MessageType.ACTUATOR_STATE ->
+          writeActuatorStateMessage((ActuatorStateMessage) message, out);
+      case MessageType.ERROR -> writeErrorMessage((ErrorMessage) message, out);
+      case MessageType.SENSOR_DELTA -> writeSensorDeltaMessage((SensorDeltaMessage) message, out);
+      default -> throw new UnsupportedOperationException("Can't serialize "
+          + message.getClass().getName());
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeSensorNodeTypeMessage(SensorNodeTypeMessage message, Output out) {
+    out.writeByte(SENSOR_NODE_TYPE);
+    out.writeVarInt(message.getNodeId());
+    out.writeVarInt(message.getActuators().size());
+    for (Actuator actuator : message.getActuators()) {
+      out.writeString(actuator.getType());
+      out.writeVarInt(actuator.getId());
+    }
+    SensorDictionary sensors = message.getSensorDictionary();
+    out.writeVarInt(sensors.size());
+    for (int code = 0; code < sensors.size(); ++code) {
+      out.writeString(sensors.getType(code));
+      out.writeString(sensors.getUnit(code));
+    }
+  }
+
+  private static void writeSubscribeMessage(SubscribeMessage message, Output out) {
+    out.writeByte(SUBSCRIBE);
+    out.writeVarInt(message.getNodeIdRanges().size());
+    for (NodeIdRange range : message.getNodeIdRanges()) {
+      out.writeSignedVarInt(range.getFirst());
+      out.writeSignedVarInt(range.getLast());
+    }
+    out.writeVarInt(message.getSensorTypes().size());
+    for (String sensorType : message.getSensorTypes()) {
+      out.writeString(sensorType);
+    }
+  }
+
+  private static void writeSensorDataMessage(SensorDataMessage message, Output out) {
+    out.writeByte(SENSOR_DATA);
+    out.writeVarInt(message.getNodeId());
+    if (message.isBatch()) {
+      // A zero reading count marks a batch of samples
+      out.writeVarInt(0);
+      writeSamples(message.getSamples(), message.getDictionary(), out);
+    } else {
+      out.writeVarInt(message.getSensors().size());
+      writeReadings(message.getSensors(), message.getDictionary(), out);
+    }
+  }
+
+  private static void writeSamples(List<SensorSample> samples, SensorDictionary dictionary,
+                                   Output out) {
+    out.writeVarInt(samples.size());
+    long previousTimestamp = 0;
+    for (int i = 0; i < samples.size(); ++i) {
+      SensorSample sample = samples.get(i);
+      // The first timestamp is absolute, the others relative to the previous sample
+      if (i == 0) {
+        out.writeVarLong(sample.getTimestamp());
+      } else {
+        out.writeSignedVarLong(sample.getTimestamp() - previousTimestamp);
+      }
+      previousTimestamp = sample.getTimestamp();
+      out.writeVarInt(sample.getReadings().size());
+      writeReadings(sample.getReadings(), dictionary, out);
+    }
+  }
+
+  private static void writeReadings(List<SensorReading> readings, SensorDictionary dictionary,
+                                    Output out) {
+    for (SensorReading reading : readings) {
+      int code = dictionary != null
+          ? dictionary.getCode(reading.getType(), reading.getUnit()) : -1;
+      if (code >= 0) {
+        // An empty type marks a coded reading
+        out.writeVarInt(0);
+        out.writeVarInt(code);
+        out.writeSignedVarInt(reading.getCentiValue());
+      } else {
+        out.writeString(reading.getType());
+        out.writeSignedVarInt(reading.getCentiValue());
+        out.writeString(reading.getUnit());
+      }
+    }
+  }
+
+  private static void writeSensorDeltaMessage(SensorDeltaMessage message, Output out) {
+    out.writeByte(SENSOR_DELTA);
+    out.writeVarInt(message.getNodeId());
+    out.writeVarInt(message.getChangeCount());
+    for (int i = 0; i < message.getChangeCount(); ++i) {
+      out.writeVarInt(message.getSensorIndex(i));
+      out.writeSignedVarInt(message.getCentiValue(i));
+    }
+  }
+
+  private static void writeErrorMessage(ErrorMessage message, Output out) {
+    out.writeByte(ERROR);
+    out.writeByte((byte) message.getType().ordinal());
+    out.writeString(message.getMessage());
+  }
+
+  private static void writeActuatorStateMessage(ActuatorStateMessage message, Output out) {
+    out.writeByte(ACTUATOR_STATE);
+    out.writeSignedVarInt(message.getNodeId());
+    out.writeSignedVarInt(message.getActuatorId());
+    out.writeByte((byte) (message.isOn() ? 1 : 0));
+  }
+
+  /**
+   * Deserialize a message from its binary body.
+   *
+   * @param body         A buffer containing exactly one message body: the message type byte
+   *                     followed by the encoded fields
+   * @param dictionaries The sensor dictionaries declared on the connection: coded readings are
+   *                     resolved through them, node type messages register their dictionaries
+   *                     there; null when there are none
+   * @return The deserialized message, an error message when the body is invalid
+   */
+  public static Message fromBytes(ByteBuffer body, SensorDictionaries dictionaries) {
+    Message message;
+    try {
+      byte type = body.get();
+      switch (type) {
+        case SENSOR_NODE_TYPE -> message = readSensorNodeTypeMessage(body, dictionaries);
+        case CONTROL_NODE_TYPE -> message = new ControlNodeTypeMessage();
+        case SUBSCRIBE -> message = readSubscribeMessage(body);
+        case SENSOR_DATA -> message = readSensorDataMessage(body, dictionaries);
+        case ACTUATOR_STATE -> message = new ActuatorStateMessage(readSignedVarInt(body),
+            readSignedVarInt(body), body.get() != 0);
+        case NODE_OFFLINE -> message = new SensorNodeOfflineMessage(readVarInt(body));
+        case ERROR -> message = readErrorMessage(body);
+        case SENSOR_DELTA -> message = readSensorDeltaMessage(body);
+        default -> message = new ErrorMessage(UNKNOWN, "Unknown message type " + type);
+      }
+      if (body.hasRemaining()) {
+        throw new IllegalArgumentException(body.remaining() + " unexpected bytes at the end");
+      }
+    } catch (BufferUnderflowException e) {
+      String error = "Truncated binary message";
+      Logger.error(error);
+      message = new ErrorMessage(INVALID, error);
+    } catch (IllegalArgumentException e) {
+      String error = "Error while deserializing binary message: " + e.getMessage();
+      Logger.error(error);
+      message = new ErrorMessage(INVALID, error);
+    }
+    return message;
+  }
+
+  private static SensorNodeTypeMessage readSensorNodeTypeMessage(ByteBuffer body,
+                                                                 SensorDictionaries dictionaries) {
+    int nodeId = readVarInt(body);
+    SensorNodeTypeMessage message = new SensorNodeTypeMessage(nodeId);
+    int actuatorCount = readVarInt(body);
+    for (int i = 0; i < actuatorCount; ++i) {
+      String type = readString(body);
+      int actuatorId = readVarInt(body);
+      message.addActuator(new Actuator(actuatorId, type, nodeId));
+    }
+    // Older nodes do not declare their sensor types
+    int sensorCount = body.hasRemaining() ? readVarInt(body) : 0;
+    for (int i = 0; i < sensorCount; ++i) {
+      String type = readString(body);
+      message.getSensorDictionary().add(type, readString(body));
+    }
+    if (dictionaries != null && sensorCount > 0) {
+      dictionaries.register(nodeId, message.getSensorDictionary());
+    }
+    return message;
+  }
+
+  private static SubscribeMessage readSubscribeMessage(ByteBuffer body) {
+    SubscribeMessage message = new SubscribeMessage();
+    int rangeCount = readVarInt(body);
+    for (int i = 0; i < rangeCount; ++i) {
+      message.addNodeIdRange(new NodeIdRange(readSignedVarInt(body), readSignedVarInt(body)));
+    }
+    int sensorTypeCount = readVarInt(body);
+    for (int i = 0; i < sensorTypeCount; ++i) {
+      message.addSensorType(readString(body));
+    }
+    return message;
+  }
+
+  private static SensorDataMessage readSensorDataMessage(ByteBuffer body,
+                                                       SensorDictionaries dictionaries) {
+    int nodeId = readVarInt(body);
+    int readingCount = readVarInt(body);
+    SensorDataMessage message;
+    SensorDictionary dictionary = dictionaries != null ? dictionaries.forNode(nodeId) : null;
+    if (readingCount == 0) {
+      message = readSensorBatch(body, nodeId, dictionary);
+    } else {
+      List<SensorReading> readings = createReadingList(readingCount, body);
+      boolean coded = readReadings(body, readingCount, nodeId, dictionary, readings);
+      message = new SensorDataMessage(readings, nodeId, coded ? dictionary : null);
+    }
+    return message;
+  }
+
+  private static SensorDataMessage readSensorBatch(ByteBuffer body, int nodeId,
+                                                   SensorDictionary dictionary) {
+    int sampleCount = readVarInt(body);
+    if (sampleCount == 0) {
+      throw new IllegalArgumentException("Sensor data without readings");
+    }
+    // Every sample takes at least four bytes, don't trust a huge count
+    List<SensorSample> samples = new ArrayList<>(Math.min(sampleCount, body.remaining() / 4));
+    boolean coded = false;
+    long timestamp = 0;
+    for (int i = 0; i < sampleCount; ++i) {
+      timestamp = i == 0 ? readVarLong(body) : timestamp + readSignedVarLong(body);
+      int readingCount = readVarInt(body);
+      if (readingCount == 0) {
+        throw new IllegalArgumentException("Sensor sample without readings");
+      }
+      List<SensorReading> readings = createReadingList(readingCount, body);
+      coded |= readReadings(body, readingCount, nodeId, dictionary, readings);
+      samples.add(new SensorSample(timestamp, readings));
+    }
+    return SensorDataMessage.ofSamples(samples, nodeId, coded ? dictionary : null);
+  }
+
+  private static List<SensorReading> createReadingList(int readingCount, ByteBuffer body) {
+    // Every reading takes at least three bytes, don't trust a huge count
+    return new ArrayList<>(Math.min(readingCount, body.remaining() / 3));
+  }
+
+  /**
+   * Read sensor readings, adding them to a list.
+   *
+   * @return True when some of the readings were coded
+   */
+  private static boolean readReadings(ByteBuffer body, int readingCount, int nodeId,
+                                      SensorDictionary dictionary, List<SensorReading> readings) {
+    boolean coded = false;
+    for (int i = 0; i < readingCount; ++i) {
+      // An empty type (a zero length byte) marks a coded reading
+      if (body.hasRemaining() && body.get(body.position()) == 0) {
+        body.get();
+        if (dictionary == null) {
+          throw new IllegalArgumentException("Node " + nodeId + " has not declared sensor codes");
+        }
+        int code = readVarInt(body);
+        int value = readSignedVarInt(body);
+        readings.add(SensorReading.ofCentiValue(dictionary.getType(code), value,
+            dictionary.getUnit(code)));
+        coded = true;
+      } else {
+        String type = readString(body);
+        int value = readSignedVarInt(body);
+        String unit = readString(body);
+        readings.add(SensorReading.ofCentiValue(type, value, unit));
+      }
+    }
+    return coded;
+  }
+
+  private static SensorDeltaMessage readSensorDeltaMessage(ByteBuffer body) {
+    SensorDeltaMessage message = new SensorDeltaMessage(readVarInt(body));
+    int changeCount = readVarInt(body);
+    for (int i = 0; i < changeCount; ++i) {
+      int sensorIndex = readVarInt(body);
+      message.addChange(sensorIndex, readSignedVarInt(body));
+    }
+    return message;
+  }
+
+  private static ErrorMessage readErrorMessage(ByteBuffer body) {
+    byte typeIndex = body.get();
+    ErrorType[] types = ErrorType.values();
+    if (typeIndex < 0 || typeIndex >= types.length) {
+      throw new IllegalArgumentException("Unknown error type " + typeIndex);
+    }
+    return new ErrorMessage(types[typeIndex], readString(body));
+  }
+
+  /**
+   * Read a non-negative variable-length integer.
+   *
+   * @param buffer The buffer to read from
+   * @return The integer
+   * @throws IllegalArgumentException When the integer is longer than five bytes
+   * @throws BufferUnderflowException When the buffer ends before the integer
+   */
+  public static int readVarInt(ByteBuffer buffer) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 28) {
+        throw new IllegalArgumentException("Variable-length integer is too long");
+      }
+      b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static int readSignedVarInt(ByteBuffer buffer) {
+    int zigzag = readVarInt(buffer);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 63) {
+        throw new IllegalArgumentException("Variable-length integer is too long");
+      }
+      b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static long readSignedVarLong(ByteBuffer buffer) {
+    long zigzag = readVarLong(buffer);
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = readVarInt(buffer);
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length " + length);
+    }
+    String s;
+    if (buffer.hasArray()) {
+      s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+          StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + length);
+    } else {
+      byte[] bytes = new byte[length];
+      buffer.get(bytes);
+      s = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return s;
+  }
+
+  /**
+   * Get the number of bytes needed for a non-negative variable-length integer.
+   *
+   * @param value The integer
+   * @return The length of the encoded integer, 1 to 5 bytes
+   */
+  public static int getVarIntLength(int value) {
+    int length = 1;
+    int remaining = value >>> 7;
+    while (remaining != 0) {
+      length++;
+      remaining >>>= 7;
+    }
+    return length;
+  }
+
+  /**
+   * Write a non-negative variable-length integer to an array.
+   *
+   * @param value  The integer to write
+   * @param array  The array to write to
+   * @param offset Where to start writing
+   * @return The position right after the written integer
+   */
+  public static int writeVarInt(int value, byte[] array, int offset) {
+    int position = offset;
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      array[position++] = (byte) ((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    array[position++] = (byte) remaining;
+    return position;
+  }
+
+  /**
+   * A growing array of bytes, where the encoded message is written.
+   */
+  private static class Output {
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int length = 0;
+
+    void writeByte(byte b) {
+      ensureCapacity(1);
+      bytes[length++] = b;
+    }
+
+    void writeVarInt(int value) {
+      ensureCapacity(5);
+      length = BinaryMessageSerializer.writeVarInt(value, bytes, length);
+    }
+
+    void writeSignedVarInt(int value) {
+      writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      long remaining = value;
+      while ((remaining & ~0x7FL) != 0) {
+        bytes[length++] = (byte) ((remaining & 0x7F) | 0x80);
+        remaining >>>= 7;
+      }
+      bytes[length++] = (byte) remaining;
+    }
+
+    void writeSignedVarLong(long value) {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String s) {
+      byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(encoded.length);
+      ensureCapacity(encoded.length);
+      System.arraycopy(encoded, 0, bytes, length, encoded.length);
+      length += encoded.length;
+    }
+
+    private void ensureCapacity(int extraBytes) {
+      if (length + extraBytes > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extraBytes));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+}
@@ -4,4 +4,9 @@ package no.ntnu.communication.message;
  * An control command which requests setting specific state of an actuator.
  */
 public class ControlCommandMessage implements Message {
+  @Override
+  public int getTypeId() {
+    // Not used in the protocol, actuator commands are sent as actuator state messages
+    return MessageType.UNKNOWN;
+  }
 }
@@ -4,4 +4,8 @@ package no.ntnu.communication.message;
  * A message saying "I'm a control panel node".
  */
 public class ControlNodeTypeMessage extends NodeTypeMessage {
+  @Override
+  public int getTypeId() {
+    return MessageType.CONTROL_NODE_TYPE;
+  }
 }
@@ -34,4 +34,9 @@ public class ErrorMessage implements Message {
   public String toString() {
     return "ErrorMessage{type=" + type + ", message='" + message + "'}";
   }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.ERROR;
+  }
 }
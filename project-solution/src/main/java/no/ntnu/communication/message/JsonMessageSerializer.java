@@ -0,0 +1,562 @@
+package no.ntnu.communication.message;
+
+import static no.ntnu.communication.message.ErrorType.INVALID;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorReading;
+import no.ntnu.tools.Logger;
+
+/**
+ * Translates message objects to and from JSON: every message is one JSON object, with the kind of
+ * the message in the "type" field. The JSON form is meant for the clients which would rather use
+ * a generic JSON library than the text protocol. It is self-describing: the sensor readings
+ * always carry their type and unit, sensor codes are not used. The "*" wildcard of the actuator
+ * commands is the string "*".
+ *
+ * <p>Examples:
+ * <ul>
+ *   <li>{@code {"type":"sensorData","nodeId":12,"readings":[{"type":"temperature",
+ *     "value":27.12,"unit":"°C"}]}}</li>
+ *   <li>{@code {"type":"actuatorState","nodeId":"*","actuatorId":3,"on":true}}</li>
+ * </ul>
+ */
+public class JsonMessageSerializer {
+  private static final String WILDCARD = "*";
+  private static final String SENSOR_NODE_TYPE = "sensorNodeType";
+  private static final String CONTROL_NODE_TYPE = "controlNodeType";
+  private static final String SUBSCRIBE = "subscribe";
+  private static final String SENSOR_DATA = "sensorData";
+  private static final String SENSOR_DELTA = "sensorDelta";
+  private static final String ACTUATOR_STATE = "actuatorState";
+  private static final String NODE_OFFLINE = "nodeOffline";
+  private static final String ERROR = "error";
+
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private JsonMessageSerializer() {
+  }
+
+  /**
+   * Serialize a message to a JSON object.
+   *
+   * @param message The message to serialize
+   * @return The JSON object, on a single line
+   */
+  public static String toJson(Message message) {
+    StringBuilder out = new StringBuilder();
+    switch (message.getTypeId()) {
+      case MessageType.SENSOR_NODE_TYPE ->
+          appendSensorNodeTypeMessage((SensorNodeTypeMessage) message, out);
+      case MessageType.CONTROL_NODE_TYPE -> appendType(CONTROL_NODE_TYPE, out);
+      case MessageType.SUBSCRIBE -> appendSubscribeMessage((SubscribeMessage) message, out);
+      case MessageType.SENSOR_DATA -> appendSensorDataMessage((SensorDataMessage) message, out);
+      case MessageType.SENSOR_DELTA ->
+          appendSensorDeltaMessage((SensorDeltaMessage) message, out);
+      case MessageType.ACTUATOR_STATE ->
+          appendActuatorStateMessage((ActuatorStateMessage) message, out);
+      case MessageType.NODE_OFFLINE -> appendType(NODE_OFFLINE, out)
+          .append(",\"nodeId\":").append(((SensorNodeOfflineMessage) message).getNodeId());
+      case MessageType.ERROR -> {
+        ErrorMessage error = (ErrorMessage) message;
+        appendType(ERROR, out).append(",\"error\":");
+        appendString(error.getType().toString(), out);
+        out.append(",\"message\":");
+        appendString(error.getMessage(), out);
+      }
+      default -> throw new UnsupportedOperationException("Can't serialize "
+          + message.getClass().getName());
+    }
+    return out.append('}').toString();
+  }
+
+  private static StringBuilder appendType(String type, StringBuilder out) {
+    return out.append("{\"type\":\"").append(type).append('"');
+  }
+
+  private static void appendSensorNodeTypeMessage(SensorNodeTypeMessage message,
+                                                  StringBuilder out) {
+    appendType(SENSOR_NODE_TYPE, out).append(",\"nodeId\":").append(message.getNodeId())
+        .append(",\"actuators\":[");
+    String separator = "";
+    for (Actuator actuator : message.getActuators()) {
+      out.append(separator).append("{\"type\":");
+      appendString(actuator.getType(), out);
+      out.append(",\"id\":").append(actuator.getId()).append('}');
+      separator = ",";
+    }
+    out.append("],\"sensors\":[");
+    SensorDictionary sensors = message.getSensorDictionary();
+    for (int code = 0; code < sensors.size(); ++code) {
+      out.append(code > 0 ? "," : "").append("{\"type\":");
+      appendString(sensors.getType(code), out);
+      out.append(",\"unit\":");
+      appendString(sensors.getUnit(code), out);
+      out.append('}');
+    }
+    out.append(']');
+  }
+
+  private static void appendSubscribeMessage(SubscribeMessage message, StringBuilder out) {
+    appendType(SUBSCRIBE, out);
+    if (!message.isAnyNode()) {
+      out.append(",\"nodes\":[");
+      String separator = "";
+      for (NodeIdRange range : message.getNodeIdRanges()) {
+        out.append(separator).append("{\"first\":").append(range.getFirst())
+            .append(",\"last\":").append(range.getLast()).append('}');
+        separator = ",";
+      }
+      out.append(']');
+    }
+    if (!message.isAnySensorType()) {
+      out.append(",\"sensorTypes\":[");
+      String separator = "";
+      for (String sensorType : message.getSensorTypes()) {
+        out.append(separator);
+        appendString(sensorType, out);
+        separator = ",";
+      }
+      out.append(']');
+    }
+  }
+
+  private static void appendSensorDataMessage(SensorDataMessage message, StringBuilder out) {
+    appendType(SENSOR_DATA, out).append(",\"nodeId\":").append(message.getNodeId());
+    if (message.isBatch()) {
+      out.append(",\"samples\":[");
+      String separator = "";
+      for (SensorSample sample : message.getSamples()) {
+        out.append(separator).append("{\"time\":").append(sample.getTimestamp());
+        appendReadings(sample.getReadings(), out);
+        out.append('}');
+        separator = ",";
+      }
+      out.append(']');
+    } else {
+      appendReadings(message.getSensors(), out);
+    }
+  }
+
+  private static void appendReadings(List<SensorReading> readings, StringBuilder out) {
+    out.append(",\"readings\":[");
+    String separator = "";
+    for (SensorReading reading : readings) {
+      out.append(separator).append("{\"type\":");
+      appendString(reading.getType(), out);
+      out.append(",\"value\":");
+      MessageSerializer.appendCentiValue(reading.getCentiValue(), out);
+      out.append(",\"unit\":");
+      appendString(reading.getUnit(), out);
+      out.append('}');
+      separator = ",";
+    }
+    out.append(']');
+  }
+
+  private static void appendSensorDeltaMessage(SensorDeltaMessage message, StringBuilder out) {
+    appendType(SENSOR_DELTA, out).append(",\"nodeId\":").append(message.getNodeId())
+        .append(",\"changes\":[");
+    for (int i = 0; i < message.getChangeCount(); ++i) {
+      out.append(i > 0 ? "," : "").append("{\"index\":").append(message.getSensorIndex(i))
+          .append(",\"value\":");
+      MessageSerializer.appendCentiValue(message.getCentiValue(i), out);
+      out.append('}');
+    }
+    out.append(']');
+  }
+
+  private static void appendActuatorStateMessage(ActuatorStateMessage message,
+                                                 StringBuilder out) {
+    appendType(ACTUATOR_STATE, out).append(",\"nodeId\":");
+    appendIdOrWildcard(message.getNodeId(), out);
+    out.append(",\"actuatorId\":");
+    appendIdOrWildcard(message.getActuatorId(), out);
+    out.append(",\"on\":").append(message.isOn());
+  }
+
+  private static void appendIdOrWildcard(int id, StringBuilder out) {
+    if (id == ActuatorStateMessage.ANY) {
+      appendString(WILDCARD, out);
+    } else {
+      out.append(id);
+    }
+  }
+
+  private static void appendString(String s, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.append('\\').append(c);
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else if (c < ' ') {
+        out.append(String.format("\\u%04x", (int) c));
+      } else {
+        out.append(c);
+      }
+    }
+    out.append('"');
+  }
+
+  /**
+   * Deserialize a message from a JSON object.
+   *
+   * @param json The JSON object
+   * @return The deserialized message, an error message when the JSON is not a valid message
+   */
+  public static Message fromJson(String json) {
+    Message message;
+    try {
+      Map<String, Object> object = asObject(new JsonReader(json).readDocument());
+      String type = getString(object, "type");
+      switch (type) {
+        case SENSOR_NODE_TYPE -> message = readSensorNodeTypeMessage(object);
+        case CONTROL_NODE_TYPE -> message = new ControlNodeTypeMessage();
+        case SUBSCRIBE -> message = readSubscribeMessage(object);
+        case SENSOR_DATA -> message = readSensorDataMessage(object);
+        case SENSOR_DELTA -> message = readSensorDeltaMessage(object);
+        case ACTUATOR_STATE -> message = new ActuatorStateMessage(
+            getIdOrWildcard(object, "nodeId"), getIdOrWildcard(object, "actuatorId"),
+            getBoolean(object, "on"));
+        case NODE_OFFLINE -> message = new SensorNodeOfflineMessage(getInt(object, "nodeId"));
+        case ERROR -> message = new ErrorMessage(
+            ErrorType.UNKNOWN.toString().equals(getString(object, "error"))
+                ? ErrorType.UNKNOWN : INVALID, getString(object, "message"));
+        default -> message = new ErrorMessage(ErrorType.UNKNOWN, "Unknown message");
+      }
+    } catch (IllegalArgumentException e) {
+      String error = "Error while deserializing JSON `" + json + "`: " + e.getMessage();
+      Logger.error(error);
+      message = new ErrorMessage(INVALID, error);
+    }
+    return message;
+  }
+
+  private static SensorNodeTypeMessage readSensorNodeTypeMessage(Map<String, Object> object) {
+    int nodeId = getInt(object, "nodeId");
+    SensorNodeTypeMessage message = new SensorNodeTypeMessage(nodeId);
+    for (Object actuator : getList(object, "actuators")) {
+      Map<String, Object> a = asObject(actuator);
+      message.addActuator(new Actuator(getInt(a, "id"), getString(a, "type"), nodeId));
+    }
+    for (Object sensor : getList(object, "sensors")) {
+      Map<String, Object> s = asObject(sensor);
+      message.getSensorDictionary().add(getString(s, "type"), getString(s, "unit"));
+    }
+    return message;
+  }
+
+  private static SubscribeMessage readSubscribeMessage(Map<String, Object> object) {
+    SubscribeMessage message = new SubscribeMessage();
+    if (object.containsKey("nodes")) {
+      for (Object range : getList(object, "nodes")) {
+        Map<String, Object> r = asObject(range);
+        message.addNodeIdRange(new NodeIdRange(getInt(r, "first"), getInt(r, "last")));
+      }
+    }
+    if (object.containsKey("sensorTypes")) {
+      for (Object sensorType : getList(object, "sensorTypes")) {
+        if (!(sensorType instanceof String s)) {
+          throw new IllegalArgumentException("Sensor type must be a string");
+        }
+        message.addSensorType(s);
+      }
+    }
+    return message;
+  }
+
+  private static SensorDataMessage readSensorDataMessage(Map<String, Object> object) {
+    int nodeId = getInt(object, "nodeId");
+    SensorDataMessage message;
+    if (object.containsKey("samples")) {
+      List<SensorSample> samples = new ArrayList<>();
+      for (Object sample : getList(object, "samples")) {
+        Map<String, Object> s = asObject(sample);
+        samples.add(new SensorSample(getLong(s, "time"), readReadings(s)));
+      }
+      if (samples.isEmpty()) {
+        throw new IllegalArgumentException("Sensor batch without samples");
+      }
+      message = SensorDataMessage.ofSamples(samples, nodeId, null);
+    } else {
+      message = new SensorDataMessage(readReadings(object), nodeId);
+    }
+    return message;
+  }
+
+  private static List<SensorReading> readReadings(Map<String, Object> object) {
+    List<SensorReading> readings = new ArrayList<>();
+    for (Object reading : getList(object, "readings")) {
+      Map<String, Object> r = asObject(reading);
+      readings.add(SensorReading.ofCentiValue(getString(r, "type").intern(),
+          getCentiValue(r, "value"), getString(r, "unit").intern()));
+    }
+    if (readings.isEmpty()) {
+      throw new IllegalArgumentException("Sensor data without readings");
+    }
+    return readings;
+  }
+
+  private static SensorDeltaMessage readSensorDeltaMessage(Map<String, Object> object) {
+    SensorDeltaMessage message = new SensorDeltaMessage(getInt(object, "nodeId"));
+    for (Object change : getList(object, "changes")) {
+      Map<String, Object> c = asObject(change);
+      message.addChange(getInt(c, "index"), getCentiValue(c, "value"));
+    }
+    return message;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> asObject(Object value) {
+    if (!(value instanceof Map)) {
+      throw new IllegalArgumentException("JSON object expected");
+    }
+    return (Map<String, Object>) value;
+  }
+
+  private static Object get(Map<String, Object> object, String key) {
+    Object value = object.get(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Missing field: " + key);
+    }
+    return value;
+  }
+
+  private static String getString(Map<String, Object> object, String key) {
+    if (!(get(object, key) instanceof String s)) {
+      throw new IllegalArgumentException("Field must be a string: " + key);
+    }
+    return s;
+  }
+
+  private static List<?> getList(Map<String, Object> object, String key) {
+    if (!(get(object, key) instanceof List<?> list)) {
+      throw new IllegalArgumentException("Field must be an array: " + key);
+    }
+    return list;
+  }
+
+  private static boolean getBoolean(Map<String, Object> object, String key) {
+    if (!(get(object, key) instanceof Boolean b)) {
+      throw new IllegalArgumentException("Field must be true or false: " + key);
+    }
+    return b;
+  }
+
+  private static int getCentiValue(Map<String, Object> object, String key) {
+    if (!(get(object, key) instanceof Number n)) {
+      throw new IllegalArgumentException("Field must be a number: " + key);
+    }
+    return SensorReading.toCentiValue(n.doubleValue());
+  }
+
+  private static long getLong(Map<String, Object> object, String key) {
+    if (!(get(object, key) instanceof Long n)) {
+      throw new IllegalArgumentException("Field must be an integer: " + key);
+    }
+    return n;
+  }
+
+  private static int getInt(Map<String, Object> object, String key) {
+    long value = getLong(object, key);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Field is out of range: " + key);
+    }
+    return (int) value;
+  }
+
+  private static int getIdOrWildcard(Map<String, Object> object, String key) {
+    return WILDCARD.equals(get(object, key)) ? ActuatorStateMessage.ANY : getInt(object, key);
+  }
+
+  /**
+   * A minimal JSON parser. Objects become maps, arrays lists, integers Long, other numbers
+   * Double; strings, booleans and null are what they are.
+   */
+  private static class JsonReader {
+    private final String json;
+    private int position = 0;
+
+    JsonReader(String json) {
+      this.json = json;
+    }
+
+    Object readDocument() {
+      Object value = readValue();
+      skipWhitespace();
+      if (position < json.length()) {
+        throw error("Unexpected characters after the value");
+      }
+      return value;
+    }
+
+    private Object readValue() {
+      skipWhitespace();
+      if (position == json.length()) {
+        throw error("Unexpected end");
+      }
+      char c = json.charAt(position);
+      Object value;
+      if (c == '{') {
+        value = readObject();
+      } else if (c == '[') {
+        value = readArray();
+      } else if (c == '"') {
+        value = readString();
+      } else if (json.startsWith("true", position)) {
+        position += 4;
+        value = Boolean.TRUE;
+      } else if (json.startsWith("false", position)) {
+        position += 5;
+        value = Boolean.FALSE;
+      } else if (json.startsWith("null", position)) {
+        position += 4;
+        value = null;
+      } else {
+        value = readNumber();
+      }
+      return value;
+    }
+
+    private Map<String, Object> readObject() {
+      Map<String, Object> object = new LinkedHashMap<>();
+      position++;
+      skipWhitespace();
+      boolean more = !consume('}');
+      while (more) {
+        skipWhitespace();
+        if (position == json.length() || json.charAt(position) != '"') {
+          throw error("Field name expected");
+        }
+        String key = readString();
+        skipWhitespace();
+        expect(':');
+        object.put(key, readValue());
+        skipWhitespace();
+        more = !consume('}');
+        if (more) {
+          expect(',');
+        }
+      }
+      return object;
+    }
+
+    private List<Object> readArray() {
+      List<Object> array = new ArrayList<>();
+      position++;
+      skipWhitespace();
+      boolean more = !consume(']');
+      while (more) {
+        array.add(readValue());
+        skipWhitespace();
+        more = !consume(']');
+        if (more) {
+          expect(',');
+        }
+      }
+      return array;
+    }
+
+    private String readString() {
+      StringBuilder s = new StringBuilder();
+      position++;
+      boolean closed = false;
+      while (!closed) {
+        if (position == json.length()) {
+          throw error("Unterminated string");
+        }
+        char c = json.charAt(position++);
+        if (c == '"') {
+          closed = true;
+        } else if (c == '\\') {
+          s.append(readEscape());
+        } else {
+          s.append(c);
+        }
+      }
+      return s.toString();
+    }
+
+    private char readEscape() {
+      if (position == json.length()) {
+        throw error("Unterminated string");
+      }
+      char c = json.charAt(position++);
+      char result;
+      switch (c) {
+        case '"', '\\', '/' -> result = c;
+        case 'b' -> result = '\b';
+        case 'f' -> result = '\f';
+        case 'n' -> result = '\n';
+        case 'r' -> result = '\r';
+        case 't' -> result = '\t';
+        case 'u' -> {
+          if (position + 4 > json.length()) {
+            throw error("Invalid unicode escape");
+          }
+          try {
+            result = (char) Integer.parseInt(json.substring(position, position + 4), 16);
+          } catch (NumberFormatException e) {
+            throw error("Invalid unicode escape");
+          }
+          position += 4;
+        }
+        default -> throw error("Invalid escape: \\" + c);
+      }
+      return result;
+    }
+
+    private Number readNumber() {
+      int start = position;
+      boolean integer = true;
+      while (position < json.length() && "+-0123456789.eE".indexOf(json.charAt(position)) >= 0) {
+        char c = Character.toLowerCase(json.charAt(position));
+        integer &= c != '.' && c != 'e';
+        position++;
+      }
+      String number = json.substring(start, position);
+      Number value;
+      try {
+        // Not a conditional expression: it would promote the Long to a Double
+        if (integer) {
+          value = Long.valueOf(number);
+        } else {
+          value = Double.valueOf(number);
+        }
+      } catch (NumberFormatException e) {
+        throw error("Invalid value: `" + number + "`");
+      }
+      return value;
+    }
+
+    private void skipWhitespace() {
+      while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+        position++;
+      }
+    }
+
+    private boolean consume(char c) {
+      boolean found = position < json.length() && json.charAt(position) == c;
+      if (found) {
+        position++;
+      }
+      return found;
+    }
+
+    private void expect(char c) {
+      if (!consume(c)) {
+        throw error("`" + c + "` expected");
+      }
+    }
+
+    private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + position);
+    }
+  }
+}
@@ -4,4 +4,10 @@ package no.ntnu.communication.message;
  * Generic base class for messages exchanged between TCP server and clients.
  */
 public interface Message {
+  /**
+   * Get the numeric ID of the message type, one of the MessageType constants.
+   *
+   * @return The type ID
+   */
+  int getTypeId();
 }
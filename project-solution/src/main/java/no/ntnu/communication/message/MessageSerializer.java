@@ -1,10 +1,9 @@
 package no.ntnu.communication.message;
 
-import static no.ntnu.communication.message.ActuatorStateMessage.ANY;
 import static no.ntnu.communication.message.ErrorType.INVALID;
 import static no.ntnu.communication.message.ErrorType.UNKNOWN;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.ActuatorCollection;
@@ -16,7 +15,11 @@ import no.ntnu.tools.Parser;
  * Translates message objects to and from strings which are sent over the socket.
  */
 public class MessageSerializer {
-  private static final String CONTROL_NODE_TYPE_MESSAGE = "type=control";
+  private static final String WILDCARD = "*";
+  private static final char SAMPLE_SEPARATOR = '|';
+  // The frequent messages are parsed without garbage, one reusable parser per thread
+  private static final ThreadLocal<TextMessageParser> PARSERS =
+      ThreadLocal.withInitial(TextMessageParser::new);
 
   /**
    * Not allowed to create instances of this class.
@@ -25,30 +28,43 @@ public class MessageSerializer {
   }
 
   /**
-   * Deserialize a message from a string.
+   * Deserialize a message from a string, without any sensor dictionaries: coded sensor
+   * readings can't be resolved, the sensor codes declared in node type messages are not
+   * remembered.
    *
    * @param s The string sent over the TCP socket, according to the protocol
    * @return The deserialized message, null on error
    */
   public static Message fromString(String s) {
+    return fromString(s, null);
+  }
+
+  /**
+   * Deserialize a message received on a connection.
+   *
+   * @param s            The string sent over the TCP socket, according to the protocol
+   * @param dictionaries The sensor dictionaries declared on the connection: coded readings are
+   *                     resolved through them, node type messages register their dictionaries
+   *                     there; null when there are none
+   * @return The deserialized message, null on error
+   */
+  public static Message fromString(String s, SensorDictionaries dictionaries) {
     if (s == null) {
       return null;
     }
 
     Message message;
     try {
-      if (s.startsWith("type=sensor:")) {
-        message = parseSensorNodeTypeMessage(s);
-      } else if (s.equals(CONTROL_NODE_TYPE_MESSAGE)) {
-        message = new ControlNodeTypeMessage();
-      } else if (s.startsWith("sensors:")) {
-        message = parseSensorDataMessage(s);
-      } else if (s.startsWith("offline:")) {
-        message = parseNodeOfflineMessage(s);
-      } else if (s.startsWith("actuator:")) {
-        message = parseActuatorMessage(s);
-      } else {
-        message = new ErrorMessage(UNKNOWN, "Unknown message");
+      switch (MessageType.classify(s)) {
+        case MessageType.SENSOR_NODE_TYPE ->
+            message = parseSensorNodeTypeMessage(s, dictionaries);
+        case MessageType.CONTROL_NODE_TYPE -> message = new ControlNodeTypeMessage();
+        case MessageType.SUBSCRIBE -> message = parseSubscribeMessage(s);
+        case MessageType.SENSOR_DATA -> message = s.startsWith(MessageType.SENSOR_BATCH_PREFIX)
+            ? parseSensorBatch(s, dictionaries) : parseFrequentMessage(s, dictionaries);
+        case MessageType.SENSOR_DELTA, MessageType.ACTUATOR_STATE,
+            MessageType.NODE_OFFLINE -> message = parseFrequentMessage(s, dictionaries);
+        default -> message = new ErrorMessage(UNKNOWN, "Unknown message");
       }
     } catch (NumberFormatException e) {
       String error = "Number error while deserializing message `" + s + "`: " + e.getMessage();
@@ -63,22 +79,40 @@ public class MessageSerializer {
     return message;
   }
 
-  private static SensorNodeTypeMessage parseSensorNodeTypeMessage(String s) {
+  private static SensorNodeTypeMessage parseSensorNodeTypeMessage(String s,
+                                                                  SensorDictionaries dictionaries) {
     int nodeId = parseSensorNodeId(s);
     SensorNodeTypeMessage nodeTypeMessage = new SensorNodeTypeMessage(nodeId);
-    parseActuators(s, nodeId, nodeTypeMessage);
-    return nodeTypeMessage;
-  }
-
-  private static void parseActuators(String s, int nodeId, SensorNodeTypeMessage m) {
     int semicolonPosition = s.indexOf(";");
     if (semicolonPosition > 0) {
-      String actuatorSpecification = s.substring(semicolonPosition + 1);
-      String[] actuatorParts = actuatorSpecification.split(",");
-      for (String actuatorPart : actuatorParts) {
-        m.addActuator(parseActuator(actuatorPart, nodeId));
+      for (String section : s.substring(semicolonPosition + 1).split(";")) {
+        if (!section.isEmpty() && section.charAt(0) == SensorDictionary.CODE_MARK) {
+          parseSensorDeclaration(section, nodeTypeMessage.getSensorDictionary());
+        } else {
+          parseActuators(section, nodeId, nodeTypeMessage);
+        }
       }
     }
+    if (dictionaries != null && !nodeTypeMessage.getSensorDictionary().isEmpty()) {
+      dictionaries.register(nodeId, nodeTypeMessage.getSensorDictionary());
+    }
+    return nodeTypeMessage;
+  }
+
+  private static void parseActuators(String actuatorSpecification, int nodeId,
+                                     SensorNodeTypeMessage m) {
+    String[] actuatorParts = actuatorSpecification.split(",");
+    for (String actuatorPart : actuatorParts) {
+      m.addActuator(parseActuator(actuatorPart, nodeId));
+    }
+  }
+
+  private static void parseSensorDeclaration(String section, SensorDictionary dictionary) {
+    String[] typeAndUnit = section.substring(1).split(",");
+    if (typeAndUnit.length != 2 || typeAndUnit[0].isEmpty()) {
+      throw new IllegalArgumentException("Invalid sensor declaration: " + section);
+    }
+    dictionary.add(typeAndUnit[0], typeAndUnit[1]);
   }
 
   private static Actuator parseActuator(String actuatorPart, int nodeId) {
@@ -105,68 +139,103 @@ public class MessageSerializer {
   }
 
 
-  private static Message parseSensorDataMessage(String s) throws IllegalArgumentException {
-    Message message = null;
-    int nodeId = parseSensorNodeId(s);
-    List<SensorReading> sensorReadings = parseSensorData(s);
-    if (sensorReadings != null && !sensorReadings.isEmpty()) {
-      message = new SensorDataMessage(sensorReadings, nodeId);
+  private static Message parseFrequentMessage(String s, SensorDictionaries dictionaries) {
+    TextMessageParser parser = PARSERS.get();
+    parser.setDictionaries(dictionaries);
+    if (parser.parse(s) == TextMessageParser.Result.INVALID) {
+      Logger.error(parser.getError());
     }
+    Message message = parser.toMessage();
+    // The thread-local parser must not keep the dictionaries of a closed connection
+    parser.setDictionaries(null);
     return message;
   }
 
-  private static List<SensorReading> parseSensorData(String s) throws IllegalArgumentException {
-    int semicolonPosition = s.indexOf(";");
-    List<SensorReading> sensorReadings = null;
-    if (semicolonPosition > 0 && semicolonPosition != s.length() - 1) {
-      sensorReadings = new LinkedList<>();
-      String sensorSpecification = s.substring(semicolonPosition + 1);
-      String[] sensorParts = sensorSpecification.split(";");
-      for (String oneSensorReading : sensorParts) {
-        sensorReadings.add(parseSensorReading(oneSensorReading));
+  /**
+   * Parse a batch of sensor samples. Batches are rare compared to the samples in them, the
+   * readings of each sample are parsed as a sensor data message of their own.
+   */
+  private static SensorDataMessage parseSensorBatch(String s, SensorDictionaries dictionaries) {
+    String[] sections = s.substring(MessageType.SENSOR_BATCH_PREFIX.length())
+        .split("\\" + SAMPLE_SEPARATOR, -1);
+    int nodeId = Parser.parseIntegerOrError(sections[0], "Wrong node Id: `" + sections[0] + "`");
+    if (sections.length < 2) {
+      throw new IllegalArgumentException("Sensor batch without samples");
+    }
+    // A parser of its own - batches are rare, and a failed sample must not leave the
+    // dictionaries of this connection in the shared parser
+    TextMessageParser parser = new TextMessageParser(dictionaries);
+    List<SensorSample> samples = new ArrayList<>(sections.length - 1);
+    SensorDictionary dictionary = null;
+    long timestamp = 0;
+    for (int i = 1; i < sections.length; ++i) {
+      int semicolonPosition = sections[i].indexOf(';');
+      if (semicolonPosition < 0) {
+        throw new IllegalArgumentException("Sensor sample without readings: `" + sections[i]
+            + "`");
+      }
+      String time = sections[i].substring(0, semicolonPosition);
+      long t = Parser.parseLongOrError(time, "Invalid sample time: `" + time + "`");
+      // The first timestamp is absolute, the others relative to the previous sample
+      timestamp = i == 1 ? t : timestamp + t;
+      Message readings = parser.parse(MessageType.SENSOR_DATA_PREFIX + nodeId
+          + sections[i].substring(semicolonPosition)) == TextMessageParser.Result.SENSOR_DATA
+          ? parser.toMessage() : null;
+      if (!(readings instanceof SensorDataMessage sample)) {
+        throw new IllegalArgumentException(parser.getError() != null ? parser.getError()
+            : "Sensor sample without readings: `" + sections[i] + "`");
       }
+      if (sample.getDictionary() != null) {
+        dictionary = sample.getDictionary();
+      }
+      samples.add(new SensorSample(timestamp, sample.getSensors()));
     }
-    return sensorReadings;
+    return SensorDataMessage.ofSamples(samples, nodeId, dictionary);
   }
 
-  private static SensorReading parseSensorReading(String oneSensorReading)
-      throws IllegalArgumentException {
-    String[] readingParts = oneSensorReading.split(",");
-    if (readingParts.length != 3) {
-      throw new IllegalArgumentException("Invalid sensor reading: `" + oneSensorReading + "`");
+  private static SubscribeMessage parseSubscribeMessage(String s) {
+    SubscribeMessage message = new SubscribeMessage();
+    String body = s.substring(MessageType.SUBSCRIBE_PREFIX.length());
+    int semicolonPosition = body.indexOf(";");
+    String nodeSection = semicolonPosition >= 0 ? body.substring(0, semicolonPosition) : body;
+    if (nodeSection.isEmpty()) {
+      throw new IllegalArgumentException("Subscription must specify nodes or " + WILDCARD);
     }
-    String type = readingParts[0];
-    double value = Parser.parseDoubleOrError(readingParts[1], "Invalid sensor value: "
-        + readingParts[1]);
-    String unit = readingParts[2];
-
-    return new SensorReading(type, value, unit);
-  }
-
-  private static Message parseNodeOfflineMessage(String s) {
-    int nodeId = parseSensorNodeId(s);
-    return new SensorNodeOfflineMessage(nodeId);
+    if (!nodeSection.equals(WILDCARD)) {
+      for (String rangeSpecification : nodeSection.split(",", -1)) {
+        message.addNodeIdRange(parseNodeIdRange(rangeSpecification));
+      }
+    }
+    if (semicolonPosition >= 0) {
+      String sensorTypeSection = body.substring(semicolonPosition + 1);
+      if (!sensorTypeSection.equals(WILDCARD)) {
+        for (String sensorType : sensorTypeSection.split(",", -1)) {
+          if (sensorType.isEmpty()) {
+            throw new IllegalArgumentException("Empty sensor type in subscription");
+          }
+          message.addSensorType(sensorType);
+        }
+      }
+    }
+    return message;
   }
 
-  private static Message parseActuatorMessage(String s) {
-    int commaPos = s.indexOf(",");
-    if (commaPos < 0) {
-      throw new IllegalArgumentException("Actuator message must contain actuatorId and on/off tag");
+  private static NodeIdRange parseNodeIdRange(String s) {
+    NodeIdRange range;
+    int dashPosition = s.indexOf("-");
+    if (dashPosition < 0) {
+      int nodeId = Parser.parseIntegerOrError(s, "Invalid node ID: `" + s + "`");
+      range = new NodeIdRange(nodeId, nodeId);
+    } else {
+      int first = Parser.parseIntegerOrError(s.substring(0, dashPosition),
+          "Invalid node ID range: `" + s + "`");
+      int last = Parser.parseIntegerOrError(s.substring(dashPosition + 1),
+          "Invalid node ID range: `" + s + "`");
+      range = new NodeIdRange(first, last);
     }
-
-    int nodeId = s.startsWith("actuator:*;") ? ANY : parseSensorNodeId(s);
-
-    int semicolonPos = s.indexOf(";");
-    String actuatorIdString = s.substring(semicolonPos + 1, commaPos);
-    String onOffString = s.substring(commaPos + 1);
-    int actuatorId = actuatorIdString.equals("*") ? ANY
-        : Parser.parseIntegerOrError(actuatorIdString, "Invalid actuatorId");
-    boolean isOn = onOffString.equals("on");
-
-    return new ActuatorStateMessage(nodeId, actuatorId, isOn);
+    return range;
   }
 
-
   /**
    * Serialize a message to a string, according to the protocol.
    *
@@ -174,77 +243,166 @@ public class MessageSerializer {
    * @return A string which can be sent over the TCP socket
    */
   public static String toString(Message message) {
-    String result;
-    if (message instanceof SensorNodeTypeMessage sensorNodeTypeMessage) {
-      result = serializeSensorNodeTypeMessage(sensorNodeTypeMessage);
-    } else if (message instanceof ControlNodeTypeMessage) {
-      result = CONTROL_NODE_TYPE_MESSAGE;
-    } else if (message instanceof SensorDataMessage sensorDataMessage) {
-      result = serializeSensorDataMessage(sensorDataMessage);
-    } else if (message instanceof SensorNodeOfflineMessage offlineMessage) {
-      result = serializeNodeOfflineMessage(offlineMessage);
-    } else if (message instanceof ActuatorStateMessage actuatorMessage) {
-      result = serializeActuatorCommand(actuatorMessage);
-    } else if (message instanceof ErrorMessage errorMessage) {
-      result = serializeErrorMessage(errorMessage);
-    } else {
-      throw new UnsupportedOperationException("Can't serialize " + message.getClass().getName());
+    StringBuilder result = new StringBuilder();
+    appendTo(message, result);
+    return result.toString();
+  }
+
+  /**
+   * Serialize a message, according to the protocol, appending it to a caller-owned builder.
+   * Nothing else is allocated when the builder has enough capacity.
+   *
+   * @param message The message to serialize
+   * @param out     The builder to append the message to (without a newline)
+   */
+  public static void appendTo(Message message, StringBuilder out) {
+    switch (message.getTypeId()) {
+      case MessageType.SENSOR_NODE_TYPE ->
+          appendSensorNodeTypeMessage((SensorNodeTypeMessage) message, out);
+      case MessageType.CONTROL_NODE_TYPE -> out.append(MessageType.CONTROL_NODE_TYPE_MESSAGE);
+      case MessageType.SUBSCRIBE -> appendSubscribeMessage((SubscribeMessage) message, out);
+      case MessageType.SENSOR_DATA -> appendSensorDataMessage((SensorDataMessage) message, out);
+      case MessageType.SENSOR_DELTA ->
+          appendSensorDeltaMessage((SensorDeltaMessage) message, out);
+      case MessageType.NODE_OFFLINE -> out.append(MessageType.NODE_OFFLINE_PREFIX)
+          .append(((SensorNodeOfflineMessage) message).getNodeId());
+      case MessageType.ACTUATOR_STATE ->
+          appendActuatorCommand((ActuatorStateMessage) message, out);
+      case MessageType.ERROR -> out.append(MessageType.ERROR_PREFIX)
+          .append(((ErrorMessage) message).getType()).append(",")
+          .append(((ErrorMessage) message).getMessage());
+      default -> throw new UnsupportedOperationException("Can't serialize "
+          + message.getClass().getName());
     }
-    return result;
   }
 
-  private static String serializeSensorNodeTypeMessage(SensorNodeTypeMessage message) {
-    String header = "type=sensor:" + message.getNodeId();
-    String actuatorSection = serializeActuators(message.getActuators());
-    String result = header;
-    if (!actuatorSection.isEmpty()) {
-      result += ";" + actuatorSection;
+  private static void appendSensorNodeTypeMessage(SensorNodeTypeMessage message,
+                                                  StringBuilder out) {
+    out.append(MessageType.SENSOR_NODE_TYPE_PREFIX).append(message.getNodeId());
+    appendActuators(message.getActuators(), out);
+    SensorDictionary sensors = message.getSensorDictionary();
+    for (int code = 0; code < sensors.size(); ++code) {
+      out.append(';').append(SensorDictionary.CODE_MARK)
+          .append(sensors.getType(code)).append(',').append(sensors.getUnit(code));
     }
-    return result;
   }
 
-  private static String serializeActuators(ActuatorCollection actuators) {
-    StringBuilder result = new StringBuilder();
+  private static void appendActuators(ActuatorCollection actuators, StringBuilder out) {
+    char separator = ';';
     for (Actuator actuator : actuators) {
-      if (!result.isEmpty()) {
-        result.append(",");
-      }
-      result.append(actuator.getType())
-          .append("=")
+      out.append(separator)
+          .append(actuator.getType())
+          .append('=')
           .append(actuator.getId());
+      separator = ',';
     }
-    return result.toString();
   }
 
+  private static void appendSensorDataMessage(SensorDataMessage message, StringBuilder out) {
+    if (message.isBatch()) {
+      appendSensorBatch(message, out);
+    } else {
+      out.append(MessageType.SENSOR_DATA_PREFIX).append(message.getNodeId());
+      appendReadings(message.getSensors(), message.getDictionary(), out);
+    }
+  }
 
-  private static String serializeSensorDataMessage(SensorDataMessage message) {
-    String header = "sensors:" + message.getNodeId();
-    StringBuilder data = new StringBuilder();
-    for (SensorReading sensor : message.getSensors()) {
-      data.append(";")
-          .append(sensor.getType())
-          .append(",")
-          .append(sensor.getValue())
-          .append(",")
-          .append(sensor.getUnit());
+  private static void appendSensorBatch(SensorDataMessage message, StringBuilder out) {
+    out.append(MessageType.SENSOR_BATCH_PREFIX).append(message.getNodeId());
+    List<SensorSample> samples = message.getSamples();
+    for (int i = 0; i < samples.size(); ++i) {
+      SensorSample sample = samples.get(i);
+      out.append(SAMPLE_SEPARATOR);
+      // The first timestamp is absolute, the others relative to the previous sample
+      out.append(i == 0 ? sample.getTimestamp()
+          : sample.getTimestamp() - samples.get(i - 1).getTimestamp());
+      appendReadings(sample.getReadings(), message.getDictionary(), out);
     }
-    return header + data;
   }
 
-  private static String serializeNodeOfflineMessage(SensorNodeOfflineMessage offlineMessage) {
-    return "offline:" + offlineMessage.getNodeId();
+  private static void appendReadings(List<SensorReading> readings, SensorDictionary dictionary,
+                                     StringBuilder out) {
+    for (SensorReading sensor : readings) {
+      int code = dictionary != null ? dictionary.getCode(sensor.getType(), sensor.getUnit()) : -1;
+      if (code >= 0) {
+        out.append(';').append(SensorDictionary.CODE_MARK).append(code).append(',');
+        appendCentiValue(sensor.getCentiValue(), out);
+      } else {
+        out.append(';')
+            .append(sensor.getType())
+            .append(',');
+        appendCentiValue(sensor.getCentiValue(), out);
+        out.append(',')
+            .append(sensor.getUnit());
+      }
+    }
   }
 
-  private static String serializeActuatorCommand(ActuatorStateMessage message) {
-    String header = "actuator:";
-    String nodeId = message.isAnyNode() ? "*" : ("" + message.getNodeId());
-    String actuatorId = message.isAnyActuator() ? "*" : ("" + message.getActuatorId());
-    String onOff = message.isOn() ? "on" : "off";
-    return header + nodeId + ";" + actuatorId + "," + onOff;
+  private static void appendSensorDeltaMessage(SensorDeltaMessage message, StringBuilder out) {
+    out.append(MessageType.SENSOR_DELTA_PREFIX).append(message.getNodeId());
+    for (int i = 0; i < message.getChangeCount(); ++i) {
+      out.append(';').append(message.getSensorIndex(i)).append(',');
+      appendCentiValue(message.getCentiValue(i), out);
+    }
   }
 
-  private static String serializeErrorMessage(ErrorMessage message) {
-    return "error:" + message.getType() + "," + message.getMessage();
+  /**
+   * Append a sensor value with exactly two decimals, for example, 27.10 or -3.25. The value is
+   * an exact integer in hundredths of the unit, it is formatted with integer arithmetic only,
+   * without Double.toString() or String.format().
+   *
+   * @param centiValue The value to append, in hundredths of the unit
+   * @param out        The builder to append the value to
+   */
+  public static void appendCentiValue(int centiValue, StringBuilder out) {
+    long value = centiValue;
+    if (value < 0) {
+      out.append('-');
+      value = -value;
+    }
+    int decimals = (int) (value % SensorReading.SCALE);
+    out.append(value / SensorReading.SCALE)
+        .append('.')
+        .append((char) ('0' + decimals / 10))
+        .append((char) ('0' + decimals % 10));
+  }
+
+  private static void appendSubscribeMessage(SubscribeMessage message, StringBuilder out) {
+    out.append(MessageType.SUBSCRIBE_PREFIX);
+    if (message.isAnyNode()) {
+      out.append(WILDCARD);
+    } else {
+      String separator = "";
+      for (NodeIdRange range : message.getNodeIdRanges()) {
+        out.append(separator).append(range.getFirst());
+        if (range.getLast() != range.getFirst()) {
+          out.append('-').append(range.getLast());
+        }
+        separator = ",";
+      }
+    }
+    if (!message.isAnySensorType()) {
+      char separator = ';';
+      for (String sensorType : message.getSensorTypes()) {
+        out.append(separator).append(sensorType);
+        separator = ',';
+      }
+    }
   }
 
+  private static void appendActuatorCommand(ActuatorStateMessage message, StringBuilder out) {
+    out.append(MessageType.ACTUATOR_PREFIX);
+    if (message.isAnyNode()) {
+      out.append(WILDCARD);
+    } else {
+      out.append(message.getNodeId());
+    }
+    out.append(';');
+    if (message.isAnyActuator()) {
+      out.append(WILDCARD);
+    } else {
+      out.append(message.getActuatorId());
+    }
+    out.append(',').append(message.isOn() ? "on" : "off");
+  }
 }
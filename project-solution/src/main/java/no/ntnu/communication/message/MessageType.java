@@ -0,0 +1,73 @@
+package no.ntnu.communication.message;
+
+/**
+ * Numeric IDs of the message types. Every message knows its type ID, see Message.getTypeId().
+ * The IDs are small consecutive numbers, so that the handlers of the messages can be kept in a
+ * plain array indexed by the type ID. The binary protocol uses the same numbers as the
+ * message-type byte.
+ */
+public final class MessageType {
+  public static final int UNKNOWN = 0;
+  public static final int SENSOR_NODE_TYPE = 1;
+  public static final int CONTROL_NODE_TYPE = 2;
+  public static final int SUBSCRIBE = 3;
+  public static final int SENSOR_DATA = 4;
+  public static final int ACTUATOR_STATE = 5;
+  public static final int NODE_OFFLINE = 6;
+  public static final int ERROR = 7;
+  public static final int SENSOR_DELTA = 8;
+  /**
+   * The number of type IDs, including UNKNOWN - the size of a handler table.
+   */
+  public static final int COUNT = 9;
+
+  static final String SENSOR_NODE_TYPE_PREFIX = "type=sensor:";
+  static final String CONTROL_NODE_TYPE_MESSAGE = "type=control";
+  static final String SUBSCRIBE_PREFIX = "subscribe:";
+  static final String SENSOR_DATA_PREFIX = "sensors:";
+  static final String ACTUATOR_PREFIX = "actuator:";
+  static final String NODE_OFFLINE_PREFIX = "offline:";
+  static final String ERROR_PREFIX = "error:";
+  static final String SENSOR_DELTA_PREFIX = "delta:";
+  static final String SENSOR_BATCH_PREFIX = "batch:";
+
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private MessageType() {
+  }
+
+  /**
+   * Find the type of a text message by looking only at its prefix. The message is not parsed,
+   * hence it may still turn out to be invalid.
+   *
+   * @param message The message, as text
+   * @return The type ID of the message, UNKNOWN if the prefix is not recognized
+   */
+  public static int classify(CharSequence message) {
+    int type = UNKNOWN;
+    if (!message.isEmpty()) {
+      switch (message.charAt(0)) {
+        case 's' -> type = startsWith(message, SENSOR_DATA_PREFIX) ? SENSOR_DATA
+            : startsWith(message, SUBSCRIBE_PREFIX) ? SUBSCRIBE : UNKNOWN;
+        case 'a' -> type = startsWith(message, ACTUATOR_PREFIX) ? ACTUATOR_STATE : UNKNOWN;
+        case 'o' -> type = startsWith(message, NODE_OFFLINE_PREFIX) ? NODE_OFFLINE : UNKNOWN;
+        case 't' -> type = startsWith(message, SENSOR_NODE_TYPE_PREFIX) ? SENSOR_NODE_TYPE
+            : CONTROL_NODE_TYPE_MESSAGE.contentEquals(message) ? CONTROL_NODE_TYPE : UNKNOWN;
+        case 'e' -> type = startsWith(message, ERROR_PREFIX) ? ERROR : UNKNOWN;
+        case 'd' -> type = startsWith(message, SENSOR_DELTA_PREFIX) ? SENSOR_DELTA : UNKNOWN;
+        case 'b' -> type = startsWith(message, SENSOR_BATCH_PREFIX) ? SENSOR_DATA : UNKNOWN;
+        default -> type = UNKNOWN;
+      }
+    }
+    return type;
+  }
+
+  private static boolean startsWith(CharSequence message, String prefix) {
+    boolean matches = message.length() >= prefix.length();
+    for (int i = 0; matches && i < prefix.length(); ++i) {
+      matches = message.charAt(i) == prefix.charAt(i);
+    }
+    return matches;
+  }
+}
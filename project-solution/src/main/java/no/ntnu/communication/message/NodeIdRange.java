@@ -0,0 +1,47 @@
+package no.ntnu.communication.message;
+
+/**
+ * An inclusive range of sensor/actuator node IDs. A single node ID is a range where the first
+ * and the last ID are the same.
+ */
+public class NodeIdRange {
+  private final int first;
+  private final int last;
+
+  /**
+   * Create a node ID range.
+   *
+   * @param first The first ID in the range
+   * @param last  The last ID in the range, inclusive
+   */
+  public NodeIdRange(int first, int last) {
+    if (last < first) {
+      throw new IllegalArgumentException("Invalid node ID range: " + first + "-" + last);
+    }
+    this.first = first;
+    this.last = last;
+  }
+
+  public int getFirst() {
+    return first;
+  }
+
+  public int getLast() {
+    return last;
+  }
+
+  /**
+   * Check whether a node ID is within this range.
+   *
+   * @param nodeId The node ID to check
+   * @return True if the ID is in the range, false otherwise
+   */
+  public boolean contains(int nodeId) {
+    return nodeId >= first && nodeId <= last;
+  }
+
+  @Override
+  public String toString() {
+    return first == last ? ("" + first) : (first + "-" + last);
+  }
+}
@@ -4,27 +4,107 @@ import java.util.List;
 import no.ntnu.greenhouse.SensorReading;
 
 /**
- * A message containing sensor data.
+ * A message containing sensor data: the current readings of a node, or a batch of several
+ * timestamped samples read since the previous message. The readings of a batch are the readings
+ * of its newest sample.
  */
 public class SensorDataMessage implements Message {
   private final List<SensorReading> sensors;
   private final int nodeId;
+  private final SensorDictionary dictionary;
+  private final List<SensorSample> samples;
 
   public SensorDataMessage(List<SensorReading> sensors, int nodeId) {
+    this(sensors, nodeId, null);
+  }
+
+  /**
+   * Create a sensor data message which is sent with sensor codes instead of sensor types and
+   * units.
+   *
+   * @param sensors    The sensor readings
+   * @param nodeId     ID of the node
+   * @param dictionary The sensor types declared by the node, readings of the types which are not
+   *                   in it are sent with the type and the unit. Null to send all of them so.
+   */
+  public SensorDataMessage(List<SensorReading> sensors, int nodeId,
+                           SensorDictionary dictionary) {
+    this(sensors, nodeId, dictionary, null);
+  }
+
+  private SensorDataMessage(List<SensorReading> sensors, int nodeId,
+                            SensorDictionary dictionary, List<SensorSample> samples) {
     this.sensors = sensors;
     this.nodeId = nodeId;
+    this.dictionary = dictionary;
+    this.samples = samples;
+  }
+
+  /**
+   * Create a batched sensor data message.
+   *
+   * @param samples    The samples, oldest first. There must be at least one.
+   * @param nodeId     ID of the node
+   * @param dictionary The sensor types declared by the node, null when none are declared
+   * @return The message
+   */
+  public static SensorDataMessage ofSamples(List<SensorSample> samples, int nodeId,
+                                            SensorDictionary dictionary) {
+    if (samples.isEmpty()) {
+      throw new IllegalArgumentException("A batch must contain at least one sample");
+    }
+    List<SensorReading> newest = samples.get(samples.size() - 1).getReadings();
+    return new SensorDataMessage(newest, nodeId, dictionary, samples);
   }
 
   public int getNodeId() {
     return nodeId;
   }
 
+  /**
+   * Get the sensor readings.
+   *
+   * @return The readings; the readings of the newest sample for a batch
+   */
   public List<SensorReading> getSensors() {
     return sensors;
   }
 
+  /**
+   * Check whether this message is a batch of samples.
+   *
+   * @return True when the message was created with ofSamples()
+   */
+  public boolean isBatch() {
+    return samples != null;
+  }
+
+  /**
+   * Get the samples of a batch.
+   *
+   * @return The samples, oldest first; null when the message is not a batch
+   */
+  public List<SensorSample> getSamples() {
+    return samples;
+  }
+
+  /**
+   * Get the sensor dictionary used to encode the readings.
+   *
+   * @return The dictionary of the node, null when the readings are sent with the sensor types
+   */
+  public SensorDictionary getDictionary() {
+    return dictionary;
+  }
+
   @Override
   public String toString() {
-    return "SensorDataMessage{nodeId=" + nodeId + ", " + sensors.size() + " sensors}";
+    return "SensorDataMessage{nodeId=" + nodeId + ", " + sensors.size() + " sensors"
+        + (samples != null ? ", " + samples.size() + " samples}" : "}");
+  }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.SENSOR_DATA;
   }
 }
@@ -0,0 +1,115 @@
+package no.ntnu.communication.message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A message containing only the sensor readings which have changed since the previous message of
+ * the node. A sensor is identified by its index in the full sensor data message (the keyframe),
+ * its type and unit are known from there. The receivers reconstruct the full state by applying
+ * the delta to the latest full readings.
+ */
+public class SensorDeltaMessage implements Message {
+  private static final int INITIAL_CAPACITY = 4;
+
+  private final int nodeId;
+  private int changeCount = 0;
+  private int[] sensorIndices = new int[INITIAL_CAPACITY];
+  private int[] centiValues = new int[INITIAL_CAPACITY];
+
+  /**
+   * Create a message. The changes are added later.
+   *
+   * @param nodeId ID of the node which sent the readings
+   */
+  public SensorDeltaMessage(int nodeId) {
+    this.nodeId = nodeId;
+  }
+
+  /**
+   * Add a changed reading.
+   *
+   * @param sensorIndex The index of the sensor in the full sensor data message
+   * @param centiValue  The new value of the sensor, in hundredths of the unit
+   */
+  public void addChange(int sensorIndex, int centiValue) {
+    if (sensorIndex < 0) {
+      throw new IllegalArgumentException("Invalid sensor index: " + sensorIndex);
+    }
+    if (changeCount == sensorIndices.length) {
+      sensorIndices = Arrays.copyOf(sensorIndices, changeCount * 2);
+      centiValues = Arrays.copyOf(centiValues, changeCount * 2);
+    }
+    sensorIndices[changeCount] = sensorIndex;
+    centiValues[changeCount] = centiValue;
+    changeCount++;
+  }
+
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Get the number of changed readings.
+   *
+   * @return The number of changes
+   */
+  public int getChangeCount() {
+    return changeCount;
+  }
+
+  /**
+   * Get the index of a changed sensor.
+   *
+   * @param change Index of the change, 0 to getChangeCount() - 1
+   * @return The index of the sensor in the full sensor data message
+   */
+  public int getSensorIndex(int change) {
+    return sensorIndices[change];
+  }
+
+  /**
+   * Get the new value of a changed sensor.
+   *
+   * @param change Index of the change, 0 to getChangeCount() - 1
+   * @return The new value, in hundredths of the unit
+   */
+  public int getCentiValue(int change) {
+    return centiValues[change];
+  }
+
+  /**
+   * Apply the changes to the previous full readings of the node. The previous readings are not
+   * modified.
+   *
+   * @param previous The readings of the previous full (or reconstructed) sensor data message
+   * @return The new full readings
+   * @throws IllegalArgumentException When a sensor index is out of the range of the readings
+   */
+  public List<SensorReading> applyTo(List<SensorReading> previous) {
+    List<SensorReading> readings = new ArrayList<>(previous);
+    for (int i = 0; i < changeCount; ++i) {
+      int index = sensorIndices[i];
+      if (index >= readings.size()) {
+        throw new IllegalArgumentException("Node " + nodeId + " has no sensor with index "
+            + index);
+      }
+      SensorReading reading = readings.get(index);
+      readings.set(index, SensorReading.ofCentiValue(reading.getType(), centiValues[i],
+          reading.getUnit()));
+    }
+    return readings;
+  }
+
+  @Override
+  public String toString() {
+    return "SensorDeltaMessage{nodeId=" + nodeId + ", " + changeCount + " changes}";
+  }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.SENSOR_DELTA;
+  }
+}
@@ -0,0 +1,47 @@
+package no.ntnu.communication.message;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The sensor dictionaries agreed on one connection: the dictionary declared in the node type
+ * message of every node announced over the connection, by node ID. The codes of a node mean
+ * something only on the connection where the node has declared them, so every connection (the
+ * session on the server, the client on the other side) keeps its own dictionaries and hands
+ * them to its decoders and parsers.
+ *
+ * <p>The dictionaries are registered by the thread reading the connection, but the frames of the
+ * connection may be decoded later on other threads, so the lookups are thread-safe.
+ */
+public class SensorDictionaries {
+  private final Map<Integer, SensorDictionary> nodeDictionaries = new ConcurrentHashMap<>();
+
+  /**
+   * Remember the dictionary declared by a node, replacing the previous one of the same node.
+   *
+   * @param nodeId     ID of the node
+   * @param dictionary The dictionary of the node
+   */
+  public void register(int nodeId, SensorDictionary dictionary) {
+    nodeDictionaries.put(nodeId, dictionary);
+  }
+
+  /**
+   * Forget the dictionary of a node which has gone offline.
+   *
+   * @param nodeId ID of the node
+   */
+  public void remove(int nodeId) {
+    nodeDictionaries.remove(nodeId);
+  }
+
+  /**
+   * Get the dictionary declared by a node.
+   *
+   * @param nodeId ID of the node
+   * @return The dictionary, null when the node has not declared any on this connection
+   */
+  public SensorDictionary forNode(int nodeId) {
+    return nodeDictionaries.get(nodeId);
+  }
+}
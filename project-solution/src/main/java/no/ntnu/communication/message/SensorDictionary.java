@@ -0,0 +1,127 @@
+package no.ntnu.communication.message;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.greenhouse.Sensor;
+
+/**
+ * The sensor types and units of one sensor/actuator node, each (type, unit) pair with a small
+ * numeric code: its position in the dictionary. The node declares the dictionary once, in its
+ * node type message; after that, its sensor data messages carry only the codes and the values.
+ *
+ * <p>The receivers resolve the codes through the dictionary of the node which sent the data.
+ * Parsing a node type message registers its dictionary in the {@link SensorDictionaries} of the
+ * connection it arrived on, so the dictionary is known to the parsers of that connection before
+ * the first sensor data of the node arrives - the server always sends the node type message
+ * before any data of that node. The strings in a dictionary are interned: all the readings share
+ * the same type and unit strings, nothing is allocated for them per message.
+ *
+ * <p>A dictionary must not be changed after it is registered or used in a message.
+ */
+public class SensorDictionary {
+  /**
+   * The character which starts a dictionary entry in a node type message and a coded reading
+   * in a sensor data message.
+   */
+  static final char CODE_MARK = '@';
+
+  private final List<String> types = new ArrayList<>();
+  private final List<String> units = new ArrayList<>();
+
+  /**
+   * Create a dictionary of all the sensor types (and units) used by the given sensors.
+   *
+   * @param sensors The sensors of a node
+   * @return The dictionary, with one entry for each distinct (type, unit) pair
+   */
+  public static SensorDictionary forSensors(List<Sensor> sensors) {
+    SensorDictionary dictionary = new SensorDictionary();
+    for (Sensor sensor : sensors) {
+      dictionary.add(sensor.getType(), sensor.getReading().getUnit());
+    }
+    return dictionary;
+  }
+
+  /**
+   * Add an entry to the dictionary, unless the same (type, unit) pair is there already.
+   *
+   * @param type The sensor type
+   * @param unit The unit of the sensor values
+   * @return The code of the entry
+   */
+  public int add(String type, String unit) {
+    int code = getCode(type, unit);
+    if (code < 0) {
+      code = types.size();
+      types.add(type.intern());
+      units.add(unit.intern());
+    }
+    return code;
+  }
+
+  /**
+   * Find the code of a sensor type and unit.
+   *
+   * @param type The sensor type
+   * @param unit The unit of the sensor values
+   * @return The code, -1 when the pair is not in the dictionary
+   */
+  public int getCode(String type, String unit) {
+    int code = -1;
+    // A node has only a handful of sensor types, a linear search is the fastest
+    for (int i = 0; code < 0 && i < types.size(); ++i) {
+      if (types.get(i).equals(type) && units.get(i).equals(unit)) {
+        code = i;
+      }
+    }
+    return code;
+  }
+
+  /**
+   * Get the sensor type with the given code.
+   *
+   * @param code The code, 0 to size() - 1
+   * @return The sensor type
+   * @throws IllegalArgumentException When the code is not in the dictionary
+   */
+  public String getType(int code) {
+    checkCode(code);
+    return types.get(code);
+  }
+
+  /**
+   * Get the unit with the given code.
+   *
+   * @param code The code, 0 to size() - 1
+   * @return The unit
+   * @throws IllegalArgumentException When the code is not in the dictionary
+   */
+  public String getUnit(int code) {
+    checkCode(code);
+    return units.get(code);
+  }
+
+  private void checkCode(int code) {
+    if (code < 0 || code >= types.size()) {
+      throw new IllegalArgumentException("Unknown sensor code: " + code);
+    }
+  }
+
+  /**
+   * Get the number of entries.
+   *
+   * @return The number of entries, the codes are 0 to size() - 1
+   */
+  public int size() {
+    return types.size();
+  }
+
+  /**
+   * Check whether the dictionary is empty.
+   *
+   * @return True when there are no entries
+   */
+  public boolean isEmpty() {
+    return types.isEmpty();
+  }
+}
@@ -23,4 +23,9 @@ public class SensorNodeOfflineMessage implements Message {
   public int getNodeId() {
     return nodeId;
   }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.NODE_OFFLINE;
+  }
 }
@@ -5,10 +5,12 @@ import no.ntnu.greenhouse.ActuatorCollection;
 import no.ntnu.greenhouse.SensorActuatorNode;
 
 /**
- * A message saying "I'm a sensor/actuator node, my actuator list is as follows".
+ * A message saying "I'm a sensor/actuator node, my actuator list is as follows". The message also
+ * declares the sensor types of the node, see SensorDictionary.
  */
 public class SensorNodeTypeMessage extends NodeTypeMessage {
   private final ActuatorCollection actuators;
+  private final SensorDictionary sensors;
   private final int nodeId;
 
   /**
@@ -20,10 +22,11 @@ public class SensorNodeTypeMessage extends NodeTypeMessage {
     super();
     this.nodeId = node.getId();
     this.actuators = node.getActuators();
+    this.sensors = SensorDictionary.forSensors(node.getSensors());
   }
 
   /**
-   * Create a message. Actuators can be added later.
+   * Create a message. Actuators and sensor types can be added later.
    *
    * @param nodeId The ID of the node described in this message.
    */
@@ -31,6 +34,7 @@ public class SensorNodeTypeMessage extends NodeTypeMessage {
     super();
     this.nodeId = nodeId;
     this.actuators = new ActuatorCollection();
+    this.sensors = new SensorDictionary();
   }
 
   /**
@@ -51,6 +55,15 @@ public class SensorNodeTypeMessage extends NodeTypeMessage {
     return actuators;
   }
 
+  /**
+   * Get the sensor types (and units) of the node, with their codes.
+   *
+   * @return The dictionary, empty when the node declares no sensor types
+   */
+  public SensorDictionary getSensorDictionary() {
+    return sensors;
+  }
+
   /**
    * Get the ID of the associated sensor/actuator node.
    *
@@ -59,4 +72,9 @@ public class SensorNodeTypeMessage extends NodeTypeMessage {
   public int getNodeId() {
     return nodeId;
   }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.SENSOR_NODE_TYPE;
+  }
 }
@@ -0,0 +1,31 @@
+package no.ntnu.communication.message;
+
+import java.util.List;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * The readings of all the sensors of a node at one moment, used in batched sensor data messages.
+ */
+public class SensorSample {
+  private final long timestamp;
+  private final List<SensorReading> readings;
+
+  /**
+   * Create a sample.
+   *
+   * @param timestamp The time when the sensors were read, in milliseconds since the epoch
+   * @param readings  The readings; they must not change later
+   */
+  public SensorSample(long timestamp, List<SensorReading> readings) {
+    this.timestamp = timestamp;
+    this.readings = readings;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public List<SensorReading> getReadings() {
+    return readings;
+  }
+}
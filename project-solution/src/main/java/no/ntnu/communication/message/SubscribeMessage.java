@@ -0,0 +1,83 @@
+package no.ntnu.communication.message;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A message saying "I'm a control panel node, send me only data about these nodes and these
+ * sensor types". Can be sent instead of the plain control-node type message when connecting,
+ * or at any time later, to change the subscription.
+ */
+public class SubscribeMessage extends ControlNodeTypeMessage {
+  private final List<NodeIdRange> nodeIdRanges = new LinkedList<>();
+  private final Set<String> sensorTypes = new LinkedHashSet<>();
+
+  /**
+   * Add a range of node IDs to the subscription. When no ranges are added, data about all the
+   * nodes is requested.
+   *
+   * @param range The range of node IDs
+   */
+  public void addNodeIdRange(NodeIdRange range) {
+    nodeIdRanges.add(range);
+  }
+
+  /**
+   * Add a sensor type to the subscription. When no sensor types are added, readings of all the
+   * sensor types are requested.
+   *
+   * @param sensorType The sensor type, for example, "temperature"
+   */
+  public void addSensorType(String sensorType) {
+    sensorTypes.add(sensorType);
+  }
+
+  public List<NodeIdRange> getNodeIdRanges() {
+    return Collections.unmodifiableList(nodeIdRanges);
+  }
+
+  /**
+   * Get the requested sensor types.
+   *
+   * @return The sensor types, empty when readings of all the sensor types are requested
+   */
+  public Set<String> getSensorTypes() {
+    return Collections.unmodifiableSet(sensorTypes);
+  }
+
+  public boolean isAnyNode() {
+    return nodeIdRanges.isEmpty();
+  }
+
+  public boolean isAnySensorType() {
+    return sensorTypes.isEmpty();
+  }
+
+  /**
+   * Check whether the subscription includes a given node.
+   *
+   * @param nodeId ID of the sensor/actuator node
+   * @return True if data about the node is requested, false otherwise
+   */
+  public boolean matchesNode(int nodeId) {
+    boolean matches = isAnyNode();
+    for (NodeIdRange range : nodeIdRanges) {
+      matches = matches || range.contains(nodeId);
+    }
+    return matches;
+  }
+
+  @Override
+  public String toString() {
+    return "SubscribeMessage{nodes=" + (isAnyNode() ? "*" : nodeIdRanges)
+        + ", sensorTypes=" + (isAnySensorType() ? "*" : sensorTypes) + "}";
+  }
+
+  @Override
+  public int getTypeId() {
+    return MessageType.SUBSCRIBE;
+  }
+}
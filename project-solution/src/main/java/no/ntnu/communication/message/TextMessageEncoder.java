@@ -0,0 +1,132 @@
+package no.ntnu.communication.message;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * A reusable encoder which writes text messages straight into caller-owned buffers. The message
+ * is first appended to a builder owned by the encoder, then copied to the target buffer - as
+ * characters or as UTF-8 bytes. In the steady state no objects are allocated per message.
+ *
+ * <p>An encoder must not be shared by several threads, use one encoder per connection (or
+ * thread).
+ */
+public class TextMessageEncoder {
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final StringBuilder text = new StringBuilder(INITIAL_CAPACITY);
+  private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+  /**
+   * Append a message to a builder. The same as MessageSerializer.appendTo().
+   *
+   * @param message The message to encode
+   * @param out     The builder to append the message to (without a newline)
+   */
+  public void encode(Message message, StringBuilder out) {
+    MessageSerializer.appendTo(message, out);
+  }
+
+  /**
+   * Write a message to a character buffer.
+   *
+   * @param message The message to encode
+   * @param out     The buffer to write the message to (without a newline)
+   * @throws BufferOverflowException When the message does not fit in the buffer, nothing is
+   *                                 written then
+   */
+  public void encode(Message message, CharBuffer out) {
+    CharSequence encoded = toText(message);
+    if (out.remaining() < encoded.length()) {
+      throw new BufferOverflowException();
+    }
+    for (int i = 0; i < encoded.length(); ++i) {
+      out.put(encoded.charAt(i));
+    }
+  }
+
+  /**
+   * Write a message to a byte buffer, as UTF-8 bytes.
+   *
+   * @param message The message to encode
+   * @param out     The buffer to write the message to (without a newline)
+   * @throws BufferOverflowException When the message does not fit in the buffer, nothing is
+   *                                 written then
+   */
+  public void encode(Message message, ByteBuffer out) {
+    CharSequence encoded = toText(message);
+    int length = getUtf8Length(encoded);
+    if (out.remaining() < length) {
+      throw new BufferOverflowException();
+    }
+    if (out.hasArray()) {
+      int end = writeUtf8(encoded, out.array(), out.arrayOffset() + out.position());
+      out.position(end - out.arrayOffset());
+    } else {
+      // Direct buffers: encode to an array first, one bulk copy is cheaper than single bytes
+      if (bytes.length < length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      out.put(bytes, 0, writeUtf8(encoded, bytes, 0));
+    }
+  }
+
+  /**
+   * Write the characters as UTF-8 bytes to an array which is known to be large enough.
+   */
+  private static int writeUtf8(CharSequence s, byte[] bytes, int offset) {
+    int position = offset;
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        bytes[position++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[position++] = (byte) (0xC0 | (c >> 6));
+        bytes[position++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        // A broken surrogate pair, encoded the same way as String.getBytes() does
+        bytes[position++] = (byte) '?';
+      } else {
+        bytes[position++] = (byte) (0xE0 | (c >> 12));
+        bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[position++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return position;
+  }
+
+  private CharSequence toText(Message message) {
+    text.setLength(0);
+    MessageSerializer.appendTo(message, text);
+    return text;
+  }
+
+  private static int getUtf8Length(CharSequence s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < s.length()
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+}
@@ -0,0 +1,650 @@
+package no.ntnu.communication.message;
+
+import static no.ntnu.communication.message.ActuatorStateMessage.ANY;
+import static no.ntnu.communication.message.ErrorType.INVALID;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A reusable parser for the frequent text messages: sensor data (full and delta), actuator states
+ * and node-offline notifications. It works directly on a CharSequence or on a window of a
+ * ByteBuffer (UTF-8 bytes), without splitting the message into substrings: integers and decimal
+ * numbers are parsed by hand, sensor types and units are looked up in a small table of already
+ * seen strings (or, for coded readings, in the SensorDictionary which the node has declared on
+ * the connection). The result is kept in the parser itself, which is reused for the next
+ * message - in the steady state parsing a message produces no garbage at all.
+ *
+ * <p>The parsed fields are only valid until the next call to parse(). Use toMessage() to get a
+ * message object which can be kept. The rare messages (handshakes, subscriptions) are not parsed
+ * here, they are reported as Result.OTHER and toMessage() falls back to MessageSerializer.
+ *
+ * <p>A parser must not be shared by several threads, use one parser per connection (or thread).
+ */
+public class TextMessageParser {
+  /**
+   * The outcome of parsing one message.
+   */
+  public enum Result {
+    SENSOR_DATA, SENSOR_DELTA, ACTUATOR_STATE, NODE_OFFLINE, OTHER, INVALID
+  }
+
+  private static final String ANY_NODE_ACTUATOR_PREFIX = "actuator:*;";
+
+  private static final int INITIAL_READING_CAPACITY = 8;
+  private static final int INITIAL_BYTE_CAPACITY = 256;
+  // The values have two decimals; the multiplier which turns the digits read so far into
+  // hundredths, by the number of decimals read
+  private static final int MAX_DECIMALS = 2;
+  private static final int[] CENTI_MULTIPLIERS = {100, 10, 1};
+
+  private final CharInput charInput = new CharInput();
+  private final ByteInput byteInput = new ByteInput();
+  private Input input;
+
+  private Result result;
+  private String error;
+  private int nodeId;
+  private int actuatorId;
+  private boolean on;
+  private int readingCount;
+  // The dictionaries declared on the connection, null when coded readings can't be resolved
+  private SensorDictionaries dictionaries;
+  private SensorDictionary dictionary;
+  private boolean coded;
+  private int[] sensorIndices = new int[INITIAL_READING_CAPACITY];
+  private String[] sensorTypes = new String[INITIAL_READING_CAPACITY];
+  private int[] sensorValues = new int[INITIAL_READING_CAPACITY];
+  private String[] sensorUnits = new String[INITIAL_READING_CAPACITY];
+
+  /**
+   * Create a parser which can't resolve coded sensor readings.
+   */
+  public TextMessageParser() {
+    this(null);
+  }
+
+  /**
+   * Create a parser for the messages received on one connection.
+   *
+   * @param dictionaries The sensor dictionaries declared on the connection; the node type
+   *                     messages parsed with toMessage() are registered there
+   */
+  public TextMessageParser(SensorDictionaries dictionaries) {
+    this.dictionaries = dictionaries;
+  }
+
+  /**
+   * Switch the parser to the messages of another connection. Used by the parsers which are
+   * shared by all the connections handled on one thread.
+   *
+   * @param dictionaries The sensor dictionaries declared on the connection, may be null
+   */
+  public void setDictionaries(SensorDictionaries dictionaries) {
+    this.dictionaries = dictionaries;
+  }
+
+  /**
+   * Parse a message.
+   *
+   * @param message The message, without the newline
+   * @return The outcome; the parsed fields are available through the getters
+   */
+  public Result parse(CharSequence message) {
+    input = charInput.reset(message);
+    return parseInput();
+  }
+
+  /**
+   * Parse a message stored as UTF-8 bytes. The bytes between the position and the limit of the
+   * buffer are parsed, the position is not changed.
+   *
+   * @param message The buffer containing the message, without the newline
+   * @return The outcome; the parsed fields are available through the getters
+   */
+  public Result parse(ByteBuffer message) {
+    input = byteInput.reset(message);
+    return parseInput();
+  }
+
+  private Result parseInput() {
+    error = null;
+    nodeId = 0;
+    actuatorId = 0;
+    on = false;
+    readingCount = 0;
+    dictionary = null;
+    coded = false;
+    try {
+      if (startsWith(MessageType.SENSOR_DATA_PREFIX)) {
+        parseSensorData();
+        result = Result.SENSOR_DATA;
+      } else if (startsWith(MessageType.SENSOR_DELTA_PREFIX)) {
+        parseSensorDelta();
+        result = Result.SENSOR_DELTA;
+      } else if (startsWith(MessageType.ACTUATOR_PREFIX)) {
+        parseActuatorState();
+        result = Result.ACTUATOR_STATE;
+      } else if (startsWith(MessageType.NODE_OFFLINE_PREFIX)) {
+        nodeId = parseNodeId(MessageType.NODE_OFFLINE_PREFIX.length());
+        result = Result.NODE_OFFLINE;
+      } else {
+        result = Result.OTHER;
+      }
+    } catch (IllegalArgumentException e) {
+      error = "Error while deserializing message `" + input.substring(0, input.length()) + "`: "
+          + e.getMessage();
+      result = Result.INVALID;
+    }
+    return result;
+  }
+
+  private void parseSensorData() {
+    nodeId = parseNodeId(MessageType.SENSOR_DATA_PREFIX.length());
+    dictionary = dictionaries != null ? dictionaries.forNode(nodeId) : null;
+    int end = input.length();
+    int position = indexOf(';', 0, end) + 1;
+    // Semicolons at the end of the message are ignored
+    while (position > 0 && position < end && !containsOnly(';', position, end)) {
+      int readingEnd = indexOf(';', position, end);
+      if (readingEnd < 0) {
+        readingEnd = end;
+      }
+      if (input.charAt(position) == SensorDictionary.CODE_MARK) {
+        parseCodedSensorReading(position, readingEnd);
+      } else {
+        parseSensorReading(position, readingEnd);
+      }
+      position = readingEnd + 1;
+    }
+  }
+
+  private void parseSensorDelta() {
+    nodeId = parseNodeId(MessageType.SENSOR_DELTA_PREFIX.length());
+    int end = input.length();
+    int position = indexOf(';', 0, end) + 1;
+    while (position > 0 && position < end && !containsOnly(';', position, end)) {
+      int changeEnd = indexOf(';', position, end);
+      if (changeEnd < 0) {
+        changeEnd = end;
+      }
+      int comma = indexOf(',', position, changeEnd);
+      if (comma < 0 || indexOf(',', comma + 1, changeEnd) >= 0) {
+        throw new IllegalArgumentException("Invalid sensor change: `"
+            + input.substring(position, changeEnd) + "`");
+      }
+      ensureReadingCapacity();
+      int index = parseInteger(position, comma, "Invalid sensor index");
+      if (index < 0) {
+        throw new IllegalArgumentException("Invalid sensor index: " + index);
+      }
+      sensorIndices[readingCount] = index;
+      sensorValues[readingCount] = parseCentiValue(comma + 1, changeEnd);
+      readingCount++;
+      position = changeEnd + 1;
+    }
+  }
+
+  private void parseSensorReading(int start, int end) {
+    int fieldsEnd = end;
+    // Commas at the end of the reading are ignored
+    while (fieldsEnd > start && input.charAt(fieldsEnd - 1) == ',') {
+      fieldsEnd--;
+    }
+    int firstComma = indexOf(',', start, fieldsEnd);
+    int secondComma = firstComma >= 0 ? indexOf(',', firstComma + 1, fieldsEnd) : -1;
+    if (secondComma < 0 || indexOf(',', secondComma + 1, fieldsEnd) >= 0) {
+      throw new IllegalArgumentException("Invalid sensor reading: `"
+          + input.substring(start, end) + "`");
+    }
+    ensureReadingCapacity();
+    sensorTypes[readingCount] = input.symbol(start, firstComma);
+    sensorValues[readingCount] = parseCentiValue(firstComma + 1, secondComma);
+    sensorUnits[readingCount] = input.symbol(secondComma + 1, fieldsEnd);
+    readingCount++;
+  }
+
+  /**
+   * Parse a reading in the form @code,value. The type and the unit come from the dictionary
+   * declared by the node.
+   */
+  private void parseCodedSensorReading(int start, int end) {
+    int comma = indexOf(',', start, end);
+    if (comma < 0 || indexOf(',', comma + 1, end) >= 0) {
+      throw new IllegalArgumentException("Invalid sensor reading: `"
+          + input.substring(start, end) + "`");
+    }
+    if (dictionary == null) {
+      throw new IllegalArgumentException("Node " + nodeId + " has not declared sensor codes");
+    }
+    int code = parseInteger(start + 1, comma, "Invalid sensor code");
+    ensureReadingCapacity();
+    sensorTypes[readingCount] = dictionary.getType(code);
+    sensorValues[readingCount] = parseCentiValue(comma + 1, end);
+    sensorUnits[readingCount] = dictionary.getUnit(code);
+    readingCount++;
+    coded = true;
+  }
+
+  private void ensureReadingCapacity() {
+    if (readingCount == sensorTypes.length) {
+      int capacity = readingCount * 2;
+      sensorIndices = Arrays.copyOf(sensorIndices, capacity);
+      sensorTypes = Arrays.copyOf(sensorTypes, capacity);
+      sensorValues = Arrays.copyOf(sensorValues, capacity);
+      sensorUnits = Arrays.copyOf(sensorUnits, capacity);
+    }
+  }
+
+  private void parseActuatorState() {
+    int end = input.length();
+    int commaPosition = indexOf(',', 0, end);
+    if (commaPosition < 0) {
+      throw new IllegalArgumentException("Actuator message must contain actuatorId and on/off tag");
+    }
+    nodeId = startsWith(ANY_NODE_ACTUATOR_PREFIX)
+        ? ANY : parseNodeId(MessageType.ACTUATOR_PREFIX.length());
+    int semicolonPosition = indexOf(';', 0, end);
+    if (semicolonPosition > commaPosition) {
+      throw new IllegalArgumentException("Actuator ID must follow the node ID");
+    }
+    if (commaPosition == semicolonPosition + 2 && input.charAt(semicolonPosition + 1) == '*') {
+      actuatorId = ANY;
+    } else {
+      actuatorId = parseInteger(semicolonPosition + 1, commaPosition, "Invalid actuatorId");
+    }
+    on = end - commaPosition == 3
+        && input.charAt(commaPosition + 1) == 'o' && input.charAt(commaPosition + 2) == 'n';
+  }
+
+  private int parseNodeId(int start) {
+    int end = indexOf(';', start, input.length());
+    if (end < 0) {
+      end = input.length();
+    }
+    return parseInteger(start, end, "Wrong node Id");
+  }
+
+  /**
+   * Parse an integer, accepting the same format as Integer.parseInt().
+   */
+  private int parseInteger(int start, int end, String errorMessage) {
+    int position = start;
+    boolean negative = false;
+    if (position < end && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+      negative = input.charAt(position) == '-';
+      position++;
+    }
+    if (position == end) {
+      throw new NumberFormatException(errorMessage + ": `" + input.substring(start, end) + "`");
+    }
+    long value = 0;
+    while (position < end) {
+      int digit = input.charAt(position) - '0';
+      if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+        throw new NumberFormatException(errorMessage + ": `" + input.substring(start, end) + "`");
+      }
+      value = value * 10 + digit;
+      position++;
+    }
+    value = negative ? -value : value;
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException(errorMessage + ": `" + input.substring(start, end) + "`");
+    }
+    return (int) value;
+  }
+
+  /**
+   * Parse a sensor value such as 27.12 or -3.5 directly into hundredths of the unit, with
+   * integer arithmetic only. Anything unusual (more than two decimals, exponents, special values)
+   * is left to Double.parseDouble() and rounded to two decimals.
+   */
+  private int parseCentiValue(int start, int end) {
+    int position = start;
+    boolean negative = false;
+    if (position < end && (input.charAt(position) == '-' || input.charAt(position) == '+')) {
+      negative = input.charAt(position) == '-';
+      position++;
+    }
+    long value = 0;
+    int digits = 0;
+    int decimals = -1;
+    boolean simple = true;
+    while (simple && position < end) {
+      int c = input.charAt(position);
+      if (c >= '0' && c <= '9' && decimals < MAX_DECIMALS && value <= Integer.MAX_VALUE) {
+        value = value * 10 + (c - '0');
+        digits++;
+        if (decimals >= 0) {
+          decimals++;
+        }
+      } else if (c == '.' && decimals < 0) {
+        decimals = 0;
+      } else {
+        simple = false;
+      }
+      position++;
+    }
+    int centiValue;
+    if (simple && digits > 0) {
+      value *= CENTI_MULTIPLIERS[Math.max(decimals, 0)];
+      value = negative ? -value : value;
+      if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+        throw new NumberFormatException("Sensor value out of range: "
+            + input.substring(start, end));
+      }
+      centiValue = (int) value;
+    } else {
+      String s = input.substring(start, end);
+      try {
+        centiValue = SensorReading.toCentiValue(Double.parseDouble(s));
+      } catch (NumberFormatException e) {
+        throw new NumberFormatException("Invalid sensor value: " + s);
+      }
+    }
+    return centiValue;
+  }
+
+  private boolean startsWith(String prefix) {
+    boolean matches = input.length() >= prefix.length();
+    for (int i = 0; matches && i < prefix.length(); ++i) {
+      matches = input.charAt(i) == prefix.charAt(i);
+    }
+    return matches;
+  }
+
+  private int indexOf(char c, int start, int end) {
+    int position = start;
+    while (position < end && input.charAt(position) != c) {
+      position++;
+    }
+    return position < end ? position : -1;
+  }
+
+  private boolean containsOnly(char c, int start, int end) {
+    int position = start;
+    while (position < end && input.charAt(position) == c) {
+      position++;
+    }
+    return position == end;
+  }
+
+  /**
+   * Get the ID of the node. Valid for sensor data, actuator states and node-offline messages.
+   *
+   * @return The node ID, or ActuatorStateMessage.ANY for actuator commands to all nodes
+   */
+  public int getNodeId() {
+    return nodeId;
+  }
+
+  /**
+   * Get the ID of the actuator. Valid for actuator state messages.
+   *
+   * @return The actuator ID, or ActuatorStateMessage.ANY for commands to all actuators
+   */
+  public int getActuatorId() {
+    return actuatorId;
+  }
+
+  /**
+   * Get the state of the actuator. Valid for actuator state messages.
+   *
+   * @return True when the actuator is (must be) on
+   */
+  public boolean isOn() {
+    return on;
+  }
+
+  /**
+   * Get the number of sensor readings. Valid for sensor data messages and sensor delta messages
+   * (the number of changed readings).
+   *
+   * @return The number of readings, zero when the message has none
+   */
+  public int getReadingCount() {
+    return readingCount;
+  }
+
+  /**
+   * Get the index of a changed sensor in the full sensor data message. Valid for sensor delta
+   * messages.
+   *
+   * @param index Index of the reading, 0 to getReadingCount() - 1
+   * @return The sensor index
+   */
+  public int getSensorIndex(int index) {
+    return sensorIndices[index];
+  }
+
+  /**
+   * Get the type of a sensor reading. Valid for sensor data messages. The returned strings are
+   * shared between messages.
+   *
+   * @param index Index of the reading, 0 to getReadingCount() - 1
+   * @return The sensor type
+   */
+  public String getSensorType(int index) {
+    return sensorTypes[index];
+  }
+
+  /**
+   * Get the value of a sensor reading. Valid for sensor data messages and sensor delta messages.
+   *
+   * @param index Index of the reading, 0 to getReadingCount() - 1
+   * @return The sensor value
+   */
+  public double getSensorValue(int index) {
+    return (double) sensorValues[index] / SensorReading.SCALE;
+  }
+
+  /**
+   * Get the exact value of a sensor reading. Valid for sensor data messages and sensor delta
+   * messages.
+   *
+   * @param index Index of the reading, 0 to getReadingCount() - 1
+   * @return The sensor value, in hundredths of the unit
+   */
+  public int getSensorCentiValue(int index) {
+    return sensorValues[index];
+  }
+
+  /**
+   * Get the unit of a sensor reading. Valid for sensor data messages. The returned strings are
+   * shared between messages.
+   *
+   * @param index Index of the reading, 0 to getReadingCount() - 1
+   * @return The unit
+   */
+  public String getSensorUnit(int index) {
+    return sensorUnits[index];
+  }
+
+  /**
+   * Get the description of the error. Valid when the message is invalid.
+   *
+   * @return The error description
+   */
+  public String getError() {
+    return error;
+  }
+
+  /**
+   * Create a message object from the last parsed message. Unlike the parser fields, the
+   * message can be kept.
+   *
+   * @return The message, an error message when the message is invalid, null when a sensor data
+   *     message contains no readings
+   */
+  public Message toMessage() {
+    Message message;
+    switch (result) {
+      case SENSOR_DATA -> message = readingCount > 0
+          ? new SensorDataMessage(createReadings(), nodeId, coded ? dictionary : null) : null;
+      case SENSOR_DELTA -> message = createDelta();
+      case ACTUATOR_STATE -> message = new ActuatorStateMessage(nodeId, actuatorId, on);
+      case NODE_OFFLINE -> message = new SensorNodeOfflineMessage(nodeId);
+      case INVALID -> message = new ErrorMessage(INVALID, error);
+      default -> message = MessageSerializer.fromString(input.substring(0, input.length()),
+          dictionaries);
+    }
+    return message;
+  }
+
+  private SensorDeltaMessage createDelta() {
+    SensorDeltaMessage delta = new SensorDeltaMessage(nodeId);
+    for (int i = 0; i < readingCount; ++i) {
+      delta.addChange(sensorIndices[i], sensorValues[i]);
+    }
+    return delta;
+  }
+
+  private List<SensorReading> createReadings() {
+    List<SensorReading> readings = new ArrayList<>(readingCount);
+    for (int i = 0; i < readingCount; ++i) {
+      readings.add(SensorReading.ofCentiValue(sensorTypes[i], sensorValues[i], sensorUnits[i]));
+    }
+    return readings;
+  }
+
+  /**
+   * The characters of the message being parsed.
+   */
+  private abstract static class Input {
+    // Sensor types and units come from a small set, there is no need to remember more
+    private static final int MAX_SYMBOLS = 256;
+    private static final int SYMBOL_SLOTS = 512;
+
+    private final int[] symbolHashes = new int[SYMBOL_SLOTS];
+    private final String[] symbols = new String[SYMBOL_SLOTS];
+    private int symbolCount = 0;
+
+    abstract int length();
+
+    /**
+     * Get a character of the message; non-ASCII characters are only compared, never
+     * interpreted, so for byte input the UTF-8 byte value is returned.
+     */
+    abstract int charAt(int index);
+
+    abstract String substring(int start, int end);
+
+    abstract boolean matches(int slot, int start, int end);
+
+    abstract void remember(int slot, String symbol, int start, int end);
+
+    /**
+     * Get the string between start and end. Strings seen before are reused, not allocated.
+     */
+    String symbol(int start, int end) {
+      int hash = 0;
+      for (int i = start; i < end; ++i) {
+        hash = 31 * hash + charAt(i);
+      }
+      int slot = (hash ^ (hash >>> 16)) & (SYMBOL_SLOTS - 1);
+      while (symbols[slot] != null && (symbolHashes[slot] != hash || !matches(slot, start, end))) {
+        slot = (slot + 1) & (SYMBOL_SLOTS - 1);
+      }
+      String symbol = symbols[slot];
+      if (symbol == null) {
+        symbol = substring(start, end);
+        if (symbolCount < MAX_SYMBOLS) {
+          symbols[slot] = symbol;
+          symbolHashes[slot] = hash;
+          remember(slot, symbol, start, end);
+          symbolCount++;
+        }
+      }
+      return symbol;
+    }
+
+    String getSymbol(int slot) {
+      return symbols[slot];
+    }
+  }
+
+  private static class CharInput extends Input {
+    private CharSequence chars;
+
+    CharInput reset(CharSequence chars) {
+      this.chars = chars;
+      return this;
+    }
+
+    @Override
+    int length() {
+      return chars.length();
+    }
+
+    @Override
+    int charAt(int index) {
+      return chars.charAt(index);
+    }
+
+    @Override
+    String substring(int start, int end) {
+      return chars.subSequence(start, end).toString();
+    }
+
+    @Override
+    boolean matches(int slot, int start, int end) {
+      String symbol = getSymbol(slot);
+      boolean matches = symbol.length() == end - start;
+      for (int i = 0; matches && i < symbol.length(); ++i) {
+        matches = symbol.charAt(i) == chars.charAt(start + i);
+      }
+      return matches;
+    }
+
+    @Override
+    void remember(int slot, String symbol, int start, int end) {
+      // The symbol itself is compared
+    }
+  }
+
+  private static class ByteInput extends Input {
+    private final byte[][] encodedSymbols = new byte[Input.SYMBOL_SLOTS][];
+    // A copy of the message: one bulk copy is cheaper than reading a (direct) buffer byte by byte
+    private byte[] bytes = new byte[INITIAL_BYTE_CAPACITY];
+    private int length;
+
+    ByteInput reset(ByteBuffer buffer) {
+      length = buffer.remaining();
+      if (length > bytes.length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      buffer.get(buffer.position(), bytes, 0, length);
+      return this;
+    }
+
+    @Override
+    int length() {
+      return length;
+    }
+
+    @Override
+    int charAt(int index) {
+      return bytes[index] & 0xFF;
+    }
+
+    @Override
+    String substring(int start, int end) {
+      return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    boolean matches(int slot, int start, int end) {
+      return Arrays.equals(encodedSymbols[slot], 0, encodedSymbols[slot].length,
+          bytes, start, end);
+    }
+
+    @Override
+    void remember(int slot, String symbol, int start, int end) {
+      encodedSymbols[slot] = Arrays.copyOfRange(bytes, start, end);
+    }
+  }
+}
@@ -5,11 +5,10 @@ import static no.ntnu.tools.Parser.parseIntegerOrError;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorReading;
 import no.ntnu.tools.Logger;
+import no.ntnu.tools.Scheduler;
 
 /**
  * A fake communication channel. Emulates the node discovery (over the Internet).
@@ -79,13 +78,7 @@ public class FakeCommunicationChannel implements CommunicationChannel {
    */
   public void spawnNode(String specification, int delay) {
     SensorActuatorNodeInfo nodeInfo = createSensorNodeInfoFrom(specification);
-    Timer timer = new Timer();
-    timer.schedule(new TimerTask() {
-      @Override
-      public void run() {
-        logic.onNodeAdded(nodeInfo);
-      }
-    }, delay * 1000L);
+    Scheduler.schedule(() -> logic.onNodeAdded(nodeInfo), delay * 1000L);
   }
 
   /**
@@ -111,13 +104,7 @@ public class FakeCommunicationChannel implements CommunicationChannel {
     }
     int nodeId = parseIntegerOrError(parts[0], "Invalid node ID:" + parts[0]);
     List<SensorReading> sensors = parseSensors(parts[1]);
-    Timer timer = new Timer();
-    timer.schedule(new TimerTask() {
-      @Override
-      public void run() {
-        logic.onSensorData(nodeId, sensors);
-      }
-    }, delay * 1000L);
+    Scheduler.schedule(() -> logic.onSensorData(nodeId, sensors), delay * 1000L);
   }
 
   /**
@@ -127,13 +114,7 @@ public class FakeCommunicationChannel implements CommunicationChannel {
    * @param delay  Delay in seconds
    */
   public void advertiseRemovedNode(int nodeId, int delay) {
-    Timer timer = new Timer();
-    timer.schedule(new TimerTask() {
-      @Override
-      public void run() {
-        logic.onNodeRemoved(nodeId);
-      }
-    }, delay * 1000L);
+    Scheduler.schedule(() -> logic.onNodeRemoved(nodeId), delay * 1000L);
   }
 
   private List<SensorReading> parseSensors(String sensorInfo) {
@@ -169,13 +150,8 @@ public class FakeCommunicationChannel implements CommunicationChannel {
    * @param delay      The delay in seconds after which the advertisement will be generated
    */
   public void advertiseActuatorState(int nodeId, int actuatorId, boolean on, int delay) {
-    Timer timer = new Timer();
-    timer.schedule(new TimerTask() {
-      @Override
-      public void run() {
-        logic.onActuatorStateChanged(nodeId, actuatorId, on);
-      }
-    }, delay * 1000L);
+    Scheduler.schedule(() -> logic.onActuatorStateChanged(nodeId, actuatorId, on),
+        delay * 1000L);
   }
 
   @Override
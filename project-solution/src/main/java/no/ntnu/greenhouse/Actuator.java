@@ -2,6 +2,7 @@ package no.ntnu.greenhouse;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import no.ntnu.listeners.common.ActuatorListener;
 
 /**
@@ -9,7 +10,8 @@ import no.ntnu.listeners.common.ActuatorListener;
  * sensors attached to this same node.
  */
 public class Actuator {
-  private static int nextId = 1;
+  // Nodes may be created in parallel, see DeviceFactory.createNodes()
+  private static final AtomicInteger nextId = new AtomicInteger(1);
   private final String type;
   private final int nodeId;
   private final int id;
@@ -47,7 +49,7 @@ public class Actuator {
   }
 
   private static int generateUniqueId() {
-    return nextId++;
+    return nextId.getAndIncrement();
   }
 
   /**
@@ -83,6 +85,16 @@ public class Actuator {
    * @return A clone of this actuator, where all the fields are the same
    */
   public Actuator createClone() {
+    return createClone(nodeId);
+  }
+
+  /**
+   * Create a clone of this actuator for another node. The clone gets a new unique ID.
+   *
+   * @param nodeId ID of the node to which the clone will be connected
+   * @return A clone of this actuator, where all the other fields are the same
+   */
+  public Actuator createClone(int nodeId) {
     Actuator a = new Actuator(type, nodeId);
     // Note - we pass a reference to the same map! This should not be problem, as long as we
     // don't modify the impacts AFTER creating the template
@@ -1,5 +1,10 @@
 package no.ntnu.greenhouse;
 
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 /**
  * A factory for producing sensors and actuators of specific types.
  */
@@ -14,7 +19,8 @@ public class DeviceFactory {
   private static final String HUMIDITY_UNIT = "%";
   private static final String SENSOR_TYPE_TEMPERATURE = "temperature";
 
-  private static int nextNodeId = 1;
+  // Nodes may be created in parallel, see createNodes()
+  private static final AtomicInteger nextNodeId = new AtomicInteger(1);
 
   /**
    * Constructing the factory is not allowed.
@@ -53,6 +59,51 @@ public class DeviceFactory {
     return node;
   }
 
+  /**
+   * Create all the nodes of a greenhouse zone. The sensors and actuators are cloned from
+   * templates shared by the whole zone, the nodes are built in parallel. The nodes of one zone
+   * get consecutive IDs.
+   *
+   * @param zone The zone description: the number of nodes, the sensors and actuators per node
+   *             and the sensing delay
+   * @return The created nodes, ordered by their IDs
+   */
+  public static List<SensorActuatorNode> createNodes(GreenhouseTopology.Zone zone) {
+    Sensor temperature = createTemperatureSensor();
+    Sensor humidity = createHumiditySensor();
+    Actuator window = zone.getWindowCount() > 0 ? createWindow(0) : null;
+    Actuator fan = zone.getFanCount() > 0 ? createFan(0) : null;
+    Actuator heater = zone.getHeaterCount() > 0 ? createHeater(0) : null;
+
+    // Reserve the IDs up front, so the IDs don't depend on the order the nodes are built in
+    int firstId = nextNodeId.getAndAdd(zone.getNodeCount());
+    return IntStream.range(firstId, firstId + zone.getNodeCount())
+        .parallel()
+        .mapToObj(id -> {
+          SensorActuatorNode node = new SensorActuatorNode(id);
+          if (zone.getTemperatureSensorCount() > 0) {
+            node.addSensors(temperature, zone.getTemperatureSensorCount());
+          }
+          if (zone.getHumiditySensorCount() > 0) {
+            node.addSensors(humidity, zone.getHumiditySensorCount());
+          }
+          addActuatorClones(node, window, zone.getWindowCount());
+          addActuatorClones(node, fan, zone.getFanCount());
+          addActuatorClones(node, heater, zone.getHeaterCount());
+          if (zone.getSensingDelay() > 0) {
+            node.setSensingDelay(zone.getSensingDelay());
+          }
+          return node;
+        })
+        .collect(Collectors.toList());
+  }
+
+  private static void addActuatorClones(SensorActuatorNode node, Actuator template, int n) {
+    for (int i = 0; i < n; ++i) {
+      node.addActuator(template.createClone(node.getId()));
+    }
+  }
+
   static void addActuators(SensorActuatorNode node, Actuator template, int n) {
     if (template == null) {
       throw new IllegalArgumentException("Actuator template is missing");
@@ -143,7 +194,7 @@ public class DeviceFactory {
    * @return a Unique ID for sensor/actuator nodes
    */
   private static int generateUniqueNodeId() {
-    return nextNodeId++;
+    return nextNodeId.getAndIncrement();
   }
 
 }
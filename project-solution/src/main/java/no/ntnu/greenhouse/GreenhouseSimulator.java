@@ -4,7 +4,12 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import no.ntnu.communication.GatewayTcpClient;
+import no.ntnu.communication.MessageCodec;
+import no.ntnu.communication.MessageCodecs;
+import no.ntnu.communication.ReconnectPolicy;
 import no.ntnu.communication.SensorActuatorTcpClient;
+import no.ntnu.communication.TcpClient;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
 import no.ntnu.tools.Logger;
 
@@ -15,9 +20,15 @@ public class GreenhouseSimulator {
   private final Map<Integer, SensorActuatorNode> nodes = new HashMap<>();
 
   private final List<PeriodicSwitch> periodicSwitches = new LinkedList<>();
-  private final List<SensorActuatorTcpClient> clients = new LinkedList<>();
+  private final List<TcpClient> clients = new LinkedList<>();
 
   private final boolean fake;
+  private MessageCodec codec = MessageCodecs.TEXT;
+  private boolean compressionRequested = false;
+  private ReconnectPolicy reconnectPolicy = ReconnectPolicy.DEFAULT;
+  private boolean gatewayMode = false;
+  // The zones and nodes to simulate, null for the small built-in greenhouse
+  private GreenhouseTopology topology;
 
   /**
    * Create a greenhouse simulator.
@@ -29,16 +40,83 @@ public class GreenhouseSimulator {
     this.fake = fake;
   }
 
+  /**
+   * Set the codec which the nodes request from the server. Must be called before start().
+   *
+   * @param codec The codec to use for the communication with the server
+   */
+  public void setCodec(MessageCodec codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Choose whether the nodes ask the server to compress their connections. Must be called
+   * before start().
+   *
+   * @param compressionRequested True to compress the connections
+   */
+  public void setCompressionRequested(boolean compressionRequested) {
+    this.compressionRequested = compressionRequested;
+  }
+
+  /**
+   * Choose how the nodes reconnect when the connection to the server is lost. Must be called
+   * before start().
+   *
+   * @param reconnectPolicy The delays between the attempts to reconnect, the default policy by
+   *                        default; null to stop a node when its connection is lost
+   */
+  public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+    this.reconnectPolicy = reconnectPolicy;
+  }
+
+  /**
+   * Choose whether all the nodes share one connection to the server (a gateway), instead of a
+   * connection per node. Must be called before start().
+   *
+   * @param gatewayMode True to connect the nodes through one {@link GatewayTcpClient}
+   */
+  public void setGatewayMode(boolean gatewayMode) {
+    this.gatewayMode = gatewayMode;
+  }
+
+  /**
+   * Simulate the greenhouse described by a topology instead of the small built-in greenhouse
+   * of three nodes. Must be called before initialize().
+   *
+   * @param topology The zones and nodes of the greenhouse, null for the built-in greenhouse
+   */
+  public void setTopology(GreenhouseTopology topology) {
+    this.topology = topology;
+  }
+
   /**
    * Initialise the greenhouse but don't start the simulation just yet.
    */
   public void initialize() {
-    createNode(1, 2, 1, 0, 0);
-    createNode(1, 0, 0, 2, 1);
-    createNode(2, 0, 0, 0, 0);
+    if (topology != null) {
+      createNodes(topology);
+    } else {
+      createNode(1, 2, 1, 0, 0);
+      createNode(1, 0, 0, 2, 1);
+      createNode(2, 0, 0, 0, 0);
+    }
     Logger.info("Greenhouse initialized");
   }
 
+  private void createNodes(GreenhouseTopology topology) {
+    long start = System.currentTimeMillis();
+    for (GreenhouseTopology.Zone zone : topology.getZones()) {
+      for (SensorActuatorNode node : DeviceFactory.createNodes(zone)) {
+        nodes.put(node.getId(), node);
+      }
+      Logger.info("Zone " + zone.getName() + ": " + zone.getNodeCount() + " nodes");
+    }
+    Logger.info("Created " + topology.getNodeCount() + " nodes in "
+        + topology.getZones().size() + " zones in " + (System.currentTimeMillis() - start)
+        + " ms");
+  }
+
   private void createNode(int temperature, int humidity, int windows, int fans, int heaters) {
     SensorActuatorNode node = DeviceFactory.createNode(
         temperature, humidity, windows, fans, heaters);
@@ -69,19 +147,38 @@ public class GreenhouseSimulator {
   }
 
   private void initiateTcpClients() {
-    for (SensorActuatorNode node : nodes.values()) {
-      SensorActuatorTcpClient client = new SensorActuatorTcpClient(node);
-      node.addSensorListener(client);
-      node.addStateListener(client);
-      node.addActuatorListener(client);
-      client.addListener(node);
-      clients.add(client);
+    if (gatewayMode) {
+      GatewayTcpClient gateway = new GatewayTcpClient();
+      configureClient(gateway);
+      for (SensorActuatorNode node : nodes.values()) {
+        gateway.addNode(node);
+      }
+      clients.add(gateway);
+    } else {
+      for (SensorActuatorNode node : nodes.values()) {
+        SensorActuatorTcpClient client = new SensorActuatorTcpClient(node);
+        configureClient(client);
+        node.addSensorListener(client);
+        node.addStateListener(client);
+        node.addActuatorListener(client);
+        client.addListener(node);
+        clients.add(client);
+      }
     }
   }
 
+  private void configureClient(TcpClient client) {
+    client.setCodec(codec);
+    client.setCompressionRequested(compressionRequested);
+    client.setReconnectPolicy(reconnectPolicy);
+  }
+
   private void initiateFakePeriodicSwitches() {
-    periodicSwitches.add(new PeriodicSwitch("Window DJ", nodes.get(1), 2, 20000));
-    periodicSwitches.add(new PeriodicSwitch("Heater DJ", nodes.get(2), 7, 8000));
+    // The switches toggle the actuators of the built-in greenhouse
+    if (topology == null) {
+      periodicSwitches.add(new PeriodicSwitch("Window DJ", nodes.get(1), 2, 20000));
+      periodicSwitches.add(new PeriodicSwitch("Heater DJ", nodes.get(2), 7, 8000));
+    }
   }
 
   /**
@@ -100,7 +197,7 @@ public class GreenhouseSimulator {
         periodicSwitch.stop();
       }
     } else {
-      for (SensorActuatorTcpClient client : clients) {
+      for (TcpClient client : clients) {
         client.closeSocket();
       }
       clients.clear();
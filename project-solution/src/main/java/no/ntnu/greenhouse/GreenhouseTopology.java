@@ -0,0 +1,211 @@
+package no.ntnu.greenhouse;
+
+import static no.ntnu.tools.Parser.parseIntegerOrError;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A declarative description of a greenhouse: its zones, and for every zone the number of
+ * nodes, the sensors and actuators on each node and how often the nodes sample their sensors.
+ * Used for simulating greenhouses of production size, see
+ * {@link GreenhouseSimulator#setTopology(GreenhouseTopology)}.
+ *
+ * <p>The topology file has one zone per line, as space-separated key=value pairs. Empty lines
+ * and the lines starting with # are ignored. Example:
+ * <pre>
+ * # 2000 nodes with one temperature and two humidity sensors and a window, sampling every 5 s
+ * zone=north nodes=2000 temperature=1 humidity=2 window=1 interval=5000
+ * zone=south nodes=500 temperature=2 fan=2 heater=1 interval=1000
+ * </pre>
+ * The keys "zone" (the name of the zone) and "nodes" (the number of nodes) are required. The
+ * keys "temperature" and "humidity" give the number of sensors per node, "window", "fan" and
+ * "heater" the number of actuators per node - 0 when missing. The key "interval" is the time
+ * between two sensor readings, in milliseconds, the default of the nodes when missing.
+ */
+public class GreenhouseTopology {
+  private static final String COMMENT_PREFIX = "#";
+
+  private final List<Zone> zones;
+
+  /**
+   * One zone of the greenhouse: a number of identical nodes.
+   */
+  public static class Zone {
+    private final String name;
+    private final int nodeCount;
+    private int temperatureSensorCount;
+    private int humiditySensorCount;
+    private int windowCount;
+    private int fanCount;
+    private int heaterCount;
+    // The time between two sensor readings in milliseconds, 0 for the default of the nodes
+    private long sensingDelay;
+
+    private Zone(String name, int nodeCount) {
+      this.name = name;
+      this.nodeCount = nodeCount;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getNodeCount() {
+      return nodeCount;
+    }
+
+    public int getTemperatureSensorCount() {
+      return temperatureSensorCount;
+    }
+
+    public int getHumiditySensorCount() {
+      return humiditySensorCount;
+    }
+
+    public int getWindowCount() {
+      return windowCount;
+    }
+
+    public int getFanCount() {
+      return fanCount;
+    }
+
+    public int getHeaterCount() {
+      return heaterCount;
+    }
+
+    /**
+     * Get the time between two sensor readings of the nodes in this zone.
+     *
+     * @return The sensing delay in milliseconds, 0 when the default of the nodes is used
+     */
+    public long getSensingDelay() {
+      return sensingDelay;
+    }
+  }
+
+  private GreenhouseTopology(List<Zone> zones) {
+    this.zones = Collections.unmodifiableList(zones);
+  }
+
+  /**
+   * Load a topology from a file.
+   *
+   * @param path The path of the topology file
+   * @return The topology described in the file
+   * @throws IOException              When the file can't be read
+   * @throws IllegalArgumentException When the file is not a valid topology description
+   */
+  public static GreenhouseTopology load(Path path) throws IOException {
+    return parse(Files.readAllLines(path, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Parse a topology description.
+   *
+   * @param lines The lines of the description, see the format in the class documentation
+   * @return The described topology
+   * @throws IllegalArgumentException When the description is not valid
+   */
+  public static GreenhouseTopology parse(List<String> lines) {
+    List<Zone> zones = new ArrayList<>();
+    for (int i = 0; i < lines.size(); ++i) {
+      String line = lines.get(i).trim();
+      if (!line.isEmpty() && !line.startsWith(COMMENT_PREFIX)) {
+        try {
+          zones.add(parseZone(line));
+        } catch (IllegalArgumentException e) {
+          throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage());
+        }
+      }
+    }
+    if (zones.isEmpty()) {
+      throw new IllegalArgumentException("The topology has no zones");
+    }
+    return new GreenhouseTopology(zones);
+  }
+
+  private static Zone parseZone(String line) {
+    String name = null;
+    int nodeCount = 0;
+    List<String[]> counts = new ArrayList<>();
+    for (String pair : line.split("\\s+")) {
+      String[] keyValue = pair.split("=", 2);
+      if (keyValue.length != 2 || keyValue[1].isEmpty()) {
+        throw new IllegalArgumentException("Expected key=value, got " + pair);
+      }
+      if ("zone".equals(keyValue[0])) {
+        name = keyValue[1];
+      } else if ("nodes".equals(keyValue[0])) {
+        nodeCount = parseCount(keyValue);
+      } else {
+        counts.add(keyValue);
+      }
+    }
+    if (name == null) {
+      throw new IllegalArgumentException("The zone name is missing");
+    }
+    if (nodeCount <= 0) {
+      throw new IllegalArgumentException("The number of nodes is missing in zone " + name);
+    }
+    Zone zone = new Zone(name, nodeCount);
+    for (String[] keyValue : counts) {
+      setCount(zone, keyValue);
+    }
+    return zone;
+  }
+
+  private static void setCount(Zone zone, String[] keyValue) {
+    int count = parseCount(keyValue);
+    switch (keyValue[0]) {
+      case "temperature" -> zone.temperatureSensorCount = count;
+      case "humidity" -> zone.humiditySensorCount = count;
+      case "window" -> zone.windowCount = count;
+      case "fan" -> zone.fanCount = count;
+      case "heater" -> zone.heaterCount = count;
+      case "interval" -> {
+        if (count == 0) {
+          throw new IllegalArgumentException("The sampling interval must be positive");
+        }
+        zone.sensingDelay = count;
+      }
+      default -> throw new IllegalArgumentException("Unknown key: " + keyValue[0]);
+    }
+  }
+
+  private static int parseCount(String[] keyValue) {
+    int count = parseIntegerOrError(keyValue[1], "Invalid " + keyValue[0] + ": " + keyValue[1]);
+    if (count < 0) {
+      throw new IllegalArgumentException("Negative " + keyValue[0] + ": " + keyValue[1]);
+    }
+    return count;
+  }
+
+  /**
+   * Get the zones of the greenhouse.
+   *
+   * @return The zones, in the order of the description
+   */
+  public List<Zone> getZones() {
+    return zones;
+  }
+
+  /**
+   * Get the number of nodes in the whole greenhouse.
+   *
+   * @return The total number of nodes in all the zones
+   */
+  public int getNodeCount() {
+    int count = 0;
+    for (Zone zone : zones) {
+      count += zone.getNodeCount();
+    }
+    return count;
+  }
+}
@@ -1,15 +1,16 @@
 package no.ntnu.greenhouse;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import no.ntnu.tools.Logger;
+import no.ntnu.tools.Scheduler;
 
 /**
  * A dummy switch which periodically turns an actuator on and off. Used for manual testing.
  * Note: this class is used only for debugging, you can remove it in your final project!
  */
 public class PeriodicSwitch {
-  private final Timer timer;
+  // The toggling task on the shared scheduler, null until started
+  private volatile ScheduledFuture<?> task;
   private final SensorActuatorNode node;
   private final int actuatorId;
   private final long delay;
@@ -28,31 +29,35 @@ public class PeriodicSwitch {
     this.actuatorId = actuatorId;
     this.delay = m;
     this.name = name;
-
-    timer = new Timer(name);
   }
 
   /**
    * Start the periodic actuator toggling.
    */
   public void start() {
-    timer.scheduleAtFixedRate(new TimerTask() {
-      @Override
-      public void run() {
-        Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
-        if (node.isRunning()) {
-          try {
-            node.toggleActuator(actuatorId);
-          } catch (Exception e) {
-            Logger.error("Failed to toggle an actuator: " + e.getMessage());
-            timer.cancel();
-          }
-        } else {
-          Logger.info("   Node stopped, stopping the switch");
-          timer.cancel();
-        }
+    task = Scheduler.scheduleAtFixedRate(this::toggle, delay, delay);
+  }
+
+  private void toggle() {
+    Logger.info(" > " + name + ": toggle actuator " + actuatorId + " on node " + node.getId());
+    if (node.isRunning()) {
+      try {
+        node.toggleActuator(actuatorId);
+      } catch (Exception e) {
+        Logger.error("Failed to toggle an actuator: " + e.getMessage());
+        cancel();
       }
-    }, delay, delay);
+    } else {
+      Logger.info("   Node stopped, stopping the switch");
+      cancel();
+    }
+  }
+
+  private void cancel() {
+    ScheduledFuture<?> t = task;
+    if (t != null) {
+      t.cancel(false);
+    }
   }
 
   /**
@@ -60,6 +65,6 @@ public class PeriodicSwitch {
    */
   public void stop() {
     Logger.info("-- Stopping " + this.name);
-    timer.cancel();
+    cancel();
   }
 }
@@ -7,6 +7,9 @@ public class Sensor {
   private final SensorReading reading;
   private final double min;
   private final double max;
+  // The bounds in hundredths of the unit, the form in which the value is stored
+  private final int minCentiValue;
+  private final int maxCentiValue;
 
   /**
    * Create a sensor.
@@ -21,6 +24,8 @@ public class Sensor {
     this.reading = new SensorReading(type, current, unit);
     this.min = min;
     this.max = max;
+    this.minCentiValue = SensorReading.toCentiValue(min);
+    this.maxCentiValue = SensorReading.toCentiValue(max);
     ensureValueBoundsAndPrecision(current);
   }
 
@@ -56,17 +61,13 @@ public class Sensor {
   }
 
   private void ensureValueBoundsAndPrecision(double newValue) {
-    newValue = roundToTwoDecimals(newValue);
-    if (newValue < min) {
-      newValue = min;
-    } else if (newValue > max) {
-      newValue = max;
+    int centiValue = SensorReading.toCentiValue(newValue);
+    if (centiValue < minCentiValue) {
+      centiValue = minCentiValue;
+    } else if (centiValue > maxCentiValue) {
+      centiValue = maxCentiValue;
     }
-    reading.setValue(newValue);
-  }
-
-  private double roundToTwoDecimals(double value) {
-    return Math.round(value * 100.0) / 100.0;
+    reading.setCentiValue(centiValue);
   }
 
   private double generateRealisticNoise() {
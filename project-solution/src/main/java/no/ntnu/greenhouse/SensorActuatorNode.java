@@ -2,22 +2,22 @@ package no.ntnu.greenhouse;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ScheduledFuture;
 import no.ntnu.listeners.common.ActuatorListener;
 import no.ntnu.listeners.common.CommunicationChannelListener;
 import no.ntnu.listeners.greenhouse.NodeStateListener;
 import no.ntnu.listeners.greenhouse.SensorListener;
 import no.ntnu.tools.Logger;
+import no.ntnu.tools.Scheduler;
 
 /**
  * Represents one node with sensors and actuators.
  */
 public class SensorActuatorNode implements ActuatorListener, CommunicationChannelListener {
-  // How often to generate new sensor values, in seconds.
+  // How often to generate new sensor values by default, in milliseconds.
   private static final long SENSING_DELAY = 5000;
   private final int id;
+  private long sensingDelay = SENSING_DELAY;
 
   private final List<Sensor> sensors = new LinkedList<>();
   private final ActuatorCollection actuators = new ActuatorCollection();
@@ -26,10 +26,10 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
   private final List<ActuatorListener> actuatorListeners = new LinkedList<>();
   private final List<NodeStateListener> stateListeners = new LinkedList<>();
 
-  Timer sensorReadingTimer;
+  // The periodic sensor reading task on the shared scheduler, null while stopped
+  private ScheduledFuture<?> sensorReadingTask;
 
   private boolean running;
-  private final Random random = new Random();
 
   /**
    * Create a sensor/actuator node. Note: the node itself does not check whether the ID is unique.
@@ -51,6 +51,20 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
     return id;
   }
 
+  /**
+   * Set how often new sensor values are generated. Takes effect the next time the node is
+   * started.
+   *
+   * @param sensingDelay The time between two sensor readings, in milliseconds; 5 seconds by
+   *                     default
+   */
+  public void setSensingDelay(long sensingDelay) {
+    if (sensingDelay <= 0) {
+      throw new IllegalArgumentException("Sensing delay must be positive");
+    }
+    this.sensingDelay = sensingDelay;
+  }
+
   /**
    * Add sensors to the node.
    *
@@ -153,21 +167,19 @@ public class SensorActuatorNode implements ActuatorListener, CommunicationChanne
     return running;
   }
 
+  /**
+   * Start generating sensor values on the shared scheduler. The node ID decides when, within
+   * the sensing period, the node ticks - so the nodes started together don't all tick at the
+   * same moment.
+   */
   private void startPeriodicSensorReading() {
-    sensorReadingTimer = new Timer();
-    TimerTask newSensorValueTask = new TimerTask() {
-      @Override
-      public void run() {
-        generateNewSensorValues();
-      }
-    };
-    long randomStartDelay = random.nextLong(SENSING_DELAY);
-    sensorReadingTimer.scheduleAtFixedRate(newSensorValueTask, randomStartDelay, SENSING_DELAY);
+    sensorReadingTask = Scheduler.scheduleSpread(this::generateNewSensorValues, sensingDelay, id);
   }
 
   private void stopPeriodicSensorReading() {
-    if (sensorReadingTimer != null) {
-      sensorReadingTimer.cancel();
+    if (sensorReadingTask != null) {
+      sensorReadingTask.cancel(false);
+      sensorReadingTask = null;
     }
   }
 
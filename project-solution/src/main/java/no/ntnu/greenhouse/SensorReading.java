@@ -3,11 +3,18 @@ package no.ntnu.greenhouse;
 import java.util.Objects;
 
 /**
- * Represents one sensor reading (value).
+ * Represents one sensor reading (value). The value is stored as a scaled integer, in hundredths
+ * of the unit (centi-units): 27.12 °C is 2712. The values are sent and received in this form,
+ * they are exact and never need rounding; they are converted to double only for display.
  */
 public class SensorReading {
+  /**
+   * The number of centi-units in one unit: the values have two decimals.
+   */
+  public static final int SCALE = 100;
+
   private final String type;
-  private double value;
+  private int centiValue;
   private final String unit;
 
   /**
@@ -19,16 +26,60 @@ public class SensorReading {
    */
   public SensorReading(String type, double value, String unit) {
     this.type = type;
-    this.value = value;
+    this.centiValue = toCentiValue(value);
     this.unit = unit;
   }
 
+  /**
+   * Create a new sensor reading from a scaled value.
+   *
+   * @param type       The type of sensor being red
+   * @param centiValue The current value of the sensor, in hundredths of the unit
+   * @param unit       The unit, for example: %, lux
+   * @return The sensor reading
+   */
+  public static SensorReading ofCentiValue(String type, int centiValue, String unit) {
+    SensorReading reading = new SensorReading(type, 0, unit);
+    reading.centiValue = centiValue;
+    return reading;
+  }
+
+  /**
+   * Convert a value to hundredths of the unit, rounding it to two decimals.
+   *
+   * @param value The value
+   * @return The scaled value
+   * @throws IllegalArgumentException When the value is not a number or too large for the scaled
+   *                                  form
+   */
+  public static int toCentiValue(double value) {
+    double scaled = value * SCALE;
+    if (Double.isNaN(scaled) || Math.abs(scaled) > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Sensor value out of range: " + value);
+    }
+    return (int) Math.round(scaled);
+  }
+
   public String getType() {
     return type;
   }
 
+  /**
+   * Get the value, for display and calculations. Use getCentiValue() to pass the value on.
+   *
+   * @return The value, in the unit of the sensor
+   */
   public double getValue() {
-    return value;
+    return (double) centiValue / SCALE;
+  }
+
+  /**
+   * Get the exact value.
+   *
+   * @return The value, in hundredths of the unit
+   */
+  public int getCentiValue() {
+    return centiValue;
   }
 
   public String getUnit() {
@@ -36,12 +87,16 @@ public class SensorReading {
   }
 
   public void setValue(double newValue) {
-    this.value = newValue;
+    this.centiValue = toCentiValue(newValue);
+  }
+
+  public void setCentiValue(int centiValue) {
+    this.centiValue = centiValue;
   }
 
   @Override
   public String toString() {
-    return "{ type=" + type + ", value=" + value + ", unit=" + unit + " }";
+    return "{ type=" + type + ", value=" + getValue() + ", unit=" + unit + " }";
   }
 
   /**
@@ -50,7 +105,7 @@ public class SensorReading {
    * @return The sensor reading and the unit
    */
   public String getFormatted() {
-    return value + unit;
+    return getValue() + unit;
   }
 
   @Override
@@ -62,13 +117,13 @@ public class SensorReading {
       return false;
     }
     SensorReading that = (SensorReading) o;
-    return Double.compare(value, that.value) == 0
+    return centiValue == that.centiValue
         && Objects.equals(type, that.type)
         && Objects.equals(unit, that.unit);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(type, value, unit);
+    return Objects.hash(type, centiValue, unit);
   }
 }
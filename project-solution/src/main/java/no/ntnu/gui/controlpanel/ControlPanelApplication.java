@@ -109,6 +109,12 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
   @Override
   public void onSensorData(int nodeId, List<SensorReading> sensors) {
     Logger.info("Sensor data from node " + nodeId);
+    // The server sends the latest readings right after announcing a node; handle them on the
+    // GUI thread, after the tab of the node has been created
+    Platform.runLater(() -> updateSensorPane(nodeId, sensors));
+  }
+
+  private void updateSensorPane(int nodeId, List<SensorReading> sensors) {
     SensorPane sensorPane = sensorPanes.get(nodeId);
     if (sensorPane != null) {
       sensorPane.update(sensors);
@@ -121,6 +127,10 @@ public class ControlPanelApplication extends Application implements GreenhouseEv
   public void onActuatorStateChanged(int nodeId, int actuatorId, boolean isOn) {
     String state = isOn ? "ON" : "off";
     Logger.info("actuator[" + actuatorId + "] on node " + nodeId + " is " + state);
+    Platform.runLater(() -> updateActuatorPane(nodeId, actuatorId, isOn));
+  }
+
+  private void updateActuatorPane(int nodeId, int actuatorId, boolean isOn) {
     ActuatorPane actuatorPane = actuatorPanes.get(nodeId);
     if (actuatorPane != null) {
       Actuator actuator = getStoredActuator(nodeId, actuatorId);
@@ -1,28 +1,94 @@
 package no.ntnu.run;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import no.ntnu.communication.MessageCodec;
+import no.ntnu.communication.MessageCodecs;
 import no.ntnu.greenhouse.GreenhouseSimulator;
+import no.ntnu.greenhouse.GreenhouseTopology;
 import no.ntnu.tools.Logger;
 
 /**
  * Run a greenhouse simulation using command-line interface (no GUI).
  */
 public class CommandLineGreenhouse {
+  private static final String CODEC_ARG_PREFIX = "codec=";
+  private static final String TOPOLOGY_ARG_PREFIX = "topology=";
+
   /**
    * Application entrypoint for the command-line version of the simulator.
    *
-   * @param args Command line arguments, only the first one of them used: when it is "fake",
-   *             emulate fake events, when it is either something else or not present,
-   *             use real socket communication.
+   * @param args Command line arguments. When one of them is "fake", emulate fake events,
+   *             otherwise use real socket communication. An argument "binary" makes the nodes
+   *             use the binary protocol instead of the text protocol, an argument "codec=json"
+   *             selects any available codec by its name. An argument "compress"
+   *             makes the nodes ask the server to compress their connections. An argument "gateway"
+   *             makes all the nodes share one connection. An argument "topology=zones.txt"
+   *             simulates the zones and nodes described in the file instead of the built-in
+   *             greenhouse, see {@link GreenhouseTopology} for the format.
    */
   public static void main(String[] args) {
     Logger.info("Running greenhouse simulator in command line (without GUI)...");
     boolean fake = false;
-    if (args.length == 1 && "fake".equals(args[0])) {
-      fake = true;
-      Logger.info("Using FAKE events");
+    MessageCodec codec = MessageCodecs.TEXT;
+    boolean compress = false;
+    boolean gateway = false;
+    String topologyFile = null;
+    for (String arg : args) {
+      if ("fake".equals(arg)) {
+        fake = true;
+        Logger.info("Using FAKE events");
+      } else if ("binary".equals(arg)) {
+        codec = MessageCodecs.BINARY;
+        Logger.info("Using the binary protocol");
+      } else if (arg.startsWith(CODEC_ARG_PREFIX)) {
+        codec = findCodec(arg.substring(CODEC_ARG_PREFIX.length()), codec);
+      } else if ("compress".equals(arg)) {
+        compress = true;
+        Logger.info("Compressing the connections");
+      } else if ("gateway".equals(arg)) {
+        gateway = true;
+        Logger.info("Connecting all the nodes through one gateway connection");
+      } else if (arg.startsWith(TOPOLOGY_ARG_PREFIX)) {
+        topologyFile = arg.substring(TOPOLOGY_ARG_PREFIX.length());
+      } else {
+        Logger.error("Ignoring unknown argument: " + arg);
+      }
     }
     GreenhouseSimulator simulator = new GreenhouseSimulator(fake);
-    simulator.initialize();
-    simulator.start();
+    simulator.setCodec(codec);
+    simulator.setCompressionRequested(compress);
+    simulator.setGatewayMode(gateway);
+    if (topologyFile == null || loadTopology(topologyFile, simulator)) {
+      simulator.initialize();
+      simulator.start();
+    }
+  }
+
+  private static boolean loadTopology(String fileName, GreenhouseSimulator simulator) {
+    boolean loaded = false;
+    try {
+      GreenhouseTopology topology = GreenhouseTopology.load(Path.of(fileName));
+      Logger.info("Using the topology " + fileName + ": " + topology.getZones().size()
+          + " zones, " + topology.getNodeCount() + " nodes");
+      simulator.setTopology(topology);
+      loaded = true;
+    } catch (IOException e) {
+      Logger.error("Could not read the topology file " + fileName + ": " + e.getMessage());
+    } catch (IllegalArgumentException e) {
+      Logger.error("Invalid topology file " + fileName + ": " + e.getMessage());
+    }
+    return loaded;
+  }
+
+  private static MessageCodec findCodec(String name, MessageCodec current) {
+    MessageCodec codec = MessageCodecs.forName(name);
+    if (codec != null) {
+      Logger.info("Using the " + name + " protocol");
+    } else {
+      Logger.error("Unknown codec " + name + ", available: " + MessageCodecs.getNames());
+      codec = current;
+    }
+    return codec;
   }
 }
@@ -1,6 +1,11 @@
 package no.ntnu.run;
 
 import no.ntnu.communication.ControlPanelTcpClient;
+import no.ntnu.communication.MessageCodec;
+import no.ntnu.communication.MessageCodecs;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SubscribeMessage;
 import no.ntnu.controlpanel.CommunicationChannel;
 import no.ntnu.controlpanel.ControlPanelLogic;
 import no.ntnu.controlpanel.FakeCommunicationChannel;
@@ -13,30 +18,110 @@ import no.ntnu.tools.Logger;
  * debugger (JavaFX modules not found)
  */
 public class ControlPanelStarter {
+  private static final String SUBSCRIBE_ARG_PREFIX = "subscribe=";
+  private static final String CODEC_ARG_PREFIX = "codec=";
   private final boolean fake;
+  private SubscribeMessage subscription;
+  private MessageCodec codec = MessageCodecs.TEXT;
+  private boolean compressionRequested = false;
   private ControlPanelTcpClient tcpClient;
 
   public ControlPanelStarter(boolean fake) {
     this.fake = fake;
   }
 
+  /**
+   * Receive data only about specific nodes and sensor types.
+   *
+   * @param subscription The subscription, null to receive data about everything
+   */
+  public void setSubscription(SubscribeMessage subscription) {
+    this.subscription = subscription;
+  }
+
+  /**
+   * Set the codec which the control panel requests from the server.
+   *
+   * @param codec The codec to use for the communication with the server
+   */
+  public void setCodec(MessageCodec codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Choose whether the control panel asks the server to compress the connection.
+   *
+   * @param compressionRequested True to compress the connection
+   */
+  public void setCompressionRequested(boolean compressionRequested) {
+    this.compressionRequested = compressionRequested;
+  }
+
   /**
    * Entrypoint for the application.
    *
-   * @param args Command line arguments, only the first one of them used: when it is "fake",
+   * @param args Command line arguments. When the first one of them is "fake",
    *             emulate fake events, when it is either something else or not present,
-   *             use real socket communication.
+   *             use real socket communication. An argument "subscribe=1-10;temperature"
+   *             requests data only about the given nodes and sensor types, the value has the
+   *             same format as the body of the subscribe message (see protocol.md).
+   *             An argument "binary" selects the binary protocol instead of the text protocol,
+   *             an argument "codec=json" selects any available codec by its name.
+   *             An argument "compress" asks the server to compress the connection.
    */
   public static void main(String[] args) {
     boolean fake = false;
-    if (args.length == 1 && "fake".equals(args[0])) {
-      fake = true;
-      Logger.info("Using FAKE events");
+    SubscribeMessage subscription = null;
+    MessageCodec codec = MessageCodecs.TEXT;
+    boolean compress = false;
+    for (String arg : args) {
+      if ("fake".equals(arg)) {
+        fake = true;
+        Logger.info("Using FAKE events");
+      } else if (arg.startsWith(SUBSCRIBE_ARG_PREFIX)) {
+        subscription = parseSubscription(arg.substring(SUBSCRIBE_ARG_PREFIX.length()));
+      } else if ("binary".equals(arg)) {
+        codec = MessageCodecs.BINARY;
+        Logger.info("Using the binary protocol");
+      } else if (arg.startsWith(CODEC_ARG_PREFIX)) {
+        codec = findCodec(arg.substring(CODEC_ARG_PREFIX.length()), codec);
+      } else if ("compress".equals(arg)) {
+        compress = true;
+        Logger.info("Compressing the connection");
+      } else {
+        Logger.error("Ignoring unknown argument: " + arg);
+      }
     }
     ControlPanelStarter starter = new ControlPanelStarter(fake);
+    starter.setSubscription(subscription);
+    starter.setCodec(codec);
+    starter.setCompressionRequested(compress);
     starter.start();
   }
 
+  private static MessageCodec findCodec(String name, MessageCodec current) {
+    MessageCodec codec = MessageCodecs.forName(name);
+    if (codec != null) {
+      Logger.info("Using the " + name + " protocol");
+    } else {
+      Logger.error("Unknown codec " + name + ", available: " + MessageCodecs.getNames());
+      codec = current;
+    }
+    return codec;
+  }
+
+  private static SubscribeMessage parseSubscription(String s) {
+    SubscribeMessage subscription = null;
+    Message message = MessageSerializer.fromString("subscribe:" + s);
+    if (message instanceof SubscribeMessage subscribeMessage) {
+      subscription = subscribeMessage;
+      Logger.info("Subscribing to " + subscription);
+    } else {
+      Logger.error("Invalid subscription, receiving everything: " + s);
+    }
+    return subscription;
+  }
+
   private void start() {
     ControlPanelLogic logic = new ControlPanelLogic();
     CommunicationChannel channel = initiateCommunication(logic, fake);
@@ -58,6 +143,9 @@ public class ControlPanelStarter {
 
   private CommunicationChannel initiateTcpSocketCommunication(ControlPanelLogic logic) {
     tcpClient = new ControlPanelTcpClient(logic);
+    tcpClient.setSubscription(subscription);
+    tcpClient.setCodec(codec);
+    tcpClient.setCompressionRequested(compressionRequested);
     logic.setCommunicationChannel(tcpClient);
     return tcpClient;
   }
@@ -1,18 +1,136 @@
 package no.ntnu.run;
 
+import java.util.Arrays;
+import java.util.Timer;
+import java.util.TimerTask;
+import no.ntnu.communication.DeliveryMode;
+import no.ntnu.communication.NioTcpServer;
+import no.ntnu.communication.OverflowPolicy;
 import no.ntnu.communication.TcpServer;
+import no.ntnu.communication.ThreadingMode;
+import no.ntnu.tools.Logger;
+import no.ntnu.tools.Parser;
 
 /**
  * Entry point for the TCP server.
  */
 public class ServerRunner {
+  private static final long STATISTICS_PERIOD = 10000;
+
   /**
    * Start the TCP server.
    *
-   * @param args Command line arguments. Not used.
+   * @param args Command line arguments, all optional, in any order:
+   *             "nio" - serve all the clients with a few non-blocking event loops;
+   *             "virtual" - serve each client on a virtual thread (default: one platform thread
+   *             per client);
+   *             "queue=N" - queue at most N outgoing messages per client;
+   *             "policy=drop_oldest|conflate|disconnect" - what to do when the queue of a
+   *             client is full;
+   *             "latest" - deliver only the newest pending sensor data of each node to the
+   *             clients which lag behind, see {@link DeliveryMode#LATEST_VALUE};
+   *             "stats" - periodically log the outbound queue statistics of control panels
+   *             and the compression statistics;
+   *             "nocompress" - don't compress the connections, even if the clients ask for it.
    */
   public static void main(String[] args) {
-    TcpServer server = new TcpServer();
+    boolean nio = false;
+    boolean virtual = false;
+    boolean stats = false;
+    boolean compressionAllowed = true;
+    int queueCapacity = TcpServer.DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+    OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+    DeliveryMode deliveryMode = DeliveryMode.QUEUED;
+    for (String arg : args) {
+      if ("nio".equals(arg)) {
+        nio = true;
+      } else if ("virtual".equals(arg)) {
+        virtual = true;
+      } else if ("latest".equals(arg)) {
+        deliveryMode = DeliveryMode.LATEST_VALUE;
+      } else if ("stats".equals(arg)) {
+        stats = true;
+      } else if ("nocompress".equals(arg)) {
+        compressionAllowed = false;
+      } else if (arg.startsWith("queue=")) {
+        queueCapacity = parseQueueCapacity(arg, queueCapacity);
+      } else if (arg.startsWith("policy=")) {
+        policy = parseOverflowPolicy(arg, policy);
+      } else {
+        Logger.error("Unknown argument ignored: " + arg);
+      }
+    }
+
+    TcpServer server = createServer(nio, virtual);
+    server.setOutboundQueueConfig(queueCapacity, policy);
+    server.setDeliveryMode(deliveryMode);
+    server.setCompressionAllowed(compressionAllowed);
+    if (stats) {
+      startStatisticsLogging(server);
+    }
     server.run();
   }
+
+  /**
+   * Parse the queue=N argument.
+   *
+   * @param arg             The argument
+   * @param defaultCapacity The capacity to use when the argument is invalid
+   * @return The queue capacity
+   */
+  private static int parseQueueCapacity(String arg, int defaultCapacity) {
+    int capacity = defaultCapacity;
+    try {
+      capacity = Parser.parseIntegerOrError(arg.substring(6), "Invalid queue size: " + arg);
+      if (capacity <= 0) {
+        throw new IllegalArgumentException("The queue size must be positive: " + arg);
+      }
+    } catch (IllegalArgumentException e) {
+      Logger.error(e.getMessage() + ", using " + defaultCapacity);
+      capacity = defaultCapacity;
+    }
+    return capacity;
+  }
+
+  /**
+   * Parse the policy=name argument.
+   *
+   * @param arg           The argument
+   * @param defaultPolicy The policy to use when the argument is invalid
+   * @return The overflow policy
+   */
+  private static OverflowPolicy parseOverflowPolicy(String arg, OverflowPolicy defaultPolicy) {
+    OverflowPolicy policy = defaultPolicy;
+    try {
+      policy = OverflowPolicy.valueOf(arg.substring(7).toUpperCase());
+    } catch (IllegalArgumentException e) {
+      Logger.error("Unknown overflow policy ignored: " + arg + ", valid values: "
+          + Arrays.toString(OverflowPolicy.values()).toLowerCase());
+    }
+    return policy;
+  }
+
+  private static TcpServer createServer(boolean nio, boolean virtual) {
+    TcpServer server;
+    if (nio) {
+      Logger.info("Using the NIO event-loop server");
+      server = new NioTcpServer();
+    } else if (virtual) {
+      Logger.info("Using virtual threads for the clients");
+      server = new TcpServer(ThreadingMode.VIRTUAL);
+    } else {
+      server = new TcpServer();
+    }
+    return server;
+  }
+
+  private static void startStatisticsLogging(TcpServer server) {
+    Timer timer = new Timer("statistics", true);
+    timer.scheduleAtFixedRate(new TimerTask() {
+      @Override
+      public void run() {
+        server.logControlPanelQueueStatistics();
+      }
+    }, STATISTICS_PERIOD, STATISTICS_PERIOD);
+  }
 }
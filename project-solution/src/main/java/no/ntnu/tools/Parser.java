@@ -28,6 +28,23 @@ public class Parser {
     }
   }
 
+  /**
+   * Try to parse a string as a long integer, show an error message when the parsing fails.
+   *
+   * @param s            The string to parse
+   * @param errorMessage The error message to show if parsing fails
+   * @return The long integer contained in the string
+   * @throws NumberFormatException When the provided string does not contain a valid number,
+   *                               throw an exception with the provided error message
+   */
+  public static long parseLongOrError(String s, String errorMessage) {
+    try {
+      return Long.parseLong(s);
+    } catch (NumberFormatException e) {
+      throw new NumberFormatException(errorMessage);
+    }
+  }
+
   /**
    * Try to parse a string as a floating point number, show an error message when the parsing fails.
    *
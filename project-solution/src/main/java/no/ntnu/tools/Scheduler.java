@@ -0,0 +1,139 @@
+package no.ntnu.tools;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timers of the whole application: the sensor sampling of the nodes, the periodic
+ * switches, the fake events and the batch deadlines all run on one small pool of threads,
+ * instead of a {@link java.util.Timer} thread each. The pending tasks are kept in a heap, so
+ * hundreds of thousands of them cost memory only, not threads.
+ *
+ * <p>The periodic tasks of many similar objects (such as the sensor nodes) should be started
+ * with {@link #scheduleSpread(Runnable, long, long)}, which spreads their ticks evenly across
+ * the period - otherwise the nodes started together would all tick at the same moment.
+ *
+ * <p>The threads are not daemon threads: as with a timer, a scheduled task keeps the
+ * application running. The idle threads stop after a while, so the application can exit once
+ * nothing is scheduled any more.
+ */
+public class Scheduler {
+  private static final int THREAD_COUNT =
+      Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 10;
+  // 2^64 divided by the golden ratio, see getSpreadDelay()
+  private static final long GOLDEN_RATIO_64 = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Not allowed to create instances of this class.
+   */
+  private Scheduler() {
+  }
+
+  /**
+   * Creates the pool when it is first used.
+   */
+  private static class Holder {
+    private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+  }
+
+  private static ScheduledThreadPoolExecutor createExecutor() {
+    AtomicInteger threadCount = new AtomicInteger();
+    ThreadFactory threadFactory = task -> {
+      Thread thread = new Thread(task, "scheduler-" + threadCount.incrementAndGet());
+      thread.setDaemon(false);
+      return thread;
+    };
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(THREAD_COUNT, threadFactory);
+    // The cancelled tasks of the stopped nodes would otherwise stay in the heap until due
+    executor.setRemoveOnCancelPolicy(true);
+    executor.setKeepAliveTime(IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Run a task once, after a delay.
+   *
+   * @param task        The task to run
+   * @param delayMillis The delay, in milliseconds
+   * @return The handle for cancelling the task
+   */
+  public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+    return Holder.EXECUTOR.schedule(guarded(task), delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Run a task periodically, at a fixed rate. A run which takes longer than the period delays
+   * the next run, the runs of one task never overlap.
+   *
+   * @param task               The task to run
+   * @param initialDelayMillis The delay before the first run, in milliseconds
+   * @param periodMillis       The time between the starts of two runs, in milliseconds
+   * @return The handle for cancelling the task
+   */
+  public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelayMillis,
+                                                       long periodMillis) {
+    return Holder.EXECUTOR.scheduleAtFixedRate(guarded(task), initialDelayMillis, periodMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Run a task periodically, at a fixed rate, starting at a point of the period chosen by a
+   * key. The tasks with different keys (for example, node IDs) are spread evenly across the
+   * period, even when the keys are consecutive.
+   *
+   * @param task         The task to run
+   * @param periodMillis The time between the starts of two runs, in milliseconds
+   * @param key          The key which decides the phase of the task within the period
+   * @return The handle for cancelling the task
+   */
+  public static ScheduledFuture<?> scheduleSpread(Runnable task, long periodMillis, long key) {
+    return scheduleAtFixedRate(task, getSpreadDelay(key, periodMillis), periodMillis);
+  }
+
+  /**
+   * Get the delay of the first run of a spread task. The key is multiplied by 2^64 divided by
+   * the golden ratio (Fibonacci hashing), the fraction of the result picks the point of the
+   * period: any number of consecutive keys ends up nearly evenly spaced.
+   *
+   * @param key          The key of the task
+   * @param periodMillis The period of the task, in milliseconds
+   * @return The initial delay, at least 0 and less than the period
+   */
+  public static long getSpreadDelay(long key, long periodMillis) {
+    if (periodMillis <= 0) {
+      throw new IllegalArgumentException("The period must be positive");
+    }
+    // The upper 53 bits of the product, as a fraction in the range [0, 1)
+    double fraction = ((key * GOLDEN_RATIO_64) >>> 11) * 0x1.0p-53;
+    return (long) (fraction * periodMillis);
+  }
+
+  /**
+   * Get the number of the tasks waiting for their next run.
+   *
+   * @return The number of scheduled tasks
+   */
+  public static int getScheduledTaskCount() {
+    return Holder.EXECUTOR.getQueue().size();
+  }
+
+  /**
+   * Log the exceptions of a task. An exception thrown out of a periodic task would silently
+   * cancel all its later runs.
+   */
+  private static Runnable guarded(Runnable task) {
+    return () -> {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        Logger.error("A scheduled task failed: " + e.getMessage());
+      }
+    };
+  }
+}
@@ -0,0 +1,110 @@
+package no.ntnu.communication;
+
+import static no.ntnu.communication.message.ActuatorStateMessage.ANY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.ErrorMessage;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorDictionaries;
+import no.ntnu.communication.message.SensorNodeOfflineMessage;
+import org.junit.Test;
+
+/**
+ * Tests for the binary codec: every message must survive the round trip unchanged.
+ */
+public class BinaryCodecTest {
+  private static final int MAX_FRAME_LENGTH = 1024;
+  private static final String[] MESSAGES = {
+      "type=sensor:44",
+      "type=sensor:13;heater=1,heater=2,fan=3",
+      "type=control",
+      "subscribe:*",
+      "subscribe:3,20-29;temperature,humidity",
+      "sensors:12;temperature,27.12,°C;humidity,80.50,%;temperature,-3.25,°C",
+      "actuator:12;3,on",
+      "actuator:*;*,off",
+      "offline:12",
+      "type=sensor:21;fan=1;@temperature,°C;@humidity,%",
+      "sensors:21;@0,27.12;@1,80.50;light,1200.00,lux",
+      "delta:21;2,1250.00;0,-0.25",
+      "batch:21|1700000000000;@0,27.12;@1,80.50|250;@0,27.15;@1,80.40|250;light,12.00,lux",
+  };
+
+  @Test
+  public void roundTrip() throws IOException {
+    // The coded readings can be parsed after the node type message, on both sides
+    SensorDictionaries sent = new SensorDictionaries();
+    FrameDecoder decoder = MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH,
+        new SensorDictionaries());
+    for (String text : MESSAGES) {
+      Message message = MessageSerializer.fromString(text, sent);
+      byte[] encoded = MessageCodecs.BINARY.encode(message);
+      Frame frame = decoder.decode(ByteBuffer.wrap(encoded));
+      assertEquals(text, MessageSerializer.toString(frame.getMessage()));
+    }
+  }
+
+  @Test
+  public void wildcardsSurvive() throws IOException {
+    byte[] encoded = MessageCodecs.BINARY.encode(new ActuatorStateMessage(ANY, ANY, true));
+    Frame frame = MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH)
+        .decode(ByteBuffer.wrap(encoded));
+    ActuatorStateMessage message = (ActuatorStateMessage) frame.getMessage();
+    assertTrue(message.isAnyNode());
+    assertTrue(message.isAnyActuator());
+  }
+
+  @Test
+  public void framesSplitIntoSingleBytes() throws IOException {
+    ByteBuffer stream = ByteBuffer.allocate(4096);
+    SensorDictionaries sent = new SensorDictionaries();
+    for (String text : MESSAGES) {
+      stream.put(MessageCodecs.BINARY.encode(MessageSerializer.fromString(text, sent)));
+    }
+    stream.flip();
+    FrameDecoder decoder = MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH,
+        new SensorDictionaries());
+    List<Frame> frames = new ArrayList<>();
+    while (stream.hasRemaining()) {
+      ByteBuffer oneByte = ByteBuffer.wrap(new byte[] {stream.get()});
+      Frame frame = decoder.decode(oneByte);
+      if (frame != null) {
+        frames.add(frame);
+      }
+      assertNull(decoder.decode(oneByte));
+    }
+    assertEquals(MESSAGES.length, frames.size());
+    assertTrue(frames.get(8).getMessage() instanceof SensorNodeOfflineMessage);
+  }
+
+  @Test
+  public void receivedBytesAreRelayedAsIs() throws IOException {
+    byte[] encoded = MessageCodecs.BINARY.encode(MessageSerializer.fromString(MESSAGES[5]));
+    Frame frame = MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH)
+        .decode(ByteBuffer.wrap(encoded));
+    assertTrue(encoded.length < frame.getBytes(MessageCodecs.TEXT).length);
+    assertEquals(ByteBuffer.wrap(encoded), frame.asByteBuffer(MessageCodecs.BINARY));
+  }
+
+  @Test
+  public void invalidBodyGivesErrorMessage() throws IOException {
+    byte[] truncated = {3, 4, 12, 5};
+    Frame frame = MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH)
+        .decode(ByteBuffer.wrap(truncated));
+    assertTrue(frame.getMessage() instanceof ErrorMessage);
+  }
+
+  @Test(expected = IOException.class)
+  public void tooLongFrameIsRejected() throws IOException {
+    byte[] prefix = {(byte) 0x81, 0x7F};
+    MessageCodecs.BINARY.createDecoder(MAX_FRAME_LENGTH).decode(ByteBuffer.wrap(prefix));
+  }
+}
@@ -0,0 +1,178 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the writer of the client connections, over a loopback socket.
+ */
+public class ChannelWriterTest {
+  private static final long LONG_DELAY_MICROS = 10_000_000;
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private ServerSocket serverSocket;
+  private AsynchronousSocketChannel channel;
+  private Socket receiver;
+  private final WriteStats writeStats = new WriteStats();
+
+  @Before
+  public void connect() throws Exception {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    // Small socket buffers, so that a large message needs several writes
+    serverSocket.setReceiveBufferSize(4096);
+    channel = AsynchronousSocketChannel.open();
+    channel.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+    channel.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+        serverSocket.getLocalPort())).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    receiver = serverSocket.accept();
+    receiver.setSoTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+  }
+
+  @After
+  public void close() throws IOException {
+    channel.close();
+    receiver.close();
+    serverSocket.close();
+  }
+
+  private ChannelWriter createWriter(int capacity, FlushPolicy flushPolicy) {
+    return new ChannelWriter(channel, capacity, flushPolicy, writeStats);
+  }
+
+  private static ByteBuffer bytesOf(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private String receive(int length) throws IOException {
+    byte[] bytes = new byte[length];
+    new DataInputStream(receiver.getInputStream()).readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static boolean await(CompletableFuture<Boolean> result) throws Exception {
+    return result.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void queuedMessagesAreWrittenInOrderWithOneWrite() throws Exception {
+    ChannelWriter writer = createWriter(10, new FlushPolicy(200_000, 16 * 1024));
+    // The caller reuses its buffer, the writer must have copied the bytes
+    ByteBuffer reused = ByteBuffer.allocate(64);
+    CompletableFuture<Boolean> last = null;
+    for (String message : new String[] {"first\n", "second\n", "third\n"}) {
+      reused.clear().put(message.getBytes(StandardCharsets.UTF_8)).flip();
+      last = writer.write(reused, false);
+      assertNotNull(last);
+    }
+    assertEquals("first\nsecond\nthird\n", receive(19));
+    assertTrue(await(last));
+    assertEquals(3, writeStats.getFrames());
+    assertEquals(1, writeStats.getWrites());
+    assertEquals(19, writeStats.getBytes());
+  }
+
+  @Test
+  public void messageIsFlushedAfterTheDelay() throws Exception {
+    long delayMillis = 50;
+    ChannelWriter writer = createWriter(10,
+        new FlushPolicy(TimeUnit.MILLISECONDS.toMicros(delayMillis), 16 * 1024));
+    long start = System.nanoTime();
+    CompletableFuture<Boolean> result = writer.write(bytesOf("sensors:1;a,1.00,C\n"), false);
+    assertEquals("sensors:1;a,1.00,C\n", receive(19));
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Written after " + elapsedMillis + " ms", elapsedMillis >= delayMillis);
+    assertTrue(await(result));
+    assertEquals(1, writeStats.getWrites());
+  }
+
+  @Test
+  public void urgentMessageIsWrittenAtOnceWithTheQueuedOnes() throws Exception {
+    FlushPolicy flushPolicy = new FlushPolicy(LONG_DELAY_MICROS, 16 * 1024);
+    ChannelWriter writer = createWriter(10, flushPolicy);
+    CompletableFuture<Boolean> data = writer.write(bytesOf("sensors:1;a,1.00,C\n"), false);
+    CompletableFuture<Boolean> command = writer.write(bytesOf("actuator:1;2,on\n"), true);
+    // Well before the delay of the policy
+    assertEquals("sensors:1;a,1.00,C\nactuator:1;2,on\n", receive(35));
+    assertTrue(await(data));
+    assertTrue(await(command));
+    assertEquals(2, writeStats.getFrames());
+    assertEquals(1, writeStats.getWrites());
+  }
+
+  @Test
+  public void fullQueueRejectsMessages() throws Exception {
+    ChannelWriter writer = createWriter(2, new FlushPolicy(LONG_DELAY_MICROS, 16 * 1024));
+    assertNotNull(writer.write(bytesOf("one\n"), false));
+    assertTrue(writer.hasRoom());
+    assertNotNull(writer.write(bytesOf("two\n"), false));
+    assertFalse(writer.hasRoom());
+    assertNull(writer.write(bytesOf("three\n"), false));
+    // Not even an urgent message gets in
+    assertNull(writer.write(bytesOf("actuator:1;2,on\n"), true));
+    assertEquals(0, writeStats.getWrites());
+  }
+
+  @Test
+  public void closeFailsThePendingFutures() throws Exception {
+    ChannelWriter writer = createWriter(10, new FlushPolicy(LONG_DELAY_MICROS, 16 * 1024));
+    CompletableFuture<Boolean> first = writer.write(bytesOf("one\n"), false);
+    CompletableFuture<Boolean> second = writer.write(bytesOf("two\n"), false);
+    writer.close();
+    assertFalse(await(first));
+    assertFalse(await(second));
+    assertFalse(channel.isOpen());
+    assertNull(writer.write(bytesOf("three\n"), true));
+    assertEquals(0, writeStats.getWrites());
+  }
+
+  @Test
+  public void partialWriteIsResumed() throws Exception {
+    ChannelWriter writer = createWriter(10, FlushPolicy.IMMEDIATE);
+    byte[] large = new byte[4 * 1024 * 1024];
+    for (int i = 0; i < large.length; ++i) {
+      large[i] = (byte) i;
+    }
+    CompletableFuture<Boolean> first = writer.write(ByteBuffer.wrap(large), true);
+    // Queued while the large message is still being written
+    CompletableFuture<Boolean> second = writer.write(bytesOf("after\n"), true);
+
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    byte[] chunk = new byte[8192];
+    while (received.size() < large.length + 6) {
+      int length = receiver.getInputStream().read(chunk);
+      assertTrue(length > 0);
+      received.write(chunk, 0, length);
+    }
+    byte[] bytes = received.toByteArray();
+    assertArrayEquals(large, Arrays.copyOf(bytes, large.length));
+    assertEquals("after\n", new String(bytes, large.length, 6, StandardCharsets.UTF_8));
+    assertTrue(await(first));
+    assertTrue(await(second));
+    assertEquals(2, writeStats.getFrames());
+    assertEquals(large.length + 6, writeStats.getBytes());
+    // The socket did not take the large message at once
+    assertTrue(writeStats.toString(), writeStats.getWrites() > 2);
+  }
+}
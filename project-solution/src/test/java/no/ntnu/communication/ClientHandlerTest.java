@@ -0,0 +1,135 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the coalescing writer of the blocking client connections, over a loopback socket.
+ */
+public class ClientHandlerTest {
+  private static final long LONG_DELAY_MICROS = 10_000_000;
+  private static final int TIMEOUT_MILLIS = 5000;
+
+  private final TcpServer server = new TcpServer();
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private ServerSocket serverSocket;
+  private Socket client;
+  private Socket accepted;
+  private BufferedReader reader;
+
+  @Before
+  public void connect() throws IOException {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    client = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort());
+    client.setSoTimeout(TIMEOUT_MILLIS);
+    accepted = serverSocket.accept();
+    reader = new BufferedReader(
+        new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  @After
+  public void close() throws IOException {
+    client.close();
+    accepted.close();
+    serverSocket.close();
+    executor.shutdownNow();
+  }
+
+  /**
+   * Create the handler of the accepted socket and start it, as the server does.
+   */
+  private ClientHandler startHandler(FlushPolicy flushPolicy) {
+    server.setFlushPolicy(flushPolicy);
+    ClientHandler handler = new ClientHandler(accepted, server, executor);
+    executor.execute(handler);
+    return handler;
+  }
+
+  /**
+   * Wait until the writer has counted its writes - it counts them after the bytes are sent,
+   * the client may have read them already.
+   */
+  private void awaitWrites(long expectedWrites) {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (server.getWriteStats().getWrites() < expectedWrites
+        && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(expectedWrites, server.getWriteStats().getWrites());
+  }
+
+  @Test
+  public void framesWithinTheDelayAreWrittenTogether() throws IOException {
+    ClientHandler handler = startHandler(new FlushPolicy(200_000, 16 * 1024));
+    handler.sendToClient(Frame.of("sensors:1;temperature,20.00,C"));
+    handler.sendToClient(Frame.of("sensors:2;temperature,21.00,C"));
+    handler.sendToClient(Frame.of("offline:3"));
+    assertEquals("sensors:1;temperature,20.00,C", reader.readLine());
+    assertEquals("sensors:2;temperature,21.00,C", reader.readLine());
+    assertEquals("offline:3", reader.readLine());
+    awaitWrites(1);
+    assertEquals(3, server.getWriteStats().getFrames());
+  }
+
+  @Test
+  public void frameIsFlushedAfterTheDelay() throws IOException {
+    long delayMillis = 50;
+    ClientHandler handler = startHandler(
+        new FlushPolicy(TimeUnit.MILLISECONDS.toMicros(delayMillis), 16 * 1024));
+    long start = System.nanoTime();
+    handler.sendToClient(Frame.of("sensors:1;temperature,20.00,C"));
+    assertEquals("sensors:1;temperature,20.00,C", reader.readLine());
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    assertTrue("Written after " + elapsedMillis + " ms", elapsedMillis >= delayMillis);
+    awaitWrites(1);
+  }
+
+  @Test
+  public void actuatorFrameIsWrittenAtOnce() throws IOException {
+    ClientHandler handler = startHandler(new FlushPolicy(LONG_DELAY_MICROS, 16 * 1024));
+    handler.sendToClient(Frame.of("sensors:1;temperature,20.00,C"));
+    handler.sendToClient(Frame.of("actuator:1;2,on"));
+    // Long before the delay of the policy - the read would time out otherwise
+    assertEquals("sensors:1;temperature,20.00,C", reader.readLine());
+    assertEquals("actuator:1;2,on", reader.readLine());
+    awaitWrites(1);
+    assertEquals(2, server.getWriteStats().getFrames());
+  }
+
+  @Test
+  public void frameBeyondTheByteThresholdIsWrittenAtOnce() throws IOException {
+    ClientHandler handler = startHandler(new FlushPolicy(LONG_DELAY_MICROS, 40));
+    handler.sendToClient(Frame.of("sensors:1;temperature,20.00,C"));
+    handler.sendToClient(Frame.of("sensors:2;temperature,21.00,C"));
+    assertEquals("sensors:1;temperature,20.00,C", reader.readLine());
+    assertEquals("sensors:2;temperature,21.00,C", reader.readLine());
+    awaitWrites(1);
+  }
+
+  @Test
+  public void clientIsDisconnectedWhenTheQueueIsFull() throws IOException {
+    server.setOutboundQueueConfig(2, OverflowPolicy.DISCONNECT);
+    // Not started: nothing takes the frames from the queue
+    ClientHandler handler = new ClientHandler(accepted, server, executor);
+    handler.sendToClient(Frame.of("offline:1"));
+    handler.sendToClient(Frame.of("offline:2"));
+    assertEquals(2, handler.getOutboundQueue().size());
+    handler.sendToClient(Frame.of("offline:3"));
+    assertTrue(accepted.isClosed());
+    assertEquals(-1, client.getInputStream().read());
+  }
+}
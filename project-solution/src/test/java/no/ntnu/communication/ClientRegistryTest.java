@@ -0,0 +1,159 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import org.junit.Test;
+
+/**
+ * Tests for the client registry, including concurrent connect/disconnect churn while the
+ * server is broadcasting.
+ */
+public class ClientRegistryTest {
+  private static final int CHURN_THREADS = 8;
+  private static final int CHURN_ROUNDS = 2000;
+  private static final String SENSOR_DATA_STRING = "sensors:1;temperature,20.00,C";
+  private static final SensorDataMessage SENSOR_DATA =
+      (SensorDataMessage) MessageSerializer.fromString(SENSOR_DATA_STRING);
+
+  /**
+   * A client connection which only counts the frames sent to it.
+   */
+  private static class CountingConnection implements ClientConnection {
+    private final AtomicInteger receivedFrames = new AtomicInteger(0);
+    private final OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST);
+
+    @Override
+    public void sendToClient(Frame frame) {
+      receivedFrames.incrementAndGet();
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+    }
+
+    @Override
+    public void setCompression(StreamCompression compression) {
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return "test";
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+      return queue;
+    }
+  }
+
+  @Test
+  public void controlPanelIsRemovedOnDisconnect() {
+    TcpServer server = new TcpServer();
+    ClientConnection panel = new CountingConnection();
+    server.onControlPanelNodeConnected(panel);
+    assertEquals(1, server.getRegistry().getControlPanels().size());
+    server.onControlPanelNodeDisconnected(panel);
+    assertTrue(server.getRegistry().getControlPanels().isEmpty());
+  }
+
+  @Test
+  public void oldConnectionDoesNotRemoveReconnectedNode() {
+    ClientRegistry registry = new ClientRegistry();
+    ClientConnection oldConnection = new CountingConnection();
+    ClientConnection newConnection = new CountingConnection();
+    registry.registerSensorNode(3, oldConnection, Frame.of("type=sensor:3"));
+    registry.registerSensorNode(3, newConnection, Frame.of("type=sensor:3"));
+    assertFalse(registry.deregisterSensorNode(3, oldConnection));
+    assertSame(newConnection, registry.getSensorNode(3));
+    assertTrue(registry.deregisterSensorNode(3, newConnection));
+    assertNull(registry.getSensorNode(3));
+  }
+
+  @Test
+  public void concurrentChurnWhileBroadcasting() throws InterruptedException {
+    TcpServer server = new TcpServer();
+    server.onSensorNodeConnected(new SensorNodeTypeMessage(1), new CountingConnection());
+    List<CountingConnection> permanentPanels = new ArrayList<>();
+    for (int i = 0; i < 5; ++i) {
+      CountingConnection panel = new CountingConnection();
+      permanentPanels.add(panel);
+      server.onControlPanelNodeConnected(panel);
+    }
+
+    Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+    AtomicBoolean churning = new AtomicBoolean(true);
+    CountDownLatch churnDone = new CountDownLatch(CHURN_THREADS);
+    AtomicInteger broadcasts = new AtomicInteger(0);
+
+    Thread broadcaster = new Thread(() -> {
+      try {
+        while (churning.get()) {
+          server.onSensorData(SENSOR_DATA.getNodeId(), Frame.of(SENSOR_DATA_STRING));
+          broadcasts.incrementAndGet();
+        }
+      } catch (Throwable t) {
+        errors.add(t);
+      }
+    });
+    broadcaster.start();
+
+    for (int t = 0; t < CHURN_THREADS; ++t) {
+      final int threadIndex = t;
+      new Thread(() -> {
+        try {
+          churn(server, threadIndex);
+        } catch (Throwable e) {
+          errors.add(e);
+        } finally {
+          churnDone.countDown();
+        }
+      }).start();
+    }
+
+    churnDone.await();
+    churning.set(false);
+    broadcaster.join();
+
+    assertTrue("Unexpected errors: " + errors, errors.isEmpty());
+    ClientRegistry registry = server.getRegistry();
+    assertEquals(permanentPanels.size(), registry.getControlPanels().size());
+    // Every thread leaves one node registered: the one from the last round. Plus node 1.
+    assertEquals(CHURN_THREADS + 1, registry.getSensorNodeCount());
+    for (CountingConnection panel : permanentPanels) {
+      assertTrue(panel.receivedFrames.get() >= broadcasts.get());
+    }
+  }
+
+  private static void churn(TcpServer server, int threadIndex) {
+    for (int round = 0; round < CHURN_ROUNDS; ++round) {
+      CountingConnection panel = new CountingConnection();
+      server.onControlPanelNodeConnected(panel);
+
+      int nodeId = 2 + threadIndex * CHURN_ROUNDS + round;
+      CountingConnection node = new CountingConnection();
+      server.onSensorNodeConnected(new SensorNodeTypeMessage(nodeId), node);
+      ActuatorStateMessage actuatorState = new ActuatorStateMessage(nodeId, 1, true);
+      server.onActuatorState(actuatorState, Frame.of(actuatorState));
+
+      server.onControlPanelNodeDisconnected(panel);
+      if (round < CHURN_ROUNDS - 1) {
+        server.onSensorNodeShutdown(nodeId, node);
+      }
+    }
+  }
+}
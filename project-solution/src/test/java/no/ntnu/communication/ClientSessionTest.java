@@ -0,0 +1,197 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import org.junit.Test;
+
+/**
+ * Tests for the server-side session of a sensor/actuator connection which carries many nodes.
+ */
+public class ClientSessionTest {
+  /**
+   * A client connection which keeps the text of the frames sent to it.
+   */
+  private static class RecordingConnection implements ClientConnection {
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final OutboundQueue queue = new OutboundQueue(1, OverflowPolicy.DROP_OLDEST);
+
+    @Override
+    public void sendToClient(Frame frame) {
+      received.add(frame.getText());
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+    }
+
+    @Override
+    public void setCompression(StreamCompression compression) {
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return "test";
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+      return queue;
+    }
+  }
+
+  /**
+   * A client connection which queues the frames as the real connections do, nothing takes
+   * them from the queue.
+   */
+  private static class QueueingConnection implements ClientConnection {
+    private final OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+
+    @Override
+    public void sendToClient(Frame frame) {
+      queue.offer(frame);
+    }
+
+    @Override
+    public void sendSensorDeltaToClient(Frame deltaFrame, Frame fullFrame) {
+      queue.offerSensorDelta(deltaFrame, fullFrame);
+    }
+
+    @Override
+    public void setCodec(MessageCodec codec) {
+    }
+
+    @Override
+    public void setCompression(StreamCompression compression) {
+    }
+
+    @Override
+    public String getRemoteAddress() {
+      return "test";
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+      return queue;
+    }
+  }
+
+  private static ClientSession connectGateway(TcpServer server, ClientConnection gateway) {
+    ClientSession session = new ClientSession(server, gateway);
+    session.onFrameReceived(Frame.of("type=sensor:1;fan=1"));
+    session.onFrameReceived(Frame.of("type=sensor:2;heater=1"));
+    session.onFrameReceived(Frame.of("type=sensor:3"));
+    return session;
+  }
+
+  @Test
+  public void gatewayNodesGoOfflineOneByOne() {
+    TcpServer server = new TcpServer();
+    RecordingConnection gateway = new RecordingConnection();
+    RecordingConnection panel = new RecordingConnection();
+    server.onControlPanelNodeConnected(panel);
+    ClientSession session = connectGateway(server, gateway);
+    assertEquals(3, server.getRegistry().getSensorNodeCount());
+    assertSame(gateway, server.getRegistry().getSensorNode(2));
+
+    session.onFrameReceived(Frame.of("offline:2"));
+    assertEquals(2, server.getRegistry().getSensorNodeCount());
+    assertNull(server.getRegistry().getSensorNode(2));
+    assertEquals("offline:2", panel.received.get(panel.received.size() - 1));
+
+    session.onConnectionClosed();
+    assertEquals(0, server.getRegistry().getSensorNodeCount());
+    assertEquals(List.of("type=sensor:1;fan=1", "type=sensor:2;heater=1", "type=sensor:3",
+        "offline:2", "offline:1", "offline:3"), panel.received);
+  }
+
+  @Test
+  public void commandsAreSentOncePerConnection() {
+    TcpServer server = new TcpServer();
+    RecordingConnection gateway = new RecordingConnection();
+    connectGateway(server, gateway);
+    server.forwardActuatorCommandToSensors(
+        new ActuatorStateMessage(ActuatorStateMessage.ANY, ActuatorStateMessage.ANY, false));
+    server.forwardActuatorCommandToSensors(new ActuatorStateMessage(2, 1, true));
+    assertEquals(List.of("actuator:*;*,off", "actuator:2;1,on"), gateway.received);
+  }
+
+  @Test
+  public void laggingPanelGetsFullReadingsInsteadOfDelta() {
+    TcpServer server = new TcpServer();
+    QueueingConnection panel = new QueueingConnection();
+    server.onControlPanelNodeConnected(panel);
+    ClientSession node = new ClientSession(server, new RecordingConnection());
+    node.onFrameReceived(Frame.of("type=sensor:1"));
+    node.onFrameReceived(Frame.of("sensors:1;temperature,20.00,C;humidity,50.00,%"));
+    // The queue of the panel overflows: the type message and the base readings are dropped
+    node.onFrameReceived(Frame.of("actuator:1;1,on"));
+    node.onFrameReceived(Frame.of("actuator:1;1,off"));
+    node.onFrameReceived(Frame.of("delta:1;0,20.50"));
+    assertEquals("actuator:1;1,off", panel.queue.poll().getText());
+    assertEquals("sensors:1;temperature,20.50,C;humidity,50.00,%",
+        panel.queue.poll().getText());
+
+    // In sync again
+    node.onFrameReceived(Frame.of("delta:1;1,49.00"));
+    assertEquals("delta:1;1,49.00", panel.queue.poll().getText());
+  }
+
+  @Test
+  public void reconnectRacingWithOldCloseKeepsRoutingAndState() throws Exception {
+    TcpServer server = new TcpServer();
+    RecordingConnection panel = new RecordingConnection();
+    server.onControlPanelNodeConnected(panel);
+    ClientSession old = new ClientSession(server, new RecordingConnection());
+    old.onFrameReceived(Frame.of("type=sensor:1;fan=1"));
+    for (int i = 0; i < 500; ++i) {
+      RecordingConnection connection = new RecordingConnection();
+      ClientSession reconnected = new ClientSession(server, connection);
+      CyclicBarrier start = new CyclicBarrier(2);
+      ClientSession closing = old;
+      Thread closer = new Thread(() -> {
+        await(start);
+        closing.onConnectionClosed();
+      });
+      closer.start();
+      await(start);
+      reconnected.onFrameReceived(Frame.of("type=sensor:1;fan=1"));
+      closer.join();
+
+      assertSame(connection, server.getRegistry().getSensorNode(1));
+      String lastAnnouncement = null;
+      synchronized (panel.received) {
+        for (String frame : panel.received) {
+          if (frame.endsWith(":1") || frame.startsWith("type=sensor:1")) {
+            lastAnnouncement = frame;
+          }
+        }
+      }
+      assertEquals("Round " + i, "type=sensor:1;fan=1", lastAnnouncement);
+      reconnected.onFrameReceived(Frame.of("sensors:1;temperature,2" + i + ",C"));
+      assertEquals("Round " + i, "sensors:1;temperature,2" + i + ",C",
+          panel.received.get(panel.received.size() - 1));
+      // A control panel which joins late gets the snapshot of the online node
+      RecordingConnection latePanel = new RecordingConnection();
+      server.onControlPanelNodeConnected(latePanel);
+      assertEquals("Round " + i, List.of("type=sensor:1;fan=1",
+          "sensors:1;temperature,2" + i + ",C"), latePanel.received);
+      server.onControlPanelNodeDisconnected(latePanel);
+      old = reconnected;
+    }
+  }
+
+  private static void await(CyclicBarrier barrier) {
+    try {
+      barrier.await();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
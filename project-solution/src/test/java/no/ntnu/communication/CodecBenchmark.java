@@ -0,0 +1,112 @@
+package no.ntnu.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+
+/**
+ * Compares the message codecs: the cost of encoding and decoding a message and the number of
+ * bytes sent over the wire. The messages are a typical mix - mostly sensor data, some actuator
+ * states and node announcements.
+ * Not a unit test - run it manually:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes no.ntnu.communication.CodecBenchmark
+ * </pre>
+ * Each measurement is repeated several times after a warm-up, the best round is reported, so
+ * that the JIT compilation and garbage collection pauses don't distort the result.
+ */
+public class CodecBenchmark {
+  private static final int WARMUP_ROUNDS = 10;
+  private static final int MEASURED_ROUNDS = 10;
+  private static final int MESSAGES_PER_ROUND = 200000;
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+  private static final String[] SAMPLE_MESSAGES = {
+      "sensors:3;temperature,27.12,°C;humidity,80.50,%",
+      "sensors:17;temperature,22.40,°C;temperature,26.00,°C;humidity,81.00,%",
+      "sensors:5;humidity,78.25,%",
+      "sensors:1234;temperature,-3.75,°C;humidity,95.00,%;light,12000.00,lux",
+      "actuator:17;2,on",
+      "actuator:3;1,off",
+      "type=sensor:17;window=1,fan=2,fan=3,heater=4",
+      "offline:5",
+  };
+
+  // Prevents the JIT from removing the measured work
+  private static long sink;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args Not used
+   */
+  public static void main(String[] args) throws IOException {
+    Message[] messages = new Message[SAMPLE_MESSAGES.length];
+    for (int i = 0; i < messages.length; ++i) {
+      messages[i] = MessageSerializer.fromString(SAMPLE_MESSAGES[i]);
+    }
+    System.out.printf("%-8s %14s %14s %14s%n", "codec", "encode ns/msg", "decode ns/msg",
+        "bytes/msg");
+    for (MessageCodec codec : List.of(MessageCodecs.TEXT, MessageCodecs.BINARY)) {
+      benchmark(codec, messages);
+    }
+    System.out.println("(sink: " + sink + ")");
+  }
+
+  private static void benchmark(MessageCodec codec, Message[] messages) throws IOException {
+    ByteBuffer stream = createStream(codec, messages);
+    double encodeNanos = Double.MAX_VALUE;
+    double decodeNanos = Double.MAX_VALUE;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+      double encode = measureEncoding(codec, messages);
+      double decode = measureDecoding(codec, stream);
+      if (round >= WARMUP_ROUNDS) {
+        encodeNanos = Math.min(encodeNanos, encode);
+        decodeNanos = Math.min(decodeNanos, decode);
+      }
+    }
+    double bytesPerMessage = (double) stream.limit() / MESSAGES_PER_ROUND;
+    System.out.printf("%-8s %14.1f %14.1f %14.1f%n", codec.getName(), encodeNanos, decodeNanos,
+        bytesPerMessage);
+  }
+
+  private static ByteBuffer createStream(MessageCodec codec, Message[] messages) {
+    List<byte[]> frames = new ArrayList<>();
+    int length = 0;
+    for (int i = 0; i < MESSAGES_PER_ROUND; ++i) {
+      byte[] frame = codec.encode(messages[i % messages.length]);
+      frames.add(frame);
+      length += frame.length;
+    }
+    ByteBuffer stream = ByteBuffer.allocate(length);
+    for (byte[] frame : frames) {
+      stream.put(frame);
+    }
+    return stream.flip();
+  }
+
+  private static double measureEncoding(MessageCodec codec, Message[] messages) {
+    long start = System.nanoTime();
+    for (int i = 0; i < MESSAGES_PER_ROUND; ++i) {
+      sink += codec.encode(messages[i % messages.length]).length;
+    }
+    return (double) (System.nanoTime() - start) / MESSAGES_PER_ROUND;
+  }
+
+  private static double measureDecoding(MessageCodec codec, ByteBuffer stream)
+      throws IOException {
+    ByteBuffer input = stream.duplicate();
+    FrameDecoder decoder = codec.createDecoder(MAX_FRAME_LENGTH);
+    long start = System.nanoTime();
+    Frame frame = decoder.decode(input);
+    while (frame != null) {
+      // The text frames are parsed lazily - force it, the receiver always needs the message
+      sink += frame.getMessage().hashCode();
+      frame = decoder.decode(input);
+    }
+    return (double) (System.nanoTime() - start) / MESSAGES_PER_ROUND;
+  }
+}
@@ -0,0 +1,151 @@
+package no.ntnu.communication;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A loopback throughput benchmark of the write coalescing: a sensor node sends sensor data as
+ * fast as it can, the server (the blocking engine) forwards it to a control panel. Run with
+ * every message flushed on its own (the behaviour before the coalescing) and with the default
+ * flush policy; the benchmark reports the throughput and the writes (system calls) and the
+ * estimated TCP segments on both hops.
+ * Not a unit test - run it manually:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes no.ntnu.communication.FlushBenchmark 200000
+ * </pre>
+ */
+public class FlushBenchmark {
+  private static final int DEFAULT_MESSAGE_COUNT = 200000;
+  private static final int PORT = 1315;
+  private static final int NODE_ID = 1;
+  private static final PrintStream RESULTS = System.out;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args Optionally the number of messages sent in each round
+   */
+  public static void main(String[] args) throws Exception {
+    int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MESSAGE_COUNT;
+    // The logging of every message would measure the console instead of the sockets
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+    // The first round warms up the JIT
+    run(FlushPolicy.DEFAULT, messageCount / 10);
+    for (FlushPolicy policy : List.of(FlushPolicy.IMMEDIATE, FlushPolicy.DEFAULT)) {
+      run(policy, messageCount);
+    }
+    System.exit(0);
+  }
+
+  private static void run(FlushPolicy policy, int messageCount) throws Exception {
+    TcpServer server = new TcpServer(PORT, ThreadingMode.PLATFORM.createExecutor("handler-"));
+    server.setFlushPolicy(policy);
+    // Every message must reach the panel, none may be dropped while it is catching up
+    server.setOutboundQueueConfig(messageCount + 1, OverflowPolicy.DROP_OLDEST);
+    Thread serverThread = new Thread(server::run, "server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    while (!server.isRunning()) {
+      Thread.sleep(10);
+    }
+
+    CountDownLatch allReceived = new CountDownLatch(1);
+    Thread panel = startPanel(messageCount, allReceived);
+    LoadClient client = new LoadClient();
+    client.setServerAddress("localhost", PORT);
+    client.setFlushPolicy(policy);
+    if (!client.openSocket()) {
+      throw new IllegalStateException("The sensor node could not connect");
+    }
+    while (server.getRegistry().getSensorNodeCount() == 0) {
+      Thread.sleep(10);
+    }
+
+    long start = System.nanoTime();
+    int rejected = 0;
+    for (int i = 0; i < messageCount; ++i) {
+      // The write queue is full: give the writer a moment
+      while (!client.sendReading(i)) {
+        rejected++;
+        Thread.yield();
+      }
+    }
+    boolean received = allReceived.await(60, TimeUnit.SECONDS);
+    long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+
+    RESULTS.println(policy + (received ? "" : " - NOT all messages received"));
+    RESULTS.println("  " + messageCount + " messages in " + millis + " ms, "
+        + messageCount * 1000L / millis + " messages/s, queue full " + rejected + " times");
+    RESULTS.println("  node -> server:  " + client.getWriteStats());
+    RESULTS.println("  server -> panel: " + server.getWriteStats());
+    client.closeSocket();
+    panel.interrupt();
+    server.shutdown();
+    serverThread.join();
+  }
+
+  /**
+   * Start a control panel which counts the received sensor data messages.
+   */
+  private static Thread startPanel(int messageCount, CountDownLatch allReceived)
+      throws IOException {
+    Socket socket = new Socket("localhost", PORT);
+    OutputStream out = socket.getOutputStream();
+    out.write("type=control\n".getBytes(StandardCharsets.UTF_8));
+    out.flush();
+    Thread panel = new Thread(() -> {
+      try (BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+        int count = 0;
+        String line = in.readLine();
+        while (line != null && count < messageCount) {
+          if (line.startsWith("sensors:")) {
+            count++;
+          }
+          line = count < messageCount ? in.readLine() : null;
+        }
+        allReceived.countDown();
+        socket.close();
+      } catch (IOException e) {
+        RESULTS.println("Panel closed: " + e.getMessage());
+      }
+    }, "panel");
+    panel.setDaemon(true);
+    panel.start();
+    return panel;
+  }
+
+  /**
+   * A sensor node which sends one reading whenever asked to.
+   */
+  private static class LoadClient extends TcpClient {
+    @Override
+    protected Message createNodeTypeMessage() {
+      return new SensorNodeTypeMessage(NODE_ID);
+    }
+
+    @Override
+    protected void processServerMessage(Message message) {
+      // The node has no actuators
+    }
+
+    boolean sendReading(int centiValue) {
+      return sendToServer(new SensorDataMessage(
+          List.of(SensorReading.ofCentiValue("temperature", centiValue, "C")), NODE_ID));
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the gateway client, against a fake server on a loopback socket. Nodes 1 and 2 of
+ * the gateway are running, node 3 is on the gateway but not started.
+ */
+public class GatewayTcpClientTest {
+  private static final int TIMEOUT_MILLIS = 5000;
+  private static final long SENSING_DELAY_MILLIS = 60_000;
+  private static final int FAN = 1;
+  private static final int HEATER = 2;
+
+  private ServerSocket serverSocket;
+  private Socket accepted;
+  private BufferedReader reader;
+  private OutputStream output;
+  private final GatewayTcpClient gateway = new GatewayTcpClient();
+  private final List<SensorActuatorNode> nodes = new ArrayList<>();
+
+  @Before
+  public void connect() throws IOException {
+    serverSocket = new ServerSocket(0);
+    gateway.setServerAddress("localhost", serverSocket.getLocalPort());
+    gateway.setReconnectPolicy(new ReconnectPolicy(50, 500));
+    for (int nodeId = 1; nodeId <= 3; ++nodeId) {
+      SensorActuatorNode node = new SensorActuatorNode(nodeId);
+      node.setSensingDelay(SENSING_DELAY_MILLIS);
+      node.addActuator(new Actuator(FAN, "fan", nodeId));
+      node.addActuator(new Actuator(HEATER, "heater", nodeId));
+      gateway.addNode(node);
+      nodes.add(node);
+    }
+    nodes.get(0).start();
+    nodes.get(1).start();
+    acceptGateway();
+    awaitLines("type=sensor:1;", "type=sensor:2;");
+    awaitAnnouncedNodes(2);
+  }
+
+  @After
+  public void close() throws IOException {
+    gateway.closeSocket();
+    accepted.close();
+    serverSocket.close();
+  }
+
+  private void acceptGateway() throws IOException {
+    serverSocket.setSoTimeout(TIMEOUT_MILLIS);
+    accepted = serverSocket.accept();
+    accepted.setSoTimeout(TIMEOUT_MILLIS);
+    reader = new BufferedReader(
+        new InputStreamReader(accepted.getInputStream(), StandardCharsets.UTF_8));
+    output = accepted.getOutputStream();
+  }
+
+  private void send(String message) throws IOException {
+    output.write((message + "\n").getBytes(StandardCharsets.UTF_8));
+    output.flush();
+  }
+
+  /**
+   * Read the messages from the gateway until each expected one has arrived.
+   *
+   * @param expectedPrefixes The beginnings of the expected messages, in any order
+   * @return All the received messages
+   */
+  private List<String> awaitLines(String... expectedPrefixes) throws IOException {
+    Set<String> missing = new HashSet<>(Arrays.asList(expectedPrefixes));
+    List<String> received = new ArrayList<>();
+    while (!missing.isEmpty()) {
+      String line = reader.readLine();
+      assertTrue("Not received: " + missing + ", received: " + received, line != null);
+      received.add(line);
+      missing.removeIf(line::startsWith);
+    }
+    return received;
+  }
+
+  private void awaitAnnouncedNodes(int expectedCount) {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (gateway.getAnnouncedNodeCount() != expectedCount
+        && System.currentTimeMillis() < deadline) {
+      Thread.onSpinWait();
+    }
+    assertEquals(expectedCount, gateway.getAnnouncedNodeCount());
+  }
+
+  private boolean isOn(int nodeId, int actuatorId) {
+    return nodes.get(nodeId - 1).getActuators().get(actuatorId).isOn();
+  }
+
+  @Test
+  public void anyNodeCommandGoesToEveryAnnouncedNode() throws IOException {
+    send("actuator:*;1,on");
+    // Each node reports its new actuator state
+    awaitLines("actuator:1;1,on", "actuator:2;1,on");
+    assertTrue(isOn(1, FAN));
+    assertTrue(isOn(2, FAN));
+    assertFalse(isOn(3, FAN));
+    assertFalse(isOn(1, HEATER));
+  }
+
+  @Test
+  public void commandGoesToItsNodeOnly() throws IOException {
+    send("actuator:2;2,on");
+    awaitLines("actuator:2;2,on");
+    assertTrue(isOn(2, HEATER));
+    assertFalse(isOn(1, HEATER));
+    assertFalse(isOn(3, HEATER));
+  }
+
+  @Test
+  public void commandForNodeNotOnTheGatewayIsRejected() throws IOException {
+    // Node 3 is on the gateway, but it has not been announced
+    send("actuator:3;1,on");
+    send("actuator:7;1,on");
+    // The commands are processed in order: once this one is done, so are the others
+    send("actuator:1;2,on");
+    List<String> received = awaitLines("actuator:1;2,on");
+    assertFalse(isOn(3, FAN));
+    assertEquals(received.toString(), 1, received.stream()
+        .filter(line -> line.startsWith("actuator:")).count());
+  }
+
+  @Test
+  public void runningNodesAreAnnouncedAgainAfterReconnect() throws IOException {
+    nodes.get(1).setActuator(HEATER, true);
+    awaitLines("actuator:2;2,on");
+    // The server goes away, the gateway connects again
+    accepted.close();
+    acceptGateway();
+    awaitLines("type=sensor:1;", "type=sensor:2;",
+        "actuator:1;1,off", "actuator:1;2,off", "actuator:2;1,off", "actuator:2;2,on");
+    awaitAnnouncedNodes(2);
+    assertEquals(1, gateway.getReconnectCount());
+    assertFalse(nodes.get(2).isRunning());
+  }
+}
@@ -0,0 +1,82 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import no.ntnu.communication.message.ErrorMessage;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDictionaries;
+import org.junit.Test;
+
+/**
+ * Tests for the JSON codec, which is discovered through the ServiceLoader.
+ */
+public class JsonCodecTest {
+  private static final int MAX_FRAME_LENGTH = 1024;
+  private static final String[] MESSAGES = {
+      "type=sensor:13;heater=1,heater=2,fan=3",
+      "type=control",
+      "subscribe:*",
+      "subscribe:3,20-29;temperature,humidity",
+      "sensors:12;temperature,27.12,°C;humidity,80.50,%",
+      "actuator:12;3,on",
+      "actuator:*;*,off",
+      "offline:12",
+      "delta:21;2,1250.00;0,-0.25",
+      "batch:22|1700000000000;light,12.00,lux|250;light,12.50,lux",
+  };
+
+  @Test
+  public void codecIsDiscovered() {
+    MessageCodec codec = MessageCodecs.forName(JsonCodec.NAME);
+    assertTrue(codec instanceof JsonCodec);
+    assertSame(codec, MessageCodecs.forName(JsonCodec.NAME));
+    assertTrue(MessageCodecs.getNames().contains(TextCodec.NAME));
+  }
+
+  @Test
+  public void roundTrip() throws IOException {
+    MessageCodec codec = MessageCodecs.forName(JsonCodec.NAME);
+    for (String text : MESSAGES) {
+      byte[] encoded = codec.encode(MessageSerializer.fromString(text));
+      Frame frame = codec.createDecoder(MAX_FRAME_LENGTH).decode(ByteBuffer.wrap(encoded));
+      assertEquals(text, MessageSerializer.toString(frame.getMessage()));
+      assertEquals(ByteBuffer.wrap(encoded), frame.asByteBuffer(codec));
+    }
+  }
+
+  @Test
+  public void sensorCodesAreResolved() throws IOException {
+    MessageCodec codec = MessageCodecs.forName(JsonCodec.NAME);
+    SensorDictionaries dictionaries = new SensorDictionaries();
+    MessageSerializer.fromString("type=sensor:23;@temperature,°C", dictionaries);
+    Message coded = MessageSerializer.fromString("sensors:23;@0,21.50", dictionaries);
+    String json = new String(codec.encode(coded), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"type\":\"temperature\""));
+    Message message = codec.createDecoder(MAX_FRAME_LENGTH)
+        .decode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8))).getMessage();
+    assertEquals("°C", ((SensorDataMessage) message).getSensors().get(0).getUnit());
+  }
+
+  @Test
+  public void invalidJsonGivesErrorMessage() throws IOException {
+    String[] invalid = {
+        "{\"type\":\"sensorData\",\"nodeId\":12}",
+        "{\"type\":\"offline\",\"nodeId\":\"x\"}",
+        "[1,2]",
+        "{\"type\":\"nodeOffline\",\"nodeId\":12",
+    };
+    MessageCodec codec = MessageCodecs.forName(JsonCodec.NAME);
+    for (String json : invalid) {
+      Frame frame = codec.createDecoder(MAX_FRAME_LENGTH)
+          .decode(ByteBuffer.wrap((json + "\n").getBytes(StandardCharsets.UTF_8)));
+      assertTrue(json, frame.getMessage() instanceof ErrorMessage);
+    }
+  }
+}
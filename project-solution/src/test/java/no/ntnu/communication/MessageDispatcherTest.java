@@ -0,0 +1,67 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.MessageType;
+import org.junit.Test;
+
+/**
+ * Tests for the routing of items to their handlers by the message type.
+ */
+public class MessageDispatcherTest {
+  private final List<String> handled = new ArrayList<>();
+
+  private MessageDispatcher<String> createDispatcher() {
+    return new MessageDispatcher<String>()
+        .register(MessageType.SENSOR_DATA, item -> handled.add("data " + item))
+        .register(MessageType.ACTUATOR_STATE, item -> handled.add("actuator " + item))
+        .setFallback(item -> handled.add("fallback " + item));
+  }
+
+  @Test
+  public void itemGoesToTheHandlerOfItsType() {
+    MessageDispatcher<String> dispatcher = createDispatcher();
+    dispatcher.dispatch(MessageType.SENSOR_DATA, "a");
+    dispatcher.dispatch(MessageType.ACTUATOR_STATE, "b");
+    dispatcher.dispatch(MessageType.SENSOR_DATA, "c");
+    assertEquals(List.of("data a", "actuator b", "data c"), handled);
+  }
+
+  @Test
+  public void registeringAgainReplacesTheHandler() {
+    MessageDispatcher<String> dispatcher = createDispatcher()
+        .register(MessageType.SENSOR_DATA, item -> handled.add("new " + item));
+    dispatcher.dispatch(MessageType.SENSOR_DATA, "a");
+    assertEquals(List.of("new a"), handled);
+  }
+
+  @Test
+  public void unregisteredTypeGoesToTheFallback() {
+    MessageDispatcher<String> dispatcher = createDispatcher();
+    dispatcher.dispatch(MessageType.NODE_OFFLINE, "a");
+    dispatcher.dispatch(MessageType.UNKNOWN, "b");
+    assertEquals(List.of("fallback a", "fallback b"), handled);
+  }
+
+  @Test
+  public void typeOutOfRangeGoesToTheFallback() {
+    MessageDispatcher<String> dispatcher = createDispatcher();
+    dispatcher.dispatch(-1, "a");
+    dispatcher.dispatch(MessageType.COUNT, "b");
+    dispatcher.dispatch(Integer.MAX_VALUE, "c");
+    dispatcher.dispatch(Integer.MIN_VALUE, "d");
+    assertEquals(List.of("fallback a", "fallback b", "fallback c", "fallback d"), handled);
+  }
+
+  @Test
+  public void itemsWithoutAnyFallbackAreIgnored() {
+    MessageDispatcher<String> dispatcher = new MessageDispatcher<String>()
+        .register(MessageType.SENSOR_DATA, item -> handled.add("data " + item));
+    dispatcher.dispatch(MessageType.ERROR, "a");
+    dispatcher.dispatch(-1, "b");
+    dispatcher.dispatch(MessageType.SENSOR_DATA, "c");
+    assertEquals(List.of("data c"), handled);
+  }
+}
@@ -2,17 +2,28 @@ package no.ntnu.communication;
 
 import static no.ntnu.communication.message.ActuatorStateMessage.ANY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
+import java.util.List;
 import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.ErrorMessage;
 import no.ntnu.communication.message.Message;
 import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.MessageType;
+import no.ntnu.communication.message.SensorDictionaries;
+import no.ntnu.communication.message.SensorDictionary;
 import no.ntnu.communication.message.SensorDataMessage;
 import no.ntnu.communication.message.SensorNodeOfflineMessage;
 import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.communication.message.SubscribeMessage;
+import no.ntnu.communication.message.TextMessageEncoder;
 import no.ntnu.greenhouse.Actuator;
 import no.ntnu.greenhouse.SensorActuatorNode;
 import no.ntnu.greenhouse.SensorReading;
@@ -163,6 +174,19 @@ public class MessageSerializerTest {
     assertEquals("offline:3", MessageSerializer.toString(new SensorNodeOfflineMessage(3)));
   }
 
+  @Test
+  public void sensorDataToString() {
+    List<SensorReading> readings = List.of(new SensorReading("temperature", 27.1, "°C"),
+        new SensorReading("humidity", 80.456, "%"), new SensorReading("temperature", -3, "°C"));
+    SensorDataMessage message = new SensorDataMessage(readings, 12);
+    String expected = "sensors:12;temperature,27.10,°C;humidity,80.46,%;temperature,-3.00,°C";
+    assertEquals(expected, MessageSerializer.toString(message));
+
+    ByteBuffer bytes = ByteBuffer.allocate(100);
+    new TextMessageEncoder().encode(message, bytes);
+    assertEquals(ByteBuffer.wrap(expected.getBytes(StandardCharsets.UTF_8)), bytes.flip());
+  }
+
   @Test
   public void stringToNodeOffline() {
     Message m = MessageSerializer.fromString("offline:12");
@@ -170,6 +194,110 @@ public class MessageSerializerTest {
     assertTrue(m instanceof SensorNodeOfflineMessage);
   }
 
+  @Test
+  public void fromStringToSubscribe() {
+    SubscribeMessage all = expectSubscribe("subscribe:*");
+    assertTrue(all.isAnyNode());
+    assertTrue(all.isAnySensorType());
+
+    SubscribeMessage m = expectSubscribe("subscribe:3,20-29;temperature,humidity");
+    assertTrue(m.matchesNode(3));
+    assertTrue(m.matchesNode(20));
+    assertTrue(m.matchesNode(29));
+    assertFalse(m.matchesNode(4));
+    assertFalse(m.matchesNode(30));
+    assertEquals(2, m.getSensorTypes().size());
+    assertTrue(m.getSensorTypes().contains("humidity"));
+
+    assertTrue(expectSubscribe("subscribe:*;temperature").isAnyNode());
+    assertTrue(expectSubscribe("subscribe:1-10;*").isAnySensorType());
+  }
+
+  @Test
+  public void fromStringToInvalidSubscribe() {
+    assertTrue(MessageSerializer.fromString("subscribe:") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("subscribe:ddd") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("subscribe:1-x") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("subscribe:10-1") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("subscribe:1;temperature,") instanceof ErrorMessage);
+  }
+
+  @Test
+  public void subscribeToString() {
+    String[] messages = {"subscribe:*", "subscribe:1-10", "subscribe:3,20-29;temperature,humidity",
+        "subscribe:*;temperature"};
+    for (String message : messages) {
+      assertEquals(message, MessageSerializer.toString(MessageSerializer.fromString(message)));
+    }
+  }
+
+  private static SubscribeMessage expectSubscribe(String messageString) {
+    Message m = MessageSerializer.fromString(messageString);
+    assertTrue(m instanceof SubscribeMessage);
+    return (SubscribeMessage) m;
+  }
+
+  @Test
+  public void sensorCodesDeclaredInHandshake() {
+    SensorDictionaries dictionaries = new SensorDictionaries();
+    String nodeType = "type=sensor:31;window=1;@temperature,°C;@humidity,%";
+    SensorNodeTypeMessage nodeTypeMessage =
+        (SensorNodeTypeMessage) MessageSerializer.fromString(nodeType, dictionaries);
+    assertEquals(nodeType, MessageSerializer.toString(nodeTypeMessage));
+    SensorDictionary dictionary = nodeTypeMessage.getSensorDictionary();
+    assertEquals(2, dictionary.size());
+    assertSame(dictionary, dictionaries.forNode(31));
+
+    String coded = "sensors:31;@0,27.10;@1,80.46;light,1200.00,lux";
+    SensorDataMessage data = (SensorDataMessage) MessageSerializer.fromString(coded, dictionaries);
+    assertEquals(List.of(new SensorReading("temperature", 27.10, "°C"),
+        new SensorReading("humidity", 80.46, "%"), new SensorReading("light", 1200.00, "lux")),
+        data.getSensors());
+    assertSame(dictionary.getType(1), data.getSensors().get(1).getType());
+    assertSame(dictionary.getUnit(1), data.getSensors().get(1).getUnit());
+    assertEquals(coded, MessageSerializer.toString(data));
+
+    assertTrue(MessageSerializer.fromString("sensors:31;@2,1.00", dictionaries)
+        instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("sensors:32;@0,1.00", dictionaries)
+        instanceof ErrorMessage);
+    // The codes are known only on the connection where the node has declared them
+    assertTrue(MessageSerializer.fromString(coded, new SensorDictionaries())
+        instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString(coded) instanceof ErrorMessage);
+  }
+
+  @Test
+  public void batchCarriesTimestampedSamples() {
+    String batch = "batch:33|1700000000000;temperature,27.10,°C|500;temperature,27.25,°C"
+        + "|-20;temperature,27.40,°C";
+    SensorDataMessage message = (SensorDataMessage) MessageSerializer.fromString(batch);
+    assertTrue(message.isBatch());
+    assertEquals(33, message.getNodeId());
+    assertEquals(3, message.getSamples().size());
+    assertEquals(1700000000480L, message.getSamples().get(2).getTimestamp());
+    assertEquals(27.40, message.getSensors().get(0).getValue(), 0.0);
+    assertEquals(batch, MessageSerializer.toString(message));
+
+    assertTrue(MessageSerializer.fromString("batch:33") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("batch:33|1700000000000") instanceof ErrorMessage);
+    assertTrue(MessageSerializer.fromString("batch:33|x;temperature,27.10,°C")
+        instanceof ErrorMessage);
+  }
+
+  @Test
+  public void prefixGivesMessageType() {
+    String[] messages = {"type=sensor:3;window=2", "type=control", "subscribe:1-10",
+        "sensors:12;temperature,27.10,°C", "actuator:12;34,on", "offline:7",
+        "batch:12|1700000000000;temperature,27.10,°C"};
+    for (String message : messages) {
+      assertEquals(message, MessageSerializer.fromString(message).getTypeId(),
+          MessageType.classify(message));
+    }
+    assertEquals(MessageType.UNKNOWN, MessageType.classify("type=controller"));
+    assertEquals(MessageType.UNKNOWN, MessageType.classify(""));
+  }
+
   @Test
   public void fromStringToActuatorTest() {
     expectActuatorState("actuator:12;34,on", 12, 34, true);
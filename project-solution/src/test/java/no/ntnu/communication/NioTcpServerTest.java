@@ -0,0 +1,214 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.MessageSerializer;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the event-loop server, over loopback sockets.
+ */
+public class NioTcpServerTest {
+  private static final int MAX_FRAME_LENGTH = 64 * 1024;
+  private static final int TIMEOUT_MILLIS = 5000;
+
+  private NioTcpServer server;
+  private final List<TestClient> clients = new ArrayList<>();
+
+  /**
+   * A client speaking the protocol over a plain blocking socket.
+   */
+  private static class TestClient {
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+    private final byte[] readBytes = new byte[8192];
+    private ByteBuffer received = ByteBuffer.allocate(0);
+    private MessageCodec codec = MessageCodecs.TEXT;
+    private FrameDecoder decoder = MessageCodecs.TEXT.createDecoder(MAX_FRAME_LENGTH);
+
+    TestClient(int port, int receiveBufferSize) throws IOException {
+      socket = new Socket();
+      if (receiveBufferSize > 0) {
+        socket.setReceiveBufferSize(receiveBufferSize);
+      }
+      socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+      socket.setSoTimeout(TIMEOUT_MILLIS);
+      input = socket.getInputStream();
+      output = socket.getOutputStream();
+    }
+
+    void sendText(String text) throws IOException {
+      output.write(text.getBytes(StandardCharsets.UTF_8));
+      output.flush();
+    }
+
+    void send(String message) throws IOException {
+      output.write(codec.encode(MessageSerializer.fromString(message)));
+      output.flush();
+    }
+
+    void switchCodec(MessageCodec codec) {
+      this.codec = codec;
+      decoder = codec.createDecoder(MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Receive the next message.
+     *
+     * @return The message in the text form, null when the server has closed the connection
+     */
+    String receive() throws IOException {
+      Frame frame = decoder.decode(received);
+      int length = 0;
+      while (frame == null && length >= 0) {
+        length = input.read(readBytes);
+        if (length > 0) {
+          received = ByteBuffer.wrap(readBytes, 0, length);
+          frame = decoder.decode(received);
+        }
+      }
+      return frame != null ? frame.getText() : null;
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  @After
+  public void stop() throws IOException {
+    for (TestClient client : clients) {
+      client.close();
+    }
+    if (server != null) {
+      server.shutdown();
+    }
+  }
+
+  private static int findFreePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private void start(NioTcpServer server) throws InterruptedException {
+    this.server = server;
+    Thread serverThread = new Thread(server::run, "server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    while (!server.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("The server did not start", server.isRunning());
+  }
+
+  private TestClient connect(int receiveBufferSize) throws IOException {
+    TestClient client = new TestClient(server.getPort(), receiveBufferSize);
+    clients.add(client);
+    return client;
+  }
+
+  private TestClient connectPanel() throws IOException {
+    TestClient panel = connect(0);
+    panel.sendText("type=control\n");
+    return panel;
+  }
+
+  private TestClient connectNode(int nodeId) throws IOException {
+    TestClient node = connect(0);
+    node.sendText("type=sensor:" + nodeId + ";fan=1\n");
+    return node;
+  }
+
+  @Test
+  public void handshakeSwitchesCodecAndMessagesAreRelayed() throws Exception {
+    start(new NioTcpServer(findFreePort(), 2));
+    TestClient panel = connect(0);
+    panel.sendText("type=control|codec=binary\n");
+    assertEquals("options:codec=binary", panel.receive());
+    panel.switchCodec(MessageCodecs.BINARY);
+
+    TestClient node = connectNode(1);
+    node.send("sensors:1;temperature,20.00,C");
+    // The text frames of the node reach the panel in the binary form
+    assertEquals("type=sensor:1;fan=1", panel.receive());
+    assertEquals("sensors:1;temperature,20.00,C", panel.receive());
+
+    panel.send(MessageSerializer.toString(new ActuatorStateMessage(1, 1, true)));
+    assertEquals("actuator:1;1,on", node.receive());
+  }
+
+  @Test
+  public void slowReaderGetsEverythingWhenItCatchesUp() throws Exception {
+    NioTcpServer nioServer = new NioTcpServer(findFreePort(), 1);
+    nioServer.setOutboundQueueConfig(1_000_000, OverflowPolicy.DISCONNECT);
+    start(nioServer);
+    // A small receive buffer: the socket of the panel is full long before the last message
+    TestClient panel = connect(4096);
+    panel.sendText("type=control\n");
+    TestClient node = connectNode(1);
+    assertEquals("type=sensor:1;fan=1", panel.receive());
+
+    // Far more than the socket buffers can take while the panel does not read
+    int messageCount = 20_000;
+    StringBuilder messages = new StringBuilder();
+    for (int i = 0; i < messageCount; ++i) {
+      messages.append("sensors:1;temperature,").append(i).append(".00,C\n");
+    }
+    node.sendText(messages.toString());
+    // Let the writes of the server stall, it must wait for the socket to become writable
+    Thread.sleep(300);
+    for (int i = 0; i < messageCount; ++i) {
+      assertEquals("sensors:1;temperature," + i + ".00,C", panel.receive());
+    }
+    assertTrue(server.getWriteStats().toString(), server.getWriteStats().getWrites() > 1);
+  }
+
+  @Test
+  public void failingConnectionDoesNotStopTheOtherClients() throws Exception {
+    // One loop: all the clients share it
+    start(new NioTcpServer(findFreePort(), 1) {
+      @Override
+      public void onSensorData(int nodeId, Frame frame) {
+        if (nodeId == 2) {
+          throw new IllegalStateException("Handling failed");
+        }
+        super.onSensorData(nodeId, frame);
+      }
+    });
+    TestClient panel = connectPanel();
+    TestClient first = connectNode(1);
+    assertEquals("type=sensor:1;fan=1", panel.receive());
+    TestClient second = connectNode(2);
+    assertEquals("type=sensor:2;fan=1", panel.receive());
+
+    second.sendText("sensors:2;temperature,20.00,C\n");
+    assertNull(second.receive());
+    assertEquals("offline:2", panel.receive());
+
+    first.sendText("sensors:1;temperature,21.00,C\n");
+    assertEquals("sensors:1;temperature,21.00,C", panel.receive());
+    TestClient third = connectNode(3);
+    assertEquals("type=sensor:3;fan=1", panel.receive());
+    third.sendText("sensors:3;temperature,22.00,C\n");
+    assertEquals("sensors:3;temperature,22.00,C", panel.receive());
+    assertEquals(2, server.getRegistry().getSensorNodeCount());
+  }
+}
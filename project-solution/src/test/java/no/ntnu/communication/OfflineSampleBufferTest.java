@@ -0,0 +1,57 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorSample;
+import no.ntnu.greenhouse.SensorReading;
+import org.junit.Test;
+
+/**
+ * Tests for the buffer which keeps the sensor samples of a node while it is offline.
+ */
+public class OfflineSampleBufferTest {
+  private static final int NODE_ID = 3;
+
+  private static List<SensorReading> readings(int centiValue) {
+    return List.of(SensorReading.ofCentiValue("temperature", centiValue, "°C"),
+        SensorReading.ofCentiValue("humidity", centiValue + 1, "%"));
+  }
+
+  @Test
+  public void drainsInBatchesOldestFirst() {
+    OfflineSampleBuffer buffer = new OfflineSampleBuffer(10, EvictionPolicy.DROP_OLDEST);
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(buffer.add(1000 + i, readings(i)));
+    }
+    SensorDataMessage batch = buffer.createBatch(NODE_ID, null, 3);
+    assertEquals(3, batch.getSamples().size());
+    assertEquals(5, buffer.getSize());
+    buffer.remove(3);
+    batch = buffer.createBatch(NODE_ID, null, 3);
+    SensorSample first = batch.getSamples().get(0);
+    assertEquals(1003, first.getTimestamp());
+    assertEquals(readings(3), first.getReadings());
+    buffer.remove(2);
+    assertNull(buffer.createBatch(NODE_ID, null, 3));
+  }
+
+  @Test
+  public void overflowIsCountedPerPolicy() {
+    OfflineSampleBuffer oldest = new OfflineSampleBuffer(3, EvictionPolicy.DROP_OLDEST);
+    OfflineSampleBuffer newest = new OfflineSampleBuffer(3, EvictionPolicy.DROP_NEWEST);
+    for (int i = 0; i < 5; ++i) {
+      oldest.add(i, readings(i));
+      newest.add(i, readings(i));
+    }
+    assertFalse(newest.add(5, readings(5)));
+    assertEquals(2, oldest.getDroppedCount());
+    assertEquals(3, newest.getDroppedCount());
+    assertEquals(2, oldest.createBatch(NODE_ID, null, 3).getSamples().get(0).getTimestamp());
+    assertEquals(0, newest.createBatch(NODE_ID, null, 3).getSamples().get(0).getTimestamp());
+  }
+}
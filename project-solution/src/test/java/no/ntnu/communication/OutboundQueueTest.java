@@ -0,0 +1,228 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the outbound queue of a client connection.
+ */
+public class OutboundQueueTest {
+
+  @Test
+  public void latestValueKeepsOnlyNewestSensorDataPerNode() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST,
+        DeliveryMode.LATEST_VALUE);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    queue.offer(sensorData(1, "21.00"));
+    queue.offer(sensorData(1, "22.00"));
+    assertEquals(2, queue.size());
+    assertEquals(2, queue.getReplacedCount());
+    // The newest value of node 1 takes the place of the first one
+    expectNext(queue, "sensors:1;temperature,22.00,C");
+    expectNext(queue, "sensors:2;temperature,30.00,C");
+    assertNull(queue.poll());
+
+    // The slot is free again after the frame is taken
+    queue.offer(sensorData(1, "23.00"));
+    expectNext(queue, "sensors:1;temperature,23.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void latestValueNeverReplacesOtherMessages() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST,
+        DeliveryMode.LATEST_VALUE);
+    queue.offer(Frame.of("type=sensor:1;fan=1"));
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(Frame.of("actuator:1;1,on"));
+    queue.offer(Frame.of("actuator:1;1,off"));
+    queue.offer(sensorData(1, "21.00"));
+    queue.offer(Frame.of("offline:1"));
+    expectNext(queue, "type=sensor:1;fan=1");
+    expectNext(queue, "sensors:1;temperature,21.00,C");
+    expectNext(queue, "actuator:1;1,on");
+    expectNext(queue, "actuator:1;1,off");
+    expectNext(queue, "offline:1");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void droppedSlotIsFreed() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST,
+        DeliveryMode.LATEST_VALUE);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    queue.offer(sensorData(3, "40.00"));
+    assertEquals(1, queue.getDroppedCount());
+    queue.offer(sensorData(1, "21.00"));
+    expectNext(queue, "sensors:3;temperature,40.00,C");
+    expectNext(queue, "sensors:1;temperature,21.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void latestValueDoesNotJumpAheadOfNodeMessages() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST,
+        DeliveryMode.LATEST_VALUE);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(Frame.of("offline:1"));
+    queue.offer(Frame.of("type=sensor:1;fan=1"));
+    queue.offer(sensorData(1, "21.00"));
+    queue.offer(sensorData(1, "22.00"));
+    assertEquals(4, queue.size());
+    assertEquals(1, queue.getReplacedCount());
+    expectNext(queue, "sensors:1;temperature,20.00,C");
+    expectNext(queue, "offline:1");
+    expectNext(queue, "type=sensor:1;fan=1");
+    expectNext(queue, "sensors:1;temperature,22.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void closedSlotStillGetsNewerValuesUntilTheNodeMessage() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST,
+        DeliveryMode.LATEST_VALUE);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(1, "21.00"));
+    queue.offer(Frame.of("offline:1"));
+    queue.offer(sensorData(1, "22.00"));
+    // Taking the closed slot must not free the new one
+    expectNext(queue, "sensors:1;temperature,21.00,C");
+    queue.offer(sensorData(1, "23.00"));
+    expectNext(queue, "offline:1");
+    expectNext(queue, "sensors:1;temperature,23.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void queuedModeDeliversEverything() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(1, "21.00"));
+    expectNext(queue, "sensors:1;temperature,20.00,C");
+    expectNext(queue, "sensors:1;temperature,21.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void dropOldestDropsTheHead() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+    assertTrue(queue.offer(Frame.of("offline:1")));
+    assertTrue(queue.offer(sensorData(2, "20.00")));
+    assertTrue(queue.offer(sensorData(3, "30.00")));
+    assertEquals(2, queue.size());
+    assertEquals(1, queue.getDroppedCount());
+    expectNext(queue, "sensors:2;temperature,20.00,C");
+    expectNext(queue, "sensors:3;temperature,30.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void conflateDropsSensorDataOfTheSameNode() {
+    OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.CONFLATE);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    queue.offer(Frame.of("offline:3"));
+    assertTrue(queue.offer(sensorData(2, "31.00")));
+    assertEquals(1, queue.getDroppedCount());
+    expectNext(queue, "sensors:1;temperature,20.00,C");
+    expectNext(queue, "offline:3");
+    expectNext(queue, "sensors:2;temperature,31.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void conflateDropsSensorDataOfAnotherNode() {
+    OutboundQueue queue = new OutboundQueue(3, OverflowPolicy.CONFLATE);
+    queue.offer(Frame.of("offline:3"));
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    // No sensor data of the node is queued, and other messages are never conflated
+    assertTrue(queue.offer(Frame.of("actuator:4;1,on")));
+    assertEquals(1, queue.getDroppedCount());
+    expectNext(queue, "offline:3");
+    expectNext(queue, "sensors:2;temperature,30.00,C");
+    expectNext(queue, "actuator:4;1,on");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void conflateDropsTheHeadWithoutSensorData() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.CONFLATE);
+    queue.offer(Frame.of("offline:1"));
+    queue.offer(Frame.of("actuator:2;1,on"));
+    assertTrue(queue.offer(sensorData(3, "30.00")));
+    assertEquals(1, queue.getDroppedCount());
+    expectNext(queue, "actuator:2;1,on");
+    expectNext(queue, "sensors:3;temperature,30.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void disconnectRejectsTheMessageWhenFull() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DISCONNECT);
+    assertTrue(queue.offer(sensorData(1, "20.00")));
+    assertTrue(queue.offer(sensorData(2, "30.00")));
+    assertFalse(queue.offer(sensorData(3, "40.00")));
+    assertEquals(2, queue.size());
+    assertEquals(0, queue.getDroppedCount());
+    expectNext(queue, "sensors:1;temperature,20.00,C");
+    expectNext(queue, "sensors:2;temperature,30.00,C");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void deltaIsQueuedWhileInSync() {
+    OutboundQueue queue = new OutboundQueue(10, OverflowPolicy.DROP_OLDEST);
+    // No full readings of the node yet, the delta could not be applied
+    queue.offerSensorDelta(Frame.of("delta:1;0,20.50"), sensorData(1, "20.50"));
+    queue.offerSensorDelta(Frame.of("delta:1;0,21.00"), sensorData(1, "21.00"));
+    expectNext(queue, "sensors:1;temperature,20.50,C");
+    expectNext(queue, "delta:1;0,21.00");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void deltaAfterOverflowIsReplacedByFullReadings() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    // The base of node 1 is dropped
+    queue.offer(sensorData(2, "31.00"));
+    assertEquals(1, queue.getDroppedCount());
+    queue.poll();
+    queue.offerSensorDelta(Frame.of("delta:1;0,20.50"), sensorData(1, "20.50"));
+    expectNext(queue, "sensors:2;temperature,31.00,C");
+    expectNext(queue, "sensors:1;temperature,20.50,C");
+
+    // Back in sync with the full readings, the next delta is sent as it is
+    queue.offerSensorDelta(Frame.of("delta:1;0,20.75"), sensorData(1, "20.75"));
+    expectNext(queue, "delta:1;0,20.75");
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void deltaWhichWouldOverflowIsReplacedByFullReadings() {
+    OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+    queue.offer(sensorData(1, "20.00"));
+    queue.offer(sensorData(2, "30.00"));
+    // The delta would push out the base it depends on
+    queue.offerSensorDelta(Frame.of("delta:1;0,20.50"), sensorData(1, "20.50"));
+    expectNext(queue, "sensors:2;temperature,30.00,C");
+    expectNext(queue, "sensors:1;temperature,20.50,C");
+    assertNull(queue.poll());
+  }
+
+  private static Frame sensorData(int nodeId, String temperature) {
+    return Frame.of("sensors:" + nodeId + ";temperature," + temperature + ",C");
+  }
+
+  private static void expectNext(OutboundQueue queue, String expectedMessage) {
+    assertEquals(expectedMessage, queue.poll().getText());
+  }
+}
@@ -0,0 +1,94 @@
+package no.ntnu.communication;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.TextMessageParser;
+
+/**
+ * Measures the time and the garbage (allocated bytes) per parsed text message: creating message
+ * objects with MessageSerializer.fromString() versus reading the fields straight from a reused
+ * TextMessageParser, from a String and from a direct ByteBuffer.
+ * Not a unit test - run it manually:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes no.ntnu.communication.ParserBenchmark
+ * </pre>
+ * The allocated bytes are counted by the JVM for the current thread (HotSpot only), the best of
+ * the measured rounds is reported.
+ */
+public class ParserBenchmark {
+  private static final int WARMUP_ROUNDS = 10;
+  private static final int MEASURED_ROUNDS = 10;
+  private static final int MESSAGES_PER_ROUND = 500000;
+  private static final String[] SAMPLE_MESSAGES = {
+      "sensors:3;temperature,27.12,°C;humidity,80.5,%",
+      "sensors:17;temperature,22.4,°C;temperature,26.0,°C;humidity,81.0,%",
+      "sensors:5;humidity,78.25,%",
+      "actuator:17;2,on",
+  };
+
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  // Prevents the JIT from removing the measured work
+  private static long sink;
+
+  private interface Parse {
+    void run(int index);
+  }
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args Not used
+   */
+  public static void main(String[] args) {
+    ByteBuffer[] buffers = new ByteBuffer[SAMPLE_MESSAGES.length];
+    for (int i = 0; i < buffers.length; ++i) {
+      byte[] bytes = SAMPLE_MESSAGES[i].getBytes(StandardCharsets.UTF_8);
+      buffers[i] = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
+    TextMessageParser parser = new TextMessageParser();
+
+    System.out.printf("%-22s %10s %10s%n", "", "ns/msg", "bytes/msg");
+    benchmark("fromString", i -> sink += MessageSerializer.fromString(SAMPLE_MESSAGES[i])
+        .hashCode());
+    benchmark("parser, String", i -> {
+      parser.parse(SAMPLE_MESSAGES[i]);
+      consume(parser);
+    });
+    benchmark("parser, ByteBuffer", i -> {
+      parser.parse(buffers[i]);
+      consume(parser);
+    });
+    System.out.println("(sink: " + sink + ")");
+  }
+
+  private static void consume(TextMessageParser parser) {
+    sink += parser.getNodeId();
+    for (int i = 0; i < parser.getReadingCount(); ++i) {
+      sink += parser.getSensorCentiValue(i) + parser.getSensorType(i).length();
+    }
+  }
+
+  private static void benchmark(String name, Parse parse) {
+    double bestNanos = Double.MAX_VALUE;
+    double bestBytes = Double.MAX_VALUE;
+    for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; ++round) {
+      long startBytes = THREADS.getCurrentThreadAllocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < MESSAGES_PER_ROUND; ++i) {
+        parse.run(i % SAMPLE_MESSAGES.length);
+      }
+      long nanos = System.nanoTime() - start;
+      long bytes = THREADS.getCurrentThreadAllocatedBytes() - startBytes;
+      if (round >= WARMUP_ROUNDS) {
+        bestNanos = Math.min(bestNanos, (double) nanos / MESSAGES_PER_ROUND);
+        bestBytes = Math.min(bestBytes, (double) bytes / MESSAGES_PER_ROUND);
+      }
+    }
+    System.out.printf("%-22s %10.1f %10.1f%n", name, bestNanos, bestBytes);
+  }
+}
@@ -0,0 +1,40 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Tests for the backoff of the reconnecting clients.
+ */
+public class ReconnectPolicyTest {
+  @Test
+  public void delayDoublesUpToMaximum() {
+    ReconnectPolicy policy = new ReconnectPolicy(100, 1000);
+    Random random = new Random(42);
+    long[] expected = {100, 200, 400, 800, 1000, 1000};
+    for (int attempt = 0; attempt < expected.length; ++attempt) {
+      for (int i = 0; i < 100; ++i) {
+        long delay = policy.getDelayMillis(attempt, random);
+        assertTrue(delay + " at attempt " + attempt,
+            delay >= expected[attempt] / 2 && delay <= expected[attempt]);
+      }
+    }
+    assertTrue(policy.getDelayMillis(Integer.MAX_VALUE, random) <= 1000);
+  }
+
+  @Test
+  public void delaysAreSpread() {
+    ReconnectPolicy policy = new ReconnectPolicy(1000, 1000);
+    Random random = new Random(7);
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (int i = 0; i < 1000; ++i) {
+      long delay = policy.getDelayMillis(0, random);
+      min = Math.min(min, delay);
+      max = Math.max(max, delay);
+    }
+    assertTrue(min < 550 && max > 950);
+  }
+}
@@ -0,0 +1,44 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.greenhouse.SensorReading;
+import org.junit.Test;
+
+public class SensorBatcherTest {
+  @Test
+  public void batchIsSentWhenFull() {
+    SensorBatcher batcher = new SensorBatcher();
+    batcher.setLimits(3, 10000);
+    SensorReading reading = new SensorReading("temperature", 20.0, "°C");
+    assertNull(batcher.add(1, 1000, List.of(reading), null));
+    reading.setValue(21.0);
+    assertNull(batcher.add(1, 1100, List.of(reading), null));
+    reading.setValue(22.0);
+    SensorDataMessage batch = batcher.add(1, 1200, List.of(reading), null);
+    assertNotNull(batch);
+    assertEquals(3, batch.getSamples().size());
+    // The readings are copied when they are added, not shared with the sensors
+    assertEquals(20.0, batch.getSamples().get(0).getReadings().get(0).getValue(), 0.0);
+    assertEquals(22.0, batch.getSensors().get(0).getValue(), 0.0);
+    assertEquals(0, batcher.getSampleCount());
+  }
+
+  @Test
+  public void batchIsSentWhenDue() {
+    SensorBatcher batcher = new SensorBatcher();
+    batcher.setLimits(100, 500);
+    List<SensorReading> readings = List.of(new SensorReading("humidity", 80.0, "%"));
+    assertNull(batcher.add(1, 1000, readings, null));
+    assertNull(batcher.flushIfDue(1499));
+    assertEquals(1, batcher.flushIfDue(1500).getSamples().size());
+    assertNull(batcher.flush());
+
+    assertNull(batcher.add(1, 2000, readings, null));
+    assertEquals(2, batcher.add(1, 2600, readings, null).getSamples().size());
+  }
+}
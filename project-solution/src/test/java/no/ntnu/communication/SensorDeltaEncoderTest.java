@@ -0,0 +1,70 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorDeltaMessage;
+import no.ntnu.greenhouse.SensorReading;
+import org.junit.Test;
+
+/**
+ * Tests for the keyframe/delta decisions of the sensor nodes.
+ */
+public class SensorDeltaEncoderTest {
+  private static final int NODE_ID = 4;
+
+  private final SensorReading temperature = new SensorReading("temperature", 20.0, "°C");
+  private final SensorReading humidity = new SensorReading("humidity", 80.0, "%");
+  private final List<SensorReading> readings = List.of(temperature, humidity);
+
+  @Test
+  public void onlyChangesBeyondDeadbandAreSent() {
+    SensorDeltaEncoder encoder = new SensorDeltaEncoder();
+    encoder.setDeadband("humidity", 0.5);
+    assertTrue(encoder.createReport(NODE_ID, readings, null) instanceof SensorDataMessage);
+    assertNull(encoder.createReport(NODE_ID, readings, null));
+
+    humidity.setValue(80.4);
+    temperature.setValue(20.01);
+    SensorDeltaMessage delta = (SensorDeltaMessage) encoder.createReport(NODE_ID, readings, null);
+    assertEquals(1, delta.getChangeCount());
+    assertEquals(0, delta.getSensorIndex(0));
+
+    // The deadband is measured from the last sent value, small steps add up
+    humidity.setValue(80.6);
+    delta = (SensorDeltaMessage) encoder.createReport(NODE_ID, readings, null);
+    assertEquals(1, delta.getSensorIndex(0));
+    assertEquals(8060, delta.getCentiValue(0));
+  }
+
+  @Test
+  public void keyframesAreSentPeriodically() {
+    SensorDeltaEncoder encoder = new SensorDeltaEncoder();
+    encoder.setKeyframeInterval(3);
+    int keyframes = 0;
+    for (int i = 0; i < 9; ++i) {
+      temperature.setValue(20.0 + i);
+      Message report = encoder.createReport(NODE_ID, readings, null);
+      if (report instanceof SensorDataMessage) {
+        keyframes++;
+      }
+    }
+    assertEquals(3, keyframes);
+    encoder.reset();
+    assertTrue(encoder.createReport(NODE_ID, readings, null) instanceof SensorDataMessage);
+  }
+
+  @Test
+  public void deltaRestoresFullReadings() {
+    SensorDeltaMessage delta = new SensorDeltaMessage(NODE_ID);
+    delta.addChange(1, 7550);
+    List<SensorReading> restored = delta.applyTo(readings);
+    assertEquals(temperature, restored.get(0));
+    assertEquals(new SensorReading("humidity", 75.5, "%"), restored.get(1));
+    assertEquals(80.0, humidity.getValue(), 0.0);
+  }
+}
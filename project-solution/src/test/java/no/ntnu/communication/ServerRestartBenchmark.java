@@ -0,0 +1,190 @@
+package no.ntnu.communication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.SensorDataMessage;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.greenhouse.SensorReading;
+
+/**
+ * A server restart benchmark: many reconnecting sensor nodes send sensor data to a server, the
+ * server is killed and started again, the benchmark measures how long it takes until every node
+ * has reconnected and replayed its handshake (time to full recovery), and how the reconnections
+ * are spread in time by the backoff jitter.
+ * Not a unit test - run it manually:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes no.ntnu.communication.ServerRestartBenchmark \
+ *     500 1000
+ * </pre>
+ */
+public class ServerRestartBenchmark {
+  private static final int DEFAULT_NODE_COUNT = 500;
+  private static final long DEFAULT_DOWNTIME_MILLIS = 1000;
+  private static final int PORT = 1314;
+  private static final long SENSING_INTERVAL_MILLIS = 100;
+  private static final ReconnectPolicy POLICY = new ReconnectPolicy(100, 2000);
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args Optionally the number of nodes and the time the server is down, in
+   *             milliseconds
+   */
+  public static void main(String[] args) throws Exception {
+    int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NODE_COUNT;
+    long downtime = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_DOWNTIME_MILLIS;
+    new ServerRestartBenchmark().run(nodeCount, downtime);
+    System.exit(0);
+  }
+
+  private void run(int nodeCount, long downtime) throws Exception {
+    CountingServer first = startServer(nodeCount);
+    List<LoadClient> clients = new ArrayList<>(nodeCount);
+    for (int i = 0; i < nodeCount; ++i) {
+      LoadClient client = new LoadClient(i);
+      client.setServerAddress("localhost", PORT);
+      client.setReconnectPolicy(POLICY);
+      if (!client.openSocket()) {
+        throw new IllegalStateException("Node " + i + " could not connect");
+      }
+      clients.add(client);
+    }
+    if (!first.allRegistered.await(30, TimeUnit.SECONDS)) {
+      throw new IllegalStateException("Not all the nodes connected to the first server");
+    }
+    Thread load = startLoad(clients);
+    Thread.sleep(1000);
+    System.out.println(nodeCount + " nodes connected, " + first.sensorDataCount.get()
+        + " sensor messages received; killing the server");
+
+    first.shutdown();
+    Thread.sleep(downtime);
+    CountingServer second = startServer(nodeCount);
+    long restarted = second.startTime;
+    boolean recovered = second.allRegistered.await(60, TimeUnit.SECONDS);
+    long recoveryMillis = (System.nanoTime() - restarted) / 1000000;
+    Thread.sleep(1000);
+    load.interrupt();
+
+    long[] delays = second.getRegistrationDelaysMillis();
+    int reconnections = 0;
+    for (LoadClient client : clients) {
+      reconnections += client.getReconnectCount();
+    }
+    System.out.println("Server down for " + downtime + " ms, " + POLICY);
+    System.out.println(recovered ? "Full recovery after " + recoveryMillis + " ms"
+        : "NOT recovered: " + delays.length + " of " + nodeCount + " nodes after 60 s");
+    System.out.println("Reconnections: " + reconnections + ", after the restart: p50 "
+        + percentile(delays, 50) + " ms, p99 " + percentile(delays, 99) + " ms, max "
+        + percentile(delays, 100) + " ms");
+    System.out.println("Sensor messages received by the restarted server: "
+        + second.sensorDataCount.get());
+  }
+
+  private static CountingServer startServer(int nodeCount) throws InterruptedException {
+    CountingServer server = new CountingServer(nodeCount);
+    Thread serverThread = new Thread(server::run, "server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    while (!server.isRunning()) {
+      Thread.sleep(10);
+    }
+    return server;
+  }
+
+  private static Thread startLoad(List<LoadClient> clients) {
+    Thread load = new Thread(() -> {
+      int value = 0;
+      try {
+        while (!Thread.currentThread().isInterrupted()) {
+          for (LoadClient client : clients) {
+            client.sendReading(value);
+          }
+          value++;
+          Thread.sleep(SENSING_INTERVAL_MILLIS);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }, "load");
+    load.setDaemon(true);
+    load.start();
+    return load;
+  }
+
+  private static long percentile(long[] sorted, int percent) {
+    long value = 0;
+    if (sorted.length > 0) {
+      int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+      value = sorted[Math.max(index, 0)];
+    }
+    return value;
+  }
+
+  /**
+   * A server which records when each node has registered.
+   */
+  private static class CountingServer extends TcpServer {
+    private final long startTime = System.nanoTime();
+    private final long[] registeredTimes;
+    private final CountDownLatch allRegistered;
+    private final AtomicLong sensorDataCount = new AtomicLong();
+
+    CountingServer(int nodeCount) {
+      super(PORT, ThreadingMode.PLATFORM.createExecutor("client-handler-"));
+      registeredTimes = new long[nodeCount];
+      allRegistered = new CountDownLatch(nodeCount);
+    }
+
+    @Override
+    public void onSensorNodeConnected(SensorNodeTypeMessage message, ClientConnection client) {
+      super.onSensorNodeConnected(message, client);
+      registeredTimes[message.getNodeId()] = System.nanoTime();
+      allRegistered.countDown();
+    }
+
+    @Override
+    public void onSensorData(int nodeId, Frame frame) {
+      sensorDataCount.incrementAndGet();
+    }
+
+    long[] getRegistrationDelaysMillis() {
+      long[] delays = Arrays.stream(registeredTimes).filter(t -> t != 0)
+          .map(t -> (t - startTime) / 1000000).toArray();
+      Arrays.sort(delays);
+      return delays;
+    }
+  }
+
+  /**
+   * A sensor node which sends one reading whenever asked to.
+   */
+  private static class LoadClient extends TcpClient {
+    private final int nodeId;
+
+    LoadClient(int nodeId) {
+      this.nodeId = nodeId;
+    }
+
+    @Override
+    protected Message createNodeTypeMessage() {
+      return new SensorNodeTypeMessage(nodeId);
+    }
+
+    @Override
+    protected void processServerMessage(Message message) {
+      // The nodes of the benchmark have no actuators
+    }
+
+    void sendReading(int centiValue) {
+      sendToServer(new SensorDataMessage(
+          List.of(SensorReading.ofCentiValue("temperature", centiValue, "°C")), nodeId));
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.communication.message.ActuatorStateMessage;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.SensorNodeTypeMessage;
+import no.ntnu.greenhouse.Actuator;
+import no.ntnu.greenhouse.SensorActuatorNode;
+import org.junit.Test;
+
+/**
+ * Tests for the recovery after a server restart: every sensor/actuator node reconnects to the
+ * new server on the same port, replays its handshake and reports its actuator states.
+ */
+public class ServerRestartTest {
+  private static final int NODE_COUNT = 5;
+  private static final int ACTUATORS_PER_NODE = 2;
+  private static final long RECOVERY_TIMEOUT_SECONDS = 10;
+  private static final ReconnectPolicy POLICY = new ReconnectPolicy(50, 500);
+
+  /**
+   * A server which records the nodes and the actuator states reported to it.
+   */
+  private static class RecordingServer extends TcpServer {
+    private final Map<Integer, String> handshakes = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> actuatorStates = new ConcurrentHashMap<>();
+    private final CountDownLatch allRegistered = new CountDownLatch(NODE_COUNT);
+    private final CountDownLatch allActuatorsReported =
+        new CountDownLatch(NODE_COUNT * ACTUATORS_PER_NODE);
+
+    RecordingServer(int port) {
+      super(port, ThreadingMode.PLATFORM.createExecutor("client-handler-"));
+    }
+
+    @Override
+    public void onSensorNodeConnected(SensorNodeTypeMessage message, ClientConnection client) {
+      super.onSensorNodeConnected(message, client);
+      handshakes.put(message.getNodeId(), MessageSerializer.toString(message));
+      allRegistered.countDown();
+    }
+
+    @Override
+    public void onActuatorState(ActuatorStateMessage message, Frame frame) {
+      super.onActuatorState(message, frame);
+      String key = message.getNodeId() + "/" + message.getActuatorId();
+      if (actuatorStates.put(key, message.isOn()) == null) {
+        allActuatorsReported.countDown();
+      }
+    }
+  }
+
+  private static int findFreePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static RecordingServer startServer(int port) throws InterruptedException {
+    RecordingServer server = new RecordingServer(port);
+    Thread serverThread = new Thread(server::run, "server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+    while (!server.isRunning() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("The server did not start", server.isRunning());
+    return server;
+  }
+
+  private static SensorActuatorNode createNode(int nodeId) {
+    SensorActuatorNode node = new SensorActuatorNode(nodeId);
+    node.addActuator(new Actuator(1, "fan", nodeId));
+    node.addActuator(new Actuator(2, "heater", nodeId));
+    // A different state on every node, so that the states can't be mixed up
+    node.getActuators().get(1).set(nodeId % 2 == 0);
+    node.getActuators().get(2).set(nodeId % 3 == 0);
+    return node;
+  }
+
+  @Test
+  public void nodesReconnectAndReplayTheirStateAfterRestart() throws Exception {
+    int port = findFreePort();
+    RecordingServer first = startServer(port);
+    List<SensorActuatorNode> nodes = new ArrayList<>();
+    List<SensorActuatorTcpClient> clients = new ArrayList<>();
+    RecordingServer second = null;
+    try {
+      for (int i = 1; i <= NODE_COUNT; ++i) {
+        SensorActuatorNode node = createNode(i);
+        SensorActuatorTcpClient client = new SensorActuatorTcpClient(node);
+        client.setServerAddress("localhost", port);
+        client.setReconnectPolicy(POLICY);
+        assertTrue(client.openSocket());
+        nodes.add(node);
+        clients.add(client);
+      }
+      assertTrue(first.allRegistered.await(RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      Map<Integer, String> expectedHandshakes = new HashMap<>(first.handshakes);
+
+      first.shutdown();
+      second = startServer(port);
+      assertTrue("Not all the nodes have reconnected: " + second.handshakes.keySet(),
+          second.allRegistered.await(RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+      assertTrue("Not all the actuator states were reported: " + second.actuatorStates,
+          second.allActuatorsReported.await(RECOVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+      assertEquals(expectedHandshakes, second.handshakes);
+      for (SensorActuatorNode node : nodes) {
+        for (Actuator actuator : node.getActuators()) {
+          assertEquals(actuator.toString(), actuator.isOn(),
+              second.actuatorStates.get(node.getId() + "/" + actuator.getId()));
+        }
+      }
+      assertEquals(NODE_COUNT, second.getRegistry().getSensorNodeCount());
+      for (SensorActuatorTcpClient client : clients) {
+        assertEquals(1, client.getReconnectCount());
+      }
+    } finally {
+      for (SensorActuatorTcpClient client : clients) {
+        client.closeSocket();
+      }
+      first.shutdown();
+      if (second != null) {
+        second.shutdown();
+      }
+    }
+  }
+}
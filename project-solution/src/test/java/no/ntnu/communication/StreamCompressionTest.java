@@ -0,0 +1,47 @@
+package no.ntnu.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class StreamCompressionTest {
+  private static final int FRAME_COUNT = 100;
+
+  @Test
+  public void everyFrameCanBeDecompressedRightAway() throws IOException {
+    CompressionStats stats = new CompressionStats();
+    StreamCompression sender = new StreamCompression(stats);
+    StreamCompression receiver = new StreamCompression(stats);
+    byte[] plain = new byte[16];
+    for (int i = 0; i < FRAME_COUNT; ++i) {
+      String frame = "sensors:" + i + ";temperature,27." + (i % 10) + "0,°C;humidity,80.00,%\n";
+      ByteBuffer compressed = sender.compress(frame.getBytes(StandardCharsets.UTF_8));
+      // The decompressed bytes are read through a small array, in several pieces
+      receiver.setInput(compressed);
+      ByteArrayOutputStream received = new ByteArrayOutputStream();
+      int length = receiver.decompress(plain);
+      while (length > 0) {
+        received.write(plain, 0, length);
+        length = receiver.decompress(plain);
+      }
+      assertEquals(frame, received.toString(StandardCharsets.UTF_8));
+    }
+    assertEquals(stats.getPlainBytesOut(), stats.getPlainBytesIn());
+    assertEquals(stats.getCompressedBytesOut(), stats.getCompressedBytesIn());
+    assertTrue(stats.getCompressionRatio() < 0.5);
+    sender.close();
+    receiver.close();
+  }
+
+  @Test(expected = IOException.class)
+  public void closedCompressionCantBeUsed() throws IOException {
+    StreamCompression compression = new StreamCompression(new CompressionStats());
+    compression.close();
+    compression.compress(new byte[] {1, 2, 3});
+  }
+}
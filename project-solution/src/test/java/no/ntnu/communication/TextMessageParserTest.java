@@ -0,0 +1,111 @@
+package no.ntnu.communication;
+
+import static no.ntnu.communication.message.ActuatorStateMessage.ANY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import no.ntnu.communication.message.Message;
+import no.ntnu.communication.message.MessageSerializer;
+import no.ntnu.communication.message.TextMessageParser;
+import no.ntnu.communication.message.TextMessageParser.Result;
+import org.junit.Test;
+
+/**
+ * Tests for the garbage-free text message parser. MessageSerializerTest covers the message
+ * formats, here the parser is used directly.
+ */
+public class TextMessageParserTest {
+  private static final String[] MESSAGES = {
+      "sensors:12;temperature,27.12,°C;humidity,80.5,%",
+      "sensors:12;temperature,-3,°C;",
+      "sensors:12",
+      "sensors:12;temperature,1.5E3,°C",
+      "sensors:12;temperature,27,C;humidity,78",
+      "actuator:12;34,on",
+      "actuator:*;*,off",
+      "actuator:12;x,on",
+      "offline:7",
+      "offline:",
+      "type=control",
+  };
+
+  @Test
+  public void bytesAndCharsGiveSameResult() {
+    TextMessageParser charParser = new TextMessageParser();
+    TextMessageParser byteParser = new TextMessageParser();
+    for (String message : MESSAGES) {
+      byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 2);
+      buffer.put((byte) '\n').put(bytes).put((byte) '\n');
+      buffer.position(1).limit(bytes.length + 1);
+      assertEquals(message, charParser.parse(message), byteParser.parse(buffer));
+      assertEquals(1, buffer.position());
+      assertEquals(message, serialize(charParser.toMessage()), serialize(byteParser.toMessage()));
+      assertEquals(charParser.getReadingCount(), byteParser.getReadingCount());
+      for (int i = 0; i < charParser.getReadingCount(); ++i) {
+        assertEquals(charParser.getSensorType(i), byteParser.getSensorType(i));
+        assertEquals(charParser.getSensorValue(i), byteParser.getSensorValue(i), 0.0);
+        assertEquals(charParser.getSensorUnit(i), byteParser.getSensorUnit(i));
+      }
+    }
+  }
+
+  private static String serialize(Message message) {
+    return message != null ? MessageSerializer.toString(message) : null;
+  }
+
+  @Test
+  public void fieldsAreParsed() {
+    TextMessageParser parser = new TextMessageParser();
+    assertEquals(Result.SENSOR_DATA, parser.parse(MESSAGES[0]));
+    assertEquals(12, parser.getNodeId());
+    assertEquals(2, parser.getReadingCount());
+    assertEquals("humidity", parser.getSensorType(1));
+    assertEquals(80.5, parser.getSensorValue(1), 0.0);
+    assertEquals("°C", parser.getSensorUnit(0));
+    assertEquals(Result.ACTUATOR_STATE, parser.parse(MESSAGES[6]));
+    assertEquals(ANY, parser.getNodeId());
+    assertEquals(ANY, parser.getActuatorId());
+    assertEquals(false, parser.isOn());
+    assertEquals(Result.INVALID, parser.parse(MESSAGES[7]));
+    assertEquals(Result.INVALID, parser.parse(MESSAGES[9]));
+    assertEquals(Result.OTHER, parser.parse(MESSAGES[10]));
+  }
+
+  @Test
+  public void sensorTypesAndUnitsAreReused() {
+    TextMessageParser parser = new TextMessageParser();
+    parser.parse(MESSAGES[0]);
+    String type = parser.getSensorType(0);
+    String unit = parser.getSensorUnit(0);
+    parser.parse(new StringBuilder(MESSAGES[1]));
+    assertSame(type, parser.getSensorType(0));
+    assertSame(unit, parser.getSensorUnit(0));
+  }
+
+  @Test
+  public void valuesEqualDoubleParsing() {
+    TextMessageParser parser = new TextMessageParser();
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; ++i) {
+      String value = Double.toString(Math.round(random.nextGaussian() * 1e6) / 100.0);
+      parser.parse("sensors:1;temperature," + value + ",C");
+      assertEquals(value, Double.parseDouble(value), parser.getSensorValue(0), 0.0);
+    }
+  }
+
+  @Test
+  public void valuesAreExactCentiUnits() {
+    TextMessageParser parser = new TextMessageParser();
+    String[] values = {"0.1", "27.12", "-3", "80.", "+0.07", "1.5E3", "-2.346"};
+    int[] centiValues = {10, 2712, -300, 8000, 7, 150000, -235};
+    for (int i = 0; i < values.length; ++i) {
+      parser.parse("sensors:1;temperature," + values[i] + ",C");
+      assertEquals(values[i], centiValues[i], parser.getSensorCentiValue(0));
+    }
+    assertEquals(Result.INVALID, parser.parse("sensors:1;temperature,99999999999,C"));
+  }
+}
@@ -0,0 +1,73 @@
+package no.ntnu.greenhouse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Tests for the greenhouse topology descriptions and the bulk creation of nodes.
+ */
+public class GreenhouseTopologyTest {
+  @Test
+  public void parsesZones() {
+    GreenhouseTopology topology = GreenhouseTopology.parse(List.of(
+        "# comment",
+        "",
+        "zone=north nodes=20 temperature=1 humidity=2 window=1 interval=500",
+        "zone=south nodes=5 fan=2 heater=1"));
+    assertEquals(2, topology.getZones().size());
+    assertEquals(25, topology.getNodeCount());
+    GreenhouseTopology.Zone north = topology.getZones().get(0);
+    assertEquals("north", north.getName());
+    assertEquals(2, north.getHumiditySensorCount());
+    assertEquals(500, north.getSensingDelay());
+    GreenhouseTopology.Zone south = topology.getZones().get(1);
+    assertEquals(0, south.getTemperatureSensorCount());
+    assertEquals(2, south.getFanCount());
+    assertEquals(0, south.getSensingDelay());
+  }
+
+  @Test
+  public void rejectsInvalidZones() {
+    String[] invalid = {
+        "nodes=5", "zone=a", "zone=a nodes=5 lamp=1", "zone=a nodes=5 fan=-1",
+        "zone=a nodes=x", "zone=a nodes=5 interval=0", "zone=a nodes=5 fan"
+    };
+    for (String line : invalid) {
+      try {
+        GreenhouseTopology.parse(List.of(line));
+        throw new AssertionError("Accepted " + line);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Line 1: "));
+      }
+    }
+  }
+
+  @Test
+  public void createsNodesWithUniqueIdsInParallel() {
+    GreenhouseTopology topology = GreenhouseTopology.parse(List.of(
+        "zone=a nodes=2000 temperature=1 window=1 fan=2",
+        "zone=b nodes=1000 humidity=1 heater=1"));
+    Set<Integer> nodeIds = new HashSet<>();
+    Set<Integer> actuatorIds = new HashSet<>();
+    for (GreenhouseTopology.Zone zone : topology.getZones()) {
+      List<SensorActuatorNode> nodes = DeviceFactory.createNodes(zone);
+      assertEquals(zone.getNodeCount(), nodes.size());
+      for (SensorActuatorNode node : nodes) {
+        assertTrue(nodeIds.add(node.getId()));
+        for (Actuator actuator : node.getActuators()) {
+          assertTrue(actuatorIds.add(actuator.getId()));
+          assertEquals(node.getId(), actuator.getNodeId());
+          assertNotNull(node.getActuators().get(actuator.getId()));
+        }
+      }
+    }
+    assertEquals(3000, nodeIds.size());
+    assertEquals(2000 * 3 + 1000, actuatorIds.size());
+  }
+}
@@ -0,0 +1,89 @@
+package no.ntnu.greenhouse;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import no.ntnu.tools.Scheduler;
+
+/**
+ * A scaling benchmark of the sensor sampling: starts many simulated nodes (without any network
+ * connections), lets them tick for a while and reports the sampling rate, the number of live
+ * threads and how evenly the ticks are spread in time.
+ * Not a unit test - run it manually:
+ * <pre>
+ * mvn test-compile
+ * java -cp target/classes:target/test-classes no.ntnu.greenhouse.NodeSchedulingBenchmark \
+ *     100000 1000 5
+ * </pre>
+ */
+public class NodeSchedulingBenchmark {
+  private static final int DEFAULT_NODE_COUNT = 100000;
+  private static final long DEFAULT_SENSING_DELAY_MILLIS = 1000;
+  private static final int DEFAULT_DURATION_SECONDS = 5;
+  // The ticks are counted per slot of this length, to see how evenly they are spread
+  private static final int SLOT_MILLIS = 10;
+  private static final PrintStream RESULTS = System.out;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args Optionally the number of nodes, the sensing delay in milliseconds and the
+   *             duration in seconds
+   */
+  public static void main(String[] args) throws Exception {
+    int nodeCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NODE_COUNT;
+    long sensingDelay = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SENSING_DELAY_MILLIS;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DURATION_SECONDS;
+    // Every tick logs the readings, that would measure the console instead of the scheduling
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+    int threadsBefore = Thread.activeCount();
+    int slotCount = (int) (seconds * 1000L / SLOT_MILLIS) + 1;
+    AtomicLongArray ticksPerSlot = new AtomicLongArray(slotCount);
+    long start = System.currentTimeMillis();
+    List<SensorActuatorNode> nodes = new ArrayList<>(nodeCount);
+    for (int i = 0; i < nodeCount; ++i) {
+      SensorActuatorNode node = new SensorActuatorNode(i);
+      node.addSensors(DeviceFactory.createTemperatureSensor(), 1);
+      node.setSensingDelay(sensingDelay);
+      node.addSensorListener(sensors -> {
+        int slot = (int) ((System.currentTimeMillis() - start) / SLOT_MILLIS);
+        if (slot < slotCount) {
+          ticksPerSlot.incrementAndGet(slot);
+        }
+      });
+      node.start();
+      nodes.add(node);
+    }
+    long startupMillis = System.currentTimeMillis() - start;
+    int scheduledTasks = Scheduler.getScheduledTaskCount();
+    Thread.sleep(seconds * 1000L);
+    int threadsDuring = Thread.activeCount();
+    for (SensorActuatorNode node : nodes) {
+      node.stop();
+    }
+
+    // Skip the slots of the start-up, when not all the nodes are ticking yet
+    int firstSlot = (int) ((startupMillis + sensingDelay) / SLOT_MILLIS);
+    long total = 0;
+    long busiest = 0;
+    int measuredSlots = 0;
+    for (int slot = firstSlot; slot < slotCount - 1; ++slot) {
+      total += ticksPerSlot.get(slot);
+      busiest = Math.max(busiest, ticksPerSlot.get(slot));
+      measuredSlots++;
+    }
+    long average = measuredSlots > 0 ? total / measuredSlots : 0;
+    RESULTS.println(nodeCount + " nodes started in " + startupMillis + " ms, "
+        + scheduledTasks + " scheduled tasks");
+    RESULTS.println("  live threads: " + threadsBefore + " before, " + threadsDuring
+        + " while running");
+    RESULTS.println("  ticks per " + SLOT_MILLIS + " ms: " + average + " on average, "
+        + busiest + " at most (ideal " + nodeCount * SLOT_MILLIS / sensingDelay + ")");
+    RESULTS.println("  sampling rate: " + total * 1000 / Math.max(1, measuredSlots * SLOT_MILLIS)
+        + " ticks/s");
+    System.exit(0);
+  }
+}
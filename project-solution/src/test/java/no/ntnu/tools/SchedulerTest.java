@@ -0,0 +1,48 @@
+package no.ntnu.tools;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Tests for the shared scheduler.
+ */
+public class SchedulerTest {
+  @Test
+  public void consecutiveKeysAreSpreadAcrossPeriod() {
+    long period = 1000;
+    int bucketCount = 10;
+    int keyCount = 1000;
+    int[] buckets = new int[bucketCount];
+    for (int key = 0; key < keyCount; ++key) {
+      long delay = Scheduler.getSpreadDelay(key, period);
+      assertTrue(delay + " for key " + key, delay >= 0 && delay < period);
+      buckets[(int) (delay * bucketCount / period)]++;
+    }
+    for (int count : buckets) {
+      int expected = keyCount / bucketCount;
+      assertTrue("Uneven spread: " + count, Math.abs(count - expected) <= expected / 10);
+    }
+  }
+
+  @Test
+  public void cancelledTaskStopsRunning() throws InterruptedException {
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch ranTwice = new CountDownLatch(2);
+    ScheduledFuture<?> task = Scheduler.scheduleAtFixedRate(() -> {
+      runs.incrementAndGet();
+      ranTwice.countDown();
+      throw new IllegalStateException("A failing run must not cancel the task");
+    }, 0, 10);
+    assertTrue(ranTwice.await(5, TimeUnit.SECONDS));
+    task.cancel(false);
+    int runsWhenCancelled = runs.get();
+    Thread.sleep(50);
+    assertTrue(runs.get() <= runsWhenCancelled + 1);
+    assertTrue(task.isCancelled());
+  }
+}